@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.base;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Throughput of {@link Splitter} and {@link Joiner} over strings with a given number of parts.
+ * Each split consumes every part, since splitting is lazy.
+ */
+@State(Scope.Benchmark)
+public class SplitterJoinerBenchmark {
+  @Param({"10", "100"})
+  int parts;
+
+  static final Splitter COMMA_SPLITTER = Splitter.on(',');
+  static final Splitter TRIMMING_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+  static final Splitter STRING_SPLITTER = Splitter.on(", ");
+  static final Splitter PATTERN_SPLITTER = Splitter.onPattern(",\\s*");
+  static final Joiner COMMA_JOINER = Joiner.on(',');
+  static final Joiner SKIPPING_JOINER = Joiner.on(',').skipNulls();
+  static final Joiner.MapJoiner MAP_JOINER = Joiner.on('&').withKeyValueSeparator("=");
+
+  String commaSeparated;
+  String spaced;
+  String padded;
+  List<String> list;
+  List<String> listWithNulls;
+  Map<String, String> map;
+
+  @Setup
+  public void setUp() {
+    list = Lists.newArrayList();
+    listWithNulls = Lists.newArrayList();
+    map = Maps.newLinkedHashMap();
+    for (int i = 0; i < parts; i++) {
+      String part = "part" + i;
+      list.add(part);
+      listWithNulls.add(part);
+      if (i % 4 == 0) {
+        listWithNulls.add(null);
+      }
+      map.put("key" + i, "value" + i);
+    }
+    commaSeparated = Joiner.on(',').join(list);
+    spaced = Joiner.on(", ").join(list);
+    padded = " " + Joiner.on(" , , ").join(list) + " ";
+  }
+
+  private static int consume(Iterable<String> parts) {
+    int length = 0;
+    for (String part : parts) {
+      length += part.length();
+    }
+    return length;
+  }
+
+  @Benchmark
+  public int splitOnChar() {
+    return consume(COMMA_SPLITTER.split(commaSeparated));
+  }
+
+  @Benchmark
+  public int splitTrimmingAndOmittingEmpty() {
+    return consume(TRIMMING_SPLITTER.split(padded));
+  }
+
+  @Benchmark
+  public int splitOnString() {
+    return consume(STRING_SPLITTER.split(spaced));
+  }
+
+  @Benchmark
+  public int splitOnPattern() {
+    return consume(PATTERN_SPLITTER.split(spaced));
+  }
+
+  @Benchmark
+  public String join() {
+    return COMMA_JOINER.join(list);
+  }
+
+  @Benchmark
+  public String joinSkippingNulls() {
+    return SKIPPING_JOINER.join(listWithNulls);
+  }
+
+  @Benchmark
+  public String joinMap() {
+    return MAP_JOINER.join(map);
+  }
+}
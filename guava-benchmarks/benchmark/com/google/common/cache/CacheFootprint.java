@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+
+/**
+ * Prints the memory used per entry by caches of various sizes and configurations, in the default
+ * and in the {@linkplain CacheBuilder#compactEntries compact} layout. The keys and values, which
+ * are shared by both layouts, are not counted. This is not a JMH benchmark; run it with
+ * "java -cp benchmarks.jar com.google.common.cache.CacheFootprint".
+ */
+public class CacheFootprint {
+  static final int[] SIZES = {1000, 100000};
+
+  public static void main(String[] args) {
+    System.out.printf("%-30s %8s %10s %10s%n", "configuration", "entries", "default", "compact");
+    for (int size : SIZES) {
+      print("unbounded", size, CacheBuilder.newBuilder());
+      print("maximumSize", size, CacheBuilder.newBuilder().maximumSize(size));
+      print("expireAfterWrite", size, CacheBuilder.newBuilder().expireAfterWrite(1, MINUTES));
+      print("maximumSize, expireAfterWrite", size,
+          CacheBuilder.newBuilder().maximumSize(size).expireAfterWrite(1, MINUTES));
+    }
+  }
+
+  static void print(String configuration, int size, CacheBuilder<Object, Object> builder) {
+    Integer[] keys = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = i;
+    }
+    double plain = bytesPerEntry(builder.<Integer, Integer>build(), keys);
+    double compact = bytesPerEntry(builder.compactEntries().<Integer, Integer>build(), keys);
+    System.out.printf("%-30s %8d %10.1f %10.1f%n", configuration, size, plain, compact);
+  }
+
+  /** Returns the bytes reachable from {@code cache} once it holds {@code keys}, per key. */
+  static double bytesPerEntry(Cache<Integer, Integer> cache, Integer[] keys) {
+    long empty = GraphLayout.parseInstance(cache).totalSize();
+    for (Integer key : keys) {
+      // each key is its own value, so that values take no extra space
+      cache.put(key, key);
+    }
+    long full = GraphLayout.parseInstance(cache).totalSize();
+    long shared = GraphLayout.parseInstance((Object) keys).totalSize() - VM.current().sizeOf(keys);
+    return (double) (full - empty - shared) / keys.length;
+  }
+}
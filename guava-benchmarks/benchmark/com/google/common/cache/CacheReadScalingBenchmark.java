@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.collect.Maps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how the throughput of cache hits scales with the number of reading threads. Every read
+ * of a size-bounded cache is recorded in the segment's read buffer for the LRU policy, so this is
+ * the benchmark to watch when changing how reads are buffered and drained; a
+ * {@link java.util.concurrent.ConcurrentHashMap} of the same contents is the upper bound.
+ *
+ * <p>JMH reports the combined throughput of all threads; ideally it grows linearly with the thread
+ * count, up to the number of available processors.
+ */
+@State(Scope.Benchmark)
+public class CacheReadScalingBenchmark {
+  static final int KEYS = 1 << 14;
+  static final int SAMPLES = 1 << 20;
+  static final int MASK = SAMPLES - 1;
+
+  @Param({"LocalCache", "ConcurrentHashMap"})
+  String implementation;
+
+  Map<Integer, Integer> map;
+  Integer[] keys;
+
+  /** Spreads each thread's starting position over the sample. */
+  final AtomicInteger threads = new AtomicInteger();
+
+  @Setup
+  public void setUp() {
+    if (implementation.equals("LocalCache")) {
+      // large enough to hold every key, so that every read is a hit
+      Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+          .maximumSize(2 * KEYS)
+          .build();
+      map = cache.asMap();
+    } else {
+      ConcurrentMap<Integer, Integer> concurrentMap = Maps.newConcurrentMap();
+      map = concurrentMap;
+    }
+    int[] sample = KeyDistribution.ZIPF.sample(KEYS, SAMPLES, 0);
+    keys = new Integer[SAMPLES];
+    for (int i = 0; i < SAMPLES; i++) {
+      keys[i] = sample[i];
+    }
+    for (int i = 0; i < KEYS; i++) {
+      map.put(i, i);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    int index;
+
+    @Setup
+    public void setUp(CacheReadScalingBenchmark benchmark) {
+      index = benchmark.threads.getAndIncrement() * (SAMPLES / 16);
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Integer read_1(ThreadState state) {
+    return map.get(keys[state.index++ & MASK]);
+  }
+
+  @Benchmark
+  @Threads(2)
+  public Integer read_2(ThreadState state) {
+    return map.get(keys[state.index++ & MASK]);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Integer read_4(ThreadState state) {
+    return map.get(keys[state.index++ & MASK]);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Integer read_8(ThreadState state) {
+    return map.get(keys[state.index++ & MASK]);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public Integer read_16(ThreadState state) {
+    return map.get(keys[state.index++ & MASK]);
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import java.util.Random;
+
+/**
+ * The distributions from which cache benchmarks draw their keys. Benchmarks precompute their keys
+ * so that generating them isn't part of the measurement.
+ */
+public enum KeyDistribution {
+  /** Every key is equally likely, so the hit ratio is roughly the cached fraction of the keys. */
+  UNIFORM {
+    @Override
+    int[] sample(int keys, int samples, long seed) {
+      Random random = new Random(seed);
+      int[] result = new int[samples];
+      for (int i = 0; i < samples; i++) {
+        result[i] = random.nextInt(keys);
+      }
+      return result;
+    }
+  },
+
+  /**
+   * A few keys are very popular and most are rarely requested: the probability of the key of rank
+   * {@code k} is proportional to {@code 1 / k^0.99}, as in the YCSB workloads.
+   */
+  ZIPF {
+    @Override
+    int[] sample(int keys, int samples, long seed) {
+      double[] cumulative = new double[keys];
+      double sum = 0;
+      for (int i = 0; i < keys; i++) {
+        sum += 1.0 / Math.pow(i + 1, 0.99);
+        cumulative[i] = sum;
+      }
+      Random random = new Random(seed);
+      int[] result = new int[samples];
+      for (int i = 0; i < samples; i++) {
+        double target = random.nextDouble() * sum;
+        int low = 0;
+        int high = keys - 1;
+        while (low < high) {
+          int mid = (low + high) >>> 1;
+          if (cumulative[mid] < target) {
+            low = mid + 1;
+          } else {
+            high = mid;
+          }
+        }
+        result[i] = low;
+      }
+      return result;
+    }
+  };
+
+  /** Returns {@code samples} keys in {@code [0, keys)} drawn from this distribution. */
+  abstract int[] sample(int keys, int samples, long seed);
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Single-threaded throughput of {@link LocalCache} reads and writes on a cache which holds a
+ * quarter of the key space, with keys drawn from a Zipf or a uniform distribution.
+ */
+@State(Scope.Benchmark)
+public class LocalCacheBenchmark {
+  static final int KEYS = 1 << 16;
+  static final int SAMPLES = 1 << 20;
+  static final int MASK = SAMPLES - 1;
+
+  @Param({"ZIPF", "UNIFORM"})
+  KeyDistribution distribution;
+
+  /** "compact" is bounded by maximumSize, with {@link CacheBuilder#compactEntries}. */
+  @Param({"maximumSize", "unbounded", "compact"})
+  String policy;
+
+  LoadingCache<Integer, Integer> cache;
+  Integer[] keys;
+  int index;
+
+  @Setup
+  public void setUp() {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+    if (policy.equals("maximumSize")) {
+      builder.maximumSize(KEYS / 4);
+    } else if (policy.equals("compact")) {
+      builder.maximumSize(KEYS / 4).compactEntries();
+    }
+    cache = builder.build(new CacheLoader<Integer, Integer>() {
+      @Override
+      public Integer load(Integer key) {
+        return key;
+      }
+    });
+
+    // boxed once up front, so that the benchmarks don't measure Integer.valueOf
+    int[] sample = distribution.sample(KEYS, SAMPLES, 0);
+    keys = new Integer[SAMPLES];
+    for (int i = 0; i < SAMPLES; i++) {
+      keys[i] = sample[i];
+    }
+    // warm the cache with a pass over the sample, so that the hit ratio is at its steady state
+    for (Integer key : keys) {
+      cache.getUnchecked(key);
+    }
+  }
+
+  /** A read-through lookup, which loads the key on a miss. */
+  @Benchmark
+  public Integer get() {
+    return cache.getUnchecked(keys[index++ & MASK]);
+  }
+
+  @Benchmark
+  public Integer getIfPresent() {
+    return cache.getIfPresent(keys[index++ & MASK]);
+  }
+
+  @Benchmark
+  public void put() {
+    Integer key = keys[index++ & MASK];
+    cache.put(key, key);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how the throughput of a mixed workload on a shared sorted multiset scales with the
+ * number of threads: each operation adds an occurrence of one element, removes an occurrence of
+ * another and counts a third, so the multiset stays about the same size. A {@link TreeMultiset}
+ * behind a single lock is the baseline for {@link ConcurrentSkipListMultiset}.
+ *
+ * <p>JMH reports the combined throughput of all threads; ideally it grows linearly with the thread
+ * count, up to the number of available processors.
+ */
+@State(Scope.Benchmark)
+public class ConcurrentSortedMultisetBenchmark {
+  static final int SAMPLES = 1 << 16;
+  static final int MASK = SAMPLES - 1;
+
+  @Param({"ConcurrentSkipListMultiset", "SynchronizedTreeMultiset"})
+  String implementation;
+
+  @Param({"1000", "100000"})
+  int distinct;
+
+  Multiset<Integer> multiset;
+  Integer[] elements;
+
+  /** Spreads each thread's starting position over the sample. */
+  final AtomicInteger threads = new AtomicInteger();
+
+  @Setup
+  public void setUp() {
+    if (implementation.equals("ConcurrentSkipListMultiset")) {
+      multiset = ConcurrentSkipListMultiset.create();
+    } else {
+      multiset = Synchronized.multiset(TreeMultiset.<Integer>create(), null);
+    }
+    Random random = new Random(0);
+    elements = new Integer[SAMPLES];
+    for (int i = 0; i < SAMPLES; i++) {
+      elements[i] = random.nextInt(distinct);
+    }
+    for (int i = 0; i < distinct; i++) {
+      multiset.add(i, 4);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    int index;
+
+    @Setup
+    public void setUp(ConcurrentSortedMultisetBenchmark benchmark) {
+      index = benchmark.threads.getAndIncrement() * (SAMPLES / 16);
+    }
+  }
+
+  int mixed(ThreadState state) {
+    multiset.add(elements[state.index++ & MASK]);
+    multiset.remove(elements[state.index++ & MASK]);
+    return multiset.count(elements[state.index++ & MASK]);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int mixed_1(ThreadState state) {
+    return mixed(state);
+  }
+
+  @Benchmark
+  @Threads(2)
+  public int mixed_2(ThreadState state) {
+    return mixed(state);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int mixed_4(ThreadState state) {
+    return mixed(state);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public int mixed_8(ThreadState state) {
+    return mixed(state);
+  }
+}
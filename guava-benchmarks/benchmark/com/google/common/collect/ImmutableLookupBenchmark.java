@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.Random;
+
+/**
+ * Lookup throughput of {@link ImmutableMap#get} and {@link ImmutableSet#contains}, for keys which
+ * are present and keys which are absent. The probes are distinct but equal copies of the keys, so
+ * that every hit pays for an {@code equals} call, as it would in practice. Run {@link #main} to
+ * print the bytes each entry adds to an {@code ImmutableMap} and each element adds to an
+ * {@code ImmutableSet}.
+ */
+@State(Scope.Benchmark)
+public class ImmutableLookupBenchmark {
+  static final int PROBES = 1 << 12;
+  static final int MASK = PROBES - 1;
+
+  @Param({"10", "1000", "100000"})
+  int size;
+
+  ImmutableMap<String, Integer> map;
+  ImmutableSet<String> set;
+  String[] present;
+  String[] absent;
+  int index;
+
+  @Setup
+  public void setUp() {
+    ImmutableMap.Builder<String, Integer> mapBuilder = ImmutableMap.builder();
+    ImmutableSet.Builder<String> setBuilder = ImmutableSet.builder();
+    for (int i = 0; i < size; i++) {
+      mapBuilder.put(key(i), i);
+      setBuilder.add(key(i));
+    }
+    map = mapBuilder.build();
+    set = setBuilder.build();
+
+    Random random = new Random(0);
+    present = new String[PROBES];
+    absent = new String[PROBES];
+    for (int i = 0; i < PROBES; i++) {
+      present[i] = key(random.nextInt(size));
+      absent[i] = key(size + random.nextInt(size));
+    }
+  }
+
+  private static String key(int i) {
+    return new String("key-" + i);
+  }
+
+  @Benchmark
+  public Integer mapGetHit() {
+    return map.get(present[index++ & MASK]);
+  }
+
+  @Benchmark
+  public Integer mapGetMiss() {
+    return map.get(absent[index++ & MASK]);
+  }
+
+  @Benchmark
+  public boolean setContainsHit() {
+    return set.contains(present[index++ & MASK]);
+  }
+
+  @Benchmark
+  public boolean setContainsMiss() {
+    return set.contains(absent[index++ & MASK]);
+  }
+
+  public static void main(String[] args) {
+    for (int size : new int[] {10, 1000, 100000}) {
+      String[] keys = new String[size];
+      Integer[] values = new Integer[size];
+      ImmutableMap.Builder<String, Integer> mapBuilder = ImmutableMap.builder();
+      ImmutableSet.Builder<String> setBuilder = ImmutableSet.builder();
+      for (int i = 0; i < size; i++) {
+        keys[i] = key(i);
+        values[i] = i;
+        mapBuilder.put(keys[i], values[i]);
+        setBuilder.add(keys[i]);
+      }
+      long shared = GraphLayout.parseInstance(keys, values).totalSize();
+      long map = GraphLayout.parseInstance(mapBuilder.build(), keys, values).totalSize();
+      long set = GraphLayout.parseInstance(setBuilder.build(), keys, values).totalSize();
+      System.out.printf("size=%-6d map %5.1f bytes per entry, set %5.1f bytes per element%n",
+          size, (double) (map - shared) / size, (double) (set - shared) / size);
+    }
+  }
+}
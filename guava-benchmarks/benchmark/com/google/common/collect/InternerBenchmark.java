@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+/**
+ * Throughput of interning strings which are already held, with the strong, weak and bounded
+ * interners, and of interning the UTF-8 encoding of a string, by first decoding it or by passing
+ * the bytes to a {@link StringInterner}. The probes are distinct but equal copies of the interned
+ * strings.
+ */
+@State(Scope.Benchmark)
+public class InternerBenchmark {
+  static final int PROBES = 1 << 12;
+  static final int MASK = PROBES - 1;
+
+  @Param({"1000", "100000"})
+  int size;
+
+  Interner<String> strong;
+  Interner<String> weak;
+  Interner<String> bounded;
+  StringInterner stringInterner;
+  String[] strings;
+  byte[][] bytes;
+  int index;
+
+  @Setup
+  public void setUp() throws UnsupportedEncodingException {
+    strong = Interners.newStrongInterner();
+    weak = Interners.newWeakInterner();
+    // the table size is rounded down to a power of two, and each string may only be held in one
+    // of four slots, so leave enough room for few strings to be evicted
+    bounded = Interners.newBoundedInterner(4 * size);
+    stringInterner = Interners.newStringInterner(4 * size);
+    for (int i = 0; i < size; i++) {
+      String string = "field-value-" + i;
+      strong.intern(string);
+      weak.intern(string);
+      bounded.intern(string);
+      stringInterner.intern(string);
+    }
+
+    Random random = new Random(0);
+    strings = new String[PROBES];
+    bytes = new byte[PROBES][];
+    for (int i = 0; i < PROBES; i++) {
+      strings[i] = new String("field-value-" + random.nextInt(size));
+      bytes[i] = strings[i].getBytes("UTF-8");
+    }
+  }
+
+  @Benchmark
+  public String strong() {
+    return strong.intern(strings[index++ & MASK]);
+  }
+
+  @Benchmark
+  public String weak() {
+    return weak.intern(strings[index++ & MASK]);
+  }
+
+  @Benchmark
+  public String bounded() {
+    return bounded.intern(strings[index++ & MASK]);
+  }
+
+  @Benchmark
+  public String weakDecodingBytes() throws UnsupportedEncodingException {
+    return weak.intern(new String(bytes[index++ & MASK], "UTF-8"));
+  }
+
+  @Benchmark
+  public String stringInternerBytes() {
+    return stringInterner.intern(bytes[index++ & MASK]);
+  }
+}
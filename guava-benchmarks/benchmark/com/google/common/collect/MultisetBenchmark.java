@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.Random;
+
+/**
+ * Throughput of counting words with {@link HashMultiset}, which keeps its counts in an array,
+ * and with {@link LinkedHashMultiset}, which keeps a count object per element in a map. The words
+ * are drawn from a vocabulary with a Zipf distribution, as in a histogram of natural text. Run
+ * {@link #main} to print the bytes each distinct element adds to the multisets.
+ */
+@State(Scope.Benchmark)
+public class MultisetBenchmark {
+  static final int PROBES = 1 << 16;
+  static final int MASK = PROBES - 1;
+
+  public enum Implementation {
+    HASH {
+      @Override Multiset<String> create() {
+        return HashMultiset.create();
+      }
+    },
+    LINKED_HASH {
+      @Override Multiset<String> create() {
+        return LinkedHashMultiset.create();
+      }
+    };
+
+    abstract Multiset<String> create();
+  }
+
+  @Param({"1000", "100000"})
+  int vocabulary;
+
+  @Param
+  Implementation implementation;
+
+  Multiset<String> multiset;
+  String[] words;
+  int index;
+
+  @Setup
+  public void setUp() {
+    String[] vocabularyWords = new String[vocabulary];
+    double[] cumulative = new double[vocabulary];
+    double total = 0;
+    for (int i = 0; i < vocabulary; i++) {
+      vocabularyWords[i] = "word" + i;
+      total += 1.0 / (i + 1);
+      cumulative[i] = total;
+    }
+    Random random = new Random(0);
+    words = new String[PROBES];
+    for (int i = 0; i < PROBES; i++) {
+      double target = random.nextDouble() * total;
+      int low = 0;
+      int high = vocabulary - 1;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (cumulative[mid] < target) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      words[i] = vocabularyWords[low];
+    }
+    multiset = implementation.create();
+    for (String word : vocabularyWords) {
+      multiset.add(word);
+    }
+  }
+
+  @Benchmark
+  public int add() {
+    return multiset.add(words[index++ & MASK], 1);
+  }
+
+  @Benchmark
+  public int count() {
+    return multiset.count(words[index++ & MASK]);
+  }
+
+  public static void main(String[] args) {
+    int size = 100000;
+    String[] elements = new String[size];
+    for (int i = 0; i < size; i++) {
+      elements[i] = "word" + i;
+    }
+    long shared = GraphLayout.parseInstance((Object) elements).totalSize();
+    for (Implementation implementation : Implementation.values()) {
+      Multiset<String> multiset = implementation.create();
+      for (String element : elements) {
+        multiset.add(element, 3);
+      }
+      long total = GraphLayout.parseInstance(multiset, elements).totalSize();
+      System.out.printf("%-12s %6.1f bytes per distinct element%n",
+          implementation, (double) (total - shared) / size);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of deriving a map with one more entry, and of looking keys up, for {@link PersistentHashMap}
+ * and for {@link ImmutableMap} rebuilt through its builder.
+ */
+@State(Scope.Benchmark)
+public class PersistentMapBenchmark {
+  static final int PROBES = 1 << 10;
+  static final int MASK = PROBES - 1;
+
+  @Param({"10", "1000", "100000"})
+  int size;
+
+  ImmutableMap<Integer, Integer> immutableMap;
+  PersistentHashMap<Integer, Integer> persistentMap;
+  int index;
+
+  @Setup
+  public void setUp() {
+    ImmutableMap.Builder<Integer, Integer> builder = ImmutableMap.builder();
+    PersistentHashMap<Integer, Integer> map = PersistentHashMap.of();
+    for (int i = 0; i < size; i++) {
+      builder.put(i, i);
+      map = map.with(i, i);
+    }
+    immutableMap = builder.build();
+    persistentMap = map;
+  }
+
+  private Integer nextKey() {
+    return (index++ & MASK) + size;
+  }
+
+  @Benchmark
+  public ImmutableMap<Integer, Integer> immutableWith() {
+    Integer key = nextKey();
+    return ImmutableMap.<Integer, Integer>builder().putAll(immutableMap).put(key, key).build();
+  }
+
+  @Benchmark
+  public PersistentHashMap<Integer, Integer> persistentWith() {
+    Integer key = nextKey();
+    return persistentMap.with(key, key);
+  }
+
+  @Benchmark
+  public PersistentHashMap<Integer, Integer> persistentWithout() {
+    return persistentMap.without((index++ & MASK) % size);
+  }
+
+  @Benchmark
+  public Integer immutableGet() {
+    return immutableMap.get((index++ & MASK) % size);
+  }
+
+  @Benchmark
+  public Integer persistentGet() {
+    return persistentMap.get((index++ & MASK) % size);
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Point lookups against a set of disjoint ranges, as in IP-block matching: a linear scan of a
+ * {@code List<Range>}, {@link TreeRangeSet#rangeContaining} and
+ * {@link ImmutableRangeSet#rangeContaining}. About half of the probes miss.
+ */
+@State(Scope.Benchmark)
+public class RangeSetBenchmark {
+  static final int PROBES = 1 << 12;
+  static final int MASK = PROBES - 1;
+
+  public enum Impl {
+    LIST, TREE, IMMUTABLE
+  }
+
+  @Param({"10", "1000", "100000"})
+  int size;
+
+  @Param
+  Impl impl;
+
+  List<Range<Integer>> list;
+  RangeSet<Integer> rangeSet;
+  Integer[] probes;
+  int index;
+
+  @Setup
+  public void setUp() {
+    list = Lists.newArrayList();
+    TreeRangeSet<Integer> treeRangeSet = TreeRangeSet.create();
+    for (int i = 0; i < size; i++) {
+      Range<Integer> range = Ranges.closedOpen(4 * i, 4 * i + 2);
+      list.add(range);
+      treeRangeSet.add(range);
+    }
+    rangeSet = (impl == Impl.IMMUTABLE) ? ImmutableRangeSet.copyOf(treeRangeSet) : treeRangeSet;
+    Random random = new Random(0);
+    probes = new Integer[PROBES];
+    for (int i = 0; i < PROBES; i++) {
+      probes[i] = random.nextInt(4 * size);
+    }
+  }
+
+  @Benchmark
+  public Range<Integer> rangeContaining() {
+    Integer probe = probes[index++ & MASK];
+    if (impl == Impl.LIST) {
+      for (Range<Integer> range : list) {
+        if (range.contains(probe)) {
+          return range;
+        }
+      }
+      return null;
+    }
+    return rangeSet.rangeContaining(probe);
+  }
+}
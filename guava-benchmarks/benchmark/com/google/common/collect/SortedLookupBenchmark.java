@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Lookup throughput of {@link ImmutableSortedSet#contains}, {@link ImmutableSortedMap#get} and
+ * {@link ImmutableSortedSet#tailSet}, with and without a {@link SortedSearchIndex}. The keys are
+ * allocated in random order, so that neighbours in sorted order are not neighbours in memory, as
+ * for a set built from data that arrived unsorted.
+ */
+@State(Scope.Benchmark)
+public class SortedLookupBenchmark {
+  static final int PROBES = 1 << 12;
+  static final int MASK = PROBES - 1;
+
+  public enum Layout {
+    PLAIN, INDEXED
+  }
+
+  @Param({"1000", "100000", "1000000"})
+  int size;
+
+  @Param
+  Layout layout;
+
+  ImmutableSortedSet<String> set;
+  ImmutableSortedMap<String, Integer> map;
+  String[] probes;
+  int index;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    List<Integer> order = Lists.newArrayList();
+    for (int i = 0; i < size; i++) {
+      order.add(i);
+    }
+    Collections.shuffle(order, random);
+    String[] keys = new String[size];
+    for (int i : order) {
+      keys[i] = key(2 * i);
+    }
+
+    ImmutableList<String> elements = ImmutableList.copyOf(keys);
+    ImmutableSortedMap.Builder<String, Integer> builder = ImmutableSortedMap.naturalOrder();
+    for (int i = 0; i < size; i++) {
+      builder.put(keys[i], i);
+    }
+    ImmutableSortedMap<String, Integer> indexedMap = builder.build();
+    Ordering<String> natural = Ordering.natural();
+    if (layout == Layout.PLAIN) {
+      set = new RegularImmutableSortedSet<String>(elements, natural);
+      map = new ImmutableSortedMap<String, Integer>(indexedMap.entries, natural);
+    } else {
+      set = new RegularImmutableSortedSet<String>(
+          elements, natural, SortedSearchIndex.create(elements), 0);
+      map = indexedMap;
+    }
+
+    // half of the probes are present and half are absent
+    probes = new String[PROBES];
+    for (int i = 0; i < PROBES; i++) {
+      probes[i] = key(random.nextInt(2 * size));
+    }
+  }
+
+  private static String key(int i) {
+    return String.format("key-%08d", i);
+  }
+
+  @Benchmark
+  public boolean setContains() {
+    return set.contains(probes[index++ & MASK]);
+  }
+
+  @Benchmark
+  public Integer mapGet() {
+    return map.get(probes[index++ & MASK]);
+  }
+
+  @Benchmark
+  public int tailSet() {
+    return set.tailSet(probes[index++ & MASK]).size();
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Order-statistic queries on a {@link TreeMultiset} of latency-like samples: the k-th element by
+ * {@link TreeMultiset#select} and by iterating, and the 99th percentile by
+ * {@link TreeMultiset#percentile}.
+ */
+@State(Scope.Benchmark)
+public class TreeMultisetSelectBenchmark {
+  static final int PROBES = 1 << 10;
+  static final int MASK = PROBES - 1;
+
+  @Param({"1000", "100000"})
+  int size;
+
+  TreeMultiset<Integer> multiset;
+  int[] indexes;
+  int index;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    multiset = TreeMultiset.create();
+    for (int i = 0; i < size; i++) {
+      multiset.add((int) Math.abs(random.nextGaussian() * size));
+    }
+    indexes = new int[PROBES];
+    for (int i = 0; i < PROBES; i++) {
+      indexes[i] = random.nextInt(size);
+    }
+  }
+
+  @Benchmark
+  public Integer select() {
+    return multiset.select(indexes[index++ & MASK]);
+  }
+
+  @Benchmark
+  public Integer iterate() {
+    return Iterables.get(multiset, indexes[index++ & MASK]);
+  }
+
+  @Benchmark
+  public Integer percentile99() {
+    return multiset.percentile(99);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.hash;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of {@link BloomFilter#put} and {@link BloomFilter#mightContain}. Lookups are made
+ * both for elements which were inserted and for elements which weren't, since most misses are
+ * rejected after testing only a few bits.
+ */
+@State(Scope.Benchmark)
+public class BloomFilterBenchmark {
+  static final int PROBES = 1 << 16;
+  static final int MASK = PROBES - 1;
+
+  @Param({"10000", "1000000"})
+  int expectedInsertions;
+
+  @Param({"0.03", "0.001"})
+  double falsePositiveProbability;
+
+  BloomFilter<CharSequence> filter;
+  BloomFilter<CharSequence> emptyFilter;
+  String[] inserted;
+  String[] notInserted;
+  int index;
+
+  @Setup
+  public void setUp() {
+    filter = BloomFilter.create(
+        Funnels.stringFunnel(), expectedInsertions, falsePositiveProbability);
+    for (int i = 0; i < expectedInsertions; i++) {
+      filter.put(element(i));
+    }
+    inserted = new String[PROBES];
+    notInserted = new String[PROBES];
+    for (int i = 0; i < PROBES; i++) {
+      inserted[i] = element(i % expectedInsertions);
+      notInserted[i] = element(expectedInsertions + i);
+    }
+  }
+
+  /** Starts each iteration of {@link #put} with an empty filter, so that it doesn't saturate. */
+  @Setup(Level.Iteration)
+  public void resetEmptyFilter() {
+    emptyFilter = BloomFilter.create(
+        Funnels.stringFunnel(), expectedInsertions, falsePositiveProbability);
+  }
+
+  private static String element(int i) {
+    return "element-" + i;
+  }
+
+  @Benchmark
+  public void put() {
+    emptyFilter.put(notInserted[index++ & MASK]);
+  }
+
+  @Benchmark
+  public boolean mightContainHit() {
+    return filter.mightContain(inserted[index++ & MASK]);
+  }
+
+  @Benchmark
+  public boolean mightContainMiss() {
+    return filter.mightContain(notInserted[index++ & MASK]);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.hash;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Throughput of the Murmur3 hash functions over byte arrays of various lengths, and over the
+ * primitive and string inputs that hash-based data structures typically feed them.
+ */
+@State(Scope.Benchmark)
+public class Murmur3Benchmark {
+  @Param({"8", "64", "1024", "16384"})
+  int length;
+
+  final HashFunction murmur3_32 = Hashing.murmur3_32();
+  final HashFunction murmur3_128 = Hashing.murmur3_128();
+  byte[] bytes;
+  String string;
+  long value;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    bytes = new byte[length];
+    random.nextBytes(bytes);
+    char[] chars = new char[length / 2];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = (char) ('a' + random.nextInt(26));
+    }
+    string = new String(chars);
+    value = random.nextLong();
+  }
+
+  @Benchmark
+  public HashCode murmur3_32_bytes() {
+    return murmur3_32.hashBytes(bytes);
+  }
+
+  @Benchmark
+  public HashCode murmur3_128_bytes() {
+    return murmur3_128.hashBytes(bytes);
+  }
+
+  /** Hashes a string of {@code length} bytes, that is {@code length / 2} chars. */
+  @Benchmark
+  public HashCode murmur3_128_string() {
+    return murmur3_128.hashString(string);
+  }
+
+  @Benchmark
+  public HashCode murmur3_128_streaming() {
+    return murmur3_128.newHasher().putBytes(bytes).putLong(value).hash();
+  }
+
+  @Benchmark
+  public HashCode murmur3_32_long() {
+    return murmur3_32.hashLong(value++);
+  }
+
+  @Benchmark
+  public HashCode murmur3_128_long() {
+    return murmur3_128.hashLong(value++);
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.util.concurrent;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cost of chains of {@link Futures#transform} calls: one chain built on a future which is already
+ * done, whose transformations run as they are added, and one built on a pending future, whose
+ * transformations run as listeners when it is set.
+ */
+@State(Scope.Benchmark)
+public class FuturesTransformBenchmark {
+  @Param({"1", "10", "100"})
+  int depth;
+
+  static final Function<Integer, Integer> INCREMENT = new Function<Integer, Integer>() {
+    @Override
+    public Integer apply(Integer input) {
+      return input + 1;
+    }
+  };
+
+  @Benchmark
+  public Integer chainOnDoneFuture() throws ExecutionException, InterruptedException {
+    ListenableFuture<Integer> future = Futures.immediateFuture(0);
+    for (int i = 0; i < depth; i++) {
+      future = Futures.transform(future, INCREMENT);
+    }
+    return future.get();
+  }
+
+  @Benchmark
+  public Integer chainOnPendingFuture() throws ExecutionException, InterruptedException {
+    SettableFuture<Integer> head = SettableFuture.create();
+    ListenableFuture<Integer> future = head;
+    for (int i = 0; i < depth; i++) {
+      future = Futures.transform(future, INCREMENT);
+    }
+    head.set(0);
+    return future.get();
+  }
+
+  /** Many transformations of the same pending future, which fan out rather than chain. */
+  @Benchmark
+  public int fanOutOnPendingFuture() throws ExecutionException, InterruptedException {
+    SettableFuture<Integer> head = SettableFuture.create();
+    List<ListenableFuture<Integer>> futures = Lists.newArrayListWithCapacity(depth);
+    for (int i = 0; i < depth; i++) {
+      futures.add(Futures.transform(head, INCREMENT));
+    }
+    head.set(0);
+    int sum = 0;
+    for (ListenableFuture<Integer> future : futures) {
+      sum += future.get();
+    }
+    return sum;
+  }
+}
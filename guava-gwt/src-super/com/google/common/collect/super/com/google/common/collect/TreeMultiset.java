@@ -17,6 +17,7 @@
 package com.google.common.collect;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.BstSide.LEFT;
@@ -26,9 +27,11 @@ import java.io.Serializable;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import javax.annotation.Nullable;
 
+import com.google.common.annotations.Beta;
 import com.google.common.annotations.GwtCompatible;
 import com.google.common.primitives.Ints;
 
@@ -186,6 +189,61 @@ public final class TreeMultiset<E> extends AbstractSortedMultiset<E>
     }
   }
 
+  /**
+   * Returns the number of elements in this multiset, counting multiplicities, that are strictly
+   * less than {@code element} according to {@link #comparator}. The element need not be present in
+   * this multiset. Takes {@code O(log n)} time, where {@code n} is the number of distinct elements.
+   * Like {@link #count}, accepts {@code null} if the comparator does.
+   *
+   * @since 12.0
+   */
+  @Beta
+  public int rank(@Nullable E element) {
+    Node<E> root = rootReference.get();
+    GeneralRange<E> below =
+        range.intersect(GeneralRange.upTo(comparator(), element, BoundType.OPEN));
+    return Ints.saturatedCast(BstRangeOps.totalInRange(sizeAggregate(), below, root));
+  }
+
+  /**
+   * Returns the element at position {@code index} of this multiset's iteration order, in which
+   * each element appears as many times as its count. Takes {@code O(log n)} time, where {@code n}
+   * is the number of distinct elements, rather than the {@code O(index)} time of iterating.
+   *
+   * @throws IndexOutOfBoundsException if {@code index} is negative or not less than {@link #size}
+   * @since 12.0
+   */
+  @Beta
+  public E select(int index) {
+    Node<E> root = rootReference.get();
+    checkElementIndex(
+        index, Ints.saturatedCast(BstRangeOps.totalInRange(sizeAggregate(), range, root)));
+    return BstRangeOps.select(sizeAggregate(), range, index, root).getKey();
+  }
+
+  /**
+   * Returns the {@code percent}-th percentile of this multiset, by the nearest-rank method: the
+   * least element {@code e} such that at least {@code percent} percent of the elements of this
+   * multiset are less than or equal to {@code e}. {@code percentile(0)} is the first element and
+   * {@code percentile(100)} the last. Takes {@code O(log n)} time, like {@link #select}.
+   *
+   * @throws IllegalArgumentException if {@code percent} is not between 0 and 100 inclusive
+   * @throws NoSuchElementException if this multiset is empty
+   * @since 12.0
+   */
+  @Beta
+  public E percentile(double percent) {
+    checkArgument(percent >= 0.0 && percent <= 100.0,
+        "percent (%s) must be between 0 and 100", percent);
+    int size = size();
+    if (size == 0) {
+      throw new NoSuchElementException();
+    }
+    // multiplying first keeps whole percentages of whole sizes exact
+    long rank = (long) Math.ceil(percent * size / 100.0);
+    return select((int) Math.max(Math.min(rank, size) - 1, 0));
+  }
+
   private int mutate(@Nullable E e, MultisetModifier modifier) {
     BstMutationRule<E, Node<E>> mutationRule = BstMutationRule.createRule(
         modifier,
@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache.testing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.base.Functions;
+import com.google.common.base.Splitter;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.EvictionPolicy;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.google.common.io.LineReader;
+import com.google.common.testing.FakeTicker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Replays a trace of key accesses against caches built from {@link CacheBuilder} configurations,
+ * to compare their hit rates, evictions and throughput before choosing the settings of a
+ * production cache. Each access is a {@link LoadingCache#getUnchecked} of the key, whose loader
+ * returns the key itself, so a miss is counted and the key is then cached as it would be by a
+ * read-through cache.
+ *
+ * <p>A trace is read from text with one access per line. A line either holds just the key, or
+ * the time of the access in milliseconds since the start of the trace followed by whitespace and
+ * the key; keys can't contain whitespace. In a timed trace the simulated caches read the time
+ * from a {@link FakeTicker} which follows the trace, so that expiration behaves as it would have
+ * in production. Blank lines and lines starting with {@code #} are ignored. For example:
+ * <pre>   {@code
+ *
+ *   CacheSimulator simulator = new CacheSimulator(Trace.read(new File("accesses.txt")));
+ *   Result lru = simulator.simulate("lru", CacheBuilder.newBuilder().maximumSize(10000));
+ *   Result lfu = simulator.simulate("tinyLfu", CacheBuilder.newBuilder()
+ *       .maximumSize(10000)
+ *       .evictionPolicy(EvictionPolicy.TINY_LFU));}</pre>
+ *
+ * <p>The simulator can also be run from the command line, with the trace file followed by one or
+ * more configurations in the form accepted by {@link #parseConfiguration}: <pre>   {@code
+ *
+ *   java com.google.common.cache.testing.CacheSimulator accesses.txt \
+ *       maximumSize=10000 maximumSize=10000,evictionPolicy=TINY_LFU}</pre>
+ *
+ * <p>The trace is replayed on a single thread. The throughput is only meaningful for comparing
+ * configurations with each other on the same machine, and includes the cost of the trivial loads.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class CacheSimulator {
+  private final Trace trace;
+
+  /** Creates a simulator which replays {@code trace}. */
+  public CacheSimulator(Trace trace) {
+    this.trace = checkNotNull(trace);
+  }
+
+  /**
+   * Replays the trace against a new cache built by {@code builder}, and returns the results under
+   * {@code name}. If the trace is timed, the builder's {@linkplain CacheBuilder#ticker ticker} is
+   * set to one which follows the trace, so it must not have been set already, and each timed
+   * simulation needs a builder of its own.
+   *
+   * @throws IllegalStateException if the trace is timed and the builder already has a ticker
+   */
+  public Result simulate(String name, CacheBuilder<Object, Object> builder) {
+    checkNotNull(name);
+    FakeTicker ticker = new FakeTicker();
+    if (trace.isTimed()) {
+      builder.ticker(ticker);
+    }
+    LoadingCache<Object, Object> cache =
+        builder.build(CacheLoader.from(Functions.<Object>identity()));
+
+    Object[] keys = trace.keys;
+    long[] times = trace.times;
+    long now = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < keys.length; i++) {
+      if (times != null) {
+        ticker.advance(times[i] - now);
+        now = times[i];
+      }
+      cache.getUnchecked(keys[i]);
+    }
+    long elapsedNanos = System.nanoTime() - start;
+    return new Result(name, cache.stats(), cache.size(), elapsedNanos);
+  }
+
+  /**
+   * Returns a new builder with the settings of {@code configuration}, a comma-separated list of
+   * settings in one of the forms:
+   *
+   * <ul>
+   * <li>{@code initialCapacity=}<i>n</i>, {@code concurrencyLevel=}<i>n</i>,
+   *     {@code maximumSize=}<i>n</i> or {@code globalEviction=}<i>n</i>
+   * <li>{@code expireAfterWrite=}<i>duration</i> or {@code expireAfterAccess=}<i>duration</i>,
+   *     where the duration is a number followed by one of the units {@code d}, {@code h},
+   *     {@code m}, {@code s} or {@code ms}, such as {@code 10m}
+   * <li>{@code evictionPolicy=}<i>name</i>, such as {@code evictionPolicy=TINY_LFU}
+   * <li>{@code compactEntries}
+   * </ul>
+   *
+   * @throws IllegalArgumentException if a setting is malformed or unknown
+   * @throws IllegalStateException if a setting is repeated, or the settings can't be combined
+   */
+  public static CacheBuilder<Object, Object> parseConfiguration(String configuration) {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+    for (String setting : Splitter.on(',').trimResults().omitEmptyStrings().split(configuration)) {
+      int equals = setting.indexOf('=');
+      String name = (equals < 0) ? setting : setting.substring(0, equals).trim();
+      String value = (equals < 0) ? null : setting.substring(equals + 1).trim();
+      if (name.equals("compactEntries")) {
+        checkArgument(value == null, "compactEntries does not take a value");
+        builder.compactEntries();
+        continue;
+      }
+      checkArgument(value != null, "setting %s requires a value", name);
+      if (name.equals("initialCapacity")) {
+        builder.initialCapacity(parseInt(name, value));
+      } else if (name.equals("concurrencyLevel")) {
+        builder.concurrencyLevel(parseInt(name, value));
+      } else if (name.equals("maximumSize")) {
+        builder.maximumSize(parseLong(name, value));
+      } else if (name.equals("globalEviction")) {
+        builder.globalEviction(parseInt(name, value));
+      } else if (name.equals("expireAfterWrite")) {
+        builder.expireAfterWrite(parseDurationNanos(name, value), TimeUnit.NANOSECONDS);
+      } else if (name.equals("expireAfterAccess")) {
+        builder.expireAfterAccess(parseDurationNanos(name, value), TimeUnit.NANOSECONDS);
+      } else if (name.equals("evictionPolicy")) {
+        try {
+          builder.evictionPolicy(EvictionPolicy.valueOf(value));
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException("unknown eviction policy " + value);
+        }
+      } else {
+        throw new IllegalArgumentException("unknown setting " + name);
+      }
+    }
+    return builder;
+  }
+
+  private static int parseInt(String name, String value) {
+    long parsed = parseLong(name, value);
+    checkArgument(parsed <= Integer.MAX_VALUE, "value of %s is too large: %s", name, value);
+    return (int) parsed;
+  }
+
+  private static long parseLong(String name, String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("value of " + name + " is not a number: " + value);
+    }
+  }
+
+  private static long parseDurationNanos(String name, String value) {
+    long seconds;
+    if (value.endsWith("ms")) {
+      return TimeUnit.MILLISECONDS.toNanos(
+          parseLong(name, value.substring(0, value.length() - 2)));
+    } else if (value.endsWith("d")) {
+      seconds = 24 * 60 * 60;
+    } else if (value.endsWith("h")) {
+      seconds = 60 * 60;
+    } else if (value.endsWith("m")) {
+      seconds = 60;
+    } else if (value.endsWith("s")) {
+      seconds = 1;
+    } else {
+      throw new IllegalArgumentException("duration of " + name + " has no unit: " + value);
+    }
+    String amount = value.substring(0, value.length() - 1);
+    return TimeUnit.SECONDS.toNanos(parseLong(name, amount) * seconds);
+  }
+
+  /**
+   * Replays the trace in the file named by the first argument against each of the configurations
+   * given by the remaining arguments, and prints a table of the results.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: CacheSimulator <trace file> <configuration>...");
+      System.exit(1);
+    }
+    Trace trace = Trace.read(new File(args[0]));
+    CacheSimulator simulator = new CacheSimulator(trace);
+    // warm up the JIT, so that the first configuration's throughput isn't understated
+    simulator.simulate(args[1], parseConfiguration(args[1]));
+    System.out.println(Result.HEADER);
+    for (int i = 1; i < args.length; i++) {
+      System.out.println(simulator.simulate(args[i], parseConfiguration(args[i])));
+    }
+  }
+
+  /**
+   * An immutable sequence of key accesses, optionally with the time of each access.
+   */
+  public static final class Trace {
+    final Object[] keys;
+    @Nullable
+    final long[] times;
+
+    Trace(Object[] keys, @Nullable long[] times) {
+      this.keys = keys;
+      this.times = times;
+    }
+
+    /** Returns an untimed trace of accesses to {@code keys}, in order. */
+    public static Trace of(Iterable<?> keys) {
+      Object[] array = ImmutableList.copyOf(keys).toArray();
+      return new Trace(array, null);
+    }
+
+    /** Reads a trace from {@code file}, which is encoded in UTF-8. */
+    public static Trace read(File file) throws IOException {
+      Reader reader = Files.newReader(file, Charsets.UTF_8);
+      try {
+        return read(reader);
+      } finally {
+        reader.close();
+      }
+    }
+
+    /**
+     * Reads a trace from {@code readable}, which is not closed.
+     *
+     * @throws IllegalArgumentException if only some of the accesses are timed, or the times are
+     *     negative or decrease
+     */
+    public static Trace read(Readable readable) throws IOException {
+      LineReader lines = new LineReader(readable);
+      List<Object> keys = Lists.newArrayList();
+      List<Long> times = Lists.newArrayList();
+      long previous = 0;
+      int lineNumber = 0;
+      String line;
+      while ((line = lines.readLine()) != null) {
+        lineNumber++;
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+        Iterator<String> tokens = WHITESPACE.split(line).iterator();
+        String first = tokens.next();
+        if (!tokens.hasNext()) {
+          checkArgument(times.isEmpty(), "line %s has no time", lineNumber);
+          keys.add(first);
+          continue;
+        }
+        String key = tokens.next();
+        checkArgument(!tokens.hasNext(), "line %s has more than a time and a key", lineNumber);
+        checkArgument(times.size() == keys.size(), "line %s has a time", lineNumber);
+        long time;
+        try {
+          time = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(first));
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("line " + lineNumber + " has a malformed time");
+        }
+        checkArgument(time >= previous, "time of line %s is before the previous time", lineNumber);
+        previous = time;
+        times.add(time);
+        keys.add(key);
+      }
+      long[] timeArray = null;
+      if (!times.isEmpty()) {
+        timeArray = new long[times.size()];
+        for (int i = 0; i < timeArray.length; i++) {
+          timeArray[i] = times.get(i);
+        }
+      }
+      return new Trace(keys.toArray(), timeArray);
+    }
+
+    private static final Splitter WHITESPACE =
+        Splitter.on(CharMatcher.WHITESPACE).omitEmptyStrings();
+
+    /** Returns the number of accesses in this trace. */
+    public int size() {
+      return keys.length;
+    }
+
+    /** Returns whether each access of this trace has a time. */
+    public boolean isTimed() {
+      return times != null;
+    }
+  }
+
+  /**
+   * The outcome of replaying a trace against one cache configuration.
+   */
+  public static final class Result {
+    static final String HEADER = String.format("%-40s %10s %8s %10s %10s %12s",
+        "configuration", "requests", "hit rate", "evictions", "size", "requests/s");
+
+    private final String name;
+    private final CacheStats stats;
+    private final long size;
+    private final long elapsedNanos;
+
+    Result(String name, CacheStats stats, long size, long elapsedNanos) {
+      this.name = name;
+      this.stats = stats;
+      this.size = size;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /** Returns the name of the configuration. */
+    public String name() {
+      return name;
+    }
+
+    /** Returns the statistics of the cache after the replay. */
+    public CacheStats stats() {
+      return stats;
+    }
+
+    /** Returns the ratio of accesses which found their key in the cache. */
+    public double hitRate() {
+      return stats.hitRate();
+    }
+
+    /**
+     * Returns the number of entries the cache evicted, whether because of its size or because they
+     * expired, as counted by {@link CacheStats#evictionCount}.
+     */
+    public long evictionCount() {
+      return stats.evictionCount();
+    }
+
+    /** Returns the number of entries in the cache at the end of the replay. */
+    public long size() {
+      return size;
+    }
+
+    /** Returns the time the replay took, in nanoseconds. */
+    public long elapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /** Returns the number of accesses replayed per second. */
+    public double throughput() {
+      return stats.requestCount() * 1e9 / Math.max(1, elapsedNanos);
+    }
+
+    /** Returns a line of the table printed by {@link CacheSimulator#main}. */
+    @Override
+    public String toString() {
+      return String.format("%-40s %10d %8.4f %10d %10d %12.0f",
+          name, stats.requestCount(), hitRate(), evictionCount(), size, throughput());
+    }
+  }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.TestingCacheLoaders.constantLoader;
+import static com.google.common.cache.TestingCacheLoaders.exceptionLoader;
+import static com.google.common.cache.TestingCacheLoaders.identityLoader;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.TestingCacheLoaders.CountingLoader;
+import com.google.common.cache.TestingCacheLoaders.IncrementingLoader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.testing.FakeTicker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Tests for {@link CacheBuilder#buildAsync}.
+ */
+public class AsyncLoadingCacheTest extends TestCase {
+
+  /** An executor which only runs its tasks when asked to. */
+  static class QueueingExecutor implements Executor {
+    final List<Runnable> tasks = Lists.newArrayList();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+  }
+
+  QueueingExecutor executor;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    executor = new QueueingExecutor();
+  }
+
+  public void testGet_loadsOnExecutor() throws Exception {
+    CountingLoader loader = new CountingLoader();
+    AsyncLoadingCache<Object, Object> cache =
+        CacheBuilder.newBuilder().buildAsync(loader, executor);
+
+    Object key = new Object();
+    ListenableFuture<Object> future = cache.get(key);
+    assertFalse(future.isDone());
+    assertEquals(0, loader.getCount());
+    assertEquals(1, executor.tasks.size());
+
+    executor.runAll();
+    assertTrue(future.isDone());
+    assertEquals(1, loader.getCount());
+    Object value = future.get();
+    assertNotNull(value);
+
+    ListenableFuture<Object> hit = cache.get(key);
+    assertTrue(hit.isDone());
+    assertSame(value, hit.get());
+    assertTrue(executor.tasks.isEmpty());
+
+    CacheStats stats = cache.synchronous().stats();
+    assertEquals(1, stats.missCount());
+    assertEquals(1, stats.hitCount());
+    assertEquals(1, stats.loadSuccessCount());
+  }
+
+  public void testGet_concurrentRequestsShareLoad() throws Exception {
+    CountingLoader loader = new CountingLoader();
+    AsyncLoadingCache<Object, Object> cache =
+        CacheBuilder.newBuilder().buildAsync(loader, executor);
+
+    Object key = new Object();
+    ListenableFuture<Object> first = cache.get(key);
+    ListenableFuture<Object> second = cache.get(key);
+    ListenableFuture<Object> third = cache.get(key);
+    assertEquals(1, executor.tasks.size());
+
+    // cancelling one request doesn't affect the others
+    assertTrue(second.cancel(false));
+
+    executor.runAll();
+    assertEquals(1, loader.getCount());
+    assertSame(first.get(), third.get());
+    assertSame(first.get(), cache.synchronous().getIfPresent(key));
+
+    CacheStats stats = cache.synchronous().stats();
+    assertEquals(3, stats.missCount());
+    assertEquals(1, stats.loadSuccessCount());
+  }
+
+  public void testGet_loaderThrows() throws Exception {
+    IOException e = new IOException();
+    AsyncLoadingCache<Object, Object> cache =
+        CacheBuilder.newBuilder().buildAsync(exceptionLoader(e), executor);
+
+    ListenableFuture<Object> future = cache.get(1);
+    executor.runAll();
+    try {
+      future.get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertSame(e, expected.getCause());
+    }
+    assertNull(cache.synchronous().getIfPresent(1));
+    assertEquals(1, cache.synchronous().stats().loadExceptionCount());
+
+    // a subsequent request loads again
+    cache.get(1);
+    assertEquals(1, executor.tasks.size());
+  }
+
+  public void testGet_loaderReturnsNull() throws Exception {
+    AsyncLoadingCache<Object, Object> cache =
+        CacheBuilder.newBuilder().buildAsync(constantLoader(null), executor);
+
+    ListenableFuture<Object> first = cache.get(1);
+    ListenableFuture<Object> second = cache.get(1);
+    executor.runAll();
+    for (ListenableFuture<Object> future : ImmutableList.of(first, second)) {
+      try {
+        future.get();
+        fail();
+      } catch (ExecutionException expected) {
+        assertTrue(expected.getCause() instanceof InvalidCacheLoadException);
+      }
+    }
+    assertEquals(0, cache.synchronous().size());
+  }
+
+  public void testGet_executorRejects() throws Exception {
+    Executor rejecting = new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        throw new RejectedExecutionException();
+      }
+    };
+    AsyncLoadingCache<Object, Object> cache =
+        CacheBuilder.newBuilder().buildAsync(identityLoader(), rejecting);
+
+    ListenableFuture<Object> future = cache.get(1);
+    assertTrue(future.isDone());
+    try {
+      future.get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof RejectedExecutionException);
+    }
+    assertEquals(0, cache.synchronous().size());
+  }
+
+  public void testGet_putDuringLoad() throws Exception {
+    AsyncLoadingCache<Object, Object> cache =
+        CacheBuilder.newBuilder().buildAsync(identityLoader(), executor);
+
+    ListenableFuture<Object> future = cache.get(1);
+    cache.synchronous().put(1, 2);
+    assertTrue(future.isDone());
+    assertEquals(2, future.get());
+  }
+
+  public void testGetIfPresent() throws Exception {
+    AsyncLoadingCache<Object, Object> cache =
+        CacheBuilder.newBuilder().buildAsync(identityLoader(), executor);
+
+    assertNull(cache.getIfPresent(1));
+    assertTrue(executor.tasks.isEmpty());
+
+    cache.get(1);
+    ListenableFuture<Object> loading = cache.getIfPresent(1);
+    assertFalse(loading.isDone());
+    executor.runAll();
+    assertEquals(1, loading.get());
+
+    ListenableFuture<Object> present = cache.getIfPresent(1);
+    assertTrue(present.isDone());
+    assertEquals(1, present.get());
+  }
+
+  public void testGetAll() throws Exception {
+    AsyncLoadingCache<Object, Object> cache =
+        CacheBuilder.newBuilder().buildAsync(identityLoader(), executor);
+    cache.synchronous().put(2, 2);
+
+    ListenableFuture<ImmutableMap<Object, Object>> future =
+        cache.getAll(ImmutableList.<Object>of(3, 2, 1, 3));
+    assertFalse(future.isDone());
+    assertEquals(2, executor.tasks.size());
+
+    executor.runAll();
+    ImmutableMap<Object, Object> result = future.get();
+    assertEquals(ImmutableMap.of(3, 3, 2, 2, 1, 1), result);
+    assertEquals(ImmutableList.of(3, 2, 1), ImmutableList.copyOf(result.keySet()));
+  }
+
+  public void testGetAll_failure() throws Exception {
+    IOException e = new IOException();
+    AsyncLoadingCache<Object, Object> cache =
+        CacheBuilder.newBuilder().buildAsync(exceptionLoader(e), executor);
+    cache.synchronous().put(1, 1);
+
+    ListenableFuture<ImmutableMap<Object, Object>> future =
+        cache.getAll(ImmutableList.<Object>of(1, 2));
+    executor.runAll();
+    try {
+      future.get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertSame(e, expected.getCause());
+    }
+  }
+
+  public void testRefresh_onExecutor() throws Exception {
+    FakeTicker ticker = new FakeTicker();
+    IncrementingLoader loader = new IncrementingLoader();
+    AsyncLoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(1, MILLISECONDS)
+        .ticker(ticker)
+        .buildAsync(loader, executor);
+
+    cache.get(1);
+    executor.runAll();
+    ticker.advance(2, MILLISECONDS);
+
+    // the stale value is returned while the refresh waits for the executor
+    assertEquals(1, (int) cache.get(1).get());
+    assertEquals(1, (int) cache.get(1).get());
+    assertEquals(0, loader.getReloadCount());
+    assertEquals(1, executor.tasks.size());
+
+    executor.runAll();
+    assertEquals(1, loader.getReloadCount());
+    assertEquals(2, (int) cache.get(1).get());
+  }
+
+  public void testRefresh_coalescedOnExecutor() throws Exception {
+    FakeTicker ticker = new FakeTicker();
+    IncrementingLoader loader = new IncrementingLoader();
+    AsyncLoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(1, MILLISECONDS)
+        .coalesceRefreshes(2, 1000, MILLISECONDS)
+        .ticker(ticker)
+        .buildAsync(loader, executor);
+
+    cache.get(1);
+    cache.get(2);
+    executor.runAll();
+    ticker.advance(2, MILLISECONDS);
+
+    assertEquals(1, (int) cache.get(1).get());
+    assertTrue(executor.tasks.isEmpty());
+    assertEquals(2, (int) cache.get(2).get());
+    assertEquals(1, executor.tasks.size());
+
+    executor.runAll();
+    assertEquals(2, loader.getReloadCount());
+    assertEquals(2, (int) cache.get(1).get());
+    assertEquals(3, (int) cache.get(2).get());
+  }
+
+  public void testSynchronous() throws Exception {
+    AsyncLoadingCache<Object, Object> cache =
+        CacheBuilder.newBuilder().buildAsync(identityLoader(), executor);
+    LoadingCache<Object, Object> synchronous = cache.synchronous();
+    assertSame(synchronous, cache.synchronous());
+
+    // synchronous loads happen on the calling thread
+    assertEquals(1, synchronous.get(1));
+    assertTrue(executor.tasks.isEmpty());
+    assertTrue(cache.get(1).isDone());
+
+    synchronous.invalidate(1);
+    assertNull(cache.getIfPresent(1));
+  }
+
+  public void testBuildAsync_sameThreadExecutor() throws Exception {
+    AsyncLoadingCache<Object, Object> cache = CacheBuilder.newBuilder()
+        .maximumSize(10)
+        .buildAsync(identityLoader(), MoreExecutors.sameThreadExecutor());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, cache.get(i).get());
+    }
+    assertEquals(10, cache.synchronous().size());
+  }
+}
@@ -32,14 +32,19 @@ import com.google.common.cache.TestingRemovalListeners.CountingRemovalListener;
 import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.InputSupplier;
 import com.google.common.testing.NullPointerTester;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import junit.framework.TestCase;
 
+import java.io.File;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -233,6 +238,178 @@ public class CacheBuilderTest extends TestCase {
   }
 
   @GwtIncompatible("weakKeys")
+  public void testEvictionPolicy_setTwice() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().evictionPolicy(EvictionPolicy.TINY_LFU);
+    try {
+      // even to the same value is not allowed
+      builder.evictionPolicy(EvictionPolicy.TINY_LFU);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  public void testEvictionPolicy_withoutMaximum() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>()
+        .evictionPolicy(EvictionPolicy.TINY_LFU);
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("globalEviction")
+  public void testGlobalEviction() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
+    try {
+      builder.globalEviction(0);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    builder.globalEviction(4);
+    try {
+      // even to the same value is not allowed
+      builder.globalEviction(4);
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+    builder.maximumSize(10).build(identityLoader());
+  }
+
+  @GwtIncompatible("compactEntries")
+  public void testCompactEntries() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>().compactEntries();
+    try {
+      builder.compactEntries();
+      fail();
+    } catch (IllegalStateException expected) {}
+    assertTrue(builder.maximumSize(10).build() instanceof CompactLocalCache.CompactManualCache);
+    assertTrue(builder.build(identityLoader()) instanceof CompactLocalCache.CompactLoadingCache);
+    try {
+      builder.buildAsync(identityLoader(), MoreExecutors.sameThreadExecutor());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("compactEntries")
+  public void testCompactEntries_unsupportedFeatures() {
+    try {
+      CacheBuilder.newBuilder().compactEntries().weakKeys().build();
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      CacheBuilder.newBuilder().compactEntries().softValues().build();
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      CacheBuilder.newBuilder().compactEntries().expireAfterAccess(1, SECONDS).build();
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      CacheBuilder.newBuilder().compactEntries().maximumWeight(10)
+          .weigher(constantWeigher(1)).build();
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      CacheBuilder.newBuilder().compactEntries().refreshAfterWrite(1, SECONDS)
+          .build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      CacheBuilder.newBuilder().compactEntries().maximumSize(10)
+          .evictionPolicy(EvictionPolicy.TINY_LFU).build();
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("offHeapValues")
+  public void testOffHeapValues_setTwice() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().offHeapValues(unusedCodec());
+    try {
+      builder.offHeapValues(unusedCodec());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("offHeapValues")
+  public void testOffHeapValues_withWeakValues() {
+    try {
+      new CacheBuilder<Object, Object>().weakValues().offHeapValues(unusedCodec());
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      new CacheBuilder<Object, Object>().offHeapValues(unusedCodec()).softValues();
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("offHeapValues")
+  public void testOffHeapValues_maximumWeightWithoutWeigher() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>()
+        .maximumWeight(1024)
+        .offHeapValues(unusedCodec());
+    assertTrue(builder.weighsValueBytes());
+    builder.build();
+  }
+
+  @GwtIncompatible("secondTier")
+  public void testSecondTier_setTwice() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>()
+        .secondTier(new File("unused"), 1024, unusedCodec());
+    try {
+      builder.secondTier(new File("unused"), 1024, unusedCodec());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("secondTier")
+  public void testSecondTier_badCapacity() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
+    try {
+      builder.secondTier(new File("unused"), 0, unusedCodec());
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      builder.secondTier(new File("unused"), Integer.MAX_VALUE + 1L, unusedCodec());
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  @GwtIncompatible("secondTier")
+  public void testSecondTier_requiresMaximum() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>()
+        .secondTier(new File("unused"), 1024, unusedCodec());
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalStateException expected) {}
+
+    builder = new CacheBuilder<Object, Object>()
+        .maximumSize(10)
+        .weakKeys()
+        .secondTier(new File("unused"), 1024, unusedCodec());
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  private static CacheCodec<Object> unusedCodec() {
+    return new CacheCodec<Object>() {
+      @Override
+      public byte[] encode(Object value) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Object decode(byte[] bytes) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
   public void testKeyStrengthSetTwice() {
     CacheBuilder<Object, Object> builder1 = new CacheBuilder<Object, Object>().weakKeys();
     try {
@@ -326,6 +503,74 @@ public class CacheBuilderTest extends TestCase {
     // well, it didn't blow up.
   }
 
+  private static Expiry<Object, Object> constantExpiry(final long duration) {
+    return new Expiry<Object, Object>() {
+      @Override
+      public long expireAfterCreate(Object key, Object value, long currentTime) {
+        return duration;
+      }
+
+      @Override
+      public long expireAfterUpdate(
+          Object key, Object value, long currentTime, long currentDuration) {
+        return duration;
+      }
+
+      @Override
+      public long expireAfterRead(
+          Object key, Object value, long currentTime, long currentDuration) {
+        return duration;
+      }
+    };
+  }
+
+  @GwtIncompatible("expireAfter")
+  public void testExpireAfter_setTwice() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().expireAfter(constantExpiry(1));
+    try {
+      builder.expireAfter(constantExpiry(1));
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("expireAfter")
+  public void testExpireAfter_fixedExpiration() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().expireAfter(constantExpiry(1));
+    try {
+      builder.expireAfterWrite(1, SECONDS);
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      builder.expireAfterAccess(1, SECONDS);
+      fail();
+    } catch (IllegalStateException expected) {}
+
+    try {
+      new CacheBuilder<Object, Object>()
+          .expireAfterWrite(1, SECONDS)
+          .expireAfter(constantExpiry(1));
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      new CacheBuilder<Object, Object>()
+          .expireAfterAccess(1, SECONDS)
+          .expireAfter(constantExpiry(1));
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("executor")
+  public void testExecutor_setTwice() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().executor(MoreExecutors.sameThreadExecutor());
+    try {
+      builder.executor(MoreExecutors.sameThreadExecutor());
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
   @GwtIncompatible("refreshAfterWrite")
   public void testRefresh_zero() {
     CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
@@ -346,6 +591,40 @@ public class CacheBuilderTest extends TestCase {
     } catch (IllegalStateException expected) {}
   }
 
+  @GwtIncompatible("coalesceRefreshes")
+  public void testCoalesceRefreshes_badArguments() {
+    CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
+    try {
+      builder.coalesceRefreshes(0, 1, SECONDS);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    try {
+      builder.coalesceRefreshes(10, -1, SECONDS);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  @GwtIncompatible("coalesceRefreshes")
+  public void testCoalesceRefreshes_setTwice() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().coalesceRefreshes(10, 1, SECONDS);
+    try {
+      builder.coalesceRefreshes(10, 1, SECONDS);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  @GwtIncompatible("coalesceRefreshes")
+  public void testCoalesceRefreshes_requiresRefresh() {
+    CacheBuilder<Object, Object> builder =
+        new CacheBuilder<Object, Object>().coalesceRefreshes(10, 0, SECONDS);
+    try {
+      builder.build(identityLoader());
+      fail();
+    } catch (IllegalStateException expected) {}
+    builder.refreshAfterWrite(1, SECONDS).build(identityLoader());
+  }
+
   @GwtIncompatible("ticker")
   public void testTicker_setTwice() {
     Ticker testTicker = Ticker.systemTicker();
@@ -604,6 +883,11 @@ public class CacheBuilderTest extends TestCase {
   @GwtIncompatible("NullPointerTester")
   public void testNullParameters() throws Exception {
     NullPointerTester tester = new NullPointerTester();
+    tester.setDefault(CacheLoader.class, identityLoader());
+    tester.setDefault(Executor.class, MoreExecutors.sameThreadExecutor());
+    tester.setDefault(File.class, new File("unused"));
+    tester.setDefault(CacheCodec.class, unusedCodec());
+    tester.setDefault(InputSupplier.class, ByteStreams.newInputStreamSupplier(new byte[0]));
     CacheBuilder<Object, Object> builder = new CacheBuilder<Object, Object>();
     tester.testAllPublicInstanceMethods(builder);
   }
@@ -16,6 +16,7 @@ package com.google.common.cache;
 
 import static com.google.common.cache.TestingCacheLoaders.identityLoader;
 import static com.google.common.cache.TestingRemovalListeners.countingRemovalListener;
+import static com.google.common.cache.TestingRemovalListeners.queuingRemovalListener;
 import static com.google.common.cache.TestingWeighers.constantWeigher;
 import static com.google.common.cache.TestingWeighers.intKeyWeigher;
 import static java.util.Arrays.asList;
@@ -25,6 +26,9 @@ import com.google.common.cache.CacheTesting.Receiver;
 import com.google.common.cache.LocalCache.ReferenceEntry;
 import com.google.common.cache.TestingCacheLoaders.IdentityLoader;
 import com.google.common.cache.TestingRemovalListeners.CountingRemovalListener;
+import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
+import com.google.common.collect.Lists;
+import com.google.common.testing.FakeTicker;
 
 import junit.framework.TestCase;
 
@@ -285,6 +289,193 @@ public class CacheEvictionTest extends TestCase {
     ASSERT.that(keySet).hasContentsAnyOrder(5, 6, 7, 8, 9, 10, 11, 12);
   }
 
+  public void testEviction_tinyLfu_maxSize() {
+    CountingRemovalListener<Integer, Integer> removalListener = countingRemovalListener();
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .maximumSize(MAX_SIZE)
+        .evictionPolicy(EvictionPolicy.TINY_LFU)
+        .removalListener(removalListener)
+        .build(loader);
+    for (int i = 0; i < 2 * MAX_SIZE; i++) {
+      cache.getUnchecked(i);
+      assertTrue(cache.size() <= MAX_SIZE);
+    }
+
+    assertEquals(MAX_SIZE, CacheTesting.accessQueueSize(cache));
+    assertEquals(MAX_SIZE, cache.size());
+    CacheTesting.processPendingNotifications(cache);
+    assertEquals(MAX_SIZE, removalListener.getCount());
+    CacheTesting.checkValidState(cache);
+  }
+
+  public void testEviction_tinyLfu_scanResistant() {
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(10)
+        .evictionPolicy(EvictionPolicy.TINY_LFU)
+        .build(loader);
+    CacheTesting.warmUp(cache, 0, 10);
+    for (int i = 0; i < 3; i++) {
+      getAll(cache, asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+    }
+    CacheTesting.drainRecencyQueues(cache);
+
+    // a scan of one-time accesses is not admitted at the expense of the popular entries
+    for (int i = 100; i < 200; i++) {
+      cache.getUnchecked(i);
+    }
+    CacheTesting.drainRecencyQueues(cache);
+    Set<Integer> keySet = cache.asMap().keySet();
+    ASSERT.that(keySet).hasContentsAnyOrder(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+    CacheTesting.checkValidState(cache);
+  }
+
+  public void testEviction_tinyLfu_admitsFrequent() {
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(10)
+        .evictionPolicy(EvictionPolicy.TINY_LFU)
+        .build(loader);
+    CacheTesting.warmUp(cache, 0, 10);
+    Set<Integer> keySet = cache.asMap().keySet();
+
+    // as frequent as the eldest entry, so rejected
+    cache.getUnchecked(10);
+    CacheTesting.drainRecencyQueues(cache);
+    ASSERT.that(keySet).hasContentsAnyOrder(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+
+    // more frequent than the eldest entry, so admitted in its place
+    cache.getUnchecked(10);
+    CacheTesting.drainRecencyQueues(cache);
+    ASSERT.that(keySet).hasContentsAnyOrder(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+    CacheTesting.checkValidState(cache);
+  }
+
+  public void testEviction_global_skewedKeys() {
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> perSegment = CacheBuilder.newBuilder()
+        .concurrencyLevel(4)
+        .maximumSize(40)
+        .build(loader);
+    LoadingCache<Integer, Integer> global = CacheBuilder.newBuilder()
+        .concurrencyLevel(4)
+        .maximumSize(40)
+        .globalEviction(4)
+        .build(loader);
+    List<Integer> keys = keysInFirstSegment(global, 40);
+    getAll(perSegment, keys);
+    getAll(global, keys);
+
+    // each segment holds only its share of the maximum size unless eviction is global
+    assertEquals(10, perSegment.size());
+    assertEquals(40, global.size());
+    ASSERT.that(global.asMap().keySet()).hasContentsAnyOrder(keys.toArray(new Integer[0]));
+
+    // the cache as a whole remains bounded
+    for (int i = 0; i < 2 * MAX_SIZE; i++) {
+      global.getUnchecked(i);
+      assertTrue(global.size() <= 40);
+    }
+    assertEquals(40, global.size());
+    CacheTesting.checkValidState(global);
+  }
+
+  public void testEviction_global_lru() {
+    // with every segment sampled, entries are evicted in least recently used order
+    FakeTicker ticker = new FakeTicker();
+    QueuingRemovalListener<Integer, Integer> listener = queuingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(4)
+        .maximumSize(10)
+        .globalEviction(4)
+        .ticker(ticker)
+        .removalListener(listener)
+        .build();
+    for (int i = 0; i < 10; i++) {
+      ticker.advance(1);
+      cache.put(i, i);
+    }
+    for (int i = 4; i >= 0; i--) {
+      ticker.advance(1);
+      cache.getIfPresent(i);
+    }
+    for (int i = 10; i < 15; i++) {
+      ticker.advance(1);
+      cache.put(i, i);
+    }
+
+    List<Integer> evicted = Lists.newArrayList();
+    for (RemovalNotification<Integer, Integer> notification : listener) {
+      assertEquals(RemovalCause.SIZE, notification.getCause());
+      evicted.add(notification.getKey());
+    }
+    assertEquals(asList(5, 6, 7, 8, 9), evicted);
+    ASSERT.that(cache.asMap().keySet()).hasContentsAnyOrder(0, 1, 2, 3, 4, 10, 11, 12, 13, 14);
+    CacheTesting.checkValidState(cache);
+  }
+
+  public void testEviction_global_weighted() {
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(4)
+        .maximumWeight(100)
+        .weigher(intKeyWeigher())
+        .globalEviction(2)
+        .build(loader);
+    for (int i = 0; i < 50; i++) {
+      cache.put(i, i);
+      assertTrue(weight(cache) <= 100);
+    }
+    // an entry which is heavier than the cache is evicted immediately
+    cache.put(101, 101);
+    assertNull(cache.getIfPresent(101));
+    assertTrue(weight(cache) <= 100);
+    cache.invalidateAll();
+    assertEquals(0, weight(cache));
+    CacheTesting.checkValidState(cache);
+  }
+
+  public void testEviction_global_tinyLfu() {
+    IdentityLoader<Integer> loader = identityLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(4)
+        .maximumSize(10)
+        .evictionPolicy(EvictionPolicy.TINY_LFU)
+        .globalEviction(4)
+        .build(loader);
+    CacheTesting.warmUp(cache, 0, 10);
+    for (int i = 0; i < 3; i++) {
+      getAll(cache, asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+    }
+    CacheTesting.drainRecencyQueues(cache);
+
+    // a scan of one-time accesses is not admitted at the expense of the popular entries
+    for (int i = 100; i < 200; i++) {
+      cache.getUnchecked(i);
+    }
+    Set<Integer> keySet = cache.asMap().keySet();
+    ASSERT.that(keySet).hasContentsAnyOrder(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+    CacheTesting.checkValidState(cache);
+  }
+
+  private static List<Integer> keysInFirstSegment(Cache<Integer, Integer> cache, int count) {
+    LocalCache<?, ?> map = CacheTesting.toLocalCache(cache);
+    List<Integer> keys = Lists.newArrayList();
+    for (int i = 0; keys.size() < count; i++) {
+      if (map.segmentFor(map.hash(i)) == map.segments[0]) {
+        keys.add(i);
+      }
+    }
+    return keys;
+  }
+
+  private static long weight(Cache<Integer, Integer> cache) {
+    return CacheTesting.toLocalCache(cache).globalWeight.get();
+  }
+
   private void getAll(LoadingCache<Integer, Integer> cache, List<Integer> keys) {
     for (int i : keys) {
       cache.getUnchecked(i);
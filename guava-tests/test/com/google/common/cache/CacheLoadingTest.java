@@ -49,9 +49,11 @@ import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.LogRecord;
 
@@ -1795,6 +1797,289 @@ public class CacheLoadingTest extends TestCase {
     }
   }
 
+  public void testBulkLoad_waitsForConcurrentLoad() throws Exception {
+    final CountDownLatch loadStarted = new CountDownLatch(1);
+    final CountDownLatch letLoadFinish = new CountDownLatch(1);
+    final CountDownLatch loadAllStarted = new CountDownLatch(1);
+    final AtomicInteger loadCount = new AtomicInteger();
+    final List<Iterable<? extends String>> loadAllKeys =
+        new CopyOnWriteArrayList<Iterable<? extends String>>();
+    CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+      @Override
+      public String load(String key) throws InterruptedException {
+        loadCount.incrementAndGet();
+        loadStarted.countDown();
+        letLoadFinish.await();
+        return key + "foo";
+      }
+
+      @Override
+      public Map<String, String> loadAll(Iterable<? extends String> keys) {
+        loadAllKeys.add(ImmutableList.copyOf(keys));
+        loadAllStarted.countDown();
+        Map<String, String> result = Maps.newHashMap();
+        for (String key : keys) {
+          result.put(key, key + "bar");
+        }
+        return result;
+      }
+    };
+    final LoadingCache<String, String> cache = CacheBuilder.newBuilder().build(loader);
+
+    Thread getter = new Thread() {
+      @Override
+      public void run() {
+        cache.getUnchecked("a");
+      }
+    };
+    getter.start();
+    loadStarted.await();
+
+    final AtomicReferenceArray<Map<String, String>> result =
+        new AtomicReferenceArray<Map<String, String>>(1);
+    Thread bulkGetter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          result.set(0, cache.getAll(asList("a", "b")));
+        } catch (ExecutionException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    bulkGetter.start();
+
+    // "a" is being loaded, so only "b" is bulk loaded; the result then waits for "a"
+    loadAllStarted.await();
+    letLoadFinish.countDown();
+    getter.join();
+    bulkGetter.join();
+
+    assertEquals(1, loadCount.get());
+    assertEquals(ImmutableList.of(ImmutableList.of("b")), loadAllKeys);
+    assertEquals(ImmutableMap.of("a", "afoo", "b", "bbar"), result.get(0));
+  }
+
+  public void testBulkLoad_concurrentGetWaitsForLoadAll() throws Exception {
+    final CountDownLatch loadAllStarted = new CountDownLatch(1);
+    final CountDownLatch letLoadAllFinish = new CountDownLatch(1);
+    final AtomicInteger loadCount = new AtomicInteger();
+    CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+      @Override
+      public String load(String key) {
+        loadCount.incrementAndGet();
+        return key + "foo";
+      }
+
+      @Override
+      public Map<String, String> loadAll(Iterable<? extends String> keys)
+          throws InterruptedException {
+        loadAllStarted.countDown();
+        letLoadAllFinish.await();
+        Map<String, String> result = Maps.newHashMap();
+        for (String key : keys) {
+          result.put(key, key + "bar");
+        }
+        return result;
+      }
+    };
+    final LoadingCache<String, String> cache = CacheBuilder.newBuilder().build(loader);
+
+    Thread bulkGetter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          cache.getAll(asList("a", "b"));
+        } catch (ExecutionException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    bulkGetter.start();
+    loadAllStarted.await();
+
+    final AtomicReferenceArray<String> result = new AtomicReferenceArray<String>(1);
+    Thread getter = new Thread() {
+      @Override
+      public void run() {
+        result.set(0, cache.getUnchecked("a"));
+      }
+    };
+    getter.start();
+    // the getter waits for the bulk load whenever it runs, so no synchronization is needed here
+    Thread.yield();
+    letLoadAllFinish.countDown();
+    getter.join();
+    bulkGetter.join();
+
+    assertEquals(0, loadCount.get());
+    assertEquals("abar", result.get(0));
+    CacheStats stats = cache.stats();
+    assertEquals(3, stats.missCount());
+    assertEquals(1, stats.loadSuccessCount());
+  }
+
+  public void testBulkLoad_concurrentGetWaitsForFallbackLoad() throws Exception {
+    final CountDownLatch loadStarted = new CountDownLatch(1);
+    final CountDownLatch letLoadFinish = new CountDownLatch(1);
+    final AtomicInteger loadCount = new AtomicInteger();
+    CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+      @Override
+      public String load(String key) throws InterruptedException {
+        loadCount.incrementAndGet();
+        loadStarted.countDown();
+        letLoadFinish.await();
+        return key + "foo";
+      }
+    };
+    final LoadingCache<String, String> cache = CacheBuilder.newBuilder().build(loader);
+
+    final AtomicReferenceArray<Map<String, String>> bulkResult =
+        new AtomicReferenceArray<Map<String, String>>(1);
+    Thread bulkGetter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          bulkResult.set(0, cache.getAll(asList("a", "b")));
+        } catch (ExecutionException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    bulkGetter.start();
+    loadStarted.await();
+
+    // "b" was claimed along with "a" before either was loaded
+    final AtomicReferenceArray<String> result = new AtomicReferenceArray<String>(1);
+    Thread getter = new Thread() {
+      @Override
+      public void run() {
+        result.set(0, cache.getUnchecked("b"));
+      }
+    };
+    getter.start();
+    Thread.yield();
+    letLoadFinish.countDown();
+    getter.join();
+    bulkGetter.join();
+
+    assertEquals(2, loadCount.get());
+    assertEquals("bfoo", result.get(0));
+    assertEquals(ImmutableMap.of("a", "afoo", "b", "bfoo"), bulkResult.get(0));
+  }
+
+  public void testBulkLoad_failureRemovesClaims() throws Exception {
+    final Exception e = new Exception();
+    final CountDownLatch loadAllStarted = new CountDownLatch(1);
+    final CountDownLatch letLoadAllFinish = new CountDownLatch(1);
+    CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+      @Override
+      public String load(String key) throws Exception {
+        throw e;
+      }
+
+      @Override
+      public Map<String, String> loadAll(Iterable<? extends String> keys) throws Exception {
+        loadAllStarted.countDown();
+        letLoadAllFinish.await();
+        throw e;
+      }
+    };
+    final LoadingCache<String, String> cache = CacheBuilder.newBuilder().build(loader);
+
+    final AtomicReferenceArray<Throwable> failures = new AtomicReferenceArray<Throwable>(2);
+    Thread bulkGetter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          cache.getAll(asList("a", "b"));
+        } catch (ExecutionException expected) {
+          failures.set(0, expected.getCause());
+        }
+      }
+    };
+    bulkGetter.start();
+    loadAllStarted.await();
+
+    Thread getter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          cache.get("a");
+        } catch (ExecutionException expected) {
+          failures.set(1, expected.getCause());
+        }
+      }
+    };
+    getter.start();
+    Thread.yield();
+    letLoadAllFinish.countDown();
+    getter.join();
+    bulkGetter.join();
+
+    assertSame(e, failures.get(0));
+    assertSame(e, failures.get(1));
+    assertEquals(0, cache.size());
+    CacheTesting.checkValidState(cache);
+  }
+
+  public void testBulkLoad_recursiveLoadAllFails() throws Exception {
+    final AtomicReference<LoadingCache<String, String>> cacheRef =
+        new AtomicReference<LoadingCache<String, String>>();
+    CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+      @Override
+      public String load(String key) {
+        return key;
+      }
+
+      @Override
+      public Map<String, String> loadAll(Iterable<? extends String> keys) {
+        // "b" is claimed by this load, so waiting for it would never return
+        cacheRef.get().getUnchecked("b");
+        throw new AssertionError();
+      }
+    };
+    cacheRef.set(CacheBuilder.newBuilder().build(loader));
+    checkRecursiveBulkLoadFails(cacheRef.get());
+  }
+
+  public void testBulkLoad_recursiveFallbackLoadFails() throws Exception {
+    final AtomicReference<LoadingCache<String, String>> cacheRef =
+        new AtomicReference<LoadingCache<String, String>>();
+    CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+      @Override
+      public String load(String key) {
+        return cacheRef.get().getUnchecked(key);
+      }
+    };
+    cacheRef.set(CacheBuilder.newBuilder().build(loader));
+    checkRecursiveBulkLoadFails(cacheRef.get());
+  }
+
+  private static void checkRecursiveBulkLoadFails(final LoadingCache<String, String> cache)
+      throws InterruptedException {
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread bulkGetter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          cache.getAll(asList("a", "b"));
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    };
+    bulkGetter.setDaemon(true);
+    bulkGetter.start();
+    bulkGetter.join(10000);
+    assertFalse("recursive load did not fail fast", bulkGetter.isAlive());
+
+    assertTrue(failure.get() instanceof UncheckedExecutionException);
+    assertTrue(failure.get().getCause() instanceof IllegalStateException);
+    assertEquals(0, cache.size());
+    CacheTesting.checkValidState(cache);
+  }
+
   public void testConcurrentLoading() throws InterruptedException {
     testConcurrentLoading(CacheBuilder.newBuilder());
   }
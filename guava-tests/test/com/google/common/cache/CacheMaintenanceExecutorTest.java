@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.LocalCache.DRAIN_THRESHOLD;
+import static com.google.common.cache.LocalCache.MAINTENANCE_MAX;
+import static com.google.common.cache.TestingRemovalListeners.queuingRemovalListener;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
+import com.google.common.collect.Lists;
+import com.google.common.testing.FakeTicker;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Tests of caches built with {@link CacheBuilder#executor}.
+ */
+public class CacheMaintenanceExecutorTest extends TestCase {
+
+  /** Holds submitted tasks until they are run explicitly. */
+  static class QueuingExecutor implements Executor {
+    final List<Runnable> tasks = Lists.newArrayList();
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    /** Runs the oldest pending task. */
+    void runNext() {
+      tasks.remove(0).run();
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        runNext();
+      }
+    }
+  }
+
+  FakeTicker ticker;
+  QueuingExecutor executor;
+  QueuingRemovalListener<Integer, Integer> listener;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    ticker = new FakeTicker();
+    executor = new QueuingExecutor();
+    listener = queuingRemovalListener();
+  }
+
+  public void testNotificationsDeliveredOnExecutor() {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(1)
+        .removalListener(listener)
+        .executor(executor)
+        .build();
+    cache.put(1, 1);
+    cache.put(2, 2);
+    cache.put(3, 3);
+
+    // eviction happens as entries are written, but the listener isn't called
+    assertEquals(1, cache.size());
+    assertTrue(listener.isEmpty());
+    // a single task is outstanding
+    assertEquals(1, executor.tasks.size());
+
+    executor.runAll();
+    assertEquals(2, listener.size());
+    assertEquals(RemovalCause.SIZE, listener.remove().getCause());
+    assertEquals(RemovalCause.SIZE, listener.remove().getCause());
+  }
+
+  public void testReadsDoNotCleanUp() {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .expireAfterWrite(1, SECONDS)
+        .ticker(ticker)
+        .removalListener(listener)
+        .executor(executor)
+        .build();
+    for (int i = 0; i < 10; i++) {
+      cache.put(i, i);
+    }
+    ticker.advance(2, SECONDS);
+
+    for (int i = 0; i <= DRAIN_THRESHOLD; i++) {
+      assertNull(cache.getIfPresent(-1));
+    }
+    assertEquals(10, cache.size());
+    assertTrue(listener.isEmpty());
+    assertEquals(1, executor.tasks.size());
+
+    executor.runAll();
+    assertEquals(0, cache.size());
+    assertEquals(10, listener.size());
+  }
+
+  public void testMaintenanceIsBounded() {
+    int entries = 2 * MAINTENANCE_MAX + 1;
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .expireAfterWrite(1, SECONDS)
+        .ticker(ticker)
+        .removalListener(listener)
+        .executor(executor)
+        .build();
+    for (int i = 0; i < entries; i++) {
+      cache.put(i, i);
+    }
+    ticker.advance(2, SECONDS);
+    for (int i = 0; i <= DRAIN_THRESHOLD; i++) {
+      cache.getIfPresent(-1);
+    }
+
+    executor.runNext();
+    assertEquals(entries - MAINTENANCE_MAX, cache.size());
+    assertEquals(MAINTENANCE_MAX, listener.size());
+    // the task resubmitted itself to finish the work
+    assertEquals(1, executor.tasks.size());
+
+    executor.runAll();
+    assertEquals(0, cache.size());
+    assertEquals(entries, listener.size());
+  }
+
+  public void testContendedMaintenanceIsRescheduled() throws Exception {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .expireAfterWrite(1, SECONDS)
+        .ticker(ticker)
+        .removalListener(listener)
+        .executor(executor)
+        .build();
+    cache.put(1, 1);
+    ticker.advance(2, SECONDS);
+    final LocalCache.Segment<Integer, Integer> segment =
+        ((LocalCache.LocalManualCache<Integer, Integer>) cache).localCache.segments[0];
+
+    segment.scheduleMaintenance();
+    final Runnable task = executor.tasks.remove(0);
+    segment.lock();
+    try {
+      // the task runs on another thread, which can't take the lock held by this one
+      Thread thread = new Thread() {
+        @Override public void run() {
+          task.run();
+        }
+      };
+      thread.start();
+      thread.join();
+      assertEquals(1, segment.count);
+      assertTrue(segment.maintenancePending.get());
+      assertTrue(executor.tasks.isEmpty());
+    } finally {
+      segment.unlock();
+      segment.postWriteCleanup();
+    }
+
+    // releasing the lock submitted another task
+    assertEquals(1, executor.tasks.size());
+    executor.runAll();
+    assertEquals(0, cache.size());
+    assertFalse(segment.maintenancePending.get());
+    assertEquals(RemovalCause.EXPIRED, listener.remove().getCause());
+  }
+
+  public void testCleanUpIsSynchronous() {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(1, SECONDS)
+        .ticker(ticker)
+        .removalListener(listener)
+        .executor(executor)
+        .build();
+    cache.put(1, 1);
+    ticker.advance(2, SECONDS);
+    cache.cleanUp();
+    assertEquals(0, cache.size());
+    assertEquals(RemovalCause.EXPIRED, listener.remove().getCause());
+  }
+
+  public void testRejectedMaintenanceRunsOnCaller() {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(1)
+        .removalListener(listener)
+        .executor(new Executor() {
+          @Override
+          public void execute(Runnable task) {
+            throw new RejectedExecutionException();
+          }
+        })
+        .build();
+    cache.put(1, 1);
+    cache.put(2, 2);
+    assertEquals(Integer.valueOf(1), listener.remove().getKey());
+  }
+
+  public void testLoadingCache() throws Exception {
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(2)
+        .removalListener(listener)
+        .executor(executor)
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(Integer.valueOf(i), cache.get(i));
+    }
+    assertEquals(2, cache.size());
+    assertTrue(listener.isEmpty());
+    executor.runAll();
+    assertEquals(3, listener.size());
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.TestingCacheLoaders.identityLoader;
+import static com.google.common.cache.TestingRemovalListeners.queuingRemovalListener;
+
+import com.google.common.cache.LocalCache.Segment;
+import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Tests for {@link CacheMetrics}, {@link LatencyHistogram} and {@link StripedCounter}.
+ */
+public class CacheMetricsTest extends TestCase {
+
+  public void testLatencyHistogram_buckets() {
+    assertEquals(0, LatencyHistogram.bucket(-5));
+    assertEquals(0, LatencyHistogram.bucket(0));
+    assertEquals(1, LatencyHistogram.bucket(1));
+    assertEquals(2, LatencyHistogram.bucket(2));
+    assertEquals(2, LatencyHistogram.bucket(3));
+    assertEquals(11, LatencyHistogram.bucket(1024));
+    assertEquals(63, LatencyHistogram.bucket(Long.MAX_VALUE));
+
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(3);
+    histogram.record(2);
+    histogram.record(1000);
+    long[] counts = histogram.snapshot();
+    assertEquals(LatencyHistogram.BUCKETS, counts.length);
+    assertEquals(2, counts[2]);
+    assertEquals(1, counts[10]);
+  }
+
+  public void testLoadLatencyPercentile() {
+    long[] histogram = new long[LatencyHistogram.BUCKETS];
+    CacheMetrics metrics = new CacheMetrics(new CacheStats(0, 0, 0, 0, 0, 0), histogram, 0, 0, 0,
+        0, 0);
+    assertEquals(0, metrics.loadLatencyPercentile(0.99));
+
+    histogram[3] = 90;
+    histogram[10] = 9;
+    histogram[20] = 1;
+    metrics = new CacheMetrics(new CacheStats(0, 0, 0, 0, 0, 0), histogram, 0, 0, 0, 0, 0);
+    assertEquals(7, metrics.loadLatencyPercentile(0.0));
+    assertEquals(7, metrics.loadLatencyPercentile(0.5));
+    assertEquals(7, metrics.loadLatencyPercentile(0.9));
+    assertEquals(1023, metrics.loadLatencyPercentile(0.99));
+    assertEquals((1 << 20) - 1, metrics.loadLatencyPercentile(1.0));
+    try {
+      metrics.loadLatencyPercentile(1.5);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+
+    // the snapshot is a copy
+    histogram[3] = 0;
+    assertEquals(90, metrics.loadLatencyHistogram()[3]);
+  }
+
+  public void testStripedCounter() throws Exception {
+    final StripedCounter counter = new StripedCounter();
+    counter.add(5);
+    assertEquals(5, counter.sum());
+
+    int threads = 8;
+    final int increments = 10000;
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int i = 0; i < threads; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < increments; j++) {
+            counter.increment();
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(5 + threads * increments, counter.sum());
+  }
+
+  public void testMetrics_loads() throws Exception {
+    LoadingCache<Object, Object> cache = CacheBuilder.newBuilder().build(identityLoader());
+    for (int i = 0; i < 10; i++) {
+      cache.get(i);
+      cache.get(i);
+    }
+    CacheMetrics metrics = CacheMetrics.snapshot(cache);
+    assertEquals(10, metrics.stats().hitCount());
+    assertEquals(10, metrics.stats().loadCount());
+
+    long loads = 0;
+    for (long count : metrics.loadLatencyHistogram()) {
+      loads += count;
+    }
+    assertEquals(10, loads);
+    assertTrue(metrics.loadLatencyPercentile(0.5) <= metrics.loadLatencyPercentile(0.99));
+  }
+
+  public void testMetrics_evictionWeight() {
+    QueuingRemovalListener<Integer, String> listener = queuingRemovalListener();
+    Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(10)
+        .weigher(new Weigher<Integer, String>() {
+          @Override
+          public int weigh(Integer key, String value) {
+            return value.length();
+          }
+        })
+        .removalListener(listener)
+        .build();
+    cache.put(1, "aaaa");
+    cache.put(2, "bbbb");
+    cache.put(3, "cccc");
+    CacheMetrics metrics = CacheMetrics.snapshot(cache);
+    assertEquals(1, metrics.stats().evictionCount());
+    assertEquals(4, metrics.evictionWeight());
+    assertEquals(0, metrics.notificationQueueDepth());
+  }
+
+  public void testMetrics_lockWait() throws Exception {
+    final LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    Segment<Integer, Integer> segment = CacheTesting.toLocalCache(cache).segments[0];
+    segment.lock();
+    Thread writer;
+    try {
+      writer = new Thread() {
+        @Override
+        public void run() {
+          cache.put(1, 1);
+        }
+      };
+      writer.start();
+      while (!segment.hasQueuedThreads()) {
+        Thread.sleep(1);
+      }
+      Thread.sleep(10);
+    } finally {
+      segment.unlock();
+    }
+    writer.join();
+
+    CacheMetrics metrics = CacheMetrics.snapshot(cache);
+    assertEquals(1, metrics.lockWaitCount());
+    assertTrue(metrics.lockWaitTime() > 0);
+
+    // uncontended acquisitions aren't counted
+    cache.put(2, 2);
+    assertEquals(1, CacheMetrics.snapshot(cache).lockWaitCount());
+  }
+
+  public void testSnapshot_forwardingCache() throws Exception {
+    final LoadingCache<Object, Object> cache = CacheBuilder.newBuilder().build(identityLoader());
+    cache.get(1);
+    Cache<Object, Object> forwarding = new ForwardingCache<Object, Object>() {
+      @Override protected Cache<Object, Object> delegate() {
+        return cache;
+      }
+    };
+    assertEquals(1, CacheMetrics.snapshot(forwarding).stats().loadCount());
+  }
+
+  public void testSnapshot_notBuiltByCacheBuilder() {
+    Cache<Object, Object> cache = new AbstractCache<Object, Object>() {
+      @Override public Object getIfPresent(Object key) {
+        return null;
+      }
+
+      @Override public Object get(Object key) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    try {
+      CacheMetrics.snapshot(cache);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      CacheMetrics.asMXBean(cache);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testMXBean() throws Exception {
+    LoadingCache<Object, Object> cache = CacheBuilder.newBuilder().build(identityLoader());
+    cache.get(1);
+    cache.get(1);
+    CacheMetricsMXBean bean = CacheMetrics.asMXBean(cache);
+    assertEquals(1, bean.getHitCount());
+    assertEquals(1, bean.getMissCount());
+    assertEquals(1, bean.getLoadCount());
+    assertEquals(1, bean.getSize());
+    // attributes read together share a snapshot
+    cache.get(1);
+    assertEquals(1, bean.getHitCount());
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("com.google.common.cache:type=CacheMetricsTest");
+    server.registerMBean(bean, name);
+    try {
+      assertEquals(1L, server.getAttribute(name, "HitCount"));
+      assertEquals(LatencyHistogram.BUCKETS,
+          ((long[]) server.getAttribute(name, "LoadLatencyHistogram")).length);
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.LocalCache.EVICTION_BATCH;
+import static com.google.common.cache.TestingRemovalListeners.queuingRemovalListener;
+
+import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
+import com.google.common.collect.Lists;
+import com.google.common.testing.FakeTicker;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * Tests for {@link CachePolicies#of} and {@link CachePolicy}.
+ */
+public class CachePolicyTest extends TestCase {
+
+  public void testUnbounded() {
+    CachePolicy policy = CachePolicies.of(CacheBuilder.newBuilder().build());
+    assertFalse(policy.isBounded());
+    try {
+      policy.getMaximum();
+      fail();
+    } catch (IllegalStateException expected) {}
+    try {
+      policy.setMaximum(10);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  public void testOf_forwardingCache() {
+    final Cache<Object, Object> cache = CacheBuilder.newBuilder().maximumSize(100).build();
+    Cache<Object, Object> forwarding = new ForwardingCache<Object, Object>() {
+      @Override protected Cache<Object, Object> delegate() {
+        return cache;
+      }
+    };
+    CachePolicies.of(forwarding).setMaximum(50);
+    assertEquals(50, CachePolicies.of(cache).getMaximum());
+  }
+
+  public void testOf_notBuiltByCacheBuilder() {
+    Cache<Object, Object> cache = new AbstractCache<Object, Object>() {
+      @Override public Object getIfPresent(Object key) {
+        return null;
+      }
+
+      @Override public Object get(Object key) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    try {
+      CachePolicies.of(cache);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  public void testGetMaximum() {
+    CachePolicy policy = CachePolicies.of(CacheBuilder.newBuilder().maximumSize(100).build());
+    assertTrue(policy.isBounded());
+    assertEquals(100, policy.getMaximum());
+    policy.setMaximum(50);
+    assertEquals(50, policy.getMaximum());
+
+    policy = CachePolicies.of(CacheBuilder.newBuilder()
+        .maximumWeight(1000)
+        .weigher(TestingWeighers.constantWeigher(10))
+        .build());
+    assertEquals(1000, policy.getMaximum());
+  }
+
+  public void testSetMaximum_negative() {
+    CachePolicy policy = CachePolicies.of(CacheBuilder.newBuilder().maximumSize(100).build());
+    try {
+      policy.setMaximum(-1);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+    assertEquals(100, policy.getMaximum());
+  }
+
+  public void testShrink() {
+    QueuingRemovalListener<Integer, Integer> listener = queuingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(1000)
+        .removalListener(listener)
+        .build();
+    for (int i = 0; i < 1000; i++) {
+      cache.put(i, i);
+    }
+    // the first half is now the most recently used
+    for (int i = 0; i < 500; i++) {
+      cache.getIfPresent(i);
+    }
+
+    CachePolicies.of(cache).setMaximum(10);
+    assertEquals(10, cache.size());
+    assertEquals(990, listener.size());
+    for (RemovalNotification<Integer, Integer> notification : listener) {
+      assertEquals(RemovalCause.SIZE, notification.getCause());
+    }
+    for (int i = 490; i < 500; i++) {
+      assertEquals(Integer.valueOf(i), cache.getIfPresent(i));
+    }
+    assertEquals(990, cache.stats().evictionCount());
+
+    // the new maximum holds for later writes
+    for (int i = 1000; i < 1100; i++) {
+      cache.put(i, i);
+    }
+    assertEquals(10, cache.size());
+  }
+
+  public void testShrink_multipleSegments() {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(4)
+        .maximumSize(1000)
+        .build();
+    for (int i = 0; i < 2000; i++) {
+      cache.put(i, i);
+    }
+    assertTrue(cache.size() <= 1000);
+
+    CachePolicies.of(cache).setMaximum(100);
+    assertTrue(cache.size() <= 100);
+    for (int i = 2000; i < 3000; i++) {
+      cache.put(i, i);
+    }
+    assertTrue(cache.size() <= 100);
+    assertTrue(cache.size() > 50);
+  }
+
+  public void testShrink_globalEviction() {
+    FakeTicker ticker = new FakeTicker();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(4)
+        .maximumSize(1000)
+        .globalEviction(4)
+        .ticker(ticker)
+        .build();
+    for (int i = 0; i < 1000; i++) {
+      ticker.advance(1);
+      cache.put(i, i);
+    }
+    for (int i = 0; i < 500; i++) {
+      ticker.advance(1);
+      cache.getIfPresent(i);
+    }
+
+    // the most recently used entries of the whole cache are kept, whichever segments hold them
+    CachePolicies.of(cache).setMaximum(10);
+    assertEquals(10, cache.size());
+    for (int i = 490; i < 500; i++) {
+      assertEquals(Integer.valueOf(i), cache.getIfPresent(i));
+    }
+    assertEquals(990, cache.stats().evictionCount());
+  }
+
+  public void testGrow() {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(10)
+        .build();
+    for (int i = 0; i < 20; i++) {
+      cache.put(i, i);
+    }
+    assertEquals(10, cache.size());
+
+    CachePolicies.of(cache).setMaximum(20);
+    assertEquals(10, cache.size());
+    for (int i = 0; i < 20; i++) {
+      cache.put(i, i);
+    }
+    assertEquals(20, cache.size());
+  }
+
+  public void testShrink_weighted() {
+    QueuingRemovalListener<Integer, Integer> listener = queuingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(100)
+        .weigher(new Weigher<Integer, Integer>() {
+          @Override
+          public int weigh(Integer key, Integer value) {
+            return value;
+          }
+        })
+        .removalListener(listener)
+        .build();
+    cache.put(1, 10);
+    cache.put(2, 20);
+    cache.put(3, 30);
+    cache.put(4, 40);
+
+    CachePolicies.of(cache).setMaximum(70);
+    assertEquals(2, cache.size());
+    assertEquals(Integer.valueOf(1), listener.remove().getKey());
+    assertEquals(Integer.valueOf(2), listener.remove().getKey());
+    assertEquals(Integer.valueOf(30), cache.getIfPresent(3));
+    assertEquals(Integer.valueOf(40), cache.getIfPresent(4));
+  }
+
+  public void testShrink_inBatches() {
+    final int entries = 4 * EVICTION_BATCH;
+    final List<Long> sizesSeenByListener = Lists.newArrayList();
+    final Cache<Integer, Integer>[] holder = newCacheArray();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(entries)
+        .removalListener(new RemovalListener<Integer, Integer>() {
+          @Override
+          public void onRemoval(RemovalNotification<Integer, Integer> notification) {
+            sizesSeenByListener.add(holder[0].size());
+          }
+        })
+        .build();
+    holder[0] = cache;
+    for (int i = 0; i < entries; i++) {
+      cache.put(i, i);
+    }
+
+    CachePolicies.of(cache).setMaximum(0);
+    assertEquals(entries, sizesSeenByListener.size());
+    // notifications are delivered after each batch, while the cache is still being shrunk
+    assertEquals(Long.valueOf(entries - EVICTION_BATCH), sizesSeenByListener.get(0));
+    assertEquals(Long.valueOf(0), sizesSeenByListener.get(entries - 1));
+  }
+
+  @SuppressWarnings("unchecked") // generic array creation
+  private static Cache<Integer, Integer>[] newCacheArray() {
+    return new Cache[1];
+  }
+}
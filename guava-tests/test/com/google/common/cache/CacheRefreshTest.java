@@ -18,10 +18,20 @@ import static com.google.common.cache.TestingCacheLoaders.incrementingLoader;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.common.cache.TestingCacheLoaders.IncrementingLoader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.testing.FakeTicker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 import junit.framework.TestCase;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Tests relating to automatic cache refreshing.
  *
@@ -97,4 +107,162 @@ public class CacheRefreshTest extends TestCase {
     assertEquals(expectedLoads, loader.getLoadCount());
     assertEquals(expectedReloads, loader.getReloadCount());
   }
+
+  /**
+   * Loads each key as itself, and reloads batches by incrementing their old values, recording the
+   * batches it is given.
+   */
+  static class BatchReloadingLoader extends CacheLoader<Integer, Integer> {
+    final List<Map<Integer, Integer>> batches = Lists.newArrayList();
+    SettableFuture<Map<Integer, Integer>> pendingResult;
+
+    @Override
+    public Integer load(Integer key) {
+      return key;
+    }
+
+    @Override
+    public ListenableFuture<Map<Integer, Integer>> reloadAll(Map<Integer, Integer> oldValues) {
+      batches.add(ImmutableMap.copyOf(oldValues));
+      if (pendingResult != null) {
+        return pendingResult;
+      }
+      Map<Integer, Integer> newValues = Maps.newHashMap();
+      for (Map.Entry<Integer, Integer> entry : oldValues.entrySet()) {
+        newValues.put(entry.getKey(), entry.getValue() + 1);
+      }
+      return Futures.immediateFuture(newValues);
+    }
+  }
+
+  public void testCoalescedRefresh_fullBatch() {
+    FakeTicker ticker = new FakeTicker();
+    BatchReloadingLoader loader = new BatchReloadingLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(1, MILLISECONDS)
+        .coalesceRefreshes(3, 1000, MILLISECONDS)
+        .ticker(ticker)
+        .build(loader);
+    for (int i = 0; i < 4; i++) {
+      cache.getUnchecked(i);
+    }
+    ticker.advance(2, MILLISECONDS);
+
+    // stale values are returned while the batch fills
+    assertEquals(Integer.valueOf(0), cache.getUnchecked(0));
+    assertEquals(Integer.valueOf(1), cache.getUnchecked(1));
+    assertEquals(Integer.valueOf(0), cache.getUnchecked(0));
+    assertTrue(loader.batches.isEmpty());
+
+    assertEquals(Integer.valueOf(2), cache.getUnchecked(2));
+    assertEquals(1, loader.batches.size());
+    assertEquals(ImmutableMap.of(0, 0, 1, 1, 2, 2), loader.batches.get(0));
+    assertEquals(Integer.valueOf(1), cache.getUnchecked(0));
+    assertEquals(Integer.valueOf(2), cache.getUnchecked(1));
+    assertEquals(Integer.valueOf(3), cache.getUnchecked(2));
+
+    CacheStats stats = cache.stats();
+    assertEquals(7, stats.loadSuccessCount());
+    assertEquals(0, stats.loadExceptionCount());
+  }
+
+  public void testCoalescedRefresh_windowElapses() {
+    FakeTicker ticker = new FakeTicker();
+    BatchReloadingLoader loader = new BatchReloadingLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(1, MILLISECONDS)
+        .coalesceRefreshes(100, 10, MILLISECONDS)
+        .ticker(ticker)
+        .build(loader);
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    ticker.advance(2, MILLISECONDS);
+    cache.getUnchecked(1);
+    ticker.advance(5, MILLISECONDS);
+    cache.getUnchecked(2);
+    cache.cleanUp();
+    assertTrue(loader.batches.isEmpty());
+
+    ticker.advance(5, MILLISECONDS);
+    cache.cleanUp();
+    assertEquals(ImmutableList.of(ImmutableMap.of(1, 1, 2, 2)), loader.batches);
+    assertEquals(Integer.valueOf(2), cache.getUnchecked(1));
+    assertEquals(Integer.valueOf(3), cache.getUnchecked(2));
+  }
+
+  public void testCoalescedRefresh_asyncResult() {
+    FakeTicker ticker = new FakeTicker();
+    BatchReloadingLoader loader = new BatchReloadingLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(1, MILLISECONDS)
+        .coalesceRefreshes(2, 1000, MILLISECONDS)
+        .ticker(ticker)
+        .build(loader);
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    cache.getUnchecked(3);
+    ticker.advance(2, MILLISECONDS);
+
+    loader.pendingResult = SettableFuture.create();
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    assertEquals(1, loader.batches.size());
+
+    // the batched entries aren't refreshed again while the batch is in flight
+    assertEquals(Integer.valueOf(1), cache.getUnchecked(1));
+    assertEquals(Integer.valueOf(2), cache.getUnchecked(2));
+    assertEquals(1, loader.batches.size());
+
+    // keys missing from the result keep their old values, and extra keys are ignored
+    loader.pendingResult.set(ImmutableMap.of(1, 10, 3, 30));
+    assertEquals(1, cache.stats().loadExceptionCount());
+    loader.pendingResult = null;
+    assertEquals(Integer.valueOf(10), cache.getUnchecked(1));
+    assertEquals(Integer.valueOf(2), cache.getUnchecked(2));
+    assertEquals(Integer.valueOf(3), cache.getUnchecked(3));
+    assertEquals(ImmutableMap.of(2, 2, 3, 3), loader.batches.get(1));
+    assertEquals(Integer.valueOf(3), cache.getUnchecked(2));
+    assertEquals(Integer.valueOf(4), cache.getUnchecked(3));
+  }
+
+  public void testCoalescedRefresh_failure() {
+    FakeTicker ticker = new FakeTicker();
+    BatchReloadingLoader loader = new BatchReloadingLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(1, MILLISECONDS)
+        .coalesceRefreshes(2, 1000, MILLISECONDS)
+        .ticker(ticker)
+        .build(loader);
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    ticker.advance(2, MILLISECONDS);
+
+    loader.pendingResult = SettableFuture.create();
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    loader.pendingResult.setException(new Exception());
+    assertEquals(2, cache.stats().loadExceptionCount());
+    assertEquals(Integer.valueOf(1), cache.getUnchecked(1));
+    assertEquals(Integer.valueOf(2), cache.getUnchecked(2));
+  }
+
+  public void testCoalescedRefresh_withoutReloadAll() {
+    FakeTicker ticker = new FakeTicker();
+    IncrementingLoader loader = incrementingLoader();
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(1, MILLISECONDS)
+        .coalesceRefreshes(2, 1000, MILLISECONDS)
+        .ticker(ticker)
+        .build(loader);
+    cache.getUnchecked(1);
+    cache.getUnchecked(2);
+    ticker.advance(2, MILLISECONDS);
+
+    assertEquals(Integer.valueOf(1), cache.getUnchecked(1));
+    assertEquals(0, loader.getReloadCount());
+    assertEquals(Integer.valueOf(2), cache.getUnchecked(2));
+    assertEquals(2, loader.getReloadCount());
+    assertEquals(Integer.valueOf(2), cache.getUnchecked(1));
+    assertEquals(Integer.valueOf(3), cache.getUnchecked(2));
+  }
 }
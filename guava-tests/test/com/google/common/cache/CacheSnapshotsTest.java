@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.OffHeapCacheTest.STRING_CODEC;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.cache.CacheSnapshots.Record;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.InputSupplier;
+import com.google.common.testing.FakeTicker;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link CacheSnapshots} and {@link CacheBuilder#restoreSnapshot}.
+ */
+public class CacheSnapshotsTest extends TestCase {
+
+  static final CacheCodec<Integer> INTEGER_CODEC = new CacheCodec<Integer>() {
+    @Override
+    public byte[] encode(Integer value) {
+      return value.toString().getBytes(Charsets.UTF_8);
+    }
+
+    @Override
+    public Integer decode(byte[] bytes) {
+      return Integer.valueOf(new String(bytes, Charsets.UTF_8));
+    }
+  };
+
+  private static Cache<Integer, Integer> newCache(int maximumSize) {
+    return CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(maximumSize)
+        .build();
+  }
+
+  private static List<Integer> keys(List<Record<Integer, Integer>> records) {
+    List<Integer> keys = Lists.newArrayList();
+    for (Record<Integer, Integer> record : records) {
+      keys.add(record.key);
+    }
+    return keys;
+  }
+
+  private static List<Record<Integer, Integer>> read(byte[] snapshot) throws IOException {
+    return CacheSnapshots.read(
+        new ByteArrayInputStream(snapshot), INTEGER_CODEC, INTEGER_CODEC, Long.MAX_VALUE);
+  }
+
+  private static byte[] writeEntries(Cache<Integer, Integer> cache, long maxWeight)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CacheSnapshots.writeEntries(cache, out, INTEGER_CODEC, INTEGER_CODEC, maxWeight);
+    return out.toByteArray();
+  }
+
+  private static byte[] writeKeys(Cache<Integer, Integer> cache, long maxWeight)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CacheSnapshots.writeKeys(cache, out, INTEGER_CODEC, maxWeight);
+    return out.toByteArray();
+  }
+
+  public void testWriteEntries_recencyOrder() throws IOException {
+    Cache<Integer, Integer> cache = newCache(100);
+    for (int i = 0; i < 5; i++) {
+      cache.put(i, i * 10);
+    }
+    cache.getIfPresent(1);
+
+    List<Record<Integer, Integer>> records = read(writeEntries(cache, Long.MAX_VALUE));
+    assertEquals(Arrays.asList(1, 4, 3, 2, 0), keys(records));
+    for (Record<Integer, Integer> record : records) {
+      assertEquals(Integer.valueOf(record.key * 10), record.value);
+      assertEquals(1, record.weight);
+    }
+  }
+
+  public void testWriteKeys_mergesSegmentsByAccessTime() throws IOException {
+    FakeTicker ticker = new FakeTicker();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(4)
+        .maximumSize(100)
+        .ticker(ticker)
+        .build();
+    for (int i = 0; i < 20; i++) {
+      ticker.advance(1);
+      cache.put(i, i);
+    }
+    for (int key : Arrays.asList(3, 17, 8, 12, 0)) {
+      ticker.advance(1);
+      cache.getIfPresent(key);
+    }
+
+    assertEquals(Arrays.asList(0, 12, 8, 17, 3, 19, 18),
+        keys(read(writeKeys(cache, 7))));
+  }
+
+  public void testWriteEntries_doesNotAffectStats() throws IOException {
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    cache.getUnchecked(1);
+    writeEntries(cache, Long.MAX_VALUE);
+    assertEquals(1, cache.stats().requestCount());
+  }
+
+  public void testWriteKeys_cappedByWeight() throws IOException {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(1000)
+        .weigher(new Weigher<Integer, Integer>() {
+          @Override
+          public int weigh(Integer key, Integer value) {
+            return value;
+          }
+        })
+        .build();
+    for (int i = 1; i <= 10; i++) {
+      cache.put(i, i);
+    }
+
+    // 10 + 9 + 8 + 7 = 34
+    byte[] snapshot = writeKeys(cache, 35);
+    List<Record<Integer, Integer>> records = read(snapshot);
+    assertEquals(Arrays.asList(10, 9, 8, 7), keys(records));
+    for (Record<Integer, Integer> record : records) {
+      assertNull(record.value);
+      assertEquals(record.key.intValue(), record.weight);
+    }
+  }
+
+  public void testWrite_expiredEntriesOmitted() throws IOException {
+    FakeTicker ticker = new FakeTicker();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(1, SECONDS)
+        .ticker(ticker)
+        .build();
+    cache.put(1, 1);
+    ticker.advance(2, SECONDS);
+    cache.put(2, 2);
+    assertEquals(Arrays.asList(2), keys(read(writeEntries(cache, Long.MAX_VALUE))));
+  }
+
+  public void testWrite_otherCache() throws IOException {
+    final Cache<Integer, Integer> delegate = newCache(100);
+    delegate.put(1, 1);
+    delegate.put(2, 2);
+    Cache<Integer, Integer> cache = new ForwardingCache<Integer, Integer>() {
+      @Override
+      protected Cache<Integer, Integer> delegate() {
+        return delegate;
+      }
+    };
+    assertEquals(2, read(writeEntries(cache, Long.MAX_VALUE)).size());
+    assertEquals(1, read(writeEntries(cache, 1)).size());
+  }
+
+  public void testWrite_negativeMaxWeight() throws IOException {
+    try {
+      writeKeys(newCache(10), -1);
+      fail();
+    } catch (IllegalArgumentException expected) {}
+  }
+
+  public void testRead_notASnapshot() {
+    try {
+      read(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+      fail();
+    } catch (IOException expected) {}
+  }
+
+  public void testRead_truncated() throws IOException {
+    byte[] snapshot = snapshotWithSecondKeyLength(3);
+    byte[] truncated = new byte[snapshot.length - 4];
+    System.arraycopy(snapshot, 0, truncated, 0, truncated.length);
+    assertEquals(ImmutableList.of(1), keys(read(truncated)));
+  }
+
+  public void testRead_negativeLength() throws IOException {
+    assertEquals(ImmutableList.of(1), keys(read(snapshotWithSecondKeyLength(-5))));
+  }
+
+  public void testRead_hugeLength() throws IOException {
+    // neither length is backed by data; neither may be allocated up front
+    assertEquals(ImmutableList.of(1),
+        keys(read(snapshotWithSecondKeyLength(CacheSnapshots.MAX_RECORD_SIZE))));
+    assertEquals(ImmutableList.of(1),
+        keys(read(snapshotWithSecondKeyLength(CacheSnapshots.MAX_RECORD_SIZE + 1))));
+  }
+
+  public void testRead_largeRecord() throws IOException {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder().build();
+    String large = Strings.repeat("x", 5 * CacheSnapshots.READ_CHUNK_SIZE + 7);
+    cache.put(1, large);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CacheSnapshots.writeEntries(cache, out, INTEGER_CODEC, STRING_CODEC, Long.MAX_VALUE);
+    List<Record<Integer, String>> records = CacheSnapshots.read(
+        new ByteArrayInputStream(out.toByteArray()), INTEGER_CODEC, STRING_CODEC, Long.MAX_VALUE);
+    assertEquals(large, Iterables.getOnlyElement(records).value);
+  }
+
+  /**
+   * Returns a keys-only snapshot of the keys 1 and 2, with the length of the second key replaced
+   * by {@code length}.
+   */
+  private static byte[] snapshotWithSecondKeyLength(int length) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(CacheSnapshots.MAGIC);
+    data.writeInt(0);
+    data.writeInt(1);
+    data.writeInt(1);
+    data.write('1');
+    data.writeInt(1);
+    data.writeInt(length);
+    data.write('2');
+    data.writeInt(-1);
+    return out.toByteArray();
+  }
+
+  public void testRestore_entries() throws IOException {
+    Cache<Integer, Integer> original = newCache(100);
+    for (int i = 0; i < 10; i++) {
+      original.put(i, i * 10);
+    }
+    original.getIfPresent(0);
+    byte[] snapshot = writeEntries(original, Long.MAX_VALUE);
+
+    Cache<Integer, Integer> restored = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(100)
+        .restoreSnapshot(ByteStreams.newInputStreamSupplier(snapshot), INTEGER_CODEC,
+            INTEGER_CODEC)
+        .build();
+    // the recency order survives the round trip
+    assertEquals(keys(read(snapshot)), keys(read(writeEntries(restored, Long.MAX_VALUE))));
+    assertEquals(original.asMap(), restored.asMap());
+  }
+
+  public void testRestore_cappedByMaximumSize() throws IOException {
+    Cache<Integer, Integer> original = newCache(100);
+    for (int i = 0; i < 10; i++) {
+      original.put(i, i);
+    }
+    byte[] snapshot = writeEntries(original, Long.MAX_VALUE);
+
+    Cache<Integer, Integer> restored = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(3)
+        .restoreSnapshot(ByteStreams.newInputStreamSupplier(snapshot), INTEGER_CODEC,
+            INTEGER_CODEC)
+        .build();
+    assertEquals(ImmutableMap.of(9, 9, 8, 8, 7, 7), restored.asMap());
+    assertEquals(0, restored.stats().evictionCount());
+  }
+
+  public void testRestore_keysWithLoadAll() throws IOException {
+    Cache<Integer, Integer> original = newCache(1000);
+    int count = 2 * CacheSnapshots.RESTORE_BATCH + 1;
+    for (int i = 0; i < count; i++) {
+      original.put(i, i);
+    }
+    byte[] snapshot = writeKeys(original, Long.MAX_VALUE);
+
+    final List<Integer> batchSizes = Lists.newArrayList();
+    LoadingCache<Integer, Integer> restored = CacheBuilder.newBuilder()
+        .<Integer, Integer>restoreSnapshot(
+            ByteStreams.newInputStreamSupplier(snapshot), INTEGER_CODEC, null)
+        .build(new CacheLoader<Integer, Integer>() {
+          @Override
+          public Integer load(Integer key) {
+            throw new AssertionError();
+          }
+
+          @Override
+          public Map<Integer, Integer> loadAll(Iterable<? extends Integer> keys) {
+            batchSizes.add(Iterables.size(keys));
+            Map<Integer, Integer> result = Maps.newHashMap();
+            for (Integer key : keys) {
+              result.put(key, -key);
+            }
+            return result;
+          }
+        });
+    assertEquals(count, restored.size());
+    assertEquals(Integer.valueOf(-7), restored.getIfPresent(7));
+    assertEquals(ImmutableList.of(CacheSnapshots.RESTORE_BATCH, CacheSnapshots.RESTORE_BATCH, 1),
+        batchSizes);
+  }
+
+  public void testRestore_entriesWithoutValueCodec() throws IOException {
+    Cache<Integer, Integer> original = newCache(100);
+    original.put(1, 100);
+    byte[] snapshot = writeEntries(original, Long.MAX_VALUE);
+
+    LoadingCache<Integer, Integer> restored = CacheBuilder.newBuilder()
+        .<Integer, Integer>restoreSnapshot(
+            ByteStreams.newInputStreamSupplier(snapshot), INTEGER_CODEC, null)
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    // values are loaded rather than decoded
+    assertEquals(Integer.valueOf(1), restored.getIfPresent(1));
+  }
+
+  public void testRestore_keysWithoutLoader() throws IOException {
+    Cache<Integer, Integer> original = newCache(100);
+    original.put(1, 1);
+    byte[] snapshot = writeKeys(original, Long.MAX_VALUE);
+
+    Cache<Integer, Integer> restored = CacheBuilder.newBuilder()
+        .restoreSnapshot(ByteStreams.newInputStreamSupplier(snapshot), INTEGER_CODEC,
+            INTEGER_CODEC)
+        .build();
+    assertEquals(0, restored.size());
+  }
+
+  public void testRestore_loaderFails() throws IOException {
+    Cache<Integer, Integer> original = newCache(100);
+    original.put(1, 1);
+    byte[] snapshot = writeKeys(original, Long.MAX_VALUE);
+
+    LoadingCache<Integer, Integer> restored = CacheBuilder.newBuilder()
+        .<Integer, Integer>restoreSnapshot(
+            ByteStreams.newInputStreamSupplier(snapshot), INTEGER_CODEC, null)
+        .build(TestingCacheLoaders.<Integer, Integer>exceptionLoader(new Exception()));
+    assertEquals(0, restored.size());
+  }
+
+  public void testRestore_truncated() throws IOException {
+    Cache<Integer, Integer> original = newCache(100);
+    for (int i = 0; i < 10; i++) {
+      original.put(i, i);
+    }
+    byte[] snapshot = writeEntries(original, Long.MAX_VALUE);
+    byte[] truncated = new byte[snapshot.length / 2];
+    System.arraycopy(snapshot, 0, truncated, 0, truncated.length);
+
+    Cache<Integer, Integer> restored = CacheBuilder.newBuilder()
+        .restoreSnapshot(ByteStreams.newInputStreamSupplier(truncated), INTEGER_CODEC,
+            INTEGER_CODEC)
+        .build();
+    assertTrue(restored.size() > 0);
+    assertTrue(restored.size() < 10);
+    assertEquals(Integer.valueOf(9), restored.getIfPresent(9));
+  }
+
+  public void testRestore_missing() {
+    InputSupplier<InputStream> missing = new InputSupplier<InputStream>() {
+      @Override
+      public InputStream getInput() throws IOException {
+        throw new FileNotFoundException();
+      }
+    };
+    Cache<Integer, Integer> restored = CacheBuilder.newBuilder()
+        .restoreSnapshot(missing, INTEGER_CODEC, INTEGER_CODEC)
+        .build();
+    assertEquals(0, restored.size());
+  }
+
+  public void testRestoreSnapshot_setTwice() {
+    CacheBuilder<Integer, Integer> builder = CacheBuilder.newBuilder()
+        .<Integer, Integer>restoreSnapshot(
+            ByteStreams.newInputStreamSupplier(new byte[0]), INTEGER_CODEC, null);
+    try {
+      builder.restoreSnapshot(
+          ByteStreams.newInputStreamSupplier(new byte[0]), INTEGER_CODEC, null);
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.TestingRemovalListeners.queuingRemovalListener;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
+import com.google.common.testing.FakeTicker;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of caches built with {@link CacheBuilder#expireAfter}.
+ */
+public class CacheVariableExpirationTest extends TestCase {
+
+  /**
+   * Retains each entry for as many seconds as its key on creation, for as many seconds as its value
+   * on update, and leaves the expiration time unchanged on read.
+   */
+  static class KeyedExpiry implements Expiry<Integer, Integer> {
+    int reads;
+
+    @Override
+    public long expireAfterCreate(Integer key, Integer value, long currentTime) {
+      return SECONDS.toNanos(key);
+    }
+
+    @Override
+    public long expireAfterUpdate(
+        Integer key, Integer value, long currentTime, long currentDuration) {
+      return SECONDS.toNanos(value);
+    }
+
+    @Override
+    public long expireAfterRead(
+        Integer key, Integer value, long currentTime, long currentDuration) {
+      reads++;
+      return currentDuration;
+    }
+  }
+
+  FakeTicker ticker;
+  QueuingRemovalListener<Integer, Integer> listener;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    ticker = new FakeTicker();
+    listener = queuingRemovalListener();
+  }
+
+  private Cache<Integer, Integer> newCache(Expiry<Integer, Integer> expiry) {
+    return CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .ticker(ticker)
+        .removalListener(listener)
+        .expireAfter(expiry)
+        .build();
+  }
+
+  public void testExpireAfterCreate() {
+    Cache<Integer, Integer> cache = newCache(new KeyedExpiry());
+    for (int i = 1; i <= 10; i++) {
+      cache.put(i, i);
+    }
+    ticker.advance(5500, MILLISECONDS);
+    for (int i = 1; i <= 5; i++) {
+      assertNull(cache.getIfPresent(i));
+    }
+    for (int i = 6; i <= 10; i++) {
+      assertEquals(Integer.valueOf(i), cache.getIfPresent(i));
+    }
+
+    cache.cleanUp();
+    assertEquals(5, cache.size());
+    for (int i = 1; i <= 5; i++) {
+      RemovalNotification<Integer, Integer> notification = listener.remove();
+      assertEquals(Integer.valueOf(i), notification.getKey());
+      assertEquals(RemovalCause.EXPIRED, notification.getCause());
+    }
+    assertTrue(listener.isEmpty());
+
+    ticker.advance(5, SECONDS);
+    cache.cleanUp();
+    assertEquals(0, cache.size());
+    assertEquals(5, listener.size());
+  }
+
+  public void testExpireAfterUpdate() {
+    Cache<Integer, Integer> cache = newCache(new KeyedExpiry());
+    cache.put(1, 0);
+    cache.put(2, 0);
+    // the entries are now retained for one hour and no time at all, respectively
+    cache.put(1, 3600);
+    cache.put(2, 0);
+    assertNull(cache.getIfPresent(2));
+    assertEquals(RemovalCause.REPLACED, listener.remove().getCause());
+    assertEquals(RemovalCause.REPLACED, listener.remove().getCause());
+
+    ticker.advance(30, SECONDS);
+    assertEquals(Integer.valueOf(3600), cache.getIfPresent(1));
+    cache.cleanUp();
+    assertEquals(1, cache.size());
+    assertEquals(Integer.valueOf(2), listener.remove().getKey());
+
+    ticker.advance(1, HOURS);
+    assertNull(cache.getIfPresent(1));
+    cache.cleanUp();
+    assertEquals(0, cache.size());
+  }
+
+  public void testExpireAfterRead() {
+    Cache<Integer, Integer> cache = newCache(new KeyedExpiry() {
+      @Override
+      public long expireAfterRead(
+          Integer key, Integer value, long currentTime, long currentDuration) {
+        return SECONDS.toNanos(5);
+      }
+    });
+    cache.put(2, 2);
+    ticker.advance(1, SECONDS);
+    assertEquals(Integer.valueOf(2), cache.getIfPresent(2));
+
+    // each read extends the entry's life by five seconds
+    ticker.advance(4, SECONDS);
+    assertEquals(Integer.valueOf(2), cache.getIfPresent(2));
+    ticker.advance(4, SECONDS);
+    cache.cleanUp();
+    assertEquals(1, cache.size());
+
+    ticker.advance(2, SECONDS);
+    assertNull(cache.getIfPresent(2));
+    cache.cleanUp();
+    assertEquals(0, cache.size());
+    assertEquals(RemovalCause.EXPIRED, listener.remove().getCause());
+  }
+
+  public void testExpireAfterRead_currentDuration() {
+    KeyedExpiry expiry = new KeyedExpiry();
+    Cache<Integer, Integer> cache = newCache(expiry);
+    cache.put(10, 10);
+    for (int i = 0; i < 9; i++) {
+      ticker.advance(1, SECONDS);
+      assertEquals(Integer.valueOf(10), cache.getIfPresent(10));
+    }
+    assertEquals(9, expiry.reads);
+    ticker.advance(1, SECONDS);
+    assertNull(cache.getIfPresent(10));
+  }
+
+  public void testLongDurations() {
+    Cache<Integer, Integer> cache = newCache(new KeyedExpiry());
+    int hour = (int) HOURS.toSeconds(1);
+    int day = (int) DAYS.toSeconds(1);
+    cache.put(hour, 0);
+    cache.put(day, 0);
+    cache.put(30 * day, 0);
+
+    ticker.advance(hour - 1, SECONDS);
+    cache.cleanUp();
+    assertEquals(3, cache.size());
+    ticker.advance(2, SECONDS);
+    cache.cleanUp();
+    assertEquals(2, cache.size());
+    assertEquals(Integer.valueOf(hour), listener.remove().getKey());
+
+    ticker.advance(1, DAYS);
+    cache.cleanUp();
+    assertEquals(1, cache.size());
+    assertEquals(Integer.valueOf(day), listener.remove().getKey());
+
+    ticker.advance(29, DAYS);
+    cache.cleanUp();
+    assertEquals(0, cache.size());
+    assertEquals(Integer.valueOf(30 * day), listener.remove().getKey());
+  }
+
+  public void testUnboundedDuration() {
+    Cache<Integer, Integer> cache = newCache(new KeyedExpiry() {
+      @Override
+      public long expireAfterCreate(Integer key, Integer value, long currentTime) {
+        return Long.MAX_VALUE;
+      }
+    });
+    cache.put(1, 1);
+    ticker.advance(10000, DAYS);
+    cache.cleanUp();
+    assertEquals(Integer.valueOf(1), cache.getIfPresent(1));
+  }
+
+  public void testExplicitRemoval() {
+    Cache<Integer, Integer> cache = newCache(new KeyedExpiry());
+    cache.put(1, 1);
+    cache.put(2, 2);
+    cache.invalidate(1);
+    assertEquals(RemovalCause.EXPLICIT, listener.remove().getCause());
+
+    ticker.advance(10, SECONDS);
+    cache.cleanUp();
+    RemovalNotification<Integer, Integer> notification = listener.remove();
+    assertEquals(Integer.valueOf(2), notification.getKey());
+    assertEquals(RemovalCause.EXPIRED, notification.getCause());
+    assertTrue(listener.isEmpty());
+
+    cache.put(3, 3);
+    cache.invalidateAll();
+    ticker.advance(10, SECONDS);
+    cache.cleanUp();
+    assertEquals(RemovalCause.EXPLICIT, listener.remove().getCause());
+    assertTrue(listener.isEmpty());
+  }
+
+  public void testEviction() {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(2)
+        .ticker(ticker)
+        .removalListener(listener)
+        .expireAfter(new KeyedExpiry())
+        .build();
+    cache.put(1, 1);
+    cache.put(2, 2);
+    cache.put(3, 3);
+    RemovalNotification<Integer, Integer> notification = listener.remove();
+    assertEquals(Integer.valueOf(1), notification.getKey());
+    assertEquals(RemovalCause.SIZE, notification.getCause());
+
+    ticker.advance(5, SECONDS);
+    cache.cleanUp();
+    assertEquals(0, cache.size());
+    assertEquals(Integer.valueOf(2), listener.remove().getKey());
+    assertEquals(Integer.valueOf(3), listener.remove().getKey());
+    assertTrue(listener.isEmpty());
+  }
+
+  public void testLoadingCache() throws Exception {
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .ticker(ticker)
+        .expireAfter(new KeyedExpiry())
+        .build(new CacheLoader<Integer, Integer>() {
+          @Override
+          public Integer load(Integer key) {
+            return key;
+          }
+        });
+    assertEquals(Integer.valueOf(3), cache.get(3));
+    ticker.advance(2, SECONDS);
+    assertEquals(Integer.valueOf(3), cache.get(3));
+    ticker.advance(2, SECONDS);
+    assertEquals(Integer.valueOf(3), cache.get(3));
+    assertEquals(2, cache.stats().loadCount());
+  }
+}
@@ -0,0 +1,566 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.TestingCacheLoaders.exceptionLoader;
+import static com.google.common.cache.TestingRemovalListeners.queuingRemovalListener;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Equivalence;
+import com.google.common.base.Functions;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.CompactLocalCache.EntryList;
+import com.google.common.cache.CompactLocalCache.Segment;
+import com.google.common.cache.CompactLocalCache.Table;
+import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.testing.FakeTicker;
+import com.google.common.testing.SerializableTester;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tests for {@link CompactLocalCache}.
+ */
+public class CompactLocalCacheTest extends TestCase {
+
+  /** Keys whose hash codes are chosen by the test, so that they collide in a table. */
+  static final class HashKey {
+    final int hash;
+    final int id;
+
+    HashKey(int hash, int id) {
+      this.hash = hash;
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof HashKey && ((HashKey) o).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return "HashKey(" + id + ")";
+    }
+  }
+
+  /** An equivalence which uses the hash code of a key as its rehashed hash code. */
+  static final Equivalence<Object> RAW_HASH = new Equivalence<Object>() {
+    @Override
+    protected boolean doEquivalent(Object a, Object b) {
+      return a.equals(b);
+    }
+
+    @Override
+    protected int doHash(Object o) {
+      return o.hashCode();
+    }
+  };
+
+  static <K, V> CompactLocalCache<K, V> toCompactLocalCache(Cache<K, V> cache) {
+    return ((CompactLocalCache.CompactManualCache<K, V>) cache).cache;
+  }
+
+  /**
+   * Checks that the entries of {@code segment} are numbered densely, and that each is in exactly
+   * one slot, reachable from the start of its probe sequence.
+   */
+  static void checkTable(Segment<?, ?> segment) {
+    Table table = segment.table;
+    int slots = 0;
+    for (int slot = 0; slot < table.capacity(); slot++) {
+      if (table.entry(slot) != CompactLocalCache.NONE) {
+        slots++;
+      }
+    }
+    assertEquals(segment.used, slots);
+    for (int entry = 0; entry < table.entryCapacity(); entry++) {
+      Object key = table.key(entry);
+      if (entry < segment.used) {
+        assertNotNull(key);
+        assertEquals(entry, segment.find(table, key, table.hashes[entry]));
+      } else {
+        assertNull(key);
+      }
+    }
+    checkList(segment.accessOrder, segment.count);
+    checkList(segment.writeOrder, segment.count);
+  }
+
+  static void checkList(@Nullable EntryList list, int size) {
+    if (list == null) {
+      return;
+    }
+    int entries = 0;
+    int prev = CompactLocalCache.NONE;
+    for (int entry = list.head; entry != CompactLocalCache.NONE; entry = list.next[entry]) {
+      assertEquals(prev, list.prev[entry]);
+      prev = entry;
+      entries++;
+    }
+    assertEquals(prev, list.tail);
+    assertEquals(size, entries);
+  }
+
+  public void testMapOperations() {
+    ConcurrentMap<Integer, String> map = CacheBuilder.newBuilder()
+        .compactEntries()
+        .concurrencyLevel(4)
+        .<Integer, String>build()
+        .asMap();
+    assertTrue(map.isEmpty());
+    assertNull(map.put(1, "a"));
+    assertEquals("a", map.put(1, "b"));
+    assertEquals("b", map.putIfAbsent(1, "c"));
+    assertNull(map.putIfAbsent(2, "c"));
+    assertEquals(2, map.size());
+    assertTrue(map.containsKey(1));
+    assertFalse(map.containsKey(3));
+    assertTrue(map.containsValue("c"));
+    assertFalse(map.containsValue("a"));
+
+    assertFalse(map.replace(1, "a", "d"));
+    assertTrue(map.replace(1, "b", "d"));
+    assertEquals("d", map.replace(1, "e"));
+    assertNull(map.replace(3, "e"));
+    assertFalse(map.remove(1, "d"));
+    assertTrue(map.remove(1, "e"));
+    assertNull(map.remove(1));
+    assertEquals("c", map.remove(2));
+    assertTrue(map.isEmpty());
+
+    for (int i = 0; i < 100; i++) {
+      map.put(i, "v" + i);
+    }
+    Map<Integer, String> expected = Maps.newHashMap();
+    for (int i = 0; i < 100; i++) {
+      expected.put(i, "v" + i);
+    }
+    assertEquals(expected, map);
+    assertEquals(expected.hashCode(), map.hashCode());
+
+    for (Map.Entry<Integer, String> entry : map.entrySet()) {
+      entry.setValue(entry.getValue() + "!");
+    }
+    assertEquals("v7!", map.get(7));
+    map.keySet().retainAll(ImmutableSet.of(1, 2));
+    assertEquals(ImmutableMap.of(1, "v1!", 2, "v2!"), map);
+    map.clear();
+    assertTrue(map.isEmpty());
+  }
+
+  public void testNullsRejected() {
+    Cache<Object, Object> cache = CacheBuilder.newBuilder().compactEntries().build();
+    try {
+      cache.put(null, 1);
+      fail();
+    } catch (NullPointerException expected) {}
+    try {
+      cache.put(1, null);
+      fail();
+    } catch (NullPointerException expected) {}
+    assertNull(cache.asMap().get(null));
+    assertFalse(cache.asMap().containsKey(null));
+  }
+
+  public void testCollidingKeys() {
+    Cache<HashKey, Integer> cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .concurrencyLevel(1)
+        .maximumSize(1000)
+        .expireAfterWrite(1, SECONDS)
+        .ticker(new FakeTicker())
+        .keyEquivalence(RAW_HASH)
+        .<HashKey, Integer>build();
+    Segment<HashKey, Integer> segment = toCompactLocalCache(cache).segments[0];
+    Random random = new Random(42);
+    List<HashKey> keys = Lists.newArrayList();
+    Map<HashKey, Integer> expected = Maps.newHashMap();
+    for (int i = 0; i < 2000; i++) {
+      // few distinct hash codes, so that probe sequences are long and wrap around
+      HashKey key = new HashKey(random.nextInt(8) * 7 - 1, random.nextInt(300));
+      if (random.nextBoolean()) {
+        cache.put(key, i);
+        expected.put(key, i);
+        keys.add(key);
+      } else {
+        cache.invalidate(key);
+        expected.remove(key);
+      }
+      checkTable(segment);
+    }
+    assertEquals(expected, cache.asMap());
+    for (HashKey key : keys) {
+      assertEquals(expected.get(key), cache.getIfPresent(key));
+    }
+  }
+
+  public void testExpand() {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .concurrencyLevel(1)
+        .initialCapacity(1)
+        .maximumSize(1000)
+        .build();
+    Segment<Integer, Integer> segment = toCompactLocalCache(cache).segments[0];
+    assertEquals(CompactLocalCache.MINIMUM_CAPACITY, segment.table.capacity());
+    assertEquals(1, segment.table.entryCapacity());
+    for (int i = 0; i < 1000; i++) {
+      cache.put(i, i);
+    }
+    // the entries grow by half up to the maximum size, and the slots stay a quarter empty
+    assertEquals(1001, segment.table.entryCapacity());
+    assertEquals(2048, segment.table.capacity());
+    assertEquals(1000, cache.size());
+    checkTable(segment);
+
+    // the access order survived the expansions
+    cache.put(1000, 1000);
+    assertNull(cache.getIfPresent(0));
+    assertEquals(Integer.valueOf(1), cache.getIfPresent(1));
+  }
+
+  public void testEviction_lru() {
+    QueuingRemovalListener<Integer, Integer> listener = queuingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .concurrencyLevel(1)
+        .maximumSize(10)
+        .removalListener(listener)
+        .build();
+    for (int i = 0; i < 10; i++) {
+      cache.put(i, i);
+    }
+    // reads are buffered and applied before the next write
+    for (int i = 0; i < 5; i++) {
+      assertEquals(Integer.valueOf(i), cache.getIfPresent(i));
+    }
+    for (int i = 10; i < 15; i++) {
+      cache.put(i, i);
+    }
+    for (int i = 5; i < 10; i++) {
+      RemovalNotification<Integer, Integer> notification = listener.remove();
+      assertEquals(Integer.valueOf(i), notification.getKey());
+      assertEquals(RemovalCause.SIZE, notification.getCause());
+    }
+    assertTrue(listener.isEmpty());
+    assertEquals(ImmutableSet.of(0, 1, 2, 3, 4, 10, 11, 12, 13, 14), cache.asMap().keySet());
+    assertEquals(5, cache.stats().evictionCount());
+    checkTable(toCompactLocalCache(cache).segments[0]);
+  }
+
+  public void testEviction_segmentsShareMaximum() {
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .concurrencyLevel(4)
+        .maximumSize(10)
+        .build();
+    CompactLocalCache<Integer, Integer> map = toCompactLocalCache(cache);
+    assertEquals(4, map.segments.length);
+    long total = 0;
+    for (Segment<Integer, Integer> segment : map.segments) {
+      total += segment.maxSegmentSize;
+    }
+    assertEquals(10, total);
+    for (int i = 0; i < 1000; i++) {
+      cache.put(i, i);
+    }
+    assertTrue(cache.size() <= 10);
+  }
+
+  public void testSetMaximum() {
+    QueuingRemovalListener<Integer, Integer> listener = queuingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .concurrencyLevel(1)
+        .maximumSize(200)
+        .removalListener(listener)
+        .build();
+    for (int i = 0; i < 200; i++) {
+      cache.put(i, i);
+    }
+    CachePolicy policy = CachePolicies.of(cache);
+    assertTrue(policy.isBounded());
+    policy.setMaximum(50);
+    assertEquals(50, policy.getMaximum());
+    assertEquals(50, cache.size());
+    assertEquals(150, listener.size());
+    assertEquals(Integer.valueOf(0), listener.remove().getKey());
+    checkTable(toCompactLocalCache(cache).segments[0]);
+
+    assertFalse(CachePolicies.of(CacheBuilder.newBuilder().compactEntries().build()).isBounded());
+  }
+
+  public void testExpireAfterWrite() {
+    FakeTicker ticker = new FakeTicker();
+    QueuingRemovalListener<Integer, Integer> listener = queuingRemovalListener();
+    Cache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .concurrencyLevel(1)
+        .expireAfterWrite(10, SECONDS)
+        .ticker(ticker)
+        .removalListener(listener)
+        .build();
+    cache.put(1, 1);
+    ticker.advance(5, SECONDS);
+    cache.put(2, 2);
+    // rewriting restarts the entry's lifetime
+    cache.put(1, 10);
+    assertEquals(RemovalCause.REPLACED, listener.remove().getCause());
+    ticker.advance(6, SECONDS);
+    assertEquals(Integer.valueOf(10), cache.getIfPresent(1));
+    cache.put(3, 3);
+    assertTrue(listener.isEmpty());
+
+    ticker.advance(5, SECONDS);
+    // expired entries are invisible before they are cleaned up
+    assertNull(cache.getIfPresent(1));
+    assertFalse(cache.asMap().containsKey(2));
+    assertEquals(Integer.valueOf(3), cache.getIfPresent(3));
+    cache.cleanUp();
+    assertEquals(1, cache.size());
+    assertEquals(2, listener.size());
+    for (RemovalNotification<Integer, Integer> notification : listener) {
+      assertEquals(RemovalCause.EXPIRED, notification.getCause());
+    }
+    checkTable(toCompactLocalCache(cache).segments[0]);
+  }
+
+  public void testLoading() throws ExecutionException {
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .build(TestingCacheLoaders.<Integer>identityLoader());
+    assertEquals(Integer.valueOf(1), cache.get(1));
+    assertEquals(Integer.valueOf(1), cache.getUnchecked(1));
+    assertEquals(ImmutableMap.of(1, 1, 2, 2), cache.getAll(ImmutableSet.of(1, 2)));
+    CacheStats stats = cache.stats();
+    assertEquals(2, stats.hitCount());
+    assertEquals(2, stats.missCount());
+    assertEquals(2, stats.loadSuccessCount());
+    assertEquals(2, CacheMetrics.snapshot(cache).stats().loadSuccessCount());
+
+    assertEquals("b", CacheBuilder.newBuilder().compactEntries().build().get("a",
+        new Callable<Object>() {
+          @Override
+          public Object call() {
+            return "b";
+          }
+        }));
+  }
+
+  public void testLoading_exceptions() throws ExecutionException {
+    LoadingCache<Object, Object> cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .build(exceptionLoader(new IllegalStateException()));
+    try {
+      cache.get(1);
+      fail();
+    } catch (UncheckedExecutionException expected) {
+      assertTrue(expected.getCause() instanceof IllegalStateException);
+    }
+    assertEquals(0, cache.size());
+    assertEquals(1, cache.stats().loadExceptionCount());
+    checkTable(toCompactLocalCache(cache).segments[0]);
+
+    cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .build(exceptionLoader(new Exception()));
+    try {
+      cache.get(1);
+      fail();
+    } catch (ExecutionException expected) {}
+
+    cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .build(TestingCacheLoaders.constantLoader(null));
+    try {
+      cache.getUnchecked(1);
+      fail();
+    } catch (InvalidCacheLoadException expected) {}
+    assertEquals(0, cache.size());
+  }
+
+  public void testLoading_concurrentRequestsShareLoad() throws Exception {
+    final CountDownLatch loadStarted = new CountDownLatch(1);
+    final CountDownLatch finishLoad = new CountDownLatch(1);
+    final LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .removalListener(queuingRemovalListener())
+        .build(new CacheLoader<Integer, Integer>() {
+          @Override
+          public Integer load(Integer key) throws InterruptedException {
+            loadStarted.countDown();
+            finishLoad.await();
+            return key;
+          }
+        });
+    final AtomicReference<Integer> waiterResult = new AtomicReference<Integer>();
+    Thread loader = new Thread() {
+      @Override
+      public void run() {
+        cache.getUnchecked(1);
+      }
+    };
+    loader.start();
+    loadStarted.await();
+
+    // a loading key is neither visible nor cleared
+    assertNull(cache.getIfPresent(1));
+    assertEquals(0, cache.size());
+    cache.invalidateAll();
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        waiterResult.set(cache.getUnchecked(1));
+      }
+    };
+    waiter.start();
+    while (waiter.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+    finishLoad.countDown();
+    loader.join();
+    waiter.join();
+    assertEquals(Integer.valueOf(1), waiterResult.get());
+    assertEquals(1, cache.stats().loadCount());
+    assertEquals(1, cache.size());
+  }
+
+  public void testLoading_putDuringLoadWins() throws Exception {
+    final CountDownLatch loadStarted = new CountDownLatch(1);
+    final CountDownLatch finishLoad = new CountDownLatch(1);
+    QueuingRemovalListener<Integer, Integer> listener = queuingRemovalListener();
+    final LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .removalListener(listener)
+        .build(new CacheLoader<Integer, Integer>() {
+          @Override
+          public Integer load(Integer key) throws InterruptedException {
+            loadStarted.countDown();
+            finishLoad.await();
+            return key;
+          }
+        });
+    Thread loader = new Thread() {
+      @Override
+      public void run() {
+        cache.getUnchecked(1);
+      }
+    };
+    loader.start();
+    loadStarted.await();
+    cache.put(1, 2);
+    finishLoad.countDown();
+    loader.join();
+
+    assertEquals(Integer.valueOf(2), cache.getIfPresent(1));
+    RemovalNotification<Integer, Integer> notification = listener.remove();
+    assertEquals(Integer.valueOf(1), notification.getValue());
+    assertEquals(RemovalCause.REPLACED, notification.getCause());
+  }
+
+  public void testRefresh() {
+    LoadingCache<Integer, Integer> cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .build(new CacheLoader<Integer, Integer>() {
+          int calls;
+
+          @Override
+          public Integer load(Integer key) {
+            return key + 100 * calls++;
+          }
+        });
+    cache.refresh(1);
+    assertEquals(Integer.valueOf(1), cache.getIfPresent(1));
+    cache.refresh(1);
+    assertEquals(Integer.valueOf(101), cache.getIfPresent(1));
+  }
+
+  public void testConcurrentReadsAndRemovals() throws Exception {
+    final Cache<HashKey, Integer> cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .concurrencyLevel(1)
+        .keyEquivalence(RAW_HASH)
+        .<HashKey, Integer>build();
+    // a key which is never removed, at the end of a long probe sequence
+    final HashKey stable = new HashKey(0, -1);
+    for (int i = 0; i < 20; i++) {
+      cache.put(new HashKey(0, i), i);
+    }
+    cache.put(stable, -1);
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        while (done.getCount() > 0) {
+          if (!Integer.valueOf(-1).equals(cache.getIfPresent(stable))) {
+            failure.set("missed the stable key");
+          }
+        }
+      }
+    };
+    reader.start();
+    for (int round = 0; round < 2000; round++) {
+      for (int i = 0; i < 20; i++) {
+        cache.invalidate(new HashKey(0, i));
+        cache.put(new HashKey(0, i), i);
+      }
+    }
+    done.countDown();
+    reader.join();
+    assertNull(failure.get());
+  }
+
+  public void testSerialization() {
+    LoadingCache<Object, Object> cache = CacheBuilder.newBuilder()
+        .compactEntries()
+        .concurrencyLevel(2)
+        .maximumSize(10)
+        .expireAfterWrite(1, SECONDS)
+        .build(CacheLoader.from(Functions.identity()));
+    cache.getUnchecked(1);
+    LoadingCache<Object, Object> copy = SerializableTester.reserialize(cache);
+    CompactLocalCache<Object, Object> original = toCompactLocalCache(cache);
+    CompactLocalCache<Object, Object> restored = toCompactLocalCache(copy);
+    assertEquals(0, copy.size());
+    assertEquals(original.concurrencyLevel, restored.concurrencyLevel);
+    assertEquals(original.maxSize, restored.maxSize);
+    assertEquals(original.expireAfterWriteNanos, restored.expireAfterWriteNanos);
+    assertSame(original.ticker, restored.ticker);
+    assertEquals(2, copy.getUnchecked(2));
+  }
+}
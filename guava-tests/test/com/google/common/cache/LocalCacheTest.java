@@ -19,6 +19,8 @@ package com.google.common.cache;
 import static com.google.common.cache.CacheBuilder.NULL_TICKER;
 import static com.google.common.cache.LocalCache.DISCARDING_QUEUE;
 import static com.google.common.cache.LocalCache.DRAIN_THRESHOLD;
+import static com.google.common.cache.LocalCache.MINIMUM_SKETCH_SIZE;
+import static com.google.common.cache.LocalCache.ReadBuffer.STRIPE_CAPACITY;
 import static com.google.common.cache.LocalCache.nullEntry;
 import static com.google.common.cache.LocalCache.unset;
 import static com.google.common.cache.TestingCacheLoaders.identityLoader;
@@ -38,6 +40,7 @@ import com.google.common.cache.LocalCache.EntryFactory;
 import com.google.common.cache.LocalCache.LoadingValueReference;
 import com.google.common.cache.LocalCache.LocalLoadingCache;
 import com.google.common.cache.LocalCache.LocalManualCache;
+import com.google.common.cache.LocalCache.ReadBuffer;
 import com.google.common.cache.LocalCache.ReferenceEntry;
 import com.google.common.cache.LocalCache.Segment;
 import com.google.common.cache.LocalCache.Strength;
@@ -310,6 +313,36 @@ public class LocalCacheTest extends TestCase {
     assertSame(testWeigher, map.weigher);
   }
 
+  public void testFrequencySketch_growsWithTable() {
+    LocalCache<Object, Object> map = makeLocalCache(createCacheBuilder()
+        .concurrencyLevel(1)
+        .initialCapacity(16)
+        .maximumSize(1 << 26)
+        .evictionPolicy(EvictionPolicy.TINY_LFU));
+    Segment<Object, Object> segment = map.segments[0];
+    assertEquals(MINIMUM_SKETCH_SIZE, segment.frequencySketch.table.length);
+
+    for (int i = 0; i < 1000; i++) {
+      map.put(i, i);
+    }
+    assertEquals(segment.table.length(), segment.frequencySketch.table.length);
+  }
+
+  public void testFrequencySketch_cappedAtMaximumSize() {
+    LocalCache<Object, Object> map = makeLocalCache(createCacheBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(10)
+        .evictionPolicy(EvictionPolicy.TINY_LFU));
+    Segment<Object, Object> segment = map.segments[0];
+    for (int i = 0; i < 1000; i++) {
+      map.put(i, i);
+    }
+    assertEquals(16, segment.frequencySketch.table.length);
+
+    map.setMaximumWeight(1000);
+    assertEquals(MINIMUM_SKETCH_SIZE, segment.frequencySketch.table.length);
+  }
+
   public void testSetWeakKeys() {
     LocalCache<Object, Object> map = makeLocalCache(createCacheBuilder().weakKeys());
     checkStrength(map, Strength.WEAK, Strength.STRONG);
@@ -397,6 +430,56 @@ public class LocalCacheTest extends TestCase {
         EntryFactory.getFactory(Strength.WEAK, true, true));
   }
 
+  public void testEntryFactory_variable() {
+    assertSame(EntryFactory.STRONG_VARIABLE, EntryFactory.getVariableFactory(Strength.STRONG));
+    assertSame(EntryFactory.WEAK_VARIABLE, EntryFactory.getVariableFactory(Strength.WEAK));
+
+    LocalCache<Object, Object> map =
+        makeLocalCache(createCacheBuilder().expireAfter(oneNanosecondExpiry()));
+    assertSame(EntryFactory.STRONG_VARIABLE, map.entryFactory);
+    assertTrue(map.expiresVariably());
+    assertTrue(map.usesAccessQueue());
+    assertNotNull(map.segments[0].timerWheel);
+  }
+
+  public void testIsExpired_variableNever() {
+    LocalCache<Object, Object> map =
+        makeLocalCache(createCacheBuilder().expireAfter(oneNanosecondExpiry()));
+    ReferenceEntry<Object, Object> entry = map.newEntry(new Object(), 1, null);
+    assertEquals(Long.MAX_VALUE, entry.getExpirationTime());
+    // a negative reading would overflow a plain difference with Long.MAX_VALUE
+    for (long now : new long[] {Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE - 1}) {
+      assertFalse(map.isExpired(entry, now));
+      assertEquals(Long.MAX_VALUE, LocalCache.remainingNanos(entry.getExpirationTime(), now));
+    }
+
+    entry.setExpirationTime(LocalCache.variableExpirationTime(-10, 5));
+    assertFalse(map.isExpired(entry, -6));
+    assertTrue(map.isExpired(entry, -5));
+    assertTrue(map.isExpired(entry, 0));
+    assertEquals(2, LocalCache.remainingNanos(entry.getExpirationTime(), -7));
+
+    // the largest durations stop short of the time reserved for never
+    long now = Long.MAX_VALUE - LocalCache.MAXIMUM_EXPIRY;
+    assertEquals(Long.MAX_VALUE - 1, LocalCache.variableExpirationTime(now, Long.MAX_VALUE));
+  }
+
+  private static Expiry<Object, Object> oneNanosecondExpiry() {
+    return new Expiry<Object, Object>() {
+      @Override public long expireAfterCreate(Object key, Object value, long currentTime) {
+        return 1;
+      }
+      @Override public long expireAfterUpdate(
+          Object key, Object value, long currentTime, long currentDuration) {
+        return currentDuration;
+      }
+      @Override public long expireAfterRead(
+          Object key, Object value, long currentTime, long currentDuration) {
+        return currentDuration;
+      }
+    };
+  }
+
   // computation tests
 
   public void testCompute() throws ExecutionException {
@@ -1197,6 +1280,36 @@ public class LocalCacheTest extends TestCase {
     }
   }
 
+  public void testSegmentLoad_expand() throws ExecutionException {
+    LocalCache<Object, Object> map =
+        makeLocalCache(createCacheBuilder().concurrencyLevel(1).initialCapacity(1));
+    Segment<Object, Object> segment = map.segments[0];
+    assertEquals(1, segment.table.length());
+
+    CacheLoader<Object, Object> loader = identityLoader();
+    int count = 1024;
+    for (int i = 0; i < count; i++) {
+      Object key = new Object();
+      int hash = map.hash(key);
+      assertSame(key, segment.get(key, hash, loader));
+      assertTrue(segment.table.length() > i);
+    }
+  }
+
+  public void testLoadingCache_expand() {
+    CacheLoader<Object, Object> loader = identityLoader();
+    LoadingCache<Object, Object> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .initialCapacity(1)
+        .build(loader);
+    for (int i = 0; i < 1024; i++) {
+      cache.getUnchecked(i);
+    }
+    Segment<Object, Object> segment = CacheTesting.toLocalCache(cache).segments[0];
+    // the table is kept at least a third larger than the number of entries
+    assertTrue(segment.table.length() * 3 / 4 >= 1024);
+  }
+
   public void testSegmentPut_evict() {
     int maxSize = 10;
     LocalCache<Object, Object> map =
@@ -1849,6 +1962,96 @@ public class LocalCacheTest extends TestCase {
     }
   }
 
+  public void testReadBuffer() {
+    ReadBuffer<ReferenceEntry<Object, Object>> buffer =
+        new ReadBuffer<ReferenceEntry<Object, Object>>();
+    assertTrue(buffer.isEmpty());
+    assertNull(buffer.peek());
+    assertNull(buffer.poll());
+
+    List<ReferenceEntry<Object, Object>> entries = Lists.newArrayList();
+    for (int i = 0; i < STRIPE_CAPACITY; i++) {
+      ReferenceEntry<Object, Object> entry = createDummyEntry((Object) i, i, (Object) i, null);
+      entries.add(entry);
+      assertTrue(buffer.offer(entry));
+    }
+    // the current thread's stripe is full
+    assertFalse(buffer.offer(createDummyEntry((Object) (-1), -1, (Object) (-1), null)));
+    assertEquals(STRIPE_CAPACITY, buffer.size());
+    assertSame(entries.get(0), buffer.peek());
+    assertEquals(entries, ImmutableList.copyOf(buffer));
+
+    assertSame(entries.get(0), buffer.poll());
+    ReferenceEntry<Object, Object> last = createDummyEntry((Object) (-2), -2, (Object) (-2), null);
+    assertTrue(buffer.offer(last));
+    for (int i = 1; i < STRIPE_CAPACITY; i++) {
+      assertSame(entries.get(i), buffer.poll());
+    }
+    assertSame(last, buffer.poll());
+    assertNull(buffer.poll());
+    assertTrue(buffer.isEmpty());
+  }
+
+  public void testRecordRead_drainsFullStripe() {
+    for (CacheBuilder<Object, Object> builder : allEvictingMakers()) {
+      LocalCache<Object, Object> map = makeLocalCache(builder.concurrencyLevel(1));
+      Segment<Object, Object> segment = map.segments[0];
+
+      if (segment.recencyQueue != DISCARDING_QUEUE) {
+        Object key = new Object();
+        map.put(key, new Object());
+        for (int i = 0; i < STRIPE_CAPACITY * 3; i++) {
+          map.get(key);
+          assertTrue(segment.recencyQueue.size() <= STRIPE_CAPACITY);
+        }
+        assertFalse(segment.recencyQueue.isEmpty());
+      }
+    }
+  }
+
+  public void testRecordRead_concurrent() throws InterruptedException {
+    final LocalCache<Object, Object> map =
+        makeLocalCache(createCacheBuilder().concurrencyLevel(1).maximumSize(SMALL_MAX_SIZE));
+    final Object[] keys = new Object[DRAIN_THRESHOLD];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = new Object();
+      map.put(keys[i], new Object());
+    }
+
+    int nThreads = 8;
+    final CountDownLatch startSignal = new CountDownLatch(1);
+    final CountDownLatch doneSignal = new CountDownLatch(nThreads);
+    for (int i = 0; i < nThreads; i++) {
+      new Thread() {
+        @Override public void run() {
+          try {
+            startSignal.await();
+            for (int j = 0; j < 10000; j++) {
+              assertNotNull(map.get(keys[j % keys.length]));
+            }
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          } finally {
+            doneSignal.countDown();
+          }
+        }
+      }.start();
+    }
+    startSignal.countDown();
+    doneSignal.await();
+
+    Segment<Object, Object> segment = map.segments[0];
+    segment.lock();
+    try {
+      segment.drainRecencyQueue();
+    } finally {
+      segment.unlock();
+    }
+    assertTrue(segment.recencyQueue.isEmpty());
+    assertEquals(keys.length, segment.accessQueue.size());
+    CacheTesting.checkValidState(map);
+  }
+
   public void testRecordRead() {
     for (CacheBuilder<Object, Object> builder : allEvictingMakers()) {
       LocalCache<Object, Object> map = makeLocalCache(builder.concurrencyLevel(1));
@@ -1880,9 +2083,12 @@ public class LocalCacheTest extends TestCase {
           segment.recordRead(entry, map.ticker.read());
           reads.add(entry);
           i.remove();
+          assertTrue(segment.recencyQueue.size() <= STRIPE_CAPACITY);
         }
       }
-      checkAndDrainRecencyQueue(map, segment, reads);
+      // reads overflowing the buffer were already drained
+      int undrainedIndex = reads.size() - segment.recencyQueue.size();
+      checkAndDrainRecencyQueue(map, segment, reads.subList(undrainedIndex, reads.size()));
       readOrder.addAll(reads);
 
       checkEvictionQueues(map, segment, readOrder, writeOrder);
@@ -2161,7 +2367,7 @@ public class LocalCacheTest extends TestCase {
       it.next();
       it.remove();
     }
-    segment.evictEntries();
+    segment.evictEntries(null);
     assertEquals(maxSize, map.size());
     assertEquals(originalMap, map);
   }
@@ -2367,6 +2573,7 @@ public class LocalCacheTest extends TestCase {
         .expireAfterAccess(123, NANOSECONDS)
         .maximumWeight(789)
         .weigher(weigher)
+        .globalEviction(3)
         .concurrencyLevel(12)
         .removalListener(listener)
         .ticker(ticker)
@@ -2388,6 +2595,7 @@ public class LocalCacheTest extends TestCase {
     assertEquals(localCacheOne.valueEquivalence, localCacheTwo.valueEquivalence);
     assertEquals(localCacheOne.maxWeight, localCacheTwo.maxWeight);
     assertEquals(localCacheOne.weigher, localCacheTwo.weigher);
+    assertEquals(3, localCacheTwo.evictionSampleSize);
     assertEquals(localCacheOne.expireAfterAccessNanos, localCacheTwo.expireAfterAccessNanos);
     assertEquals(localCacheOne.expireAfterWriteNanos, localCacheTwo.expireAfterWriteNanos);
     assertEquals(localCacheOne.removalListener, localCacheTwo.removalListener);
@@ -2403,6 +2611,7 @@ public class LocalCacheTest extends TestCase {
     assertEquals(localCacheTwo.valueEquivalence, localCacheThree.valueEquivalence);
     assertEquals(localCacheTwo.maxWeight, localCacheThree.maxWeight);
     assertEquals(localCacheTwo.weigher, localCacheThree.weigher);
+    assertEquals(3, localCacheThree.evictionSampleSize);
     assertEquals(localCacheTwo.expireAfterAccessNanos, localCacheThree.expireAfterAccessNanos);
     assertEquals(localCacheTwo.expireAfterWriteNanos, localCacheThree.expireAfterWriteNanos);
     assertEquals(localCacheTwo.removalListener, localCacheThree.removalListener);
@@ -2593,6 +2802,36 @@ public class LocalCacheTest extends TestCase {
     public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
       this.previousWrite = previous;
     }
+
+    @Override
+    public long getExpirationTime() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getNextInTimerWheel() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNextInTimerWheel(ReferenceEntry<K, V> next) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInTimerWheel() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<K, V> previous) {
+      throw new UnsupportedOperationException();
+    }
   }
 
   static class DummyValueReference<K, V> implements ValueReference<K, V> {
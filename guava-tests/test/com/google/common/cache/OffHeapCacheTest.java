@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.CacheTesting.checkValidState;
+import static com.google.common.cache.CacheTesting.toLocalCache;
+import static com.google.common.cache.TestingRemovalListeners.queuingRemovalListener;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for caches built with {@link CacheBuilder#offHeapValues}.
+ */
+public class OffHeapCacheTest extends TestCase {
+
+  /** Encodes each character of a string as two bytes. */
+  static final CacheCodec<String> STRING_CODEC = new CacheCodec<String>() {
+    @Override
+    public byte[] encode(String value) {
+      byte[] bytes = new byte[value.length() * 2];
+      for (int i = 0; i < value.length(); i++) {
+        bytes[2 * i] = (byte) (value.charAt(i) >> 8);
+        bytes[2 * i + 1] = (byte) value.charAt(i);
+      }
+      return bytes;
+    }
+
+    @Override
+    public String decode(byte[] bytes) {
+      char[] chars = new char[bytes.length / 2];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = (char) (((bytes[2 * i] & 0xff) << 8) | (bytes[2 * i + 1] & 0xff));
+      }
+      return new String(chars);
+    }
+  };
+
+  /** Loads a string of {@code key} copies of the letter x. */
+  static final CacheLoader<Integer, String> REPEATING_LOADER = new CacheLoader<Integer, String>() {
+    @Override
+    public String load(Integer key) {
+      return Strings.repeat("x", key);
+    }
+  };
+
+  public void testGetPut() {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .offHeapValues(STRING_CODEC)
+        .build(REPEATING_LOADER);
+    cache.put(1, "one");
+    cache.put(2, "two");
+    assertEquals("one", cache.getIfPresent(1));
+    assertEquals("two", cache.getIfPresent(2));
+    assertNull(cache.getIfPresent(3));
+
+    // each read decodes a new copy
+    assertNotSame(cache.getIfPresent(1), cache.getIfPresent(1));
+    assertTrue(cache.asMap().containsValue("two"));
+    assertTrue(cache.asMap().replace(2, "two", "deux"));
+    assertEquals("deux", cache.getIfPresent(2));
+    checkValidState(cache);
+  }
+
+  public void testLoadingCache() throws Exception {
+    LoadingCache<Integer, String> cache = CacheBuilder.newBuilder()
+        .offHeapValues(STRING_CODEC)
+        .build(REPEATING_LOADER);
+    assertEquals("xxxxx", cache.get(5));
+    assertEquals(1, cache.stats().loadCount());
+    assertEquals("xxxxx", cache.get(5));
+    assertEquals(1, cache.stats().loadCount());
+  }
+
+  public void testMaximumWeight_countsBytes() {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(100)
+        .offHeapValues(STRING_CODEC)
+        .build(REPEATING_LOADER);
+    LocalCache<Integer, String> map = toLocalCache(cache);
+
+    // ten characters are twenty bytes, so five values fit
+    for (int i = 0; i < 10; i++) {
+      cache.put(i, Strings.repeat("a", 10));
+    }
+    assertEquals(5, cache.size());
+    assertEquals(100, map.segments[0].totalWeight);
+    for (int i = 5; i < 10; i++) {
+      assertNotNull(cache.getIfPresent(i));
+    }
+
+    cache.put(10, Strings.repeat("b", 50));
+    assertEquals(1, cache.size());
+    assertEquals(100, map.segments[0].totalWeight);
+    checkValidState(cache);
+  }
+
+  public void testMaximumSize_countsEntries() {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .maximumSize(10)
+        .offHeapValues(STRING_CODEC)
+        .build(REPEATING_LOADER);
+    for (int i = 0; i < 20; i++) {
+      cache.put(i, Strings.repeat("a", 1000));
+    }
+    assertEquals(10, cache.size());
+  }
+
+  public void testWeigher() {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(10)
+        .weigher(new Weigher<Integer, String>() {
+          @Override
+          public int weigh(Integer key, String value) {
+            return value.length();
+          }
+        })
+        .offHeapValues(STRING_CODEC)
+        .build(REPEATING_LOADER);
+    cache.put(1, "abcde");
+    cache.put(2, "fghij");
+    cache.put(3, "k");
+    assertEquals(2, cache.size());
+    assertEquals(6, toLocalCache(cache).segments[0].totalWeight);
+  }
+
+  public void testRemovalListener() {
+    QueuingRemovalListener<Integer, String> listener = queuingRemovalListener();
+    Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumWeight(8)
+        .removalListener(listener)
+        .offHeapValues(STRING_CODEC)
+        .build(REPEATING_LOADER);
+
+    cache.put(1, "ab");
+    cache.put(1, "cd");
+    RemovalNotification<Integer, String> notification = listener.remove();
+    assertEquals("ab", notification.getValue());
+    assertEquals(RemovalCause.REPLACED, notification.getCause());
+
+    cache.put(2, "efg");
+    notification = listener.remove();
+    assertEquals(Integer.valueOf(1), notification.getKey());
+    assertEquals("cd", notification.getValue());
+    assertEquals(RemovalCause.SIZE, notification.getCause());
+
+    cache.invalidate(2);
+    notification = listener.remove();
+    assertEquals("efg", notification.getValue());
+    assertEquals(RemovalCause.EXPLICIT, notification.getCause());
+    assertTrue(listener.isEmpty());
+  }
+
+  public void testRemoval_freesMemory() {
+    Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .maximumSize(100)
+        .offHeapValues(STRING_CODEC)
+        .build(REPEATING_LOADER);
+    SlabAllocator allocator = toLocalCache(cache).slabAllocator;
+
+    for (int i = 0; i < 1000; i++) {
+      cache.put(i % 200, Strings.repeat("z", 100));
+    }
+    assertEquals(100, cache.size());
+    assertEquals(100L * SlabAllocator.chunkSize(SlabAllocator.sizeClass(200)),
+        allocator.allocatedBytes());
+    long reserved = allocator.reservedBytes();
+
+    cache.invalidateAll();
+    assertEquals(0, allocator.allocatedBytes());
+
+    // freed chunks are reused
+    for (int i = 0; i < 100; i++) {
+      cache.put(i, Strings.repeat("z", 100));
+    }
+    assertEquals(reserved, allocator.reservedBytes());
+  }
+
+  public void testConcurrentReadsAndWrites() throws Exception {
+    final Cache<Integer, String> cache = CacheBuilder.newBuilder()
+        .maximumSize(16)
+        .offHeapValues(STRING_CODEC)
+        .build(REPEATING_LOADER);
+    final int iterations = 20000;
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    final CountDownLatch done = new CountDownLatch(4);
+    for (int t = 0; t < 4; t++) {
+      final boolean writer = (t % 2 == 0);
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < iterations; i++) {
+              int key = i % 32;
+              if (writer) {
+                cache.put(key, Strings.repeat(Character.toString((char) ('a' + key)), key + 1));
+              } else {
+                String value = cache.getIfPresent(key);
+                String expected = Strings.repeat(Character.toString((char) ('a' + key)), key + 1);
+                if (value != null && !value.equals(expected)) {
+                  failure.set(value);
+                }
+              }
+            }
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    done.await();
+    assertNull(failure.get());
+    checkValidState(cache);
+  }
+}
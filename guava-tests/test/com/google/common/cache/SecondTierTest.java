@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.OffHeapCacheTest.REPEATING_LOADER;
+import static com.google.common.cache.OffHeapCacheTest.STRING_CODEC;
+import static com.google.common.cache.SecondTier.HEADER_SIZE;
+import static com.google.common.cache.TestingRemovalListeners.queuingRemovalListener;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.TestingRemovalListeners.QueuingRemovalListener;
+import com.google.common.testing.FakeTicker;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link SecondTier} and caches built with {@link CacheBuilder#secondTier}.
+ */
+public class SecondTierTest extends TestCase {
+
+  File file;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    file = File.createTempFile("SecondTierTest", ".tier");
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    file.delete();
+    super.tearDown();
+  }
+
+  public void testPutRemove() throws Exception {
+    SecondTier<Integer, String> tier = new SecondTier<Integer, String>(file, 1024, STRING_CODEC);
+    tier.put(1, "one", Long.MAX_VALUE);
+    tier.put(2, "two", Long.MAX_VALUE);
+    assertEquals(2 * (HEADER_SIZE + 6), tier.liveBytes());
+
+    assertEquals("one", tier.remove(1, 0));
+    assertNull(tier.remove(1, 0));
+    assertEquals(HEADER_SIZE + 6, tier.liveBytes());
+    assertEquals(1, tier.hitCount());
+
+    // a second put replaces the first
+    tier.put(2, "deux", Long.MAX_VALUE);
+    assertEquals(HEADER_SIZE + 8, tier.liveBytes());
+    assertEquals("deux", tier.remove(2, 0));
+    assertEquals(0, tier.liveBytes());
+  }
+
+  public void testRemove_expired() throws Exception {
+    SecondTier<Integer, String> tier = new SecondTier<Integer, String>(file, 1024, STRING_CODEC);
+    tier.put(1, "one", 10);
+    tier.put(2, "two", 10);
+    assertEquals("one", tier.remove(1, 9));
+    assertNull(tier.remove(2, 10));
+    assertEquals(0, tier.liveBytes());
+    assertEquals(1, tier.hitCount());
+  }
+
+  public void testPut_wrapsAround() throws Exception {
+    int recordSize = HEADER_SIZE + 20;
+    SecondTier<Integer, String> tier =
+        new SecondTier<Integer, String>(file, 3 * recordSize + 5, STRING_CODEC);
+    for (int i = 0; i < 3; i++) {
+      tier.put(i, Strings.repeat(Integer.toString(i), 10), Long.MAX_VALUE);
+    }
+    assertEquals(3 * recordSize, tier.liveBytes());
+
+    // the oldest record is overwritten
+    tier.put(3, Strings.repeat("3", 10), Long.MAX_VALUE);
+    assertEquals(3 * recordSize, tier.liveBytes());
+    assertNull(tier.remove(0, 0));
+    for (int i = 1; i < 4; i++) {
+      assertEquals(Strings.repeat(Integer.toString(i), 10), tier.remove(i, 0));
+    }
+  }
+
+  public void testPut_deadRecordsAreReused() throws Exception {
+    int recordSize = HEADER_SIZE + 20;
+    SecondTier<Integer, String> tier =
+        new SecondTier<Integer, String>(file, 2 * recordSize, STRING_CODEC);
+    tier.put(0, Strings.repeat("0", 10), Long.MAX_VALUE);
+    tier.invalidate(0);
+    tier.put(1, Strings.repeat("1", 10), Long.MAX_VALUE);
+    tier.put(2, Strings.repeat("2", 10), Long.MAX_VALUE);
+    assertEquals(2 * recordSize, tier.liveBytes());
+    assertEquals(Strings.repeat("1", 10), tier.remove(1, 0));
+    assertEquals(Strings.repeat("2", 10), tier.remove(2, 0));
+  }
+
+  public void testPut_oversized() throws Exception {
+    SecondTier<Integer, String> tier = new SecondTier<Integer, String>(file, 64, STRING_CODEC);
+    tier.put(1, "one", Long.MAX_VALUE);
+    tier.put(1, Strings.repeat("x", 100), Long.MAX_VALUE);
+    assertEquals(0, tier.liveBytes());
+    assertNull(tier.remove(1, 0));
+  }
+
+  public void testClear() throws Exception {
+    SecondTier<Integer, String> tier = new SecondTier<Integer, String>(file, 1024, STRING_CODEC);
+    tier.put(1, "one", Long.MAX_VALUE);
+    tier.clear();
+    assertEquals(0, tier.liveBytes());
+    assertNull(tier.remove(1, 0));
+  }
+
+  public void testInvalidate() throws Exception {
+    SecondTier<Integer, String> tier = new SecondTier<Integer, String>(file, 1024, STRING_CODEC);
+    tier.put(1, "one", Long.MAX_VALUE);
+    tier.invalidate(2);
+    assertEquals(HEADER_SIZE + 6, tier.liveBytes());
+    tier.invalidate(1);
+    assertEquals(0, tier.liveBytes());
+    assertNull(tier.remove(1, 0));
+  }
+
+  public void testInvalidate_absentKeyDoesNotLock() throws Exception {
+    final SecondTier<Integer, String> tier =
+        new SecondTier<Integer, String>(file, 1024, STRING_CODEC);
+    tier.put(1, "one", Long.MAX_VALUE);
+    Thread writer = new Thread() {
+      @Override public void run() {
+        tier.invalidate(2);
+        tier.remove(2, 0);
+      }
+    };
+    synchronized (tier) {
+      writer.start();
+      writer.join(10000);
+      assertFalse("blocked on the tier's lock", writer.isAlive());
+    }
+    assertEquals(HEADER_SIZE + 6, tier.liveBytes());
+  }
+
+  public void testCache_evictedEntriesAreNotReloaded() throws Exception {
+    final AtomicInteger loadCount = new AtomicInteger();
+    LoadingCache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(10)
+        .secondTier(file, 4096, STRING_CODEC)
+        .build(new CacheLoader<Integer, String>() {
+          @Override
+          public String load(Integer key) {
+            loadCount.incrementAndGet();
+            return Strings.repeat("x", key);
+          }
+        });
+
+    for (int i = 0; i < 20; i++) {
+      cache.get(i);
+    }
+    assertEquals(20, loadCount.get());
+    assertEquals(10, cache.size());
+    // getIfPresent doesn't consult the second tier
+    assertNull(cache.getIfPresent(0));
+
+    // the evicted entries are taken from the second tier rather than loaded
+    for (int i = 0; i < 10; i++) {
+      assertEquals(Strings.repeat("x", i), cache.get(i));
+    }
+    assertEquals(20, loadCount.get());
+
+    CacheStats stats = cache.stats();
+    assertEquals(31, stats.missCount());
+    assertEquals(20, stats.loadCount());
+    assertEquals(10, stats.l2HitCount());
+
+    // keys 10 through 19 were moved to the second tier in turn
+    long bytes = 0;
+    for (int i = 10; i < 20; i++) {
+      bytes += HEADER_SIZE + 2 * i;
+    }
+    assertEquals(bytes, stats.l2Bytes());
+  }
+
+  public void testCache_removalListener() throws Exception {
+    QueuingRemovalListener<Integer, String> listener = queuingRemovalListener();
+    LoadingCache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(1)
+        .removalListener(listener)
+        .secondTier(file, 4096, STRING_CODEC)
+        .build(REPEATING_LOADER);
+
+    cache.get(1);
+    cache.get(2);
+    RemovalNotification<Integer, String> notification = listener.remove();
+    assertEquals(Integer.valueOf(1), notification.getKey());
+    assertEquals(RemovalCause.SIZE, notification.getCause());
+    assertEquals("x", cache.get(1));
+    assertEquals(1, cache.stats().l2HitCount());
+  }
+
+  public void testCache_writesInvalidate() throws Exception {
+    LoadingCache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(1)
+        .secondTier(file, 4096, STRING_CODEC)
+        .build(REPEATING_LOADER);
+
+    cache.put(1, "one");
+    cache.put(2, "two");
+    assertEquals(HEADER_SIZE + 6, cache.stats().l2Bytes());
+
+    // explicit removal also removes the evicted copy
+    cache.invalidate(1);
+    assertEquals(0, cache.stats().l2Bytes());
+    assertEquals("x", cache.get(1));
+
+    // as does replacing the evicted entry
+    assertEquals(HEADER_SIZE + 6, cache.stats().l2Bytes());
+    cache.asMap().put(2, "deux");
+    assertEquals(HEADER_SIZE + 2, cache.stats().l2Bytes());
+    assertEquals("deux", cache.get(2));
+
+    cache.invalidateAll();
+    assertEquals(0, cache.stats().l2Bytes());
+    assertEquals(0, cache.stats().l2HitCount());
+  }
+
+  public void testCache_removeRacingSizeEviction() throws Exception {
+    final LoadingCache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(10)
+        .secondTier(file, 4096, STRING_CODEC)
+        .build(REPEATING_LOADER);
+    cache.put(1, "one");
+    LocalCache<Integer, String> map = CacheTesting.toLocalCache(cache);
+    LocalCache.Segment<Integer, String> segment = map.segments[0];
+
+    Thread remover = new Thread() {
+      @Override public void run() {
+        cache.invalidate(1);
+      }
+    };
+    segment.lock();
+    try {
+      remover.start();
+      while (!segment.hasQueuedThread(remover)) {
+        Thread.yield();
+      }
+      // the entry is evicted for size while the removal waits for the lock
+      int hash = map.hash(1);
+      assertTrue(segment.removeEntry(segment.getEntry(1, hash), hash, RemovalCause.SIZE));
+      assertEquals(HEADER_SIZE + 6, cache.stats().l2Bytes());
+    } finally {
+      segment.unlock();
+    }
+    remover.join();
+
+    // the removal also removed the copy evicted to the second tier
+    assertEquals(0, cache.stats().l2Bytes());
+    assertEquals("x", cache.get(1));
+    assertEquals(0, cache.stats().l2HitCount());
+  }
+
+  public void testCache_expiration() throws Exception {
+    FakeTicker ticker = new FakeTicker();
+    LoadingCache<Integer, String> cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(1)
+        .expireAfterWrite(10, MILLISECONDS)
+        .ticker(ticker)
+        .secondTier(file, 4096, STRING_CODEC)
+        .build(REPEATING_LOADER);
+
+    cache.put(1, "one");
+    cache.put(2, "two");
+    cache.put(3, "three");
+    ticker.advance(5, MILLISECONDS);
+    assertEquals("one", cache.get(1));
+
+    // the entry would have expired from the cache by now
+    ticker.advance(5, MILLISECONDS);
+    assertEquals("xx", cache.get(2));
+    assertEquals(1, cache.stats().l2HitCount());
+  }
+}
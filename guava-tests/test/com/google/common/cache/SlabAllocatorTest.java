@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.SlabAllocator.SIZE_CLASSES;
+import static com.google.common.cache.SlabAllocator.SLAB_SIZE;
+import static com.google.common.cache.SlabAllocator.chunkSize;
+import static com.google.common.cache.SlabAllocator.sizeClass;
+
+import com.google.common.cache.SlabAllocator.Chunk;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Tests for {@link SlabAllocator}.
+ */
+public class SlabAllocatorTest extends TestCase {
+
+  public void testSizeClasses() {
+    assertEquals(0, sizeClass(0));
+    assertEquals(0, sizeClass(64));
+    assertEquals(64, chunkSize(0));
+    assertEquals(80, chunkSize(sizeClass(65)));
+    assertEquals(128, chunkSize(sizeClass(128)));
+    assertEquals(160, chunkSize(sizeClass(129)));
+    assertEquals(SLAB_SIZE, chunkSize(sizeClass(SLAB_SIZE)));
+    assertEquals(SIZE_CLASSES - 1, sizeClass(SLAB_SIZE));
+
+    int previous = 0;
+    for (int sizeClass = 0; sizeClass < SIZE_CLASSES; sizeClass++) {
+      int chunkSize = chunkSize(sizeClass);
+      assertTrue(chunkSize > previous);
+      assertEquals(sizeClass, sizeClass(chunkSize));
+      assertEquals(sizeClass, sizeClass(previous + 1));
+      if (sizeClass > 0) {
+        // no more than a fifth of a chunk is wasted
+        assertTrue(5L * (chunkSize - previous - 1) <= chunkSize);
+      }
+      previous = chunkSize;
+    }
+  }
+
+  public void testAllocate_readWrite() {
+    SlabAllocator allocator = new SlabAllocator();
+    byte[] bytes = new byte[100];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    Chunk chunk = allocator.allocate(bytes.length);
+    chunk.write(bytes);
+    assertTrue(Arrays.equals(bytes, chunk.read()));
+    assertEquals(chunkSize(sizeClass(100)), allocator.allocatedBytes());
+  }
+
+  public void testAllocate_distinctChunks() {
+    SlabAllocator allocator = new SlabAllocator();
+    Chunk[] chunks = new Chunk[SLAB_SIZE / 64 + 1];
+    for (int i = 0; i < chunks.length; i++) {
+      chunks[i] = allocator.allocate(4);
+      chunks[i].write(new byte[] {(byte) i, (byte) (i >> 8), (byte) (i >> 16), 0});
+    }
+    for (int i = 0; i < chunks.length; i++) {
+      byte[] bytes = chunks[i].read();
+      assertEquals(i, (bytes[0] & 0xff) | ((bytes[1] & 0xff) << 8) | ((bytes[2] & 0xff) << 16));
+    }
+    // one slab was filled, so a second one was needed
+    assertEquals(2L * SLAB_SIZE, allocator.reservedBytes());
+    assertEquals(64L * chunks.length, allocator.allocatedBytes());
+  }
+
+  public void testFree_reusesChunks() {
+    SlabAllocator allocator = new SlabAllocator();
+    for (int i = 0; i < 1000; i++) {
+      Chunk chunk = allocator.allocate(1000);
+      allocator.free(chunk);
+    }
+    assertEquals(0, allocator.allocatedBytes());
+    assertEquals(SLAB_SIZE / 1024 * 1024, allocator.reservedBytes());
+  }
+
+  public void testAllocate_oversized() {
+    SlabAllocator allocator = new SlabAllocator();
+    Chunk chunk = allocator.allocate(SLAB_SIZE + 1);
+    assertEquals(SLAB_SIZE + 1, allocator.allocatedBytes());
+    byte[] bytes = new byte[SLAB_SIZE + 1];
+    bytes[SLAB_SIZE] = 42;
+    chunk.write(bytes);
+    assertTrue(Arrays.equals(bytes, chunk.read()));
+    allocator.free(chunk);
+    assertEquals(0, allocator.allocatedBytes());
+    assertEquals(0, allocator.reservedBytes());
+  }
+}
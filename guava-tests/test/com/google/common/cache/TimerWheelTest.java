@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.cache.LocalCache.ReferenceEntry;
+import com.google.common.cache.LocalCache.StrongVariableEntry;
+import com.google.common.collect.Sets;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for {@link TimerWheel}.
+ */
+public class TimerWheelTest extends TestCase {
+
+  public void testAdvance_expiresOnlyDueEntries() {
+    TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(0);
+    ReferenceEntry<Integer, Integer> second = scheduled(wheel, 1, SECONDS.toNanos(1));
+    ReferenceEntry<Integer, Integer> minute = scheduled(wheel, 2, MINUTES.toNanos(1));
+    ReferenceEntry<Integer, Integer> hour = scheduled(wheel, 3, HOURS.toNanos(1));
+    ReferenceEntry<Integer, Integer> day = scheduled(wheel, 4, DAYS.toNanos(1));
+    ReferenceEntry<Integer, Integer> month = scheduled(wheel, 5, DAYS.toNanos(30));
+
+    wheel.advance(SECONDS.toNanos(3));
+    assertSame(second, wheel.pollExpired());
+    assertNull(wheel.pollExpired());
+
+    wheel.advance(MINUTES.toNanos(2));
+    assertSame(minute, wheel.pollExpired());
+    assertNull(wheel.pollExpired());
+
+    wheel.advance(HOURS.toNanos(2));
+    assertSame(hour, wheel.pollExpired());
+    assertNull(wheel.pollExpired());
+
+    wheel.advance(DAYS.toNanos(2));
+    assertSame(day, wheel.pollExpired());
+    assertNull(wheel.pollExpired());
+
+    wheel.advance(DAYS.toNanos(29));
+    assertNull(wheel.pollExpired());
+    wheel.advance(DAYS.toNanos(31));
+    assertSame(month, wheel.pollExpired());
+    assertNull(wheel.pollExpired());
+  }
+
+  public void testSchedule_alreadyExpired() {
+    TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(100);
+    ReferenceEntry<Integer, Integer> entry = scheduled(wheel, 1, 100);
+    assertSame(entry, wheel.pollExpired());
+    assertNull(wheel.pollExpired());
+  }
+
+  public void testSchedule_reschedules() {
+    TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(0);
+    ReferenceEntry<Integer, Integer> entry = scheduled(wheel, 1, SECONDS.toNanos(1));
+    entry.setExpirationTime(HOURS.toNanos(1));
+    wheel.schedule(entry);
+
+    wheel.advance(MINUTES.toNanos(1));
+    assertNull(wheel.pollExpired());
+    wheel.advance(HOURS.toNanos(2));
+    assertSame(entry, wheel.pollExpired());
+  }
+
+  public void testDeschedule() {
+    TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(0);
+    ReferenceEntry<Integer, Integer> entry = scheduled(wheel, 1, SECONDS.toNanos(1));
+    wheel.deschedule(entry);
+    assertSame(LocalCache.nullEntry(), entry.getNextInTimerWheel());
+    // descheduling twice is harmless
+    wheel.deschedule(entry);
+
+    wheel.advance(MINUTES.toNanos(1));
+    assertNull(wheel.pollExpired());
+  }
+
+  public void testClear() {
+    TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(0);
+    ReferenceEntry<Integer, Integer> entry = scheduled(wheel, 1, SECONDS.toNanos(1));
+    scheduled(wheel, 2, 0);
+    wheel.clear();
+    assertSame(LocalCache.nullEntry(), entry.getNextInTimerWheel());
+    assertNull(wheel.pollExpired());
+    wheel.advance(MINUTES.toNanos(1));
+    assertNull(wheel.pollExpired());
+  }
+
+  public void testAdvance_negativeTimes() {
+    long start = -SECONDS.toNanos(90);
+    TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(start);
+    ReferenceEntry<Integer, Integer> entry = scheduled(wheel, 1, start + MINUTES.toNanos(1));
+
+    wheel.advance(start + SECONDS.toNanos(30));
+    assertNull(wheel.pollExpired());
+    wheel.advance(SECONDS.toNanos(2));
+    assertSame(entry, wheel.pollExpired());
+  }
+
+  public void testSchedule_never() {
+    long start = -DAYS.toNanos(1);
+    TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(start);
+    ReferenceEntry<Integer, Integer> entry = scheduled(wheel, 1, Long.MAX_VALUE);
+    assertNull(wheel.pollExpired());
+
+    for (long now = start; now < DAYS.toNanos(30); now += HOURS.toNanos(7)) {
+      wheel.advance(now);
+      assertNull(wheel.pollExpired());
+    }
+    assertNotSame(LocalCache.nullEntry(), entry.getNextInTimerWheel());
+  }
+
+  public void testAdvance_random() {
+    Random random = new Random(0);
+    TimerWheel<Integer, Integer> wheel = new TimerWheel<Integer, Integer>(0);
+    Set<ReferenceEntry<Integer, Integer>> live = Sets.newHashSet();
+    for (int i = 0; i < 2000; i++) {
+      long time = (long) (random.nextDouble() * DAYS.toNanos(20));
+      live.add(scheduled(wheel, i, time));
+    }
+
+    long now = 0;
+    while (!live.isEmpty()) {
+      // steps between a millisecond and a day, so that every level of the wheel is exercised
+      now += (long) (random.nextDouble() * (1L << (20 + random.nextInt(27))));
+      wheel.advance(now);
+      ReferenceEntry<Integer, Integer> entry;
+      while ((entry = wheel.pollExpired()) != null) {
+        assertTrue(entry.getExpirationTime() <= now);
+        assertTrue(live.remove(entry));
+      }
+      // everything due before the start of the current second-level tick has been found
+      long tickStart = (now >> TimerWheel.SHIFT[0]) << TimerWheel.SHIFT[0];
+      for (ReferenceEntry<Integer, Integer> remaining : live) {
+        assertTrue(remaining.getExpirationTime() >= tickStart);
+      }
+    }
+  }
+
+  private static ReferenceEntry<Integer, Integer> scheduled(
+      TimerWheel<Integer, Integer> wheel, int key, long expirationTime) {
+    ReferenceEntry<Integer, Integer> entry =
+        new StrongVariableEntry<Integer, Integer>(key, key, null);
+    entry.setExpirationTime(expirationTime);
+    wheel.schedule(entry);
+    return entry;
+  }
+}
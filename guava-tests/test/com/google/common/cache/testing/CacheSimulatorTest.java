@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.cache.testing;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.EvictionPolicy;
+import com.google.common.cache.testing.CacheSimulator.Result;
+import com.google.common.cache.testing.CacheSimulator.Trace;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.testing.FakeTicker;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link CacheSimulator}.
+ */
+public class CacheSimulatorTest extends TestCase {
+
+  public void testReadTrace() throws IOException {
+    Trace trace = Trace.read(new StringReader("# a comment\na\n\n  b \na\n"));
+    assertEquals(3, trace.size());
+    assertFalse(trace.isTimed());
+    assertEquals(ImmutableList.<Object>of("a", "b", "a"), ImmutableList.copyOf(trace.keys));
+  }
+
+  public void testReadTrace_timed() throws IOException {
+    Trace trace = Trace.read(new StringReader("0 a\n5\tb\n5 a\n"));
+    assertTrue(trace.isTimed());
+    assertEquals(ImmutableList.<Object>of("a", "b", "a"), ImmutableList.copyOf(trace.keys));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(5), trace.times[2]);
+  }
+
+  public void testReadTrace_malformed() throws IOException {
+    for (String text : ImmutableList.of("a\n5 b\n", "5 b\na\n", "x b\n", "5 b\n4 c\n", "1 b c\n",
+        "-1 b\n")) {
+      try {
+        Trace.read(new StringReader(text));
+        fail(text);
+      } catch (IllegalArgumentException expected) {}
+    }
+  }
+
+  public void testSimulate() {
+    Trace trace = Trace.of(ImmutableList.of(1, 2, 1, 3, 1, 2));
+    CacheSimulator simulator = new CacheSimulator(trace);
+    Result result = simulator.simulate("lru",
+        CacheBuilder.newBuilder().concurrencyLevel(1).maximumSize(2));
+    assertEquals("lru", result.name());
+    // 1 and 2 miss, 1 hits, 3 evicts 2, 1 hits, 2 misses and evicts 3
+    assertEquals(6, result.stats().requestCount());
+    assertEquals(2, result.stats().hitCount());
+    assertEquals(2, result.evictionCount());
+    assertEquals(2, result.size());
+    assertEquals(2.0 / 6, result.hitRate(), 1e-9);
+    assertTrue(result.throughput() > 0);
+    assertTrue(result.toString().startsWith("lru"));
+  }
+
+  public void testSimulate_expiration() throws IOException {
+    Trace trace = Trace.read(new StringReader("0 a\n500 a\n1000 a\n2500 a\n"));
+    CacheSimulator simulator = new CacheSimulator(trace);
+    Result result = simulator.simulate("expiring",
+        CacheBuilder.newBuilder().expireAfterWrite(1, TimeUnit.SECONDS));
+    // the entry expires between the third and the fourth access
+    assertEquals(2, result.stats().hitCount());
+    assertEquals(2, result.stats().missCount());
+
+    try {
+      simulator.simulate("ticking", CacheBuilder.newBuilder().ticker(new FakeTicker()));
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+
+  public void testSimulate_evictionPolicies() {
+    // a small set of popular keys, interrupted by scans of keys which are never used again
+    Random random = new Random(1);
+    List<Integer> keys = Lists.newArrayList();
+    int scanKey = 1000;
+    for (int i = 0; i < 20000; i++) {
+      if (i % 1000 < 200) {
+        keys.add(scanKey++);
+      } else {
+        keys.add(random.nextInt(100));
+      }
+    }
+    CacheSimulator simulator = new CacheSimulator(Trace.of(keys));
+    Result lru = simulator.simulate("lru", CacheSimulator.parseConfiguration(
+        "maximumSize=100,concurrencyLevel=1"));
+    Result tinyLfu = simulator.simulate("tinyLfu", CacheSimulator.parseConfiguration(
+        "maximumSize=100,concurrencyLevel=1,evictionPolicy=TINY_LFU"));
+    assertTrue(tinyLfu.hitRate() > lru.hitRate());
+  }
+
+  public void testParseConfiguration() {
+    assertEquals(CacheBuilder.newBuilder()
+        .maximumSize(100)
+        .concurrencyLevel(2)
+        .initialCapacity(8)
+        .expireAfterWrite(90, TimeUnit.SECONDS)
+        .expireAfterAccess(2, TimeUnit.MILLISECONDS)
+        .evictionPolicy(EvictionPolicy.TINY_LFU)
+        .globalEviction(2)
+        .toString(),
+        CacheSimulator.parseConfiguration("maximumSize=100, concurrencyLevel=2,initialCapacity=8,"
+            + "expireAfterWrite=90s,expireAfterAccess=2ms,evictionPolicy=TINY_LFU,globalEviction=2")
+            .toString());
+    assertEquals(TimeUnit.SECONDS.toNanos(24 * 60 * 60) + "ns", CacheSimulator.parseConfiguration(
+        "expireAfterWrite=1d").toString().replaceAll(".*expireAfterWrite=|}", ""));
+    assertTrue(CacheSimulator.parseConfiguration("compactEntries").toString()
+        .contains("compactEntries"));
+
+    for (String configuration : ImmutableList.of("maximumSize", "maximumSize=x",
+        "expireAfterWrite=5", "expireAfterWrite=5y", "evictionPolicy=MRU", "weakKeys",
+        "compactEntries=true")) {
+      try {
+        CacheSimulator.parseConfiguration(configuration);
+        fail(configuration);
+      } catch (IllegalArgumentException expected) {}
+    }
+    try {
+      CacheSimulator.parseConfiguration("maximumSize=1,maximumSize=2");
+      fail();
+    } catch (IllegalStateException expected) {}
+  }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import static com.google.common.collect.BoundType.CLOSED;
+import static com.google.common.collect.BoundType.OPEN;
+import static org.junit.contrib.truth.Truth.ASSERT;
+
+import com.google.common.collect.Multiset.Entry;
+import com.google.common.collect.testing.features.CollectionFeature;
+import com.google.common.collect.testing.features.CollectionSize;
+import com.google.common.collect.testing.google.SortedMultisetTestSuiteBuilder;
+import com.google.common.collect.testing.google.TestStringMultisetGenerator;
+import com.google.common.testing.NullPointerTester;
+import com.google.common.testing.SerializableTester;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for {@link ConcurrentSkipListMultiset}.
+ */
+public class ConcurrentSkipListMultisetTest extends TestCase {
+
+  public static Test suite() {
+    TestSuite suite = new TestSuite();
+    suite.addTestSuite(ConcurrentSkipListMultisetTest.class);
+    suite.addTest(SortedMultisetTestSuiteBuilder
+        .using(new TestStringMultisetGenerator() {
+          @Override protected Multiset<String> create(String[] elements) {
+            return ConcurrentSkipListMultiset.create(Arrays.asList(elements));
+          }
+
+          @Override public List<String> order(List<String> insertionOrder) {
+            return Ordering.natural().sortedCopy(insertionOrder);
+          }
+        })
+        .withFeatures(CollectionSize.ANY, CollectionFeature.KNOWN_ORDER,
+            CollectionFeature.GENERAL_PURPOSE,
+            CollectionFeature.ALLOWS_NULL_QUERIES)
+        .named("ConcurrentSkipListMultiset")
+        .createTestSuite());
+    return suite;
+  }
+
+  public void testCreate() {
+    ConcurrentSkipListMultiset<String> multiset = ConcurrentSkipListMultiset.create();
+    multiset.add("foo", 2);
+    multiset.add("bar");
+    assertEquals(3, multiset.size());
+    assertEquals(2, multiset.count("foo"));
+    assertEquals(Ordering.natural(), multiset.comparator());
+    ASSERT.that(multiset).hasContentsInOrder("bar", "foo", "foo");
+    assertEquals("[bar, foo x 2]", multiset.toString());
+  }
+
+  public void testCreateWithComparator() {
+    Multiset<String> multiset = ConcurrentSkipListMultiset.create(Collections.reverseOrder());
+    multiset.add("foo", 2);
+    multiset.add("bar");
+    assertEquals(3, multiset.size());
+    ASSERT.that(multiset).hasContentsInOrder("foo", "foo", "bar");
+    assertEquals("[foo x 2, bar]", multiset.toString());
+  }
+
+  public void testCreateFromIterable() {
+    Multiset<String> multiset =
+        ConcurrentSkipListMultiset.create(Arrays.asList("foo", "bar", "foo"));
+    assertEquals(3, multiset.size());
+    assertEquals(2, multiset.count("foo"));
+    assertEquals("[bar, foo x 2]", multiset.toString());
+  }
+
+  public void testNullPointers() throws Exception {
+    new NullPointerTester().testAllPublicStaticMethods(ConcurrentSkipListMultiset.class);
+    new NullPointerTester()
+        .setDefault(BoundType.class, CLOSED)
+        .testAllPublicInstanceMethods(ConcurrentSkipListMultiset.<String>create());
+  }
+
+  public void testAddRemoveAndSetCount() {
+    ConcurrentSkipListMultiset<Integer> multiset = ConcurrentSkipListMultiset.create();
+    assertEquals(0, multiset.add(3, 2));
+    assertEquals(2, multiset.add(3, 1));
+    assertEquals(3, multiset.remove(3, 5));
+    assertEquals(0, multiset.count(3));
+    assertTrue(multiset.isEmpty());
+
+    assertEquals(0, multiset.setCount(1, 4));
+    assertEquals(4, multiset.setCount(1, 0));
+    assertEquals(0, multiset.setCount(1, 0));
+
+    assertTrue(multiset.setCount(2, 0, 3));
+    assertFalse(multiset.setCount(2, 0, 5));
+    assertTrue(multiset.setCount(2, 3, 0));
+    assertTrue(multiset.isEmpty());
+    assertEquals(0, multiset.distinctElements());
+  }
+
+  public void testAddOverflow() {
+    ConcurrentSkipListMultiset<Integer> multiset = ConcurrentSkipListMultiset.create();
+    multiset.add(1, Integer.MAX_VALUE);
+    try {
+      multiset.add(1);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    assertEquals(Integer.MAX_VALUE, multiset.count(1));
+  }
+
+  public void testManyElements() {
+    ConcurrentSkipListMultiset<Integer> multiset = ConcurrentSkipListMultiset.create();
+    TreeMultiset<Integer> expected = TreeMultiset.create();
+    Random random = new Random(0);
+    for (int i = 0; i < 10000; i++) {
+      Integer element = random.nextInt(1000);
+      int occurrences = random.nextInt(3);
+      if (random.nextBoolean()) {
+        assertEquals(expected.add(element, occurrences), multiset.add(element, occurrences));
+      } else {
+        assertEquals(expected.remove(element, occurrences), multiset.remove(element, occurrences));
+      }
+    }
+    assertEquals(expected, multiset);
+    ASSERT.that(multiset).hasContentsInOrder(expected.toArray());
+    ASSERT.that(multiset.descendingMultiset())
+        .hasContentsInOrder(expected.descendingMultiset().toArray());
+  }
+
+  public void testSubMultisets() {
+    ConcurrentSkipListMultiset<Integer> multiset = ConcurrentSkipListMultiset.create();
+    for (int i = 0; i < 10; i++) {
+      multiset.add(i, i + 1);
+    }
+    SortedMultiset<Integer> sub = multiset.subMultiset(3, CLOSED, 6, OPEN);
+    ASSERT.that(sub.elementSet()).hasContentsInOrder(3, 4, 5);
+    assertEquals(4 + 5 + 6, sub.size());
+    assertEquals(3, sub.firstEntry().getElement().intValue());
+    assertEquals(5, sub.lastEntry().getElement().intValue());
+    assertEquals(0, sub.count(7));
+
+    try {
+      sub.add(7);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+
+    // views write through in both directions
+    multiset.add(4, 10);
+    assertEquals(15, sub.count(4));
+    sub.setCount(5, 0);
+    assertEquals(0, multiset.count(5));
+    sub.clear();
+    ASSERT.that(multiset.elementSet()).hasContentsInOrder(0, 1, 2, 6, 7, 8, 9);
+  }
+
+  public void testPoll() {
+    ConcurrentSkipListMultiset<String> multiset =
+        ConcurrentSkipListMultiset.create(Arrays.asList("a", "b", "b", "c"));
+    assertEquals(Multisets.immutableEntry("a", 1), multiset.pollFirstEntry());
+    assertEquals(Multisets.immutableEntry("c", 1), multiset.pollLastEntry());
+    assertEquals(Multisets.immutableEntry("b", 2), multiset.pollLastEntry());
+    assertNull(multiset.pollFirstEntry());
+    assertNull(multiset.pollLastEntry());
+  }
+
+  public void testIteratorIsWeaklyConsistent() {
+    ConcurrentSkipListMultiset<Integer> multiset =
+        ConcurrentSkipListMultiset.create(Arrays.asList(1, 3, 5));
+    Iterator<Entry<Integer>> iterator = multiset.entrySet().iterator();
+    assertEquals(1, iterator.next().getElement().intValue());
+    multiset.remove(3);
+    multiset.add(4);
+    multiset.add(0);
+    assertEquals(4, iterator.next().getElement().intValue());
+    assertEquals(5, iterator.next().getElement().intValue());
+    iterator.remove();
+    assertFalse(iterator.hasNext());
+    ASSERT.that(multiset).hasContentsInOrder(0, 1, 4);
+  }
+
+  public void testEntriesAreSnapshots() {
+    ConcurrentSkipListMultiset<String> multiset = ConcurrentSkipListMultiset.create();
+    multiset.add("a", 2);
+    Entry<String> entry = multiset.firstEntry();
+    multiset.add("a", 3);
+    assertEquals(2, entry.getCount());
+    assertEquals(5, multiset.firstEntry().getCount());
+  }
+
+  public void testSerialization() {
+    ConcurrentSkipListMultiset<String> multiset =
+        ConcurrentSkipListMultiset.create(Collections.reverseOrder());
+    multiset.addAll(Arrays.asList("a", "b", "b", "c"));
+    ConcurrentSkipListMultiset<String> copy = SerializableTester.reserializeAndAssert(multiset);
+    ASSERT.that(copy).hasContentsInOrder("c", "b", "b", "a");
+    copy.add("d");
+    assertEquals("[d, c, b x 2, a]", copy.toString());
+  }
+
+  /**
+   * Starts a number of threads, each adding and removing occurrences of a small set of elements
+   * at random and recording the changes it made, and checks that the final counts equal the sum
+   * of those changes.
+   */
+  public void testConcurrentUpdates() throws Exception {
+    final ConcurrentSkipListMultiset<Integer> multiset = ConcurrentSkipListMultiset.create();
+    final int nElements = 16;
+    int nThreads = 8;
+    ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+    try {
+      List<Future<int[]>> futures = Lists.newArrayList();
+      for (int i = 0; i < nThreads; i++) {
+        final Random random = new Random(i);
+        futures.add(pool.submit(new Callable<int[]>() {
+          @Override public int[] call() {
+            int[] deltas = new int[nElements];
+            for (int j = 0; j < 50000; j++) {
+              int element = random.nextInt(nElements);
+              switch (random.nextInt(4)) {
+                case 0: {
+                  int occurrences = random.nextInt(3);
+                  multiset.add(element, occurrences);
+                  deltas[element] += occurrences;
+                  break;
+                }
+                case 1: {
+                  int occurrences = random.nextInt(3);
+                  deltas[element] -= Math.min(occurrences, multiset.remove(element, occurrences));
+                  break;
+                }
+                case 2: {
+                  int newCount = random.nextInt(2);
+                  deltas[element] += newCount - multiset.setCount(element, newCount);
+                  break;
+                }
+                default: {
+                  int oldCount = multiset.count(element);
+                  int newCount = random.nextInt(2);
+                  if (multiset.setCount(element, oldCount, newCount)) {
+                    deltas[element] += newCount - oldCount;
+                  }
+                  break;
+                }
+              }
+            }
+            return deltas;
+          }
+        }));
+      }
+      int[] expected = new int[nElements];
+      for (Future<int[]> future : futures) {
+        int[] deltas = future.get();
+        for (int i = 0; i < nElements; i++) {
+          expected[i] += deltas[i];
+        }
+      }
+      int size = 0;
+      for (int i = 0; i < nElements; i++) {
+        assertEquals(expected[i], multiset.count(i));
+        size += expected[i];
+      }
+      assertEquals(size, multiset.size());
+      assertTrue(Ordering.natural().isStrictlyOrdered(multiset.elementSet()));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
@@ -20,8 +20,14 @@ import com.google.common.annotations.GwtCompatible;
 import com.google.common.annotations.GwtIncompatible;
 import com.google.common.testing.SerializableTester;
 
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
 
 /**
  * Unit test for {@link HashMultiset}.
@@ -67,6 +73,36 @@ public class HashMultisetTest extends AbstractMultisetTest {
     assertSame(copy, copy.iterator().next());
   }
 
+  /**
+   * A multiset of "a" three times and "b" once, as serialized by release 11.0.2, when
+   * {@code HashMultiset} extended {@code AbstractMapBasedMultiset}.
+   */
+  @GwtIncompatible("Only used by @GwtIncompatible code")
+  private static final String SERIALIZED_BY_11_0_2 =
+      "aced000573720026636f6d2e676f6f676c652e636f6d6d6f6e2e636f6c6c6563"
+      + "742e486173684d756c7469736574000000000000000003000078720032636f6d"
+      + "2e676f6f676c652e636f6d6d6f6e2e636f6c6c6563742e41627374726163744d"
+      + "617042617365644d756c7469736574e0c3ab9b328ff63a020000787077040000"
+      + "0002740001617704000000037400016277040000000178";
+
+  @GwtIncompatible("ObjectInputStream")
+  public void testSerialization_readsEarlierForm() throws Exception {
+    byte[] bytes = new byte[SERIALIZED_BY_11_0_2.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(SERIALIZED_BY_11_0_2.substring(2 * i, 2 * i + 2), 16);
+    }
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+    @SuppressWarnings("unchecked")
+    Multiset<String> multiset = (Multiset<String>) in.readObject();
+    assertTrue(multiset instanceof HashMultiset);
+    assertEquals(4, multiset.size());
+    assertEquals(3, multiset.count("a"));
+    assertEquals(1, multiset.count("b"));
+    // the table is usable after deserialization
+    multiset.add("c");
+    assertEquals(3, multiset.elementSet().size());
+  }
+
   @GwtIncompatible("Only used by @GwtIncompatible code")
   private static class MultisetHolder implements Serializable {
     public Multiset<?> member;
@@ -86,6 +122,99 @@ public class HashMultisetTest extends AbstractMultisetTest {
     assertSame(copy, copy.iterator().next().member);
   }
 
+  /**
+   * Compares random operations on elements with few distinct hash codes, which collide often,
+   * with a map of counts; the iterators remove a random part of the occurrences and elements as
+   * they go, shifting other elements back in the table.
+   */
+  public void testRandomOperations() {
+    Random random = new Random(0);
+    Multiset<CollidingKey> multiset = HashMultiset.create();
+    Map<CollidingKey, Integer> expected = Maps.newHashMap();
+    for (int round = 0; round < 100; round++) {
+      for (int i = 0; i < 100; i++) {
+        CollidingKey key = (random.nextInt(50) == 0) ? null : new CollidingKey(random.nextInt(60));
+        int count = expected.containsKey(key) ? expected.get(key) : 0;
+        int occurrences = random.nextInt(3);
+        switch (random.nextInt(3)) {
+          case 0:
+            assertEquals(count, multiset.remove(key, occurrences));
+            count = Math.max(0, count - occurrences);
+            break;
+          case 1:
+            assertEquals(count, multiset.add(key, occurrences));
+            count += occurrences;
+            break;
+          default:
+            assertEquals(count, multiset.setCount(key, occurrences));
+            count = occurrences;
+        }
+        if (count == 0) {
+          expected.remove(key);
+        } else {
+          expected.put(key, count);
+        }
+      }
+      if (random.nextBoolean()) {
+        for (Iterator<Multiset.Entry<CollidingKey>> i = multiset.entrySet().iterator();
+            i.hasNext(); ) {
+          CollidingKey key = i.next().getElement();
+          if (random.nextInt(4) == 0) {
+            i.remove();
+            expected.remove(key);
+          }
+        }
+      } else {
+        for (Iterator<CollidingKey> i = multiset.iterator(); i.hasNext(); ) {
+          CollidingKey key = i.next();
+          if (random.nextInt(4) == 0) {
+            i.remove();
+            int count = expected.get(key) - 1;
+            if (count == 0) {
+              expected.remove(key);
+            } else {
+              expected.put(key, count);
+            }
+          }
+        }
+      }
+      int size = 0;
+      for (Map.Entry<CollidingKey, Integer> entry : expected.entrySet()) {
+        assertEquals((int) entry.getValue(), multiset.count(entry.getKey()));
+        size += entry.getValue();
+      }
+      assertEquals(size, multiset.size());
+      assertEquals(expected.keySet(), multiset.elementSet());
+    }
+  }
+
+  private static final class CollidingKey {
+    final int value;
+
+    CollidingKey(int value) {
+      this.value = value;
+    }
+
+    @Override public boolean equals(Object object) {
+      return object instanceof CollidingKey && ((CollidingKey) object).value == value;
+    }
+
+    @Override public int hashCode() {
+      return value % 7;
+    }
+  }
+
+  public void testIterator_concurrentModification() {
+    Multiset<String> multiset = HashMultiset.create(Arrays.asList("a", "b"));
+    Iterator<String> iterator = multiset.iterator();
+    iterator.next();
+    multiset.add("c");
+    try {
+      iterator.next();
+      fail();
+    } catch (ConcurrentModificationException expected) {}
+  }
+
   /*
    * The behavior of toString() and iteration is tested by LinkedHashMultiset,
    * which shares a lot of code with HashMultiset and has deterministic
@@ -436,6 +436,43 @@ public class ImmutableMapTest extends TestCase {
       }
     }
 
+    public void testPuttingTheSameCollidingKeyTwiceThrowsOnBuild() {
+      // "Aa" and "BB" have the same hash code
+      Builder<String, Integer> builder = new Builder<String, Integer>()
+          .put("Aa", 1)
+          .put("BB", 2)
+          .put("BB", 3);
+
+      try {
+        builder.build();
+        fail();
+      } catch (IllegalArgumentException expected) {
+        assertEquals("duplicate key: BB", expected.getMessage());
+      }
+    }
+
+    public void testCopyOfLargeMap() {
+      Map<String, Integer> original = new LinkedHashMap<String, Integer>();
+      for (int i = 0; i < 1000; i++) {
+        original.put("key" + (i * 7919 % 1000), i);
+      }
+
+      ImmutableMap<String, Integer> copy = ImmutableMap.copyOf(original);
+      assertEquals(original, copy);
+      assertEquals(original.hashCode(), copy.hashCode());
+      assertEquals(original.toString(), copy.toString());
+      assertEquals(original.keySet().hashCode(), copy.keySet().hashCode());
+      assertEquals(Lists.newArrayList(original.keySet()),
+          Lists.newArrayList(copy.keySet()));
+      assertEquals(Lists.newArrayList(original.values()),
+          Lists.newArrayList(copy.values()));
+      for (Entry<String, Integer> entry : original.entrySet()) {
+        assertEquals(entry.getValue(), copy.get(entry.getKey()));
+        assertTrue(copy.entrySet().contains(entry));
+      }
+      assertNull(copy.get("key1000"));
+    }
+
     public void testOf() {
       assertMapEquals(
           ImmutableMap.of("one", 1),
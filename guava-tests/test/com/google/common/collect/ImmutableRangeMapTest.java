@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import com.google.common.testing.NullPointerTester;
+import com.google.common.testing.SerializableTester;
+
+import junit.framework.TestCase;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Tests for {@link ImmutableRangeMap}.
+ */
+public class ImmutableRangeMapTest extends TestCase {
+
+  public void testEmpty() {
+    ImmutableRangeMap<Integer, String> rangeMap = ImmutableRangeMap.of();
+    assertTrue(rangeMap.asMapOfRanges().isEmpty());
+    assertNull(rangeMap.get(0));
+    assertNull(rangeMap.getEntry(0));
+    try {
+      rangeMap.span();
+      fail();
+    } catch (NoSuchElementException expected) {
+    }
+  }
+
+  public void testBuilder() {
+    ImmutableRangeMap<Integer, String> rangeMap = ImmutableRangeMap.<Integer, String>builder()
+        .put(Ranges.closed(3, 5), "b")
+        .put(Ranges.greaterThan(10), "c")
+        .put(Ranges.closedOpen(1, 3), "a")
+        .build();
+    assertEquals(
+        ImmutableMap.of(
+            Ranges.closedOpen(1, 3), "a", Ranges.closed(3, 5), "b", Ranges.greaterThan(10), "c"),
+        rangeMap.asMapOfRanges());
+    assertNull(rangeMap.get(0));
+    assertEquals("a", rangeMap.get(1));
+    assertEquals("a", rangeMap.get(2));
+    assertEquals("b", rangeMap.get(3));
+    assertEquals("b", rangeMap.get(5));
+    assertNull(rangeMap.get(6));
+    assertNull(rangeMap.get(10));
+    assertEquals("c", rangeMap.get(Integer.MAX_VALUE));
+    assertEquals(Maps.immutableEntry(Ranges.closed(3, 5), "b"), rangeMap.getEntry(4));
+    assertEquals(Ranges.atLeast(1), rangeMap.span());
+  }
+
+  public void testBuilderRejectsOverlappingRanges() {
+    ImmutableRangeMap.Builder<Integer, String> builder = ImmutableRangeMap.builder();
+    builder.put(Ranges.closed(1, 3), "a");
+    builder.put(Ranges.closed(3, 5), "b");
+    try {
+      builder.build();
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testBuilderRejectsEmptyRange() {
+    try {
+      ImmutableRangeMap.of(Ranges.closedOpen(1, 1), "a");
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  public void testCopyOf() {
+    RangeMap<Integer, String> treeRangeMap = TreeRangeMap.create();
+    treeRangeMap.put(Ranges.closed(1, 10), "a");
+    treeRangeMap.put(Ranges.closed(4, 5), "b");
+    ImmutableRangeMap<Integer, String> copy = ImmutableRangeMap.copyOf(treeRangeMap);
+    assertEquals(treeRangeMap, copy);
+    assertSame(copy, ImmutableRangeMap.copyOf(copy));
+    treeRangeMap.clear();
+    assertEquals("b", copy.get(4));
+  }
+
+  public void testModificationsUnsupported() {
+    ImmutableRangeMap<Integer, String> rangeMap = ImmutableRangeMap.of(Ranges.closed(1, 2), "a");
+    try {
+      rangeMap.put(Ranges.closed(3, 4), "b");
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    try {
+      rangeMap.remove(Ranges.closed(1, 2));
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    try {
+      rangeMap.clear();
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    assertEquals("a", rangeMap.get(1));
+  }
+
+  public void testSerialization() {
+    SerializableTester.reserializeAndAssert(ImmutableRangeMap.<Integer, String>of());
+    SerializableTester.reserializeAndAssert(ImmutableRangeMap.<Integer, String>builder()
+        .put(Ranges.lessThan(0), "a")
+        .put(Ranges.closed(3, 4), "b")
+        .build());
+  }
+
+  public void testNullPointers() throws Exception {
+    NullPointerTester tester = new NullPointerTester()
+        .setDefault(Range.class, Ranges.closed(1, 2));
+    tester.testAllPublicStaticMethods(ImmutableRangeMap.class);
+    tester.testAllPublicInstanceMethods(ImmutableRangeMap.of(Ranges.closed(1, 2), "a"));
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import com.google.common.testing.NullPointerTester;
+import com.google.common.testing.SerializableTester;
+
+import junit.framework.TestCase;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Tests for {@link ImmutableRangeSet}.
+ */
+public class ImmutableRangeSetTest extends TestCase {
+
+  public void testEmpty() {
+    ImmutableRangeSet<Integer> rangeSet = ImmutableRangeSet.of();
+    assertTrue(rangeSet.isEmpty());
+    assertTrue(rangeSet.asRanges().isEmpty());
+    assertFalse(rangeSet.contains(0));
+    assertNull(rangeSet.rangeContaining(0));
+    assertFalse(rangeSet.encloses(Ranges.closedOpen(0, 0)));
+    try {
+      rangeSet.span();
+      fail();
+    } catch (NoSuchElementException expected) {
+    }
+    assertSame(rangeSet, ImmutableRangeSet.of(Ranges.closedOpen(1, 1)));
+  }
+
+  public void testSingleRange() {
+    ImmutableRangeSet<Integer> rangeSet = ImmutableRangeSet.of(Ranges.closedOpen(1, 5));
+    assertEquals(ImmutableSet.of(Ranges.closedOpen(1, 5)), rangeSet.asRanges());
+    assertFalse(rangeSet.contains(0));
+    assertTrue(rangeSet.contains(1));
+    assertTrue(rangeSet.contains(4));
+    assertFalse(rangeSet.contains(5));
+    assertEquals(Ranges.closedOpen(1, 5), rangeSet.rangeContaining(3));
+    assertTrue(rangeSet.encloses(Ranges.open(1, 5)));
+    assertFalse(rangeSet.encloses(Ranges.closed(1, 5)));
+    assertEquals(Ranges.closedOpen(1, 5), rangeSet.span());
+  }
+
+  public void testBuilderCoalesces() {
+    ImmutableRangeSet<Integer> rangeSet = ImmutableRangeSet.<Integer>builder()
+        .add(Ranges.closed(10, 20))
+        .add(Ranges.closedOpen(1, 3))
+        .add(Ranges.closed(3, 5))
+        .add(Ranges.open(30, 40))
+        .add(Ranges.open(15, 25))
+        .build();
+    assertEquals(
+        ImmutableSet.of(Ranges.closed(1, 5), Ranges.closedOpen(10, 25), Ranges.open(30, 40)),
+        rangeSet.asRanges());
+    assertEquals(Ranges.closedOpen(1, 40), rangeSet.span());
+    assertTrue(rangeSet.contains(24));
+    assertFalse(rangeSet.contains(25));
+    assertFalse(rangeSet.contains(30));
+    assertEquals(Ranges.open(30, 40), rangeSet.rangeContaining(31));
+    assertTrue(rangeSet.encloses(Ranges.closed(12, 24)));
+    assertFalse(rangeSet.encloses(Ranges.closed(4, 12)));
+  }
+
+  public void testCopyOf() {
+    RangeSet<Integer> treeRangeSet = TreeRangeSet.create();
+    treeRangeSet.add(Ranges.closed(1, 2));
+    treeRangeSet.add(Ranges.atLeast(4));
+    ImmutableRangeSet<Integer> copy = ImmutableRangeSet.copyOf(treeRangeSet);
+    assertEquals(treeRangeSet, copy);
+    assertSame(copy, ImmutableRangeSet.copyOf(copy));
+    treeRangeSet.clear();
+    assertEquals(ImmutableSet.of(Ranges.closed(1, 2), Ranges.atLeast(4)), copy.asRanges());
+  }
+
+  public void testModificationsUnsupported() {
+    ImmutableRangeSet<Integer> rangeSet = ImmutableRangeSet.of(Ranges.closed(1, 2));
+    try {
+      rangeSet.add(Ranges.closed(3, 4));
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    try {
+      rangeSet.remove(Ranges.closed(1, 2));
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    try {
+      rangeSet.clear();
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    assertEquals(ImmutableSet.of(Ranges.closed(1, 2)), rangeSet.asRanges());
+  }
+
+  public void testSerialization() {
+    SerializableTester.reserializeAndAssert(ImmutableRangeSet.<Integer>of());
+    SerializableTester.reserializeAndAssert(ImmutableRangeSet.<Integer>builder()
+        .add(Ranges.lessThan(0))
+        .add(Ranges.closed(3, 4))
+        .build());
+  }
+
+  public void testNullPointers() throws Exception {
+    NullPointerTester tester = new NullPointerTester()
+        .setDefault(Range.class, Ranges.closed(1, 2));
+    tester.testAllPublicStaticMethods(ImmutableRangeSet.class);
+    tester.testAllPublicInstanceMethods(ImmutableRangeSet.of(Ranges.closed(1, 2)));
+  }
+}
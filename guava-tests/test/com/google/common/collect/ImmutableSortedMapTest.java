@@ -822,4 +822,28 @@ public class ImmutableSortedMapTest extends TestCase {
     ASSERT.that(map.entrySet()).hasContentsInOrder(Maps.immutableEntry("one", 1),
         Maps.immutableEntry("three", 3), Maps.immutableEntry("two", 2));
   }
+
+  public void testLargeMapLookups() {
+    SortedMap<Integer, String> expected = Maps.newTreeMap();
+    ImmutableSortedMap.Builder<Integer, String> builder =
+        ImmutableSortedMap.naturalOrder();
+    for (int i = 0; i < 5000; i++) {
+      expected.put(2 * i, "v" + i);
+      builder.put(2 * i, "v" + i);
+    }
+    ImmutableSortedMap<Integer, String> map = builder.build();
+    ImmutableSortedMap<Integer, String> subMap = map.subMap(1001, 8999);
+    SortedMap<Integer, String> expectedSubMap = expected.subMap(1001, 8999);
+    for (int i = -1; i <= 10000; i += 7) {
+      assertEquals(expected.get(i), map.get(i));
+      assertEquals(expectedSubMap.get(i), subMap.get(i));
+      assertEquals(expectedSubMap.containsKey(i), subMap.keySet().contains(i));
+      assertEquals(expected.headMap(i), map.headMap(i));
+      assertEquals(expected.tailMap(i).size(), map.tailMap(i).size());
+      if (i >= 1001 && i < 8999) {
+        assertEquals(expectedSubMap.tailMap(i).keySet(),
+            subMap.tailMap(i).keySet());
+      }
+    }
+  }
 }
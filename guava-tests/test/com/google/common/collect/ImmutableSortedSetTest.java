@@ -902,6 +902,30 @@ public class ImmutableSortedSetTest extends AbstractImmutableSetTest {
     }
   }
 
+  public void testLargeSetLookups() {
+    TreeSet<Integer> expected = Sets.newTreeSet();
+    for (int i = 0; i < 5000; i++) {
+      expected.add(2 * i);
+    }
+    ImmutableSortedSet<Integer> set = ImmutableSortedSet.copyOf(expected);
+    ImmutableSortedSet<Integer> subSet = set.subSet(1001, 8999);
+    SortedSet<Integer> expectedSubSet = expected.subSet(1001, 8999);
+    ImmutableSortedSet<Integer> subSubSet = subSet.tailSet(3000);
+    SortedSet<Integer> expectedSubSubSet = expectedSubSet.tailSet(3000);
+    for (int i = -1; i <= 10000; i += 7) {
+      assertEquals(expected.contains(i), set.contains(i));
+      assertEquals(expectedSubSet.contains(i), subSet.contains(i));
+      assertEquals(expectedSubSubSet.contains(i), subSubSet.contains(i));
+      assertEquals(Lists.newArrayList(expectedSubSet).indexOf(i),
+          subSet.asList().indexOf(i));
+      assertEquals(expected.headSet(i), set.headSet(i));
+      assertEquals(expected.tailSet(i).size(), set.tailSet(i).size());
+      if (i >= 3000 && i < 8999) {
+        assertEquals(expectedSubSubSet.headSet(i), subSubSet.headSet(i));
+      }
+    }
+  }
+
   private static String[] sortedNumberNames(int i, int j) {
     return SORTED_NUMBER_NAMES.subList(i, j).toArray(new String[0]);
   }
@@ -85,6 +85,79 @@ public class InternersTest extends TestCase {
     fail("reference didn't get cleaned up");
   }
 
+  public void testBounded_simplistic() {
+    String canonical = "a";
+    String not = new String("a");
+
+    Interner<String> pool = Interners.newBoundedInterner(16);
+    assertSame(canonical, pool.intern(canonical));
+    assertSame(canonical, pool.intern(not));
+  }
+
+  public void testBounded_null() {
+    Interner<String> pool = Interners.newBoundedInterner(16);
+    try {
+      pool.intern(null);
+      fail();
+    } catch (NullPointerException ok) {}
+  }
+
+  public void testBounded_nonPositiveSize() {
+    try {
+      Interners.newBoundedInterner(0);
+      fail();
+    } catch (IllegalArgumentException ok) {}
+  }
+
+  public void testBounded_evicts() {
+    BoundedInterner<Integer> pool = new BoundedInterner<Integer>(10);
+    for (int i = 0; i < 1000; i++) {
+      Integer canonical = new Integer(i);
+      assertSame(canonical, pool.intern(canonical));
+      assertTrue(pool.size() <= 10);
+    }
+    assertEquals(8, pool.size());
+  }
+
+  public void testBounded_keepsRecentlyUsed() {
+    // a single set, so every instance competes for the same four slots
+    BoundedInterner<Integer> pool = new BoundedInterner<Integer>(4);
+    Integer canonical = new Integer(-1);
+    pool.intern(canonical);
+    for (int i = 0; i < 100; i++) {
+      pool.intern(new Integer(i));
+      assertSame(canonical, pool.intern(new Integer(-1)));
+    }
+  }
+
+  public void testBounded_concurrent() throws InterruptedException {
+    final Interner<String> pool = Interners.newBoundedInterner(1024);
+    final int count = 100;
+    int nThreads = 8;
+    final String[][] results = new String[nThreads][count];
+    Thread[] threads = new Thread[nThreads];
+    for (int t = 0; t < nThreads; t++) {
+      final String[] result = results[t];
+      threads[t] = new Thread() {
+        @Override public void run() {
+          for (int i = 0; i < count; i++) {
+            result[i] = pool.intern(new String("value" + i));
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (int i = 0; i < count; i++) {
+      String canonical = pool.intern("value" + i);
+      for (int t = 0; t < nThreads; t++) {
+        assertSame(canonical, results[t][i]);
+      }
+    }
+  }
+
   public void testAsFunction_simplistic() {
     String canonical = "a";
     String not = new String("a");
@@ -53,7 +53,7 @@ public class MultisetsTest extends TestCase {
     Multiset<String> multisetView = Multisets.forSet(set);
     assertTrue(multiset.equals(multisetView));
     assertTrue(multisetView.equals(multiset));
-    assertEquals(multiset.toString(), multisetView.toString());
+    assertEquals(set.toString(), multisetView.toString());
     assertEquals(multiset.hashCode(), multisetView.hashCode());
     assertEquals(multiset.size(), multisetView.size());
     assertTrue(multisetView.contains("foo"));
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import com.google.common.collect.testing.MapTestSuiteBuilder;
+import com.google.common.collect.testing.TestStringMapGenerator;
+import com.google.common.collect.testing.features.CollectionSize;
+import com.google.common.collect.testing.features.MapFeature;
+import com.google.common.testing.NullPointerTester;
+import com.google.common.testing.SerializableTester;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Tests for {@link PersistentHashMap}.
+ */
+public class PersistentHashMapTest extends TestCase {
+
+  public static Test suite() {
+    TestSuite suite = new TestSuite();
+    suite.addTestSuite(PersistentHashMapTest.class);
+    suite.addTest(MapTestSuiteBuilder.using(new TestStringMapGenerator() {
+          @Override protected Map<String, String> create(Entry<String, String>[] entries) {
+            PersistentHashMap<String, String> map = PersistentHashMap.of();
+            for (Entry<String, String> entry : entries) {
+              map = map.with(entry.getKey(), entry.getValue());
+            }
+            return map;
+          }
+        })
+        .named("PersistentHashMap")
+        .withFeatures(
+            CollectionSize.ANY,
+            MapFeature.ALLOWS_NULL_QUERIES)
+        .createTestSuite());
+    return suite;
+  }
+
+  /** A key whose hash code can be chosen, so that tests can make keys collide. */
+  private static final class Key {
+    final int value;
+    final int hashCode;
+
+    Key(int value, int hashCode) {
+      this.value = value;
+      this.hashCode = hashCode;
+    }
+
+    @Override public boolean equals(Object object) {
+      return object instanceof Key && ((Key) object).value == value;
+    }
+
+    @Override public int hashCode() {
+      return hashCode;
+    }
+
+    @Override public String toString() {
+      return "Key" + value;
+    }
+  }
+
+  /** Every fourth key collides fully with other keys, and the rest share hash codes in pairs. */
+  private static Key key(int value) {
+    return new Key(value, (value % 4 == 0) ? value % 20 : value / 2);
+  }
+
+  public void testWithAndWithout() {
+    PersistentHashMap<String, Integer> empty = PersistentHashMap.of();
+    PersistentHashMap<String, Integer> one = empty.with("a", 1);
+    PersistentHashMap<String, Integer> two = one.with("b", 2);
+    PersistentHashMap<String, Integer> replaced = two.with("a", 3);
+    assertEquals(ImmutableMap.of(), empty);
+    assertEquals(ImmutableMap.of("a", 1), one);
+    assertEquals(ImmutableMap.of("a", 1, "b", 2), two);
+    assertEquals(ImmutableMap.of("a", 3, "b", 2), replaced);
+    assertEquals(ImmutableMap.of("b", 2), replaced.without("a"));
+    assertEquals(ImmutableMap.of(), one.without("a"));
+    assertTrue(one.without("a").isEmpty());
+  }
+
+  public void testUnchangedVersionsAreSame() {
+    Integer value = 1;
+    PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer>of()
+        .with("a", value)
+        .with("b", 2);
+    assertSame(map, map.with("a", value));
+    assertSame(map, map.without("c"));
+    assertSame(map, map.without(null));
+    assertSame(map, map.without(1));
+  }
+
+  public void testNullPointers() throws Exception {
+    NullPointerTester tester = new NullPointerTester();
+    tester.testAllPublicStaticMethods(PersistentHashMap.class);
+    tester.testAllPublicInstanceMethods(PersistentHashMap.of().with("a", "b"));
+  }
+
+  public void testCopyOf() {
+    ImmutableMap<String, Integer> immutableMap = ImmutableMap.of("a", 1, "b", 2, "c", 3);
+    PersistentHashMap<String, Integer> map = PersistentHashMap.copyOf(immutableMap);
+    assertEquals(immutableMap, map);
+    assertEquals(immutableMap, ImmutableMap.copyOf(map));
+    assertEquals(immutableMap.hashCode(), map.hashCode());
+    assertSame(map, PersistentHashMap.copyOf(map));
+  }
+
+  public void testModificationsUnsupported() {
+    PersistentHashMap<String, Integer> map = PersistentHashMap.<String, Integer>of().with("a", 1);
+    try {
+      map.put("b", 2);
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    try {
+      map.remove("a");
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    try {
+      map.clear();
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    Iterator<String> iterator = map.keySet().iterator();
+    iterator.next();
+    try {
+      iterator.remove();
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    assertEquals(ImmutableMap.of("a", 1), map);
+  }
+
+  public void testSerialization() {
+    PersistentHashMap<Integer, String> map = PersistentHashMap.of();
+    for (int i = 0; i < 100; i++) {
+      map = map.with(i, "v" + i);
+    }
+    SerializableTester.reserializeAndAssert(map);
+    SerializableTester.reserializeAndAssert(PersistentHashMap.of());
+  }
+
+  public void testIterator_exhausted() {
+    Iterator<Entry<String, Integer>> iterator =
+        PersistentHashMap.<String, Integer>of().with("a", 1).entrySet().iterator();
+    iterator.next();
+    assertFalse(iterator.hasNext());
+    try {
+      iterator.next();
+      fail();
+    } catch (NoSuchElementException expected) {
+    }
+  }
+
+  public void testRandomOperations() {
+    Random random = new Random(0);
+    Map<Key, Integer> expected = new HashMap<Key, Integer>();
+    PersistentHashMap<Key, Integer> map = PersistentHashMap.of();
+    for (int round = 0; round < 20; round++) {
+      Map<Key, Integer> snapshotContents = new HashMap<Key, Integer>(expected);
+      PersistentHashMap<Key, Integer> snapshot = map;
+      for (int i = 0; i < 500; i++) {
+        Key key = key(random.nextInt(400));
+        if (random.nextInt(3) == 0) {
+          expected.remove(key);
+          map = map.without(key);
+        } else {
+          int value = random.nextInt(10);
+          expected.put(key, value);
+          map = map.with(key, value);
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.get(key), map.get(key));
+      }
+      assertEquals(expected, map);
+      assertEquals(expected.hashCode(), map.hashCode());
+      assertEquals(expected.size(), Iterators.size(map.keySet().iterator()));
+      assertEquals(snapshotContents, snapshot);
+    }
+    while (!expected.isEmpty()) {
+      Key key = expected.keySet().iterator().next();
+      expected.remove(key);
+      map = map.without(key);
+      assertEquals(expected, map);
+    }
+    assertTrue(map.isEmpty());
+  }
+}
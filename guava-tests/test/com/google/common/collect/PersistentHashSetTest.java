@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import com.google.common.collect.testing.SetTestSuiteBuilder;
+import com.google.common.collect.testing.TestCollidingSetGenerator;
+import com.google.common.collect.testing.TestStringSetGenerator;
+import com.google.common.collect.testing.features.CollectionFeature;
+import com.google.common.collect.testing.features.CollectionSize;
+import com.google.common.testing.NullPointerTester;
+import com.google.common.testing.SerializableTester;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Tests for {@link PersistentHashSet}.
+ */
+public class PersistentHashSetTest extends TestCase {
+
+  public static Test suite() {
+    TestSuite suite = new TestSuite();
+    suite.addTestSuite(PersistentHashSetTest.class);
+    suite.addTest(SetTestSuiteBuilder.using(new TestStringSetGenerator() {
+          @Override protected Set<String> create(String[] elements) {
+            return PersistentHashSet.copyOf(Arrays.asList(elements));
+          }
+        })
+        .named("PersistentHashSet")
+        .withFeatures(
+            CollectionSize.ANY,
+            CollectionFeature.ALLOWS_NULL_QUERIES)
+        .createTestSuite());
+    suite.addTest(SetTestSuiteBuilder.using(new TestCollidingSetGenerator() {
+          @Override public Set<Object> create(Object... elements) {
+            return PersistentHashSet.copyOf(Arrays.asList(elements));
+          }
+        })
+        .named("PersistentHashSet, colliding")
+        .withFeatures(
+            CollectionSize.ANY,
+            CollectionFeature.ALLOWS_NULL_QUERIES)
+        .createTestSuite());
+    return suite;
+  }
+
+  public void testWithAndWithout() {
+    PersistentHashSet<String> empty = PersistentHashSet.of();
+    PersistentHashSet<String> one = empty.with("a");
+    PersistentHashSet<String> two = one.with("b");
+    assertEquals(ImmutableSet.of(), empty);
+    assertEquals(ImmutableSet.of("a"), one);
+    assertEquals(ImmutableSet.of("a", "b"), two);
+    assertEquals(ImmutableSet.of("b"), two.without("a"));
+    assertSame(two, two.with("a"));
+    assertSame(two, two.without("c"));
+  }
+
+  public void testCopyOf() {
+    ImmutableSet<String> immutableSet = ImmutableSet.of("a", "b", "c");
+    PersistentHashSet<String> set = PersistentHashSet.copyOf(immutableSet);
+    assertEquals(immutableSet, set);
+    assertEquals(immutableSet, ImmutableSet.copyOf(set));
+    assertSame(set, PersistentHashSet.copyOf(set));
+    assertEquals(set, PersistentHashSet.copyOf(Arrays.asList("c", "a", "b", "a")));
+  }
+
+  public void testNullPointers() throws Exception {
+    NullPointerTester tester = new NullPointerTester();
+    tester.testAllPublicStaticMethods(PersistentHashSet.class);
+    tester.testAllPublicInstanceMethods(PersistentHashSet.of().with("a"));
+  }
+
+  public void testModificationsUnsupported() {
+    PersistentHashSet<String> set = PersistentHashSet.copyOf(Arrays.asList("a"));
+    try {
+      set.add("b");
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    try {
+      set.remove("a");
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    assertEquals(ImmutableSet.of("a"), set);
+  }
+
+  public void testSerialization() {
+    SerializableTester.reserializeAndAssert(PersistentHashSet.copyOf(Arrays.asList("a", "b")));
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import com.google.common.collect.SortedLists.KeyAbsentBehavior;
+import com.google.common.collect.SortedLists.KeyPresentBehavior;
+
+import junit.framework.TestCase;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Tests for {@link SortedSearchIndex}.
+ */
+public class SortedSearchIndexTest extends TestCase {
+  @SuppressWarnings("unchecked") // Integers only
+  private static final Comparator<Object> NATURAL = (Comparator) Ordering.natural();
+
+  private static List<Integer> evens(int size) {
+    List<Integer> list = Lists.newArrayList();
+    for (int i = 0; i < size; i++) {
+      list.add(2 * i);
+    }
+    return ImmutableList.copyOf(list);
+  }
+
+  public void testCreate() {
+    int size = SortedSearchIndex.MIN_INDEXED_SIZE;
+    assertNull(SortedSearchIndex.create(evens(size - 1)));
+    assertNotNull(SortedSearchIndex.create(evens(size)));
+  }
+
+  public void testBlockStart() {
+    int blockSize = SortedSearchIndex.BLOCK_SIZE;
+    for (int size = 1; size <= 10 * blockSize; size++) {
+      List<Integer> list = evens(size);
+      SortedSearchIndex index = new SortedSearchIndex(list);
+      int lastBlockStart = (size - 1) / blockSize * blockSize;
+      assertEquals(0, index.blockStart(-1, NATURAL));
+      assertEquals(lastBlockStart, index.blockStart(2 * size, NATURAL));
+      for (int i = 0; i < size; i++) {
+        int blockStart = i / blockSize * blockSize;
+        assertEquals(blockStart, index.blockStart(2 * i, NATURAL));
+        assertEquals(blockStart, index.blockStart(2 * i + 1, NATURAL));
+      }
+    }
+  }
+
+  public void testBinarySearch_agreesWithSortedLists() {
+    int blockSize = SortedSearchIndex.BLOCK_SIZE;
+    for (int size = 1; size <= 6 * blockSize + 1; size++) {
+      List<Integer> list = evens(size);
+      SortedSearchIndex index = new SortedSearchIndex(list);
+      for (int from = 0; from < size; from += 5) {
+        for (int to = from + 1; to <= size; to += 7) {
+          List<Integer> view = list.subList(from, to);
+          for (int key = -1; key <= 2 * size; key++) {
+            for (KeyPresentBehavior presentBehavior : KeyPresentBehavior.values()) {
+              for (KeyAbsentBehavior absentBehavior : KeyAbsentBehavior.values()) {
+                assertEquals(
+                    SortedLists.binarySearch(view, key, Ordering.natural(),
+                        presentBehavior, absentBehavior),
+                    index.binarySearch(view, from, key, Ordering.natural(),
+                        presentBehavior, absentBehavior));
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import com.google.common.testing.NullPointerTester;
+
+import junit.framework.TestCase;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Tests for {@link StringInterner}.
+ */
+public class StringInternerTest extends TestCase {
+
+  public void testString() {
+    StringInterner interner = Interners.newStringInterner(64);
+    String canonical = "hello";
+    assertSame(canonical, interner.intern(canonical));
+    assertSame(canonical, interner.intern(new String("hello")));
+  }
+
+  public void testCharSequence() {
+    StringInterner interner = Interners.newStringInterner(64);
+    String canonical = interner.intern(new StringBuilder("hello"));
+    assertEquals("hello", canonical);
+    assertSame(canonical, interner.intern("hello"));
+    assertSame(canonical, interner.intern(new StringBuilder("hello")));
+    assertSame(canonical, interner.intern((CharSequence) new String("hello")));
+    assertEquals(1, interner.size());
+  }
+
+  public void testCharSequence_distinct() {
+    StringInterner interner = Interners.newStringInterner(64);
+    assertEquals("ab", interner.intern(new StringBuilder("ab")));
+    // same hash code as "ab"
+    assertEquals("bC", interner.intern(new StringBuilder("bC")));
+    assertEquals("a", interner.intern(new StringBuilder("a")));
+    assertEquals("", interner.intern(new StringBuilder()));
+    assertEquals(4, interner.size());
+  }
+
+  public void testBytes() throws UnsupportedEncodingException {
+    StringInterner interner = Interners.newStringInterner(64);
+    for (String string : new String[] {
+        "", "hello", "caf\u00e9", "\u20ac100", "clef \ud834\udd1e", "\u0000\u07ff\u0800\uffff"}) {
+      byte[] bytes = string.getBytes("UTF-8");
+      String canonical = interner.intern(bytes);
+      assertEquals(string, canonical);
+      assertSame(canonical, interner.intern(bytes));
+      assertSame(canonical, interner.intern(new String(string)));
+
+      byte[] padded = new byte[bytes.length + 4];
+      System.arraycopy(bytes, 0, padded, 2, bytes.length);
+      padded[0] = 'x';
+      padded[padded.length - 1] = 'y';
+      assertSame(canonical, interner.intern(padded, 2, bytes.length));
+    }
+  }
+
+  public void testBytes_prefixesAreDistinct() throws UnsupportedEncodingException {
+    StringInterner interner = Interners.newStringInterner(64);
+    byte[] bytes = "clef \ud834\udd1e!".getBytes("UTF-8");
+    assertEquals("clef \ud834\udd1e!", interner.intern(bytes));
+    assertEquals("clef \ud834\udd1e", interner.intern(bytes, 0, bytes.length - 1));
+    assertEquals("clef", interner.intern(bytes, 0, 4));
+    assertEquals(3, interner.size());
+  }
+
+  public void testBytes_malformed() throws UnsupportedEncodingException {
+    StringInterner interner = Interners.newStringInterner(64);
+    byte[][] malformed = {
+        {(byte) 0x80},
+        {'a', (byte) 0xc3},
+        {(byte) 0xc0, (byte) 0x80},
+        {(byte) 0xed, (byte) 0xa0, (byte) 0x80},
+        {(byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80},
+        {(byte) 0xff, 'a'},
+    };
+    for (byte[] bytes : malformed) {
+      String expected = new String(bytes, "UTF-8");
+      String canonical = interner.intern(bytes);
+      assertEquals(expected, canonical);
+      assertSame(canonical, interner.intern(expected));
+    }
+  }
+
+  public void testBytes_outOfBounds() {
+    StringInterner interner = Interners.newStringInterner(64);
+    byte[] bytes = new byte[4];
+    try {
+      interner.intern(bytes, 2, 3);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {}
+    try {
+      interner.intern(bytes, -1, 2);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {}
+    try {
+      interner.intern(bytes, 1, -1);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {}
+  }
+
+  public void testBounded() {
+    StringInterner interner = Interners.newStringInterner(16);
+    for (int i = 0; i < 1000; i++) {
+      String string = "value" + i;
+      assertSame(string, interner.intern(string));
+      assertTrue(interner.size() <= 16);
+    }
+  }
+
+  public void testNullPointerExceptions() throws Exception {
+    new NullPointerTester().testAllPublicInstanceMethods(Interners.newStringInterner(16));
+  }
+}
@@ -26,6 +26,8 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Set;
 import java.util.SortedSet;
 
@@ -328,6 +330,122 @@ public class TreeMultisetTest extends AbstractMultisetTest {
     assertEquals(Integer.MAX_VALUE, ms.tailMultiset("a", CLOSED).size());
   }
 
+  public void testRankAndSelect() {
+    Random random = new Random(0);
+    TreeMultiset<Integer> ms = TreeMultiset.create();
+    List<Integer> sorted = newArrayList();
+    for (int i = 0; i < 500; i++) {
+      int element = random.nextInt(100);
+      int occurrences = 1 + random.nextInt(3);
+      ms.add(element, occurrences);
+      sorted.addAll(Collections.nCopies(occurrences, element));
+    }
+    Collections.sort(sorted);
+    for (int i = 0; i < sorted.size(); i++) {
+      assertEquals(sorted.get(i), ms.select(i));
+    }
+    for (int element = -1; element <= 100; element++) {
+      int expected = 0;
+      while (expected < sorted.size() && sorted.get(expected) < element) {
+        expected++;
+      }
+      assertEquals(expected, ms.rank(element));
+    }
+  }
+
+  public void testRankAndSelectInSubMultiset() {
+    TreeMultiset<Integer> ms = TreeMultiset.create(Arrays.asList(1, 2, 2, 3, 3, 3, 4, 5));
+    TreeMultiset<Integer> sub = (TreeMultiset<Integer>)
+        ms.tailMultiset(2, BoundType.OPEN).headMultiset(4, CLOSED);
+    assertEquals(4, sub.size());
+    assertEquals(3, (int) sub.select(0));
+    assertEquals(4, (int) sub.select(3));
+    assertEquals(0, sub.rank(1));
+    assertEquals(0, sub.rank(3));
+    assertEquals(3, sub.rank(4));
+    assertEquals(4, sub.rank(5));
+    try {
+      sub.select(4);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {
+    }
+  }
+
+  public void testSelectOutOfBounds() {
+    TreeMultiset<String> ms = TreeMultiset.create(Arrays.asList("a", "b"));
+    try {
+      ms.select(-1);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {
+    }
+    try {
+      ms.select(2);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {
+    }
+  }
+
+  public void testRankWithComparator() {
+    TreeMultiset<String> ms = TreeMultiset.create(Ordering.natural().reverse());
+    ms.addAll(Arrays.asList("a", "b", "b", "c"));
+    assertEquals(0, ms.rank("c"));
+    assertEquals(1, ms.rank("b"));
+    assertEquals(3, ms.rank("a"));
+    assertEquals("c", ms.select(0));
+    assertEquals("a", ms.select(3));
+  }
+
+  public void testRankWithNullsFirst() {
+    TreeMultiset<String> ms = TreeMultiset.create(Ordering.<String>natural().nullsFirst());
+    ms.addAll(Arrays.asList(null, null, "a", "b"));
+    assertEquals(0, ms.rank(null));
+    assertEquals(2, ms.rank("a"));
+    assertEquals(3, ms.rank("b"));
+    assertNull(ms.select(1));
+  }
+
+  public void testPercentile() {
+    TreeMultiset<Integer> ms = TreeMultiset.create();
+    for (int i = 1; i <= 10; i++) {
+      ms.add(i * 10);
+    }
+    assertEquals(10, (int) ms.percentile(0));
+    assertEquals(10, (int) ms.percentile(10));
+    assertEquals(30, (int) ms.percentile(30));
+    assertEquals(40, (int) ms.percentile(30.5));
+    assertEquals(50, (int) ms.percentile(50));
+    assertEquals(100, (int) ms.percentile(99.9));
+    assertEquals(100, (int) ms.percentile(100));
+    ms.add(10, 90);
+    assertEquals(10, (int) ms.percentile(91));
+    assertEquals(20, (int) ms.percentile(92));
+  }
+
+  public void testPercentileInvalid() {
+    TreeMultiset<Integer> ms = TreeMultiset.create();
+    try {
+      ms.percentile(50);
+      fail();
+    } catch (NoSuchElementException expected) {
+    }
+    ms.add(1);
+    try {
+      ms.percentile(-1);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      ms.percentile(100.5);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      ms.percentile(Double.NaN);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
   @Override public void testToStringNull() {
     c = ms = TreeMultiset.create(Ordering.natural().nullsFirst());
     super.testToStringNull();
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import static com.google.common.collect.TreeRangeSetTest.PROBES;
+import static com.google.common.collect.TreeRangeSetTest.probe;
+import static com.google.common.collect.TreeRangeSetTest.randomRange;
+
+import com.google.common.testing.EqualsTester;
+import com.google.common.testing.NullPointerTester;
+
+import junit.framework.TestCase;
+
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Tests for {@link TreeRangeMap}.
+ */
+public class TreeRangeMapTest extends TestCase {
+
+  public void testRandomPutAndRemove() {
+    Random random = new Random(0);
+    for (int trial = 0; trial < 200; trial++) {
+      RangeMap<Double, Integer> rangeMap = TreeRangeMap.create();
+      Integer[] expected = new Integer[PROBES];
+      for (int op = 0; op < 12; op++) {
+        Range<Double> range = randomRange(random);
+        Integer value = null;
+        if (random.nextInt(3) != 0) {
+          value = op;
+          rangeMap.put(range, value);
+        } else {
+          rangeMap.remove(range);
+        }
+        for (int i = 0; i < PROBES; i++) {
+          if (range.contains(probe(i))) {
+            expected[i] = value;
+          }
+        }
+
+        Range<Double> previous = null;
+        for (Range<Double> key : rangeMap.asMapOfRanges().keySet()) {
+          assertFalse(key.isEmpty());
+          if (previous != null) {
+            assertTrue(previous.upperBound.compareTo(key.lowerBound) <= 0);
+          }
+          previous = key;
+        }
+        ImmutableRangeMap<Double, Integer> copy = ImmutableRangeMap.copyOf(rangeMap);
+        assertEquals(rangeMap, copy);
+        for (int i = 0; i < PROBES; i++) {
+          Double key = probe(i);
+          String message = rangeMap + " " + key;
+          assertEquals(message, expected[i], rangeMap.get(key));
+          assertEquals(message, expected[i], copy.get(key));
+          Entry<Range<Double>, Integer> entry = rangeMap.getEntry(key);
+          assertEquals(message, entry, copy.getEntry(key));
+          if (expected[i] != null) {
+            assertTrue(message, entry.getKey().contains(key));
+            assertEquals(expected[i], rangeMap.asMapOfRanges().get(entry.getKey()));
+          } else {
+            assertNull(message, entry);
+          }
+        }
+      }
+    }
+  }
+
+  public void testPutSplitsRange() {
+    RangeMap<Integer, String> rangeMap = TreeRangeMap.create();
+    rangeMap.put(Ranges.closed(1, 10), "a");
+    rangeMap.put(Ranges.open(3, 5), "b");
+    assertEquals(
+        ImmutableMap.of(
+            Ranges.closed(1, 3), "a", Ranges.open(3, 5), "b", Ranges.closed(5, 10), "a"),
+        rangeMap.asMapOfRanges());
+    assertEquals("a", rangeMap.get(3));
+    assertEquals("b", rangeMap.get(4));
+    assertEquals("a", rangeMap.get(5));
+    assertNull(rangeMap.get(11));
+    assertEquals(Maps.immutableEntry(Ranges.open(3, 5), "b"), rangeMap.getEntry(4));
+  }
+
+  public void testPutDoesNotCoalesce() {
+    RangeMap<Integer, String> rangeMap = TreeRangeMap.create();
+    rangeMap.put(Ranges.closedOpen(1, 3), "a");
+    rangeMap.put(Ranges.closed(3, 5), "a");
+    assertEquals(
+        ImmutableMap.of(Ranges.closedOpen(1, 3), "a", Ranges.closed(3, 5), "a"),
+        rangeMap.asMapOfRanges());
+    assertEquals(Ranges.closed(1, 5), rangeMap.span());
+  }
+
+  public void testPutOverwritesEnclosedRanges() {
+    RangeMap<Integer, String> rangeMap = TreeRangeMap.create();
+    rangeMap.put(Ranges.closed(1, 2), "a");
+    rangeMap.put(Ranges.closed(4, 5), "b");
+    rangeMap.put(Ranges.atLeast(7), "c");
+    rangeMap.put(Ranges.open(0, 8), "d");
+    assertEquals(
+        ImmutableMap.of(Ranges.open(0, 8), "d", Ranges.atLeast(8), "c"),
+        rangeMap.asMapOfRanges());
+  }
+
+  public void testRemove() {
+    RangeMap<Integer, String> rangeMap = TreeRangeMap.create();
+    rangeMap.put(Ranges.<Integer>all(), "a");
+    rangeMap.remove(Ranges.closedOpen(3, 5));
+    assertEquals(
+        ImmutableMap.of(Ranges.lessThan(3), "a", Ranges.atLeast(5), "a"),
+        rangeMap.asMapOfRanges());
+    assertNull(rangeMap.get(4));
+    rangeMap.remove(Ranges.closedOpen(3, 3));
+    assertEquals(2, rangeMap.asMapOfRanges().size());
+    rangeMap.clear();
+    assertTrue(rangeMap.asMapOfRanges().isEmpty());
+  }
+
+  public void testSpanEmpty() {
+    try {
+      TreeRangeMap.create().span();
+      fail();
+    } catch (NoSuchElementException expected) {
+    }
+  }
+
+  public void testAsMapOfRanges() {
+    RangeMap<Integer, String> rangeMap = TreeRangeMap.create();
+    rangeMap.put(Ranges.closed(1, 2), "a");
+    assertEquals("a", rangeMap.asMapOfRanges().get(Ranges.closed(1, 2)));
+    assertNull(rangeMap.asMapOfRanges().get(Ranges.closed(1, 3)));
+    assertNull(rangeMap.asMapOfRanges().get(Ranges.closed("a", "b")));
+    assertNull(rangeMap.asMapOfRanges().get("a"));
+    assertTrue(rangeMap.asMapOfRanges().containsKey(Ranges.closed(1, 2)));
+    try {
+      rangeMap.asMapOfRanges().clear();
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+  }
+
+  public void testPutAllEqualsAndToString() {
+    RangeMap<Integer, String> rangeMap = TreeRangeMap.create();
+    rangeMap.putAll(ImmutableRangeMap.<Integer, String>builder()
+        .put(Ranges.closed(1, 2), "a")
+        .put(Ranges.greaterThan(5), "b")
+        .build());
+    RangeMap<Integer, String> other = TreeRangeMap.create();
+    other.put(Ranges.closed(1, 2), "a");
+    new EqualsTester()
+        .addEqualityGroup(rangeMap, ImmutableRangeMap.copyOf(rangeMap))
+        .addEqualityGroup(other)
+        .addEqualityGroup(TreeRangeMap.create(), ImmutableRangeMap.of())
+        .testEquals();
+    assertEquals("{[1\u20252]=a, (5\u2025+\u221e)=b}", rangeMap.toString());
+  }
+
+  public void testNullPointers() throws Exception {
+    NullPointerTester tester = new NullPointerTester()
+        .setDefault(Range.class, Ranges.closed(1, 2));
+    tester.testAllPublicStaticMethods(TreeRangeMap.class);
+    tester.testAllPublicInstanceMethods(TreeRangeMap.create());
+  }
+}
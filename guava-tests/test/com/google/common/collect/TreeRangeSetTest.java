@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.collect;
+
+import com.google.common.testing.EqualsTester;
+import com.google.common.testing.NullPointerTester;
+
+import junit.framework.TestCase;
+
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Tests for {@link TreeRangeSet}.
+ */
+public class TreeRangeSetTest extends TestCase {
+  static final int MAX_ENDPOINT = 8;
+
+  /**
+   * Returns a random range with integral endpoints in {@code [0, MAX_ENDPOINT]}, possibly unbounded
+   * or empty.
+   */
+  static Range<Double> randomRange(Random random) {
+    double lower = random.nextInt(MAX_ENDPOINT + 1);
+    double upper = lower + random.nextInt(MAX_ENDPOINT + 1 - (int) lower);
+    BoundType lowerType = random.nextBoolean() ? BoundType.OPEN : BoundType.CLOSED;
+    BoundType upperType = random.nextBoolean() ? BoundType.OPEN : BoundType.CLOSED;
+    if (lower == upper && (lowerType == BoundType.OPEN || upperType == BoundType.OPEN)) {
+      return Ranges.closedOpen(lower, lower);
+    }
+    switch (random.nextInt(6)) {
+      case 0:
+        return Ranges.upTo(upper, upperType);
+      case 1:
+        return Ranges.downTo(lower, lowerType);
+      default:
+        return Ranges.range(lower, lowerType, upper, upperType);
+    }
+  }
+
+  /** Points at every half step from just below to just above the endpoints of random ranges. */
+  static double probe(int i) {
+    return (i - 2) / 2.0;
+  }
+
+  static final int PROBES = 2 * MAX_ENDPOINT + 5;
+
+  /** Asserts that the ranges of {@code rangeSet} are nonempty, increasing and disconnected. */
+  static void assertWellFormed(RangeSet<Double> rangeSet) {
+    Range<Double> previous = null;
+    for (Range<Double> range : rangeSet.asRanges()) {
+      assertFalse(range.isEmpty());
+      assertTrue(rangeSet.encloses(range));
+      if (previous != null) {
+        assertTrue(previous.upperBound.compareTo(range.lowerBound) < 0);
+      }
+      previous = range;
+    }
+  }
+
+  public void testRandomAddAndRemove() {
+    Random random = new Random(0);
+    for (int trial = 0; trial < 200; trial++) {
+      RangeSet<Double> rangeSet = TreeRangeSet.create();
+      boolean[] expected = new boolean[PROBES];
+      for (int op = 0; op < 12; op++) {
+        Range<Double> range = randomRange(random);
+        boolean add = random.nextInt(3) != 0;
+        if (add) {
+          rangeSet.add(range);
+        } else {
+          rangeSet.remove(range);
+        }
+        for (int i = 0; i < PROBES; i++) {
+          if (range.contains(probe(i))) {
+            expected[i] = add;
+          }
+        }
+
+        assertWellFormed(rangeSet);
+        ImmutableRangeSet<Double> copy = ImmutableRangeSet.copyOf(rangeSet);
+        assertEquals(rangeSet, copy);
+        for (int i = 0; i < PROBES; i++) {
+          Double value = probe(i);
+          String message = rangeSet + " " + value;
+          assertEquals(message, expected[i], rangeSet.contains(value));
+          assertEquals(message, expected[i], copy.contains(value));
+          Range<Double> containing = rangeSet.rangeContaining(value);
+          assertEquals(message, containing, copy.rangeContaining(value));
+          if (expected[i]) {
+            assertTrue(message, containing.contains(value));
+            assertTrue(rangeSet.asRanges().contains(containing));
+          } else {
+            assertNull(message, containing);
+          }
+        }
+        Range<Double> query = randomRange(random);
+        assertEquals(rangeSet + " " + query, rangeSet.encloses(query), copy.encloses(query));
+      }
+    }
+  }
+
+  public void testAddCoalescesConnectedRanges() {
+    RangeSet<Integer> rangeSet = TreeRangeSet.create();
+    rangeSet.add(Ranges.closedOpen(1, 3));
+    rangeSet.add(Ranges.closed(3, 5));
+    assertEquals(ImmutableSet.of(Ranges.closed(1, 5)), rangeSet.asRanges());
+
+    rangeSet.add(Ranges.open(7, 9));
+    rangeSet.add(Ranges.open(9, 11));
+    assertEquals(
+        ImmutableSet.of(Ranges.closed(1, 5), Ranges.open(7, 9), Ranges.open(9, 11)),
+        rangeSet.asRanges());
+
+    rangeSet.add(Ranges.closed(4, 10));
+    assertEquals(ImmutableSet.of(Ranges.closedOpen(1, 11)), rangeSet.asRanges());
+  }
+
+  public void testAddEnclosedRange() {
+    RangeSet<Integer> rangeSet = TreeRangeSet.create();
+    rangeSet.add(Ranges.closed(1, 10));
+    rangeSet.add(Ranges.open(3, 4));
+    rangeSet.add(Ranges.closed(1, 10));
+    assertEquals(ImmutableSet.of(Ranges.closed(1, 10)), rangeSet.asRanges());
+  }
+
+  public void testAddEmptyRange() {
+    RangeSet<Integer> rangeSet = TreeRangeSet.create();
+    rangeSet.add(Ranges.closedOpen(3, 3));
+    assertTrue(rangeSet.isEmpty());
+  }
+
+  public void testRemoveSplitsRange() {
+    RangeSet<Integer> rangeSet = TreeRangeSet.create();
+    rangeSet.add(Ranges.closed(1, 10));
+    rangeSet.remove(Ranges.closedOpen(4, 6));
+    assertEquals(
+        ImmutableSet.of(Ranges.closedOpen(1, 4), Ranges.closed(6, 10)),
+        rangeSet.asRanges());
+    assertFalse(rangeSet.contains(5));
+    assertTrue(rangeSet.contains(6));
+    assertEquals(Ranges.closedOpen(1, 4), rangeSet.rangeContaining(2));
+    assertNull(rangeSet.rangeContaining(4));
+
+    rangeSet.remove(Ranges.atLeast(2));
+    assertEquals(ImmutableSet.of(Ranges.closedOpen(1, 2)), rangeSet.asRanges());
+  }
+
+  public void testUnboundedRanges() {
+    RangeSet<Integer> rangeSet = TreeRangeSet.create();
+    rangeSet.add(Ranges.<Integer>all());
+    rangeSet.remove(Ranges.open(0, 10));
+    assertEquals(
+        ImmutableSet.of(Ranges.atMost(0), Ranges.atLeast(10)),
+        rangeSet.asRanges());
+    assertEquals(Ranges.<Integer>all(), rangeSet.span());
+    assertTrue(rangeSet.contains(Integer.MIN_VALUE));
+    assertFalse(rangeSet.contains(5));
+    assertTrue(rangeSet.encloses(Ranges.greaterThan(20)));
+    assertFalse(rangeSet.encloses(Ranges.greaterThan(5)));
+  }
+
+  public void testSpan() {
+    RangeSet<Integer> rangeSet = TreeRangeSet.create();
+    try {
+      rangeSet.span();
+      fail();
+    } catch (NoSuchElementException expected) {
+    }
+    rangeSet.add(Ranges.closed(1, 2));
+    rangeSet.add(Ranges.open(5, 7));
+    assertEquals(Ranges.closedOpen(1, 7), rangeSet.span());
+  }
+
+  public void testAddAllRemoveAllAndEnclosesAll() {
+    RangeSet<Integer> rangeSet = TreeRangeSet.create();
+    rangeSet.addAll(ImmutableRangeSet.<Integer>builder()
+        .add(Ranges.closed(1, 2))
+        .add(Ranges.closed(4, 5))
+        .build());
+    RangeSet<Integer> copy = TreeRangeSet.create(rangeSet);
+    assertTrue(copy.enclosesAll(rangeSet));
+    copy.removeAll(ImmutableRangeSet.of(Ranges.closed(2, 4)));
+    assertEquals(
+        ImmutableSet.of(Ranges.closedOpen(1, 2), Ranges.openClosed(4, 5)),
+        copy.asRanges());
+    assertFalse(copy.enclosesAll(rangeSet));
+    assertTrue(rangeSet.enclosesAll(copy));
+  }
+
+  public void testAsRangesUnmodifiable() {
+    RangeSet<Integer> rangeSet = TreeRangeSet.create();
+    rangeSet.add(Ranges.closed(1, 2));
+    try {
+      rangeSet.asRanges().clear();
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    assertFalse(rangeSet.isEmpty());
+    rangeSet.clear();
+    assertTrue(rangeSet.isEmpty());
+  }
+
+  public void testEqualsAndToString() {
+    RangeSet<Integer> rangeSet = TreeRangeSet.create();
+    rangeSet.add(Ranges.closed(1, 2));
+    rangeSet.add(Ranges.greaterThan(5));
+    new EqualsTester()
+        .addEqualityGroup(rangeSet, TreeRangeSet.create(rangeSet),
+            ImmutableRangeSet.copyOf(rangeSet))
+        .addEqualityGroup(TreeRangeSet.create(), ImmutableRangeSet.of())
+        .addEqualityGroup(ImmutableRangeSet.of(Ranges.closed(1, 2)))
+        .testEquals();
+    assertEquals("{[1\u20252], (5\u2025+\u221e)}", rangeSet.toString());
+  }
+
+  public void testNullPointers() throws Exception {
+    NullPointerTester tester = new NullPointerTester()
+        .setDefault(Range.class, Ranges.closed(1, 2));
+    tester.testAllPublicStaticMethods(TreeRangeSet.class);
+    tester.testAllPublicInstanceMethods(TreeRangeSet.create());
+  }
+}
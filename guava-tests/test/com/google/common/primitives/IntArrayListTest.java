@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.primitives;
+
+import com.google.common.collect.testing.ListTestSuiteBuilder;
+import com.google.common.collect.testing.SampleElements;
+import com.google.common.collect.testing.TestListGenerator;
+import com.google.common.collect.testing.features.CollectionFeature;
+import com.google.common.collect.testing.features.CollectionSize;
+import com.google.common.collect.testing.features.ListFeature;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link IntArrayList}.
+ */
+public class IntArrayListTest extends TestCase {
+
+  public static Test suite() {
+    TestSuite suite = new TestSuite();
+    suite.addTestSuite(IntArrayListTest.class);
+    suite.addTest(ListTestSuiteBuilder.using(new AsListGenerator())
+        .named("IntArrayList.asList")
+        .withFeatures(
+            CollectionSize.ANY,
+            CollectionFeature.GENERAL_PURPOSE,
+            CollectionFeature.RESTRICTS_ELEMENTS,
+            ListFeature.GENERAL_PURPOSE)
+        .createTestSuite());
+    return suite;
+  }
+
+  public static final class AsListGenerator implements TestListGenerator<Integer> {
+    @Override public SampleElements<Integer> samples() {
+      return new SampleElements<Integer>(
+          (int) 0, (int) 1, (int) -1, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override public List<Integer> create(Object... elements) {
+      IntArrayList list = IntArrayList.create();
+      for (Object element : elements) {
+        list.add((Integer) element);
+      }
+      return list.asList();
+    }
+
+    @Override public Integer[] createArray(int length) {
+      return new Integer[length];
+    }
+
+    @Override public List<Integer> order(List<Integer> insertionOrder) {
+      return insertionOrder;
+    }
+  }
+
+  public void testAddAndGet() {
+    IntArrayList list = IntArrayList.create();
+    assertTrue(list.isEmpty());
+    for (int i = 0; i < 100; i++) {
+      list.add(i * 3);
+    }
+    assertEquals(100, list.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i * 3, list.get(i));
+    }
+  }
+
+  public void testAddAtIndex() {
+    IntArrayList list = IntArrayList.of(1, 3);
+    list.add(0, 0);
+    list.add(2, 2);
+    list.add(4, 4);
+    assertEquals(IntArrayList.of(0, 1, 2, 3, 4), list);
+    try {
+      list.add(6, 6);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {}
+  }
+
+  public void testSetAndRemoveAt() {
+    IntArrayList list = IntArrayList.of(5, 6, 7);
+    assertEquals(6, list.set(1, 60));
+    assertEquals(5, list.removeAt(0));
+    assertEquals(IntArrayList.of(60, 7), list);
+    try {
+      list.get(2);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {}
+    try {
+      list.removeAt(-1);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {}
+  }
+
+  public void testAddAll() {
+    IntArrayList list = IntArrayList.withExpectedSize(0);
+    list.addAll(1, 2);
+    list.addAll(list);
+    list.addAll();
+    assertEquals(IntArrayList.of(1, 2, 1, 2), list);
+  }
+
+  public void testSearch() {
+    IntArrayList list = IntArrayList.of(4, 5, 4);
+    assertTrue(list.contains(5));
+    assertFalse(list.contains(6));
+    assertEquals(0, list.indexOf(4));
+    assertEquals(2, list.lastIndexOf(4));
+    assertEquals(-1, list.indexOf(6));
+    assertEquals(-1, list.lastIndexOf(6));
+  }
+
+  public void testSortAndToArray() {
+    IntArrayList list = IntArrayList.of(3, -1, 2);
+    list.sort();
+    assertTrue(Arrays.equals(new int[] {-1, 2, 3}, list.toArray()));
+  }
+
+  public void testClearAndTrimToSize() {
+    IntArrayList list = IntArrayList.withExpectedSize(100);
+    list.add(1);
+    list.trimToSize();
+    assertEquals(IntArrayList.of(1), list);
+    list.clear();
+    list.trimToSize();
+    assertTrue(list.isEmpty());
+    list.add(2);
+    assertEquals(IntArrayList.of(2), list);
+  }
+
+  public void testOfCopiesArray() {
+    int[] array = {1, 2};
+    IntArrayList list = IntArrayList.of(array);
+    array[0] = 9;
+    assertEquals(1, list.get(0));
+  }
+
+  public void testAsListWritesThrough() {
+    IntArrayList list = IntArrayList.of(1, 2);
+    List<Integer> view = list.asList();
+    view.add((int) 3);
+    view.remove(0);
+    assertEquals(IntArrayList.of(2, 3), list);
+    list.add(4);
+    assertEquals(Arrays.asList((int) 2, (int) 3, (int) 4), view);
+    try {
+      view.add(null);
+      fail();
+    } catch (NullPointerException expected) {}
+  }
+
+  public void testEqualsHashCodeAndToString() {
+    IntArrayList list = IntArrayList.of(1, -2, 3);
+    assertEquals(list.asList().hashCode(), list.hashCode());
+    assertEquals(list.asList().toString(), list.toString());
+    assertEquals("[]", IntArrayList.create().toString());
+    assertFalse(list.equals(IntArrayList.of(1, -2)));
+    assertFalse(list.equals(list.asList()));
+  }
+}
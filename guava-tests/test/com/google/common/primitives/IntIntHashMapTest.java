@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.primitives;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.testing.MapTestSuiteBuilder;
+import com.google.common.collect.testing.SampleElements;
+import com.google.common.collect.testing.TestMapGenerator;
+import com.google.common.collect.testing.features.CollectionSize;
+import com.google.common.collect.testing.features.MapFeature;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+/**
+ * Tests for {@link IntIntHashMap}.
+ */
+public class IntIntHashMapTest extends TestCase {
+
+  public static Test suite() {
+    TestSuite suite = new TestSuite();
+    suite.addTestSuite(IntIntHashMapTest.class);
+    suite.addTest(MapTestSuiteBuilder.using(new AsMapGenerator())
+        .named("IntIntHashMap.asMap")
+        .withFeatures(
+            CollectionSize.ANY,
+            MapFeature.GENERAL_PURPOSE,
+            MapFeature.RESTRICTS_KEYS,
+            MapFeature.RESTRICTS_VALUES)
+        .createTestSuite());
+    return suite;
+  }
+
+  public static final class AsMapGenerator implements TestMapGenerator<Integer, Integer> {
+    @Override public SampleElements<Entry<Integer, Integer>> samples() {
+      return new SampleElements<Entry<Integer, Integer>>(
+          Maps.immutableEntry(0, 10),
+          Maps.immutableEntry(1, 0),
+          Maps.immutableEntry(-1, -10),
+          Maps.immutableEntry(Integer.MIN_VALUE, Integer.MAX_VALUE),
+          Maps.immutableEntry(Integer.MAX_VALUE, Integer.MIN_VALUE));
+    }
+
+    @Override public Map<Integer, Integer> create(Object... entries) {
+      IntIntHashMap map = IntIntHashMap.create();
+      for (Object entry : entries) {
+        @SuppressWarnings("unchecked")
+        Entry<Integer, Integer> e = (Entry<Integer, Integer>) entry;
+        map.put(e.getKey(), e.getValue());
+      }
+      return map.asMap();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public Entry<Integer, Integer>[] createArray(int length) {
+      return new Entry[length];
+    }
+
+    @Override public Integer[] createKeyArray(int length) {
+      return new Integer[length];
+    }
+
+    @Override public Integer[] createValueArray(int length) {
+      return new Integer[length];
+    }
+
+    @Override public Iterable<Entry<Integer, Integer>> order(
+        List<Entry<Integer, Integer>> insertionOrder) {
+      return insertionOrder;
+    }
+  }
+
+  public void testPutGetRemove() {
+    IntIntHashMap map = IntIntHashMap.create();
+    assertTrue(map.isEmpty());
+    assertTrue(map.put(0, 5));
+    assertTrue(map.put(7, 0));
+    assertFalse(map.put(7, 8));
+    assertEquals(2, map.size());
+    assertEquals(5, map.get(0, -1));
+    assertEquals(8, map.get(7, -1));
+    assertEquals(-1, map.get(6, -1));
+    assertTrue(map.containsKey(0));
+    assertFalse(map.containsKey(6));
+    assertTrue(map.remove(0));
+    assertFalse(map.remove(0));
+    assertEquals(-1, map.get(0, -1));
+    assertTrue(map.remove(7));
+    assertTrue(map.isEmpty());
+  }
+
+  public void testAddTo() {
+    IntIntHashMap counts = IntIntHashMap.withExpectedSize(4);
+    for (int key : new int[] {3, 0, 3, 3, 0, 9}) {
+      counts.addTo(key, 1);
+    }
+    assertEquals(3, counts.get(3, 0));
+    assertEquals(2, counts.get(0, 0));
+    assertEquals(1, counts.get(9, 0));
+    assertEquals(3, counts.size());
+    assertEquals(-7, counts.addTo(9, -8));
+  }
+
+  public void testGrowth() {
+    IntIntHashMap map = IntIntHashMap.create();
+    for (int i = 0; i < 10000; i++) {
+      map.put(i << 16, i);
+    }
+    assertEquals(10000, map.size());
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(i, map.get(i << 16, -1));
+    }
+  }
+
+  public void testCursor() {
+    IntIntHashMap map = IntIntHashMap.create();
+    map.put(0, 1);
+    map.put(2, 3);
+    map.put(4, 5);
+    IntIntHashMap.Cursor cursor = map.cursor();
+    try {
+      cursor.key();
+      fail();
+    } catch (IllegalStateException expected) {}
+    Map<Integer, Integer> seen = new HashMap<Integer, Integer>();
+    while (cursor.next()) {
+      seen.put(cursor.key(), cursor.value());
+      cursor.setValue(cursor.value() * 10);
+      if (cursor.key() == 2) {
+        cursor.remove();
+      }
+    }
+    assertFalse(cursor.next());
+    assertEquals(ImmutableMap.of(0, 1, 2, 3, 4, 5), seen);
+    assertEquals(ImmutableMap.of(0, 10, 4, 50), map.asMap());
+  }
+
+  public void testCursor_concurrentModification() {
+    IntIntHashMap map = IntIntHashMap.create();
+    map.put(1, 1);
+    IntIntHashMap.Cursor cursor = map.cursor();
+    map.put(2, 2);
+    try {
+      cursor.next();
+      fail();
+    } catch (ConcurrentModificationException expected) {}
+  }
+
+  public void testKeyIterator() {
+    IntIntHashMap map = IntIntHashMap.create();
+    map.put(0, 1);
+    map.put(2, 3);
+    IntIterator iterator = map.keyIterator();
+    int sum = 0;
+    while (iterator.hasNext()) {
+      int key = iterator.next();
+      sum += key;
+      if (key == 0) {
+        iterator.remove();
+      }
+    }
+    assertEquals(2, sum);
+    assertEquals(ImmutableMap.of(2, 3), map.asMap());
+  }
+
+  /**
+   * Compares random operations on small keys, which collide often, with a {@link HashMap}; the
+   * cursor removes a random part of the entries, shifting others back as it goes.
+   */
+  public void testRandomOperations() {
+    Random random = new Random(0);
+    IntIntHashMap map = IntIntHashMap.create();
+    Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+    for (int round = 0; round < 200; round++) {
+      for (int i = 0; i < 100; i++) {
+        int key = random.nextInt(200) - 20;
+        switch (random.nextInt(3)) {
+          case 0:
+            assertEquals(expected.remove(key) != null, map.remove(key));
+            break;
+          case 1:
+            assertEquals(expected.put(key, i) == null, map.put(key, i));
+            break;
+          default:
+            Integer count = expected.get(key);
+            int newCount = (count == null) ? 1 : count + 1;
+            expected.put(key, newCount);
+            assertEquals(newCount, map.addTo(key, 1));
+        }
+      }
+      Map<Integer, Integer> iterated = new HashMap<Integer, Integer>();
+      for (IntIntHashMap.Cursor cursor = map.cursor(); cursor.next(); ) {
+        assertNull(iterated.put(cursor.key(), cursor.value()));
+        if (random.nextInt(4) == 0) {
+          expected.remove(cursor.key());
+          cursor.remove();
+        }
+      }
+      assertEquals(expected.size(), map.size());
+      assertEquals(expected, map.asMap());
+      for (Entry<Integer, Integer> entry : expected.entrySet()) {
+        assertEquals((int) entry.getValue(), map.get(entry.getKey(), -1));
+      }
+    }
+  }
+
+  public void testEqualsHashCodeAndToString() {
+    IntIntHashMap map = IntIntHashMap.create();
+    map.put(0, 1);
+    map.put(-2, 3);
+    IntIntHashMap other = IntIntHashMap.create();
+    other.put(-2, 3);
+    assertFalse(map.equals(other));
+    other.put(0, 2);
+    assertFalse(map.equals(other));
+    other.put(0, 1);
+    assertEquals(map, other);
+    assertEquals(map.hashCode(), other.hashCode());
+    assertFalse(map.equals(map.asMap()));
+    assertEquals(map.asMap().hashCode(), map.hashCode());
+    assertEquals(map.asMap().toString(), map.toString());
+    assertEquals("{}", IntIntHashMap.create().toString());
+  }
+}
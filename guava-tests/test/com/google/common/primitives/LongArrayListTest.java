@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.primitives;
+
+import com.google.common.collect.testing.ListTestSuiteBuilder;
+import com.google.common.collect.testing.SampleElements;
+import com.google.common.collect.testing.TestListGenerator;
+import com.google.common.collect.testing.features.CollectionFeature;
+import com.google.common.collect.testing.features.CollectionSize;
+import com.google.common.collect.testing.features.ListFeature;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link LongArrayList}.
+ */
+public class LongArrayListTest extends TestCase {
+
+  public static Test suite() {
+    TestSuite suite = new TestSuite();
+    suite.addTestSuite(LongArrayListTest.class);
+    suite.addTest(ListTestSuiteBuilder.using(new AsListGenerator())
+        .named("LongArrayList.asList")
+        .withFeatures(
+            CollectionSize.ANY,
+            CollectionFeature.GENERAL_PURPOSE,
+            CollectionFeature.RESTRICTS_ELEMENTS,
+            ListFeature.GENERAL_PURPOSE)
+        .createTestSuite());
+    return suite;
+  }
+
+  public static final class AsListGenerator implements TestListGenerator<Long> {
+    @Override public SampleElements<Long> samples() {
+      return new SampleElements<Long>(
+          (long) 0, (long) 1, (long) -1, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override public List<Long> create(Object... elements) {
+      LongArrayList list = LongArrayList.create();
+      for (Object element : elements) {
+        list.add((Long) element);
+      }
+      return list.asList();
+    }
+
+    @Override public Long[] createArray(int length) {
+      return new Long[length];
+    }
+
+    @Override public List<Long> order(List<Long> insertionOrder) {
+      return insertionOrder;
+    }
+  }
+
+  public void testAddAndGet() {
+    LongArrayList list = LongArrayList.create();
+    assertTrue(list.isEmpty());
+    for (int i = 0; i < 100; i++) {
+      list.add(i * 3);
+    }
+    assertEquals(100, list.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i * 3, list.get(i));
+    }
+  }
+
+  public void testAddAtIndex() {
+    LongArrayList list = LongArrayList.of(1, 3);
+    list.add(0, 0);
+    list.add(2, 2);
+    list.add(4, 4);
+    assertEquals(LongArrayList.of(0, 1, 2, 3, 4), list);
+    try {
+      list.add(6, 6);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {}
+  }
+
+  public void testSetAndRemoveAt() {
+    LongArrayList list = LongArrayList.of(5, 6, 7);
+    assertEquals(6, list.set(1, 60));
+    assertEquals(5, list.removeAt(0));
+    assertEquals(LongArrayList.of(60, 7), list);
+    try {
+      list.get(2);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {}
+    try {
+      list.removeAt(-1);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {}
+  }
+
+  public void testAddAll() {
+    LongArrayList list = LongArrayList.withExpectedSize(0);
+    list.addAll(1, 2);
+    list.addAll(list);
+    list.addAll();
+    assertEquals(LongArrayList.of(1, 2, 1, 2), list);
+  }
+
+  public void testSearch() {
+    LongArrayList list = LongArrayList.of(4, 5, 4);
+    assertTrue(list.contains(5));
+    assertFalse(list.contains(6));
+    assertEquals(0, list.indexOf(4));
+    assertEquals(2, list.lastIndexOf(4));
+    assertEquals(-1, list.indexOf(6));
+    assertEquals(-1, list.lastIndexOf(6));
+  }
+
+  public void testSortAndToArray() {
+    LongArrayList list = LongArrayList.of(3, -1, 2);
+    list.sort();
+    assertTrue(Arrays.equals(new long[] {-1, 2, 3}, list.toArray()));
+  }
+
+  public void testClearAndTrimToSize() {
+    LongArrayList list = LongArrayList.withExpectedSize(100);
+    list.add(1);
+    list.trimToSize();
+    assertEquals(LongArrayList.of(1), list);
+    list.clear();
+    list.trimToSize();
+    assertTrue(list.isEmpty());
+    list.add(2);
+    assertEquals(LongArrayList.of(2), list);
+  }
+
+  public void testOfCopiesArray() {
+    long[] array = {1, 2};
+    LongArrayList list = LongArrayList.of(array);
+    array[0] = 9;
+    assertEquals(1, list.get(0));
+  }
+
+  public void testAsListWritesThrough() {
+    LongArrayList list = LongArrayList.of(1, 2);
+    List<Long> view = list.asList();
+    view.add((long) 3);
+    view.remove(0);
+    assertEquals(LongArrayList.of(2, 3), list);
+    list.add(4);
+    assertEquals(Arrays.asList((long) 2, (long) 3, (long) 4), view);
+    try {
+      view.add(null);
+      fail();
+    } catch (NullPointerException expected) {}
+  }
+
+  public void testEqualsHashCodeAndToString() {
+    LongArrayList list = LongArrayList.of(1, -2, 3);
+    assertEquals(list.asList().hashCode(), list.hashCode());
+    assertEquals(list.asList().toString(), list.toString());
+    assertEquals("[]", LongArrayList.create().toString());
+    assertFalse(list.equals(LongArrayList.of(1, -2)));
+    assertFalse(list.equals(list.asList()));
+  }
+}
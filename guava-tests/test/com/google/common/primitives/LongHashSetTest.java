@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.primitives;
+
+import com.google.common.collect.testing.SampleElements;
+import com.google.common.collect.testing.SetTestSuiteBuilder;
+import com.google.common.collect.testing.TestSetGenerator;
+import com.google.common.collect.testing.features.CollectionFeature;
+import com.google.common.collect.testing.features.CollectionSize;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for {@link LongHashSet}.
+ */
+public class LongHashSetTest extends TestCase {
+
+  public static Test suite() {
+    TestSuite suite = new TestSuite();
+    suite.addTestSuite(LongHashSetTest.class);
+    suite.addTest(SetTestSuiteBuilder.using(new AsSetGenerator())
+        .named("LongHashSet.asSet")
+        .withFeatures(
+            CollectionSize.ANY,
+            CollectionFeature.GENERAL_PURPOSE,
+            CollectionFeature.RESTRICTS_ELEMENTS)
+        .createTestSuite());
+    return suite;
+  }
+
+  public static final class AsSetGenerator implements TestSetGenerator<Long> {
+    @Override public SampleElements<Long> samples() {
+      return new SampleElements<Long>(
+          (long) 0, (long) 1, (long) -1, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override public Set<Long> create(Object... elements) {
+      LongHashSet set = LongHashSet.create();
+      for (Object element : elements) {
+        set.add((Long) element);
+      }
+      return set.asSet();
+    }
+
+    @Override public Long[] createArray(int length) {
+      return new Long[length];
+    }
+
+    @Override public List<Long> order(List<Long> insertionOrder) {
+      return insertionOrder;
+    }
+  }
+
+  public void testAddContainsRemove() {
+    LongHashSet set = LongHashSet.create();
+    assertTrue(set.isEmpty());
+    assertTrue(set.add(0));
+    assertTrue(set.add(42));
+    assertFalse(set.add(42));
+    assertEquals(2, set.size());
+    assertTrue(set.contains(0));
+    assertTrue(set.contains(42));
+    assertFalse(set.contains(43));
+    assertTrue(set.remove(0));
+    assertFalse(set.remove(0));
+    assertFalse(set.contains(0));
+    assertTrue(set.remove(42));
+    assertTrue(set.isEmpty());
+  }
+
+  public void testGrowth() {
+    LongHashSet set = LongHashSet.create();
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(set.add(i * 1024));
+    }
+    assertEquals(10000, set.size());
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(set.contains(i * 1024));
+      assertFalse(set.contains(i * 1024 + 1));
+    }
+  }
+
+  public void testClear() {
+    LongHashSet set = LongHashSet.of(0, 1, 2);
+    set.clear();
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains(0));
+    assertFalse(set.contains(1));
+    assertTrue(set.add(1));
+  }
+
+  public void testToArray() {
+    long[] array = LongHashSet.of(3, 0, -5, 3).toArray();
+    Arrays.sort(array);
+    assertTrue(Arrays.equals(new long[] {-5, 0, 3}, array));
+  }
+
+  public void testIterator() {
+    LongHashSet set = LongHashSet.of(0, 1, 2);
+    Set<Long> seen = new HashSet<Long>();
+    LongIterator iterator = set.iterator();
+    try {
+      iterator.remove();
+      fail();
+    } catch (IllegalStateException expected) {}
+    while (iterator.hasNext()) {
+      seen.add(iterator.next());
+    }
+    assertEquals(set.asSet(), seen);
+    try {
+      iterator.next();
+      fail();
+    } catch (NoSuchElementException expected) {}
+  }
+
+  public void testIterator_concurrentModification() {
+    LongHashSet set = LongHashSet.of(1, 2);
+    LongIterator iterator = set.iterator();
+    iterator.next();
+    set.add(3);
+    try {
+      iterator.next();
+      fail();
+    } catch (ConcurrentModificationException expected) {}
+  }
+
+  /**
+   * Compares random operations on small keys, which collide often, with a {@link HashSet}; the
+   * iterator removes a random part of the values, shifting others back as it goes.
+   */
+  public void testRandomOperations() {
+    Random random = new Random(0);
+    LongHashSet set = LongHashSet.create();
+    Set<Long> expected = new HashSet<Long>();
+    for (int round = 0; round < 200; round++) {
+      for (int i = 0; i < 100; i++) {
+        long value = random.nextInt(200) - 20;
+        if (random.nextInt(3) == 0) {
+          assertEquals(expected.remove(value), set.remove(value));
+        } else {
+          assertEquals(expected.add(value), set.add(value));
+        }
+      }
+      Set<Long> iterated = new HashSet<Long>();
+      for (LongIterator iterator = set.iterator(); iterator.hasNext(); ) {
+        long value = iterator.next();
+        assertTrue(iterated.add(value));
+        if (random.nextInt(4) == 0) {
+          iterator.remove();
+          expected.remove(value);
+        }
+      }
+      assertEquals(expected.size(), set.size());
+      assertEquals(expected, set.asSet());
+      for (Long value : expected) {
+        assertTrue(set.contains(value));
+      }
+    }
+  }
+
+  public void testEqualsHashCodeAndToString() {
+    LongHashSet set = LongHashSet.of(0, 7, -3);
+    assertEquals(LongHashSet.of(-3, 7, 0), set);
+    assertFalse(set.equals(LongHashSet.of(-3, 7)));
+    assertFalse(set.equals(LongHashSet.of(-3, 7, 1)));
+    assertFalse(set.equals(set.asSet()));
+    assertEquals(set.asSet().hashCode(), set.hashCode());
+    assertEquals(set.asSet().toString(), set.toString());
+    assertEquals("[]", LongHashSet.create().toString());
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.common.primitives;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.testing.MapTestSuiteBuilder;
+import com.google.common.collect.testing.SampleElements;
+import com.google.common.collect.testing.TestMapGenerator;
+import com.google.common.collect.testing.features.CollectionSize;
+import com.google.common.collect.testing.features.MapFeature;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+/**
+ * Tests for {@link LongObjectHashMap}.
+ */
+public class LongObjectHashMapTest extends TestCase {
+
+  public static Test suite() {
+    TestSuite suite = new TestSuite();
+    suite.addTestSuite(LongObjectHashMapTest.class);
+    suite.addTest(MapTestSuiteBuilder.using(new AsMapGenerator())
+        .named("LongObjectHashMap.asMap")
+        .withFeatures(
+            CollectionSize.ANY,
+            MapFeature.GENERAL_PURPOSE,
+            MapFeature.RESTRICTS_KEYS,
+            MapFeature.RESTRICTS_VALUES)
+        .createTestSuite());
+    return suite;
+  }
+
+  public static final class AsMapGenerator implements TestMapGenerator<Long, String> {
+    @Override public SampleElements<Entry<Long, String>> samples() {
+      return new SampleElements<Entry<Long, String>>(
+          Maps.immutableEntry(0L, "zero"),
+          Maps.immutableEntry(1L, "one"),
+          Maps.immutableEntry(-1L, "minus one"),
+          Maps.immutableEntry(Long.MIN_VALUE, "min"),
+          Maps.immutableEntry(Long.MAX_VALUE, "max"));
+    }
+
+    @Override public Map<Long, String> create(Object... entries) {
+      LongObjectHashMap<String> map = LongObjectHashMap.create();
+      for (Object entry : entries) {
+        @SuppressWarnings("unchecked")
+        Entry<Long, String> e = (Entry<Long, String>) entry;
+        map.put(e.getKey(), e.getValue());
+      }
+      return map.asMap();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public Entry<Long, String>[] createArray(int length) {
+      return new Entry[length];
+    }
+
+    @Override public Long[] createKeyArray(int length) {
+      return new Long[length];
+    }
+
+    @Override public String[] createValueArray(int length) {
+      return new String[length];
+    }
+
+    @Override public Iterable<Entry<Long, String>> order(
+        List<Entry<Long, String>> insertionOrder) {
+      return insertionOrder;
+    }
+  }
+
+  public void testPutGetRemove() {
+    LongObjectHashMap<String> map = LongObjectHashMap.create();
+    assertTrue(map.isEmpty());
+    assertNull(map.put(0, "a"));
+    assertNull(map.put(7, "b"));
+    assertEquals("b", map.put(7, "c"));
+    assertEquals(2, map.size());
+    assertEquals("a", map.get(0));
+    assertEquals("c", map.get(7));
+    assertNull(map.get(6));
+    assertTrue(map.containsKey(0));
+    assertFalse(map.containsKey(6));
+    assertEquals("a", map.remove(0));
+    assertNull(map.remove(0));
+    assertEquals("c", map.remove(7));
+    assertTrue(map.isEmpty());
+  }
+
+  public void testPutNull() {
+    LongObjectHashMap<String> map = LongObjectHashMap.create();
+    try {
+      map.put(1, null);
+      fail();
+    } catch (NullPointerException expected) {}
+  }
+
+  public void testGrowth() {
+    LongObjectHashMap<Long> map = LongObjectHashMap.withExpectedSize(10);
+    for (long i = 0; i < 10000; i++) {
+      map.put(i << 32, i);
+    }
+    assertEquals(10000, map.size());
+    for (long i = 0; i < 10000; i++) {
+      assertEquals((Long) i, map.get(i << 32));
+    }
+  }
+
+  public void testCursor() {
+    LongObjectHashMap<String> map = LongObjectHashMap.create();
+    map.put(0, "a");
+    map.put(2, "b");
+    map.put(4, "c");
+    LongObjectHashMap<String>.Cursor cursor = map.cursor();
+    try {
+      cursor.value();
+      fail();
+    } catch (IllegalStateException expected) {}
+    Map<Long, String> seen = new HashMap<Long, String>();
+    while (cursor.next()) {
+      seen.put(cursor.key(), cursor.value());
+      cursor.setValue(cursor.value().toUpperCase());
+      if (cursor.key() == 2) {
+        cursor.remove();
+      }
+    }
+    assertFalse(cursor.next());
+    assertEquals(ImmutableMap.of(0L, "a", 2L, "b", 4L, "c"), seen);
+    assertEquals(ImmutableMap.of(0L, "A", 4L, "C"), map.asMap());
+  }
+
+  public void testCursor_concurrentModification() {
+    LongObjectHashMap<String> map = LongObjectHashMap.create();
+    map.put(1, "a");
+    LongObjectHashMap<String>.Cursor cursor = map.cursor();
+    map.remove(1);
+    try {
+      cursor.next();
+      fail();
+    } catch (ConcurrentModificationException expected) {}
+  }
+
+  public void testKeyIterator() {
+    LongObjectHashMap<String> map = LongObjectHashMap.create();
+    map.put(0, "a");
+    map.put(2, "b");
+    LongIterator iterator = map.keyIterator();
+    long sum = 0;
+    while (iterator.hasNext()) {
+      long key = iterator.next();
+      sum += key;
+      if (key == 0) {
+        iterator.remove();
+      }
+    }
+    assertEquals(2, sum);
+    assertEquals(ImmutableMap.of(2L, "b"), map.asMap());
+  }
+
+  /**
+   * Compares random operations on small keys, which collide often, with a {@link HashMap}; the
+   * cursor removes a random part of the entries, shifting others back as it goes.
+   */
+  public void testRandomOperations() {
+    Random random = new Random(0);
+    LongObjectHashMap<Integer> map = LongObjectHashMap.create();
+    Map<Long, Integer> expected = new HashMap<Long, Integer>();
+    for (int round = 0; round < 200; round++) {
+      for (int i = 0; i < 100; i++) {
+        long key = random.nextInt(200) - 20;
+        if (random.nextInt(3) == 0) {
+          assertEquals(expected.remove(key), map.remove(key));
+        } else {
+          assertEquals(expected.put(key, i), map.put(key, i));
+        }
+      }
+      Map<Long, Integer> iterated = new HashMap<Long, Integer>();
+      for (LongObjectHashMap<Integer>.Cursor cursor = map.cursor(); cursor.next(); ) {
+        assertNull(iterated.put(cursor.key(), cursor.value()));
+        if (random.nextInt(4) == 0) {
+          expected.remove(cursor.key());
+          cursor.remove();
+        }
+      }
+      assertEquals(expected.size(), map.size());
+      assertEquals(expected, map.asMap());
+      for (Entry<Long, Integer> entry : expected.entrySet()) {
+        assertEquals(entry.getValue(), map.get(entry.getKey()));
+      }
+    }
+  }
+
+  public void testEqualsHashCodeAndToString() {
+    LongObjectHashMap<String> map = LongObjectHashMap.create();
+    map.put(0, "a");
+    map.put(-2, "b");
+    LongObjectHashMap<String> other = LongObjectHashMap.create();
+    other.put(-2, "b");
+    assertFalse(map.equals(other));
+    other.put(0, "c");
+    assertFalse(map.equals(other));
+    other.put(0, "a");
+    assertEquals(map, other);
+    assertEquals(map.hashCode(), other.hashCode());
+    assertFalse(map.equals(map.asMap()));
+    assertEquals(map.asMap().hashCode(), map.hashCode());
+    assertEquals(map.asMap().toString(), map.toString());
+    assertEquals("{}", LongObjectHashMap.create().toString());
+  }
+}
@@ -202,8 +202,9 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
    */
   @Beta
   public static class SimpleStatsCounter implements StatsCounter {
-    private final AtomicLong hitCount = new AtomicLong();
-    private final AtomicLong missCount = new AtomicLong();
+    // hits and misses are counted on every read, so their counters are striped
+    private final StripedCounter hitCount = new StripedCounter();
+    private final StripedCounter missCount = new StripedCounter();
     private final AtomicLong loadSuccessCount = new AtomicLong();
     private final AtomicLong loadExceptionCount = new AtomicLong();
     private final AtomicLong totalLoadTime = new AtomicLong();
@@ -214,7 +215,7 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
      */
     @Override
     public void recordHits(int count) {
-      hitCount.addAndGet(count);
+      hitCount.add(count);
     }
 
     /**
@@ -222,7 +223,7 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
      */
     @Override
     public void recordMisses(int count) {
-      missCount.addAndGet(count);
+      missCount.add(count);
     }
 
     @Override
@@ -245,8 +246,8 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
     @Override
     public CacheStats snapshot() {
       return new CacheStats(
-          hitCount.get(),
-          missCount.get(),
+          hitCount.sum(),
+          missCount.sum(),
           loadSuccessCount.get(),
           loadExceptionCount.get(),
           totalLoadTime.get(),
@@ -258,8 +259,8 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
      */
     public void incrementBy(StatsCounter other) {
       CacheStats otherStats = other.snapshot();
-      hitCount.addAndGet(otherStats.hitCount());
-      missCount.addAndGet(otherStats.missCount());
+      hitCount.add(otherStats.hitCount());
+      missCount.add(otherStats.missCount());
       loadSuccessCount.addAndGet(otherStats.loadSuccessCount());
       loadExceptionCount.addAndGet(otherStats.loadExceptionCount());
       totalLoadTime.addAndGet(otherStats.totalLoadTime());
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
+
+/**
+ * A semi-persistent mapping from keys to values, whose values are loaded asynchronously. Rather
+ * than waiting for a value to be loaded, callers receive a {@link ListenableFuture} which completes
+ * once the value is available. Values are stored in the cache until either evicted or manually
+ * invalidated.
+ *
+ * <p>Values are loaded by the cache's {@link CacheLoader} on the {@link Executor} supplied to
+ * {@link CacheBuilder#buildAsync}. At most one load is in flight for any key at a time: concurrent
+ * requests for a key which is already being loaded all complete when that load does. Cancelling a
+ * returned future has no effect on the underlying load, nor on the other futures waiting for it.
+ *
+ * <p>Implementations of this interface are expected to be thread-safe, and can be safely accessed
+ * by multiple concurrent threads.
+ *
+ * @since 12.0
+ */
+@Beta
+public interface AsyncLoadingCache<K, V> {
+
+  /**
+   * Returns a future for the value associated with {@code key} in this cache, first loading that
+   * value if necessary. If the value is already present the returned future is already done;
+   * otherwise no more than one load is started for {@code key}, and this method returns without
+   * waiting for it.
+   *
+   * <p>If the load throws an exception, or returns {@code null}, the returned future fails with
+   * that exception or with an {@link CacheLoader.InvalidCacheLoadException} respectively, and no
+   * value is cached. A subsequent request for the same key will attempt to load it again.
+   */
+  ListenableFuture<V> get(K key);
+
+  /**
+   * Returns a future for a map of the values associated with {@code keys}, loading each of those
+   * values which is not already present. The returned map contains exactly the given keys, in the
+   * order in which they were first encountered, once every load has completed. If any load fails,
+   * the returned future fails with the same exception.
+   *
+   * <p>Each absent key is loaded individually by {@link CacheLoader#load}, in parallel as permitted
+   * by the cache's executor.
+   */
+  ListenableFuture<ImmutableMap<K, V>> getAll(Iterable<? extends K> keys);
+
+  /**
+   * Returns a future for the value associated with {@code key} in this cache if it is present or
+   * currently being loaded, or {@code null} otherwise. This method never starts a new load.
+   */
+  @Nullable
+  ListenableFuture<V> getIfPresent(K key);
+
+  /**
+   * Returns a view of this cache as a {@link LoadingCache}, whose blocking operations wait for
+   * values to be loaded. Changes made through either view are visible through the other. Loads
+   * started through the synchronous view run on the calling thread.
+   */
+  LoadingCache<K, V> synchronous();
+}
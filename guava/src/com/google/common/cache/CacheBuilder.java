@@ -34,16 +34,22 @@ import com.google.common.base.Ticker;
 import com.google.common.cache.AbstractCache.SimpleStatsCounter;
 import com.google.common.cache.AbstractCache.StatsCounter;
 import com.google.common.cache.LocalCache.Strength;
+import com.google.common.io.InputSupplier;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.util.ConcurrentModificationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
 
 /**
  * <p>A builder of {@link LoadingCache} and {@link Cache} instances having any combination of the
@@ -51,12 +57,21 @@ import javax.annotation.CheckReturnValue;
  *
  * <ul>
  * <li>automatic loading of entries into the cache
- * <li>least-recently-used eviction when a maximum size is exceeded
+ * <li>least-recently-used eviction when a maximum size is exceeded, optionally guarded by a
+ *     {@linkplain EvictionPolicy#TINY_LFU frequency-based admission policy}, within each segment
+ *     or {@linkplain #globalEviction across the whole cache}
  * <li>time-based expiration of entries, measured since last access or last write
+ * <li>time-based expiration of entries after a duration {@linkplain #expireAfter computed} for
+ *     each entry
  * <li>keys automatically wrapped in {@linkplain WeakReference weak} references
  * <li>values automatically wrapped in {@linkplain WeakReference weak} or
  *     {@linkplain SoftReference soft} references
+ * <li>values serialized and stored {@linkplain #offHeapValues off-heap}
+ * <li>evicted entries moved to a {@linkplain #secondTier second tier} in a memory-mapped file
+ * <li>warming with the hottest entries of a previous cache from a {@linkplain #restoreSnapshot
+ *     snapshot}
  * <li>notification of evicted (or otherwise removed) entries
+ * <li>a {@linkplain #compactEntries compact layout} for caches of strongly referenced entries
  * </ul>
  *
  * <p>Usage example: <pre>   {@code
@@ -119,7 +134,9 @@ import javax.annotation.CheckReturnValue;
  * {@linkplain #removalListener removalListener}, {@linkplain #expireAfterWrite expireAfterWrite},
  * {@linkplain #expireAfterAccess expireAfterAccess}, {@linkplain #weakKeys weakKeys},
  * {@linkplain #weakValues weakValues}, or {@linkplain #softValues softValues} perform periodic
- * maintenance.
+ * maintenance. If an {@linkplain #executor executor} is specified, the maintenance which would
+ * otherwise be performed during read operations, and the delivery of removal notifications, is
+ * instead performed asynchronously on that executor.
  *
  * <p>The caches produced by {@code CacheBuilder} are serializable, and the deserialized caches
  * retain all the configuration properties of the original cache. Note that the serialized form does
@@ -205,19 +222,34 @@ public final class CacheBuilder<K, V> {
   long maximumSize = UNSET_INT;
   long maximumWeight = UNSET_INT;
   Weigher<? super K, ? super V> weigher;
+  EvictionPolicy evictionPolicy;
+  int evictionSampleSize = UNSET_INT;
+  boolean compactEntries;
 
   Strength keyStrength;
   Strength valueStrength;
+  CacheCodec<?> valueCodec;
+
+  File secondTierFile;
+  int secondTierCapacity = UNSET_INT;
+  CacheCodec<?> secondTierCodec;
+  InputSupplier<? extends InputStream> snapshot;
+  CacheCodec<?> snapshotKeyCodec;
+  CacheCodec<?> snapshotValueCodec;
 
   long expireAfterWriteNanos = UNSET_INT;
   long expireAfterAccessNanos = UNSET_INT;
   long refreshNanos = UNSET_INT;
+  Expiry<?, ?> expiry;
+  int refreshBatchSize = UNSET_INT;
+  long refreshWindowNanos = UNSET_INT;
 
   Equivalence<Object> keyEquivalence;
   Equivalence<Object> valueEquivalence;
 
   RemovalListener<? super K, ? super V> removalListener;
   Ticker ticker;
+  Executor executor;
 
   Supplier<? extends StatsCounter> statsCounterSupplier = CACHE_STATS_COUNTER;
 
@@ -335,6 +367,8 @@ public final class CacheBuilder<K, V> {
    * <p>When {@code size} is zero, elements will be evicted immediately after being loaded into the
    * cache. This can be useful in testing, or to disable caching temporarily without a code change.
    *
+   * <p>The maximum size of a cache can later be changed with {@link CachePolicy#setMaximum}.
+   *
    * @param size the maximum size of the cache
    * @throws IllegalArgumentException if {@code size} is negative
    * @throws IllegalStateException if a maximum size was already set
@@ -364,6 +398,8 @@ public final class CacheBuilder<K, V> {
    * cache. This can be useful in testing, or to disable caching temporarily without a code
    * change.
    *
+   * <p>The maximum weight of a cache can later be changed with {@link CachePolicy#setMaximum}.
+   *
    * @param weight the maximum weight the cache may contain
    * @throws IllegalArgumentException if {@code size} is negative
    * @throws IllegalStateException if a maximum size was already set
@@ -426,7 +462,7 @@ public final class CacheBuilder<K, V> {
     if (expireAfterWriteNanos == 0 || expireAfterAccessNanos == 0) {
       return 0;
     }
-    return (weigher == null) ? maximumSize : maximumWeight;
+    return (maximumWeight == UNSET_INT) ? maximumSize : maximumWeight;
   }
 
   // Make a safe contravariant cast now so we don't have to do it over and over.
@@ -435,6 +471,101 @@ public final class CacheBuilder<K, V> {
     return (Weigher<K1, V1>) Objects.firstNonNull(weigher, OneWeigher.INSTANCE);
   }
 
+  /**
+   * Specifies the policy used to choose which entries to discard when the cache exceeds its
+   * {@linkplain #maximumSize maximum size} or {@linkplain #maximumWeight maximum weight}, and
+   * requires a corresponding call to one of those methods prior to calling {@link #build}. By
+   * default, {@link EvictionPolicy#LEAST_RECENTLY_USED} is used.
+   *
+   * <p>The policy only decides <i>which</i> entries are evicted; the cache remains bounded by the
+   * configured maximum size or weight regardless of the policy.
+   *
+   * @param policy the policy used to select entries for eviction
+   * @throws IllegalStateException if an eviction policy was already set
+   * @since 12.0
+   */
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> evictionPolicy(EvictionPolicy policy) {
+    checkState(evictionPolicy == null, "eviction policy was already set to %s", evictionPolicy);
+    evictionPolicy = checkNotNull(policy);
+    return this;
+  }
+
+  EvictionPolicy getEvictionPolicy() {
+    return firstNonNull(evictionPolicy, EvictionPolicy.LEAST_RECENTLY_USED);
+  }
+
+  /**
+   * Specifies that the cache's {@linkplain #maximumSize maximum size} or
+   * {@linkplain #maximumWeight maximum weight} is enforced over the cache as a whole, and requires
+   * a corresponding call to one of those methods prior to calling {@link #build}.
+   *
+   * <p>By default, the maximum is divided evenly among the segments of the cache (see
+   * {@link #concurrencyLevel}), and each segment evicts its own least recently used entries once
+   * it holds its share. When keys hash unevenly, a segment full of popular entries then evicts
+   * some of them, while other segments keep entries that are no longer used. With global eviction,
+   * a segment may hold any part of the maximum. When the cache as a whole is full, the writing
+   * segment compares the least recently used entry of each of {@code sampleSize} segments (itself
+   * and others chosen at random) and evicts the one which was accessed longest ago. The more
+   * segments are sampled, the closer eviction comes to a cache-wide least recently used order; a
+   * {@code sampleSize} of at least the concurrency level compares every segment.
+   *
+   * <p>Reads and writes still only lock the segment of their key. A sampled segment is only
+   * considered if its lock can be acquired without waiting, so a writer never blocks on another
+   * segment. Each read records the time of the access, which costs a call to the cache's
+   * {@linkplain #ticker ticker}. With the {@link EvictionPolicy#TINY_LFU} policy, a newly added
+   * entry is only admitted if it is estimated to be accessed more frequently than the chosen
+   * victim.
+   *
+   * @param sampleSize the number of segments whose least recently used entries are compared when
+   *     choosing an entry to evict
+   * @throws IllegalArgumentException if {@code sampleSize} is not positive
+   * @throws IllegalStateException if global eviction was already specified
+   * @since 12.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> globalEviction(int sampleSize) {
+    checkState(this.evictionSampleSize == UNSET_INT,
+        "global eviction was already specified with a sample size of %s", this.evictionSampleSize);
+    checkArgument(sampleSize > 0, "sample size must be positive");
+    this.evictionSampleSize = sampleSize;
+    return this;
+  }
+
+  int getEvictionSampleSize() {
+    return (evictionSampleSize == UNSET_INT) ? 0 : evictionSampleSize;
+  }
+
+  /**
+   * Specifies that the cache should store its entries in a compact layout, which uses less memory
+   * per entry at the cost of supporting fewer features.
+   *
+   * <p>By default, each entry of a cache is an object linked from a hash table, holding references
+   * to its key, to a reference to its value, and to its neighbors in the cache's eviction and
+   * expiration orders. In the compact layout, each segment instead keeps its entries in a few
+   * arrays indexed by the entry's slot in an open-addressed hash table, and the eviction and
+   * expiration orders link slots by their indexes. For small keys and values this saves roughly
+   * half of the memory the cache itself uses per entry.
+   *
+   * <p>A compact cache may be bounded by {@link #maximumSize} with the default eviction policy, and
+   * may use {@link #expireAfterWrite}, {@link #removalListener}, {@link #ticker},
+   * {@link #initialCapacity} and {@link #concurrencyLevel}. Keys and values are strongly
+   * referenced. Building a compact cache
+   * with any other feature, or with {@link #buildAsync}, throws an {@code IllegalStateException}.
+   * The {@link LoadingCache#getAll} method of a compact cache loads absent values one at a time.
+   *
+   * @throws IllegalStateException if the compact layout was already specified
+   * @since 12.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> compactEntries() {
+    checkState(!compactEntries, "compact entries were already specified");
+    compactEntries = true;
+    return this;
+  }
+
   /**
    * Specifies that each key (not value) stored in the cache should be strongly referenced.
    *
@@ -528,6 +659,8 @@ public final class CacheBuilder<K, V> {
 
   CacheBuilder<K, V> setValueStrength(Strength strength) {
     checkState(valueStrength == null, "Value strength was already set to %s", valueStrength);
+    checkState(valueCodec == null || strength == Strength.STRONG,
+        "%s values can not be combined with off-heap values", strength);
     valueStrength = checkNotNull(strength);
     return this;
   }
@@ -536,6 +669,175 @@ public final class CacheBuilder<K, V> {
     return firstNonNull(valueStrength, Strength.STRONG);
   }
 
+  /**
+   * Specifies that each value (not key) stored in the cache should be serialized using
+   * {@code codec} and kept outside of the Java heap, in direct {@link java.nio.ByteBuffer}s. Only
+   * keys and small per-entry bookkeeping objects remain on the heap, so that very large caches do
+   * not lengthen garbage collection pauses. Each read of a value decodes a new copy of it.
+   *
+   * <p>Off-heap memory is obtained in slabs of about a megabyte, which are divided into chunks and
+   * reused as entries are removed; it is never returned to the JVM while the cache is reachable.
+   * The total amount of direct memory available is limited by the JVM (for example, by the
+   * {@code -XX:MaxDirectMemorySize} option of HotSpot).
+   *
+   * <p>If {@link #maximumWeight} is specified without a {@link #weigher}, the weight of each entry
+   * is the length of its serialized value in bytes, so that the maximum weight bounds the number of
+   * bytes held off-heap. A weigher, if specified, is invoked with the original value as usual.
+   * {@link RemovalListener}s receive a decoded copy of each removed value.
+   *
+   * <p><b>Note:</b> when this method is used, the resulting cache will use {@link Object#equals}
+   * to determine equality of values, as with strong values, and the codec is responsible for
+   * ensuring that decoded values are equal to those that were encoded.
+   *
+   * <p><b>Important note:</b> Instead of returning <em>this</em> as a {@code CacheBuilder}
+   * instance, this method returns {@code CacheBuilder<K1, V1>}, as with {@link #weigher}.
+   *
+   * @param codec the codec used to serialize and deserialize cached values
+   * @throws IllegalStateException if off-heap values were already requested, or if a value
+   *     strength was already set
+   * @since 12.0
+   */
+  @Beta
+  @GwtIncompatible("java.nio.ByteBuffer")
+  public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> offHeapValues(CacheCodec<V1> codec) {
+    checkState(valueCodec == null, "off-heap values were already requested with %s", valueCodec);
+    checkState(valueStrength == null || valueStrength == Strength.STRONG,
+        "off-heap values can not be combined with %s values", valueStrength);
+
+    // safely limiting the kinds of caches this can produce
+    @SuppressWarnings("unchecked")
+    CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+    me.valueCodec = checkNotNull(codec);
+    return me;
+  }
+
+  // Make a safe cast now so we don't have to do it over and over.
+  @SuppressWarnings("unchecked")
+  <V1 extends V> CacheCodec<V1> getValueCodec() {
+    return (CacheCodec<V1>) valueCodec;
+  }
+
+  /**
+   * Returns whether entries should be weighed by the length of their serialized values.
+   */
+  boolean weighsValueBytes() {
+    return valueCodec != null && weigher == null && maximumWeight != UNSET_INT;
+  }
+
+  /**
+   * Specifies that entries evicted from the cache because of its {@linkplain #maximumSize maximum
+   * size} or {@linkplain #maximumWeight maximum weight} should be moved to a second tier, which
+   * keeps their values serialized with {@code codec} in a memory-mapped file. When a loading
+   * operation such as {@link LoadingCache#get} encounters a missing entry, the second tier is
+   * consulted before the {@code CacheLoader}, and a value found there is moved back into the cache
+   * without being loaded. Lookups which don't load values, such as {@link Cache#getIfPresent}, and
+   * the {@linkplain Cache#asMap asMap} view only consider the entries in the cache itself.
+   *
+   * <p>The first {@code capacity} bytes of {@code file} are used as a circular log, so once it is
+   * full the oldest evicted entries are discarded to make room for new ones. The file is created if
+   * it doesn't exist, and any existing contents are ignored; it must not be used by any other cache
+   * or process while the cache is in use. Entries which would have expired from the cache also
+   * expire from the second tier. Entries moved to the second tier are reported to the
+   * {@linkplain #removalListener removal listener} as evicted, but those discarded from it are not
+   * reported. The second tier is not retained by serialized caches.
+   *
+   * <p>The activity of the second tier is reported by {@link CacheStats#l2HitCount} and
+   * {@link CacheStats#l2Bytes}.
+   *
+   * <p><b>Important note:</b> Instead of returning <em>this</em> as a {@code CacheBuilder}
+   * instance, this method returns {@code CacheBuilder<K1, V1>}, as with {@link #weigher}.
+   *
+   * @param file the file in which to store evicted entries
+   * @param capacity the number of bytes of {@code file} to use
+   * @param codec the codec used to serialize and deserialize evicted values
+   * @throws IllegalArgumentException if {@code capacity} is not positive, or is greater than
+   *     {@link Integer#MAX_VALUE}
+   * @throws IllegalStateException if a second tier was already specified
+   * @since 12.0
+   */
+  @Beta
+  @GwtIncompatible("java.io.File")
+  public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> secondTier(File file, long capacity,
+      CacheCodec<V1> codec) {
+    checkNotNull(file);
+    checkNotNull(codec);
+    checkState(secondTierFile == null, "second tier was already set to %s", secondTierFile);
+    checkArgument(capacity > 0 && capacity <= Integer.MAX_VALUE,
+        "second tier capacity must be positive and at most Integer.MAX_VALUE: %s", capacity);
+
+    // safely limiting the kinds of caches this can produce
+    @SuppressWarnings("unchecked")
+    CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+    me.secondTierCodec = codec;
+    me.secondTierFile = file;
+    me.secondTierCapacity = (int) capacity;
+    return me;
+  }
+
+  /**
+   * Returns a newly mapped second tier for a cache, or null if none was requested.
+   */
+  @SuppressWarnings("unchecked") // the codec was checked when it was set
+  <K1 extends K, V1 extends V> SecondTier<K1, V1> createSecondTier() {
+    if (secondTierFile == null) {
+      return null;
+    }
+    try {
+      return new SecondTier<K1, V1>(
+          secondTierFile, secondTierCapacity, (CacheCodec<V1>) secondTierCodec);
+    } catch (IOException e) {
+      throw new IllegalStateException("could not map second tier file " + secondTierFile, e);
+    }
+  }
+
+  /**
+   * Specifies that the cache should be warmed, when it is built, with the entries of a snapshot
+   * written by {@link CacheSnapshots#writeKeys} or {@link CacheSnapshots#writeEntries}, for example
+   * by a previous instance of the application. The snapshot is read from {@code snapshot} by the
+   * thread which builds the cache, which waits until it is restored.
+   *
+   * <p>Entries whose values are in the snapshot are inserted directly into the cache if
+   * {@code valueCodec} is not null. The values of the other entries are loaded with the cache's
+   * {@link CacheLoader}, in batches with {@link LoadingCache#getAll} so that an implementation of
+   * {@link CacheLoader#loadAll} can load them efficiently; caches built without a loader can only
+   * be restored from snapshots with values. Entries are restored from the least to the most
+   * recently accessed, and once the total weight recorded in the snapshot for the restored entries
+   * would exceed the cache's {@linkplain #maximumSize maximum size} or
+   * {@linkplain #maximumWeight maximum weight}, the rest of the snapshot is ignored.
+   *
+   * <p>Restoring a snapshot is best-effort: if the snapshot can't be read or decoded, or values
+   * can't be loaded, the failure is logged and the cache is built with whatever entries were
+   * restored. In particular, a missing snapshot file simply results in an empty cache.
+   *
+   * <p><b>Important note:</b> Instead of returning <em>this</em> as a {@code CacheBuilder}
+   * instance, this method returns {@code CacheBuilder<K1, V1>}, as with {@link #weigher}.
+   *
+   * @param snapshot supplies the stream from which to read the snapshot, for example
+   *     {@link com.google.common.io.Files#newInputStreamSupplier}
+   * @param keyCodec the codec used to deserialize keys
+   * @param valueCodec the codec used to deserialize values, or null to load all values with the
+   *     cache's loader
+   * @throws IllegalStateException if a snapshot was already specified
+   * @since 12.0
+   */
+  @Beta
+  @GwtIncompatible("java.io.InputStream")
+  public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> restoreSnapshot(
+      InputSupplier<? extends InputStream> snapshot, CacheCodec<K1> keyCodec,
+      @Nullable CacheCodec<V1> valueCodec) {
+    checkNotNull(snapshot);
+    checkNotNull(keyCodec);
+    checkState(this.snapshot == null, "snapshot was already set to %s", this.snapshot);
+
+    // safely limiting the kinds of caches this can produce
+    @SuppressWarnings("unchecked")
+    CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+    me.snapshot = snapshot;
+    me.snapshotKeyCodec = keyCodec;
+    me.snapshotValueCodec = valueCodec;
+    return me;
+  }
+
   /**
    * Specifies that each entry should be automatically removed from the cache once a fixed duration
    * has elapsed after the entry's creation, or the most recent replacement of its value.
@@ -553,11 +855,13 @@ public final class CacheBuilder<K, V> {
    *     removed
    * @param unit the unit that {@code duration} is expressed in
    * @throws IllegalArgumentException if {@code duration} is negative
-   * @throws IllegalStateException if the time to live or time to idle was already set
+   * @throws IllegalStateException if the time to live or time to idle was already set, or if
+   *     variable expiration was specified
    */
   public CacheBuilder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
     checkState(expireAfterWriteNanos == UNSET_INT, "expireAfterWrite was already set to %s ns",
         expireAfterWriteNanos);
+    checkState(expiry == null, "expireAfterWrite cannot be combined with expireAfter");
     checkArgument(duration >= 0, "duration cannot be negative: %s %s", duration, unit);
     this.expireAfterWriteNanos = unit.toNanos(duration);
     return this;
@@ -587,11 +891,13 @@ public final class CacheBuilder<K, V> {
    *     automatically removed
    * @param unit the unit that {@code duration} is expressed in
    * @throws IllegalArgumentException if {@code duration} is negative
-   * @throws IllegalStateException if the time to idle or time to live was already set
+   * @throws IllegalStateException if the time to idle or time to live was already set, or if
+   *     variable expiration was specified
    */
   public CacheBuilder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
     checkState(expireAfterAccessNanos == UNSET_INT, "expireAfterAccess was already set to %s ns",
         expireAfterAccessNanos);
+    checkState(expiry == null, "expireAfterAccess cannot be combined with expireAfter");
     checkArgument(duration >= 0, "duration cannot be negative: %s %s", duration, unit);
     this.expireAfterAccessNanos = unit.toNanos(duration);
     return this;
@@ -602,6 +908,55 @@ public final class CacheBuilder<K, V> {
         ? DEFAULT_EXPIRATION_NANOS : expireAfterAccessNanos;
   }
 
+  /**
+   * Specifies that each entry should be automatically removed from the cache once a duration
+   * computed by {@code expiry} has elapsed. The duration is computed when the entry is created, and
+   * again each time its value is replaced or it is read, so that each entry may have its own
+   * lifetime.
+   *
+   * <p>Expiration times are tracked by a hierarchical timer wheel in each segment of the cache, so
+   * expired entries are found in amortized constant time, regardless of how their lifetimes
+   * compare with those of other entries.
+   *
+   * <p>Expired entries may be counted in {@link Cache#size}, but will never be visible to read or
+   * write operations. Expired entries are cleaned up as part of the routine maintenance described
+   * in the class javadoc.
+   *
+   * <p><b>Warning:</b> after invoking this method, do not continue to use <i>this</i> cache builder
+   * reference; instead use the reference this method <i>returns</i>. At runtime, these point to the
+   * same instance, but only the returned reference has the correct generic type information so as
+   * to ensure type safety.
+   *
+   * @param expiry the calculator of the duration for which each entry is retained
+   * @return this {@code CacheBuilder} instance (for chaining)
+   * @throws IllegalStateException if variable expiration was already set, or if the time to live or
+   *     time to idle was already set
+   * @since 12.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public <K1 extends K, V1 extends V> CacheBuilder<K1, V1> expireAfter(
+      Expiry<? super K1, ? super V1> expiry) {
+    checkNotNull(expiry);
+    checkState(this.expiry == null, "expireAfter was already set to %s", this.expiry);
+    checkState(expireAfterWriteNanos == UNSET_INT,
+        "expireAfter cannot be combined with expireAfterWrite");
+    checkState(expireAfterAccessNanos == UNSET_INT,
+        "expireAfter cannot be combined with expireAfterAccess");
+
+    // safely limiting the kinds of caches this can produce
+    @SuppressWarnings("unchecked")
+    CacheBuilder<K1, V1> me = (CacheBuilder<K1, V1>) this;
+    me.expiry = expiry;
+    return me;
+  }
+
+  // Make a safe contravariant cast now so we don't have to do it over and over.
+  @SuppressWarnings("unchecked")
+  <K1 extends K, V1 extends V> Expiry<K1, V1> getExpiry() {
+    return (Expiry<K1, V1>) expiry;
+  }
+
   /**
    * Specifies that active entries are eligible for automatic refresh once a fixed duration has
    * elapsed after the entry's creation, or the most recent replacement of its value. The semantics
@@ -639,6 +994,54 @@ public final class CacheBuilder<K, V> {
     return (refreshNanos == UNSET_INT) ? DEFAULT_REFRESH_NANOS : refreshNanos;
   }
 
+  /**
+   * Specifies that the entries which become due for refresh because of
+   * {@link #refreshAfterWrite} should be refreshed together, with a single call to
+   * {@link CacheLoader#reloadAll}. Once an entry is due for refresh it joins a batch, which is
+   * reloaded when it holds {@code maxBatchSize} entries, or when the specified window of time has
+   * elapsed since the batch was started. In the meantime, requests for the batched entries
+   * continue to return their old values.
+   *
+   * <p>As with expiration, the window isn't enforced by a timer: a batch whose window has elapsed
+   * is reloaded by the next cache operation which performs routine maintenance, or by an explicit
+   * call to {@link Cache#cleanUp}. Explicit calls to {@link LoadingCache#refresh} are not batched,
+   * nor are refreshes triggered by {@link Cache#get(Object, java.util.concurrent.Callable)}. If the
+   * cache loader doesn't override {@code reloadAll}, the entries of each batch are refreshed
+   * individually with {@link CacheLoader#reload}.
+   *
+   * @param maxBatchSize the most entries to refresh with a single call to {@code reloadAll}
+   * @param window the longest time for which to wait for a batch to fill before refreshing it
+   * @param unit the unit that {@code window} is expressed in
+   * @throws IllegalArgumentException if {@code maxBatchSize} is not positive, or if
+   *     {@code window} is negative
+   * @throws IllegalStateException if refresh coalescing was already requested
+   * @since 12.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public CacheBuilder<K, V> coalesceRefreshes(int maxBatchSize, long window, TimeUnit unit) {
+    checkNotNull(unit);
+    checkState(refreshBatchSize == UNSET_INT, "refresh batch size was already set to %s",
+        refreshBatchSize);
+    checkArgument(maxBatchSize > 0, "maximum batch size must be positive: %s", maxBatchSize);
+    checkArgument(window >= 0, "window must not be negative: %s %s", window, unit);
+    this.refreshBatchSize = maxBatchSize;
+    this.refreshWindowNanos = unit.toNanos(window);
+    return this;
+  }
+
+  boolean coalescesRefreshes() {
+    return refreshBatchSize != UNSET_INT;
+  }
+
+  int getRefreshBatchSize() {
+    return refreshBatchSize;
+  }
+
+  long getRefreshWindowNanos() {
+    return refreshWindowNanos;
+  }
+
   /**
    * Specifies a nanosecond-precision time source for use in determining when entries should be
    * expired. By default, {@link System#nanoTime} is used.
@@ -708,6 +1111,37 @@ public final class CacheBuilder<K, V> {
     return (RemovalListener<K1, V1>) Objects.firstNonNull(removalListener, NullListener.INSTANCE);
   }
 
+  /**
+   * Specifies an executor on which the cache performs its routine maintenance, rather than on the
+   * threads which read from and write to the cache. Removal notifications are delivered to the
+   * {@linkplain #removalListener removal listener}, and expired and collected entries are cleaned
+   * up following reads, by tasks submitted to {@code executor}. Each task performs a bounded amount
+   * of work, and submits another task if more remains.
+   *
+   * <p>Entries are still evicted by size as they are written, so that the cache never exceeds its
+   * maximum size, and writes still remove the expired entries of the segment that they modify.
+   * Explicit calls to {@link Cache#cleanUp} perform all pending maintenance on the calling thread.
+   *
+   * <p>If {@code executor} rejects a task, the maintenance is performed on the calling thread
+   * instead.
+   *
+   * @param executor the executor on which to perform maintenance
+   * @return this {@code CacheBuilder} instance (for chaining)
+   * @throws IllegalStateException if an executor was already set
+   * @since 12.0
+   */
+  @Beta
+  @GwtIncompatible("Executor")
+  public CacheBuilder<K, V> executor(Executor executor) {
+    checkState(this.executor == null, "executor was already set to %s", this.executor);
+    this.executor = checkNotNull(executor);
+    return this;
+  }
+
+  Executor getExecutor() {
+    return executor;
+  }
+
   /**
    * Disable the accumulation of {@link CacheStats} during the operation of the cache.
    */
@@ -736,9 +1170,44 @@ public final class CacheBuilder<K, V> {
   public <K1 extends K, V1 extends V> LoadingCache<K1, V1> build(
       CacheLoader<? super K1, V1> loader) {
     checkWeightWithWeigher();
+    checkEvictionPolicy();
+    checkSecondTier();
+    checkRefreshCoalescing();
+    if (compactEntries) {
+      checkCompactEntries();
+      return new CompactLocalCache.CompactLoadingCache<K1, V1>(this, loader);
+    }
     return new LocalCache.LocalLoadingCache<K1, V1>(this, loader);
   }
 
+  /**
+   * Builds a cache which returns a {@link com.google.common.util.concurrent.ListenableFuture} for
+   * the value of each requested key. Absent values are loaded by invoking the supplied
+   * {@code CacheLoader} on {@code executor}, so requesting a value never blocks the calling thread.
+   * If the value for a key is already being loaded, the returned future completes when that load
+   * does, rather than starting another one. Values due for
+   * {@linkplain #refreshAfterWrite refresh} are also reloaded on {@code executor}.
+   *
+   * <p>This method does not alter the state of this {@code CacheBuilder} instance, so it can be
+   * invoked again to create multiple independent caches.
+   *
+   * @param loader the cache loader used to obtain new values
+   * @param executor the executor on which values are loaded
+   * @return a cache having the requested features
+   * @since 12.0
+   */
+  @Beta
+  @GwtIncompatible("To be supported")
+  public <K1 extends K, V1 extends V> AsyncLoadingCache<K1, V1> buildAsync(
+      CacheLoader<? super K1, V1> loader, Executor executor) {
+    checkWeightWithWeigher();
+    checkEvictionPolicy();
+    checkSecondTier();
+    checkRefreshCoalescing();
+    checkState(!compactEntries, "compactEntries can not be combined with buildAsync");
+    return new LocalCache.LocalAsyncLoadingCache<K1, V1>(this, loader, executor);
+  }
+
   /**
    * Builds a cache which does not automatically load values when keys are requested.
    *
@@ -753,7 +1222,14 @@ public final class CacheBuilder<K, V> {
    */
   public <K1 extends K, V1 extends V> Cache<K1, V1> build() {
     checkWeightWithWeigher();
+    checkEvictionPolicy();
+    checkSecondTier();
+    checkRefreshCoalescing();
     checkNonLoadingCache();
+    if (compactEntries) {
+      checkCompactEntries();
+      return new CompactLocalCache.CompactManualCache<K1, V1>(this);
+    }
     return new LocalCache.LocalManualCache<K1, V1>(this);
   }
 
@@ -763,7 +1239,8 @@ public final class CacheBuilder<K, V> {
 
   private void checkWeightWithWeigher() {
     if (weigher == null) {
-      checkState(maximumWeight == UNSET_INT, "maximumWeight requires weigher");
+      checkState(maximumWeight == UNSET_INT || valueCodec != null,
+          "maximumWeight requires weigher or offHeapValues");
     } else {
       if (strictParsing) {
         checkState(maximumWeight != UNSET_INT, "weigher requires maximumWeight");
@@ -775,6 +1252,49 @@ public final class CacheBuilder<K, V> {
     }
   }
 
+  private void checkRefreshCoalescing() {
+    if (refreshBatchSize != UNSET_INT) {
+      checkState(refreshNanos != UNSET_INT, "coalesceRefreshes requires refreshAfterWrite");
+    }
+  }
+
+  private void checkSecondTier() {
+    if (secondTierFile != null) {
+      checkState(maximumSize != UNSET_INT || maximumWeight != UNSET_INT,
+          "secondTier requires maximumSize or maximumWeight");
+      checkState(keyStrength == null || keyStrength == Strength.STRONG,
+          "secondTier can not be combined with weak keys");
+    }
+  }
+
+  private void checkEvictionPolicy() {
+    if (evictionPolicy != null) {
+      checkState(maximumSize != UNSET_INT || maximumWeight != UNSET_INT,
+          "evictionPolicy requires maximumSize or maximumWeight");
+    }
+    if (evictionSampleSize != UNSET_INT) {
+      checkState(maximumSize != UNSET_INT || maximumWeight != UNSET_INT,
+          "globalEviction requires maximumSize or maximumWeight");
+    }
+  }
+
+  private void checkCompactEntries() {
+    checkState(getKeyStrength() == Strength.STRONG && getValueStrength() == Strength.STRONG,
+        "compactEntries requires strong keys and values");
+    checkState(weigher == null && valueCodec == null,
+        "compactEntries can not be combined with maximumWeight");
+    checkState(evictionPolicy == null || evictionPolicy == EvictionPolicy.LEAST_RECENTLY_USED,
+        "compactEntries can not be combined with evictionPolicy %s", evictionPolicy);
+    checkState(evictionSampleSize == UNSET_INT,
+        "compactEntries can not be combined with globalEviction");
+    checkState(expireAfterAccessNanos == UNSET_INT && expiry == null,
+        "compactEntries only supports expireAfterWrite");
+    checkState(refreshNanos == UNSET_INT, "compactEntries can not be combined with refresh");
+    checkState(secondTierFile == null && snapshot == null,
+        "compactEntries can not be combined with secondTier or restoreSnapshot");
+    checkState(executor == null, "compactEntries can not be combined with executor");
+  }
+
   /**
    * Returns a string representation for this CacheBuilder instance. The exact form of the returned
    * string is not specified.
@@ -795,18 +1315,39 @@ public final class CacheBuilder<K, V> {
         s.add("maximumWeight", maximumWeight);
       }
     }
+    if (evictionPolicy != null) {
+      s.add("evictionPolicy", evictionPolicy);
+    }
+    if (evictionSampleSize != UNSET_INT) {
+      s.add("globalEvictionSampleSize", evictionSampleSize);
+    }
+    if (compactEntries) {
+      s.addValue("compactEntries");
+    }
     if (expireAfterWriteNanos != UNSET_INT) {
       s.add("expireAfterWrite", expireAfterWriteNanos + "ns");
     }
     if (expireAfterAccessNanos != UNSET_INT) {
       s.add("expireAfterAccess", expireAfterAccessNanos + "ns");
     }
+    if (expiry != null) {
+      s.addValue("expireAfter");
+    }
     if (keyStrength != null) {
       s.add("keyStrength", Ascii.toLowerCase(keyStrength.toString()));
     }
     if (valueStrength != null) {
       s.add("valueStrength", Ascii.toLowerCase(valueStrength.toString()));
     }
+    if (valueCodec != null) {
+      s.addValue("offHeapValues");
+    }
+    if (secondTierFile != null) {
+      s.add("secondTier", secondTierFile);
+    }
+    if (snapshot != null) {
+      s.addValue("restoreSnapshot");
+    }
     if (keyEquivalence != null) {
       s.addValue("keyEquivalence");
     }
@@ -816,6 +1357,9 @@ public final class CacheBuilder<K, V> {
     if (removalListener != null) {
       s.addValue("removalListener");
     }
+    if (executor != null) {
+      s.addValue("executor");
+    }
     return s.toString();
   }
 }
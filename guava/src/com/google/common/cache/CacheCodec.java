@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+
+/**
+ * Converts cached objects to and from a serialized form, for caches which store their contents
+ * outside of the Java heap.
+ *
+ * <p>For any value {@code v} accepted by a codec, {@code decode(encode(v))} must return an object
+ * equal to {@code v}. Implementations must be thread-safe, and should not retain references to the
+ * arrays passed to or returned from their methods. Both methods may throw unchecked exceptions,
+ * which are propagated to the caller of the cache operation that invoked them.
+ *
+ * @param <T> the type of objects converted by this codec
+ * @see CacheBuilder#offHeapValues
+ * @since 12.0
+ */
+@Beta
+public interface CacheCodec<T> {
+
+  /**
+   * Returns the serialized form of {@code value}.
+   */
+  byte[] encode(T value);
+
+  /**
+   * Returns a new object equal to the one whose serialized form is {@code bytes}.
+   */
+  T decode(byte[] bytes);
+}
@@ -76,6 +76,32 @@ public abstract class CacheLoader<K, V> {
     return Futures.immediateFuture(load(key));
   }
 
+  /**
+   * Computes or retrieves replacement values corresponding to already-cached keys. This method is
+   * called when a batch of entries is refreshed by a cache built with
+   * {@link CacheBuilder#coalesceRefreshes}.
+   *
+   * <p>Any keys missing from the returned map, or mapped to null, fail to refresh and keep their
+   * old values. Entries for keys which aren't in {@code oldValues} are ignored.
+   *
+   * <p>This method should be overriden when bulk reloading is significantly more efficient than
+   * many individual reloads. Note that each entry of a batch will be refreshed with an individual
+   * call to {@link #reload} if this method is not overriden.
+   *
+   * <p><b>Note:</b> <i>all exceptions thrown by this method will be logged and then swallowed</i>.
+   *
+   * @param oldValues an unmodifiable map from each of the non-null keys to refresh to its non-null
+   *     old value
+   * @return the future map from each key in {@code oldValues} to its new value;
+   *     <b>must not be null</b>
+   * @since 12.0
+   */
+  @GwtIncompatible("Futures")
+  public ListenableFuture<Map<K, V>> reloadAll(Map<K, V> oldValues) throws Exception {
+    // This will be caught by the cache, causing it to fall back to multiple calls to reload
+    throw new UnsupportedLoadingOperationException();
+  }
+
   /**
    * Computes or retrieves the values corresponding to {@code keys}. This method is called by
    * {@link Cache#getAll}.
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtCompatible;
+import com.google.common.annotations.GwtIncompatible;
+import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.LocalCache.ManagedCache;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the internal behavior of a {@link Cache}, complementing its {@link CacheStats}
+ * with the distribution of load latencies and measures of contention and backlog. Instances of this
+ * class are immutable.
+ *
+ * <p>The load latency histogram counts loads by duration in buckets whose bounds are powers of two
+ * nanoseconds: bucket {@code i} counts the loads which took at least 2<sup>i-1</sup> and less than
+ * 2<sup>i</sup> nanoseconds. Both successful and failed loads are counted.
+ *
+ * <p>Metrics are recorded with striped or otherwise uncontended counters, so that recording them
+ * adds little to cache operations; a snapshot sums the counters of each segment of the cache, and
+ * isn't atomic with respect to concurrent operations. A snapshot is taken by {@link #snapshot}, and
+ * metrics are exported through JMX by registering the bean returned by {@link #asMXBean}.
+ *
+ * @since 12.0
+ */
+@Beta
+@GwtCompatible
+public final class CacheMetrics {
+  private final CacheStats stats;
+  private final long[] loadLatencyHistogram;
+  private final long lockWaitCount;
+  private final long lockWaitTime;
+  private final long evictionWeight;
+  private final long recencyQueueDepth;
+  private final long notificationQueueDepth;
+
+  CacheMetrics(CacheStats stats, long[] loadLatencyHistogram, long lockWaitCount,
+      long lockWaitTime, long evictionWeight, long recencyQueueDepth,
+      long notificationQueueDepth) {
+    this.stats = checkNotNull(stats);
+    this.loadLatencyHistogram = loadLatencyHistogram.clone();
+    this.lockWaitCount = lockWaitCount;
+    this.lockWaitTime = lockWaitTime;
+    this.evictionWeight = evictionWeight;
+    this.recencyQueueDepth = recencyQueueDepth;
+    this.notificationQueueDepth = notificationQueueDepth;
+  }
+
+  /**
+   * Returns the statistics of the cache at the time of this snapshot.
+   */
+  public CacheStats stats() {
+    return stats;
+  }
+
+  /**
+   * Returns the number of loads counted by each bucket of the load latency histogram, as described
+   * in the class documentation.
+   */
+  public long[] loadLatencyHistogram() {
+    return loadLatencyHistogram.clone();
+  }
+
+  /**
+   * Returns an upper bound on the given percentile of load latencies, in nanoseconds: the upper
+   * bound of the first bucket of the histogram at which at least {@code percentile} of all loads
+   * are counted. Returns zero if no loads have been counted.
+   *
+   * @param percentile the fraction of loads, between 0.0 and 1.0 inclusive
+   * @throws IllegalArgumentException if {@code percentile} is not between 0.0 and 1.0
+   */
+  public long loadLatencyPercentile(double percentile) {
+    checkArgument(percentile >= 0.0 && percentile <= 1.0,
+        "percentile must be between 0.0 and 1.0: %s", percentile);
+    long total = 0;
+    for (long count : loadLatencyHistogram) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long threshold = (long) Math.ceil(percentile * total);
+    long seen = 0;
+    for (int i = 0; i < loadLatencyHistogram.length; i++) {
+      seen += loadLatencyHistogram[i];
+      if (seen >= threshold && seen > 0) {
+        return (1L << i) - 1;
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Returns the number of times a thread had to wait to acquire the lock of a segment of the cache
+   * because another thread held it.
+   */
+  public long lockWaitCount() {
+    return lockWaitCount;
+  }
+
+  /**
+   * Returns the total time, in nanoseconds, spent by threads waiting to acquire the lock of a
+   * segment of the cache.
+   */
+  public long lockWaitTime() {
+    return lockWaitTime;
+  }
+
+  /**
+   * Returns the total weight of the entries which have been evicted; that is, of the entries
+   * counted by {@link CacheStats#evictionCount}. Each entry weighs one unless the cache was built
+   * with a {@linkplain CacheBuilder#weigher weigher}.
+   */
+  public long evictionWeight() {
+    return evictionWeight;
+  }
+
+  /**
+   * Returns the number of reads which have been recorded but not yet applied to the cache's
+   * recency ordering.
+   */
+  public long recencyQueueDepth() {
+    return recencyQueueDepth;
+  }
+
+  /**
+   * Returns the number of removal notifications waiting to be delivered to the cache's
+   * {@linkplain CacheBuilder#removalListener removal listener}.
+   */
+  public long notificationQueueDepth() {
+    return notificationQueueDepth;
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("stats", stats)
+        .add("loadLatencyHistogram", Arrays.toString(loadLatencyHistogram))
+        .add("lockWaitCount", lockWaitCount)
+        .add("lockWaitTime", lockWaitTime)
+        .add("evictionWeight", evictionWeight)
+        .add("recencyQueueDepth", recencyQueueDepth)
+        .add("notificationQueueDepth", notificationQueueDepth)
+        .toString();
+  }
+
+  /**
+   * Returns a snapshot of the current metrics of {@code cache}, which must have been built by
+   * {@link CacheBuilder}, or be a {@link ForwardingCache} of such a cache.
+   *
+   * @throws IllegalArgumentException if {@code cache} was not built by {@code CacheBuilder}
+   */
+  public static CacheMetrics snapshot(Cache<?, ?> cache) {
+    return LocalCache.managedCache(cache).metrics();
+  }
+
+  /**
+   * Returns a bean which exports the current metrics of {@code cache} through JMX. The attributes
+   * which are read within a second of each other are taken from the same snapshot, so that reading
+   * all of them only sums the cache's counters once. To export the metrics, register the bean with
+   * an {@code MBeanServer}, for example:
+   *
+   * <pre>   {@code
+   *
+   *   ManagementFactory.getPlatformMBeanServer().registerMBean(CacheMetrics.asMXBean(cache),
+   *       new ObjectName("com.example:type=Cache,name=users"));}</pre>
+   *
+   * @throws IllegalArgumentException if {@code cache} was not built by {@link CacheBuilder}
+   */
+  @GwtIncompatible("JMX")
+  public static CacheMetricsMXBean asMXBean(final Cache<?, ?> cache) {
+    final ManagedCache managedCache = LocalCache.managedCache(cache);
+    final Supplier<CacheMetrics> metrics = Suppliers.memoizeWithExpiration(
+        new Supplier<CacheMetrics>() {
+          @Override
+          public CacheMetrics get() {
+            return managedCache.metrics();
+          }
+        }, 1, TimeUnit.SECONDS);
+    return new CacheMetricsMXBean() {
+      @Override
+      public long getHitCount() {
+        return metrics.get().stats().hitCount();
+      }
+
+      @Override
+      public long getMissCount() {
+        return metrics.get().stats().missCount();
+      }
+
+      @Override
+      public long getLoadCount() {
+        return metrics.get().stats().loadCount();
+      }
+
+      @Override
+      public long getLoadExceptionCount() {
+        return metrics.get().stats().loadExceptionCount();
+      }
+
+      @Override
+      public long getEvictionCount() {
+        return metrics.get().stats().evictionCount();
+      }
+
+      @Override
+      public double getAverageLoadPenalty() {
+        return metrics.get().stats().averageLoadPenalty();
+      }
+
+      @Override
+      public long[] getLoadLatencyHistogram() {
+        return metrics.get().loadLatencyHistogram();
+      }
+
+      @Override
+      public long getLoadLatency50thPercentile() {
+        return metrics.get().loadLatencyPercentile(0.5);
+      }
+
+      @Override
+      public long getLoadLatency99thPercentile() {
+        return metrics.get().loadLatencyPercentile(0.99);
+      }
+
+      @Override
+      public long getLockWaitCount() {
+        return metrics.get().lockWaitCount();
+      }
+
+      @Override
+      public long getLockWaitTime() {
+        return metrics.get().lockWaitTime();
+      }
+
+      @Override
+      public long getEvictionWeight() {
+        return metrics.get().evictionWeight();
+      }
+
+      @Override
+      public long getRecencyQueueDepth() {
+        return metrics.get().recencyQueueDepth();
+      }
+
+      @Override
+      public long getNotificationQueueDepth() {
+        return metrics.get().notificationQueueDepth();
+      }
+
+      @Override
+      public long getSize() {
+        return cache.size();
+      }
+    };
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+
+/**
+ * The management interface through which the {@link CacheMetrics} of a cache are exported by the
+ * bean returned from {@link CacheMetrics#asMXBean}. Times are in nanoseconds.
+ *
+ * @since 12.0
+ */
+@Beta
+public interface CacheMetricsMXBean {
+
+  /** See {@link CacheStats#hitCount}. */
+  long getHitCount();
+
+  /** See {@link CacheStats#missCount}. */
+  long getMissCount();
+
+  /** See {@link CacheStats#loadCount}. */
+  long getLoadCount();
+
+  /** See {@link CacheStats#loadExceptionCount}. */
+  long getLoadExceptionCount();
+
+  /** See {@link CacheStats#evictionCount}. */
+  long getEvictionCount();
+
+  /** See {@link CacheStats#averageLoadPenalty}. */
+  double getAverageLoadPenalty();
+
+  /** See {@link CacheMetrics#loadLatencyHistogram}. */
+  long[] getLoadLatencyHistogram();
+
+  /** Returns {@link CacheMetrics#loadLatencyPercentile loadLatencyPercentile(0.5)}. */
+  long getLoadLatency50thPercentile();
+
+  /** Returns {@link CacheMetrics#loadLatencyPercentile loadLatencyPercentile(0.99)}. */
+  long getLoadLatency99thPercentile();
+
+  /** See {@link CacheMetrics#lockWaitCount}. */
+  long getLockWaitCount();
+
+  /** See {@link CacheMetrics#lockWaitTime}. */
+  long getLockWaitTime();
+
+  /** See {@link CacheMetrics#evictionWeight}. */
+  long getEvictionWeight();
+
+  /** See {@link CacheMetrics#recencyQueueDepth}. */
+  long getRecencyQueueDepth();
+
+  /** See {@link CacheMetrics#notificationQueueDepth}. */
+  long getNotificationQueueDepth();
+
+  /** See {@link Cache#size}. */
+  long getSize();
+}
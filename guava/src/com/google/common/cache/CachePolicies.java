@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtCompatible;
+
+/**
+ * Static methods pertaining to {@link CachePolicy} instances.
+ *
+ * @since 12.0
+ */
+@Beta
+@GwtCompatible
+public final class CachePolicies {
+
+  private CachePolicies() {}
+
+  /**
+   * Returns a view of the eviction policy of {@code cache}, through which it can be inspected and
+   * adjusted at runtime. The cache must have been built by {@link CacheBuilder}, or be a
+   * {@link ForwardingCache} of such a cache.
+   *
+   * @throws IllegalArgumentException if {@code cache} was not built by {@code CacheBuilder}
+   */
+  public static CachePolicy of(Cache<?, ?> cache) {
+    return LocalCache.managedCache(cache).policy();
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.GwtCompatible;
+
+/**
+ * Inspects and adjusts the eviction policy of a {@link Cache} while it is in use, for example when
+ * an operator changes its memory budget. Obtained from {@link CachePolicies#of}.
+ *
+ * @since 12.0
+ */
+@Beta
+@GwtCompatible
+public interface CachePolicy {
+
+  /**
+   * Returns whether the cache is bounded by {@link CacheBuilder#maximumSize} or
+   * {@link CacheBuilder#maximumWeight}. Only bounded caches can be resized.
+   */
+  boolean isBounded();
+
+  /**
+   * Returns the current maximum size of the cache, or its maximum weight if it was built with a
+   * {@link Weigher}.
+   *
+   * @throws IllegalStateException if the cache is not bounded
+   */
+  long getMaximum();
+
+  /**
+   * Changes the maximum size of the cache, or its maximum weight if it was built with a
+   * {@link Weigher}, without discarding its contents.
+   *
+   * <p>When the maximum grows, entries are retained for longer from now on. When it shrinks,
+   * entries are evicted by the calling thread until the cache fits within the new maximum, as they
+   * would be by writes. Eviction proceeds in small batches, between which concurrent writers may
+   * proceed; reads are never blocked. Removal notifications are delivered as usual.
+   *
+   * @throws IllegalArgumentException if {@code maximum} is negative
+   * @throws IllegalStateException if the cache is not bounded
+   */
+  void setMaximum(long maximum);
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.LocalCache.LocalManualCache;
+import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
+import com.google.common.io.InputSupplier;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Static methods which write the hottest contents of a cache to a stream, so that a new cache can
+ * be warmed with them using {@link CacheBuilder#restoreSnapshot}, for example after a restart.
+ *
+ * <p>A snapshot lists the entries of the cache in order of recency of access, most recently
+ * accessed first, up to a given total weight: the weight of each entry is its weight in the cache,
+ * or one if the cache is not bounded by weight. For caches built with
+ * {@link CacheBuilder#maximumSize}, {@link CacheBuilder#maximumWeight} or
+ * {@link CacheBuilder#expireAfterAccess}, the segments of the cache are merged by access time, so
+ * the entries written are the most recently accessed of the whole cache; for other caches, and for
+ * {@code Cache} implementations other than those built by {@code CacheBuilder}, the order is
+ * unspecified. Only the entries present in the
+ * cache itself are written, not those in a {@linkplain CacheBuilder#secondTier second tier}.
+ *
+ * <p>A snapshot may contain keys alone, in which case the restored cache loads their values with
+ * its {@link CacheLoader}, or keys and values together. Keys and values are serialized with
+ * {@link CacheCodec}s. Writing a snapshot does not affect the statistics or the recency of the
+ * cache's entries.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class CacheSnapshots {
+  private CacheSnapshots() {}
+
+  private static final Logger logger = Logger.getLogger(CacheSnapshots.class.getName());
+
+  /** Identifies a stream as a cache snapshot. */
+  @VisibleForTesting static final int MAGIC = 0x47435331; // "GCS1"
+
+  /** The flag which is set in the header of a snapshot which contains values. */
+  static final int HAS_VALUES = 1;
+
+  /** The number of keys loaded at a time when restoring a snapshot which contains keys alone. */
+  static final int RESTORE_BATCH = 256;
+
+  /**
+   * The largest key or value accepted when reading a snapshot. A larger length can only come from
+   * a corrupt snapshot.
+   */
+  static final int MAX_RECORD_SIZE = 1 << 30;
+
+  /**
+   * The size of the buffer in which a key or value is first read. The buffer then doubles as the
+   * bytes arrive, so that a length read from a truncated or corrupt snapshot can't allocate much
+   * more memory than the snapshot actually holds.
+   */
+  static final int READ_CHUNK_SIZE = 8192;
+
+  /** An entry of a cache, with its weight, as written to or read from a snapshot. */
+  static final class Record<K, V> {
+    final K key;
+    @Nullable final V value;
+    final int weight;
+    final long accessTime;
+
+    Record(K key, @Nullable V value, int weight) {
+      this(key, value, weight, 0);
+    }
+
+    Record(K key, @Nullable V value, int weight, long accessTime) {
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+      this.accessTime = accessTime;
+    }
+  }
+
+  /**
+   * Writes the keys of the most recently accessed entries of {@code cache} to {@code out}, up to
+   * a total weight of {@code maxWeight}. The stream is not closed.
+   *
+   * @return the number of keys written
+   * @throws IllegalArgumentException if {@code maxWeight} is negative
+   * @throws IOException if an I/O error occurs
+   */
+  public static <K> int writeKeys(Cache<K, ?> cache, OutputStream out,
+      CacheCodec<? super K> keyCodec, long maxWeight) throws IOException {
+    return write(cache, out, keyCodec, null, maxWeight);
+  }
+
+  /**
+   * Writes the keys and values of the most recently accessed entries of {@code cache} to
+   * {@code out}, up to a total weight of {@code maxWeight}. The stream is not closed.
+   *
+   * @return the number of entries written
+   * @throws IllegalArgumentException if {@code maxWeight} is negative
+   * @throws IOException if an I/O error occurs
+   */
+  public static <K, V> int writeEntries(Cache<K, V> cache, OutputStream out,
+      CacheCodec<? super K> keyCodec, CacheCodec<? super V> valueCodec, long maxWeight)
+      throws IOException {
+    return write(cache, out, keyCodec, checkNotNull(valueCodec), maxWeight);
+  }
+
+  private static <K, V> int write(Cache<K, V> cache, OutputStream out,
+      CacheCodec<? super K> keyCodec, @Nullable CacheCodec<? super V> valueCodec, long maxWeight)
+      throws IOException {
+    checkNotNull(cache);
+    checkNotNull(keyCodec);
+    checkArgument(maxWeight >= 0, "maxWeight must not be negative: %s", maxWeight);
+    List<Record<K, V>> records = (cache instanceof LocalManualCache)
+        ? ((LocalManualCache<K, V>) cache).localCache.snapshot(maxWeight)
+        : snapshot(cache.asMap(), maxWeight);
+
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeInt(valueCodec == null ? 0 : HAS_VALUES);
+    for (Record<K, V> record : records) {
+      data.writeInt(record.weight);
+      writeBytes(data, keyCodec.encode(record.key));
+      if (valueCodec != null) {
+        writeBytes(data, valueCodec.encode(record.value));
+      }
+    }
+    data.writeInt(-1);
+    data.flush();
+    return records.size();
+  }
+
+  /** Returns the entries of a map in iteration order, each of weight one. */
+  private static <K, V> List<Record<K, V>> snapshot(Map<K, V> map, long maxWeight) {
+    List<Record<K, V>> records = Lists.newArrayList();
+    for (Map.Entry<K, V> entry : map.entrySet()) {
+      if (records.size() >= maxWeight) {
+        break;
+      }
+      records.add(new Record<K, V>(entry.getKey(), entry.getValue(), 1));
+    }
+    return records;
+  }
+
+  private static void writeBytes(DataOutputStream data, byte[] bytes) throws IOException {
+    data.writeInt(bytes.length);
+    data.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream data) throws IOException {
+    int length = data.readInt();
+    if (length < 0 || length > MAX_RECORD_SIZE) {
+      throw new StreamCorruptedException("invalid record length: " + length);
+    }
+    byte[] bytes = new byte[Math.min(length, READ_CHUNK_SIZE)];
+    data.readFully(bytes);
+    while (bytes.length < length) {
+      byte[] larger = new byte[(int) Math.min(length, 2L * bytes.length)];
+      System.arraycopy(bytes, 0, larger, 0, bytes.length);
+      data.readFully(larger, bytes.length, larger.length - bytes.length);
+      bytes = larger;
+    }
+    return bytes;
+  }
+
+  /**
+   * Reads a snapshot, stopping once the total weight of the records read would exceed
+   * {@code maxWeight}. Values are only decoded if {@code valueCodec} is not null. If the snapshot
+   * is truncated or has a corrupt record length, the records read before that point are returned.
+   */
+  @VisibleForTesting
+  static <K, V> List<Record<K, V>> read(InputStream in, CacheCodec<K> keyCodec,
+      @Nullable CacheCodec<V> valueCodec, long maxWeight) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != MAGIC) {
+      throw new IOException("not a cache snapshot");
+    }
+    boolean hasValues = (data.readInt() & HAS_VALUES) != 0;
+    List<Record<K, V>> records = Lists.newArrayList();
+    long totalWeight = 0;
+    try {
+      int weight;
+      while ((weight = data.readInt()) >= 0) {
+        totalWeight += weight;
+        if (totalWeight > maxWeight) {
+          break;
+        }
+        K key = keyCodec.decode(readBytes(data));
+        V value = null;
+        if (hasValues) {
+          byte[] valueBytes = readBytes(data);
+          if (valueCodec != null) {
+            value = valueCodec.decode(valueBytes);
+          }
+        }
+        records.add(new Record<K, V>(key, value, weight));
+      }
+    } catch (EOFException e) {
+      logger.log(Level.WARNING, "cache snapshot is truncated after " + records.size() + " entries");
+    } catch (StreamCorruptedException e) {
+      logger.log(Level.WARNING,
+          "cache snapshot is corrupt after " + records.size() + " entries", e);
+    }
+    return records;
+  }
+
+  /**
+   * Warms a newly built cache with the snapshot requested by {@link CacheBuilder#restoreSnapshot},
+   * if any. Entries whose values are in the snapshot are inserted directly; the others are loaded
+   * in batches with {@link LocalCache#getAll}, so that a {@link CacheLoader#loadAll} implementation
+   * can load them efficiently. Entries are restored from the least to the most recently accessed,
+   * so that the most recently accessed are the last to be evicted. Failures are logged, and leave
+   * the cache partially or wholly empty.
+   */
+  @SuppressWarnings("unchecked") // the codecs were checked when they were set
+  static <K, V> void restore(LocalCache<K, V> cache, CacheBuilder<?, ?> builder) {
+    if (builder.snapshot == null) {
+      return;
+    }
+    CacheCodec<K> keyCodec = (CacheCodec<K>) builder.snapshotKeyCodec;
+    CacheCodec<V> valueCodec = (CacheCodec<V>) builder.snapshotValueCodec;
+    long maxWeight = cache.evictsBySize() ? cache.maxWeight : Long.MAX_VALUE;
+
+    List<Record<K, V>> records;
+    InputStream in = null;
+    try {
+      in = builder.snapshot.getInput();
+      records = read(in, keyCodec, valueCodec, maxWeight);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "could not read cache snapshot", e);
+      return;
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "could not decode cache snapshot", e);
+      return;
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+    Collections.reverse(records);
+
+    List<K> keysToLoad = Lists.newArrayList();
+    int skipped = 0;
+    for (Record<K, V> record : records) {
+      if (record.value != null) {
+        cache.put(record.key, record.value);
+      } else if (cache.defaultLoader == null) {
+        skipped++;
+      } else {
+        keysToLoad.add(record.key);
+        if (keysToLoad.size() == RESTORE_BATCH) {
+          load(cache, keysToLoad);
+          keysToLoad.clear();
+        }
+      }
+    }
+    if (!keysToLoad.isEmpty()) {
+      load(cache, keysToLoad);
+    }
+    if (skipped > 0) {
+      logger.log(Level.WARNING, "skipped " + skipped + " keys without values in cache snapshot; "
+          + "a cache without a CacheLoader can only restore entries with values");
+    }
+  }
+
+  private static <K, V> void load(LocalCache<K, V> cache, List<K> keys) {
+    try {
+      cache.getAll(keys);
+    } catch (ExecutionException e) {
+      logger.log(Level.WARNING, "could not load entries from cache snapshot", e.getCause());
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "could not load entries from cache snapshot", e);
+    }
+  }
+}
@@ -43,6 +43,9 @@ import javax.annotation.Nullable;
  *     for loading to complete (whether successful or not) and then increment {@code missCount}.
  * </ul>
  * <li>When an entry is evicted from the cache, {@code evictionCount} is incremented.
+ * <li>When a cache with a {@linkplain CacheBuilder#secondTier second tier} loads a missing entry
+ *     from that tier instead of its {@code CacheLoader}, {@code missCount} and {@code l2HitCount}
+ *     are incremented.
  * <li>No stats are modified when a cache entry is invalidated or manually removed.
  * <li>No stats are modified by operations invoked on the {@linkplain Cache#asMap asMap} view of
  *     the cache.
@@ -60,6 +63,8 @@ public final class CacheStats {
   private final long loadExceptionCount;
   private final long totalLoadTime;
   private final long evictionCount;
+  private final long l2HitCount;
+  private final long l2Bytes;
 
   /**
    * Constructs a new {@code CacheStats} instance.
@@ -69,12 +74,28 @@ public final class CacheStats {
    */
   public CacheStats(long hitCount, long missCount, long loadSuccessCount,
       long loadExceptionCount, long totalLoadTime, long evictionCount) {
+    this(hitCount, missCount, loadSuccessCount, loadExceptionCount, totalLoadTime, evictionCount,
+        0, 0);
+  }
+
+  /**
+   * Constructs a new {@code CacheStats} instance, including statistics about a cache's
+   * {@linkplain CacheBuilder#secondTier second tier}.
+   *
+   * @since 12.0
+   */
+  @Beta
+  public CacheStats(long hitCount, long missCount, long loadSuccessCount,
+      long loadExceptionCount, long totalLoadTime, long evictionCount, long l2HitCount,
+      long l2Bytes) {
     checkArgument(hitCount >= 0);
     checkArgument(missCount >= 0);
     checkArgument(loadSuccessCount >= 0);
     checkArgument(loadExceptionCount >= 0);
     checkArgument(totalLoadTime >= 0);
     checkArgument(evictionCount >= 0);
+    checkArgument(l2HitCount >= 0);
+    checkArgument(l2Bytes >= 0);
 
     this.hitCount = hitCount;
     this.missCount = missCount;
@@ -82,6 +103,8 @@ public final class CacheStats {
     this.loadExceptionCount = loadExceptionCount;
     this.totalLoadTime = totalLoadTime;
     this.evictionCount = evictionCount;
+    this.l2HitCount = l2HitCount;
+    this.l2Bytes = l2Bytes;
   }
 
   /**
@@ -204,6 +227,31 @@ public final class CacheStats {
     return evictionCount;
   }
 
+  /**
+   * Returns the number of times a missing entry was found in the cache's
+   * {@linkplain CacheBuilder#secondTier second tier}, and so did not need to be loaded. Each of
+   * these misses is also included in {@link #missCount}, but not in {@link #loadCount}.
+   *
+   * @since 12.0
+   */
+  @Beta
+  public long l2HitCount() {
+    return l2HitCount;
+  }
+
+  /**
+   * Returns the number of bytes occupied by the entries held in the cache's
+   * {@linkplain CacheBuilder#secondTier second tier} when these statistics were taken. Unlike the
+   * other statistics this is not a cumulative count, so {@link #minus} retains the value of this
+   * instance rather than taking a difference.
+   *
+   * @since 12.0
+   */
+  @Beta
+  public long l2Bytes() {
+    return l2Bytes;
+  }
+
   /**
    * Returns a new {@code CacheStats} representing the difference between this {@code CacheStats}
    * and {@code other}. Negative values, which aren't supported by {@code CacheStats} will be
@@ -216,7 +264,9 @@ public final class CacheStats {
         Math.max(0, loadSuccessCount - other.loadSuccessCount),
         Math.max(0, loadExceptionCount - other.loadExceptionCount),
         Math.max(0, totalLoadTime - other.totalLoadTime),
-        Math.max(0, evictionCount - other.evictionCount));
+        Math.max(0, evictionCount - other.evictionCount),
+        Math.max(0, l2HitCount - other.l2HitCount),
+        l2Bytes);
   }
 
   /**
@@ -232,13 +282,15 @@ public final class CacheStats {
         loadSuccessCount + other.loadSuccessCount,
         loadExceptionCount + other.loadExceptionCount,
         totalLoadTime + other.totalLoadTime,
-        evictionCount + other.evictionCount);
+        evictionCount + other.evictionCount,
+        l2HitCount + other.l2HitCount,
+        l2Bytes + other.l2Bytes);
   }
 
   @Override
   public int hashCode() {
     return Objects.hashCode(hitCount, missCount, loadSuccessCount, loadExceptionCount,
-        totalLoadTime, evictionCount);
+        totalLoadTime, evictionCount, l2HitCount, l2Bytes);
   }
 
   @Override
@@ -250,7 +302,9 @@ public final class CacheStats {
           && loadSuccessCount == other.loadSuccessCount
           && loadExceptionCount == other.loadExceptionCount
           && totalLoadTime == other.totalLoadTime
-          && evictionCount == other.evictionCount;
+          && evictionCount == other.evictionCount
+          && l2HitCount == other.l2HitCount
+          && l2Bytes == other.l2Bytes;
     }
     return false;
   }
@@ -264,6 +318,8 @@ public final class CacheStats {
         .add("loadExceptionCount", loadExceptionCount)
         .add("totalLoadTime", totalLoadTime)
         .add("evictionCount", evictionCount)
+        .add("l2HitCount", l2HitCount)
+        .add("l2Bytes", l2Bytes)
         .toString();
   }
 }
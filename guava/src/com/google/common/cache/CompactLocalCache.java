@@ -0,0 +1,1784 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.cache.CacheBuilder.NULL_TICKER;
+import static com.google.common.cache.CacheBuilder.UNSET_INT;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+import com.google.common.base.Equivalence;
+import com.google.common.base.Ticker;
+import com.google.common.cache.AbstractCache.SimpleStatsCounter;
+import com.google.common.cache.AbstractCache.StatsCounter;
+import com.google.common.cache.CacheBuilder.NullListener;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.LocalCache.ManagedCache;
+import com.google.common.cache.LocalCache.ReadBuffer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A concurrent cache whose segments keep their entries in parallel arrays, instead of in a table
+ * of chained entry objects as {@link LocalCache} does. The entries of a segment are numbered
+ * densely, and the key and value of an entry are adjacent elements of one array, while its hash
+ * code, write time and links in the access and write orders are elements of other arrays at the
+ * same index. An open-addressed hash table with linear probing maps keys to entry numbers. This
+ * saves the entry object, the value reference and most of the table of each entry, at the cost of
+ * supporting only strong keys and values, eviction by size and expiration after write; see
+ * {@link CacheBuilder#compactEntries}.
+ *
+ * <p>As in {@code LocalCache}, writes lock the segment of their key, and reads don't lock. Entries
+ * are moved within a table when another entry is removed, so a read checks that the segment's
+ * {@linkplain Segment#version version} didn't change while it looked for its key, and otherwise
+ * repeats the lookup under the lock.
+ */
+class CompactLocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+  /** Marks the end of the access and write orders, an empty slot and a key which isn't found. */
+  static final int NONE = -1;
+
+  /** The minimum number of slots of a table. Must be a power of two. */
+  static final int MINIMUM_CAPACITY = 4;
+
+  /**
+   * The maximum number of slots of a table, such that the keys and values of its entries fit in
+   * one array. Must be a power of two.
+   */
+  static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  /** Returned by a lock-free read which must be repeated under the segment's lock. */
+  static final Object RETRY = new Object();
+
+  static final Logger logger = Logger.getLogger(CompactLocalCache.class.getName());
+
+  /** Mask value for indexing into segments. */
+  final int segmentMask;
+
+  /** Shift value for indexing within segments. */
+  final int segmentShift;
+
+  /** The segments, each of which is a specialized hash table. */
+  final Segment<K, V>[] segments;
+
+  /** The concurrency level. */
+  final int concurrencyLevel;
+
+  /** Strategy for comparing keys. */
+  final Equivalence<Object> keyEquivalence;
+
+  /** Strategy for comparing values. */
+  final Equivalence<Object> valueEquivalence;
+
+  /**
+   * The maximum number of entries of this map. UNSET_INT if there is no maximum. May only change
+   * from one non-negative value to another, through {@link #setMaximumSize}.
+   */
+  volatile long maxSize;
+
+  /** How long after the last write to an entry the map will retain that entry. */
+  final long expireAfterWriteNanos;
+
+  /** Measures time in a testable way. */
+  final Ticker ticker;
+
+  /** Entries waiting to be consumed by the removal listener. */
+  final Queue<RemovalNotification<K, V>> removalNotificationQueue;
+
+  /** A listener that is invoked when an entry is removed. */
+  final RemovalListener<K, V> removalListener;
+
+  /** Counts the durations of all loads, whether successful or not. */
+  final LatencyHistogram loadLatencies = new LatencyHistogram();
+
+  /** The default cache loader to use on loading operations. */
+  @Nullable
+  final CacheLoader<? super K, V> defaultLoader;
+
+  CompactLocalCache(
+      CacheBuilder<? super K, ? super V> builder, @Nullable CacheLoader<? super K, V> loader) {
+    concurrencyLevel = Math.min(builder.getConcurrencyLevel(), LocalCache.MAX_SEGMENTS);
+    keyEquivalence = builder.getKeyEquivalence();
+    valueEquivalence = builder.getValueEquivalence();
+    maxSize = builder.getMaximumWeight();
+    expireAfterWriteNanos = builder.getExpireAfterWriteNanos();
+    ticker = builder.getTicker(expires());
+    removalListener = builder.getRemovalListener();
+    removalNotificationQueue = (removalListener == NullListener.INSTANCE)
+        ? LocalCache.<RemovalNotification<K, V>>discardingQueue()
+        : new ConcurrentLinkedQueue<RemovalNotification<K, V>>();
+    defaultLoader = loader;
+
+    int initialCapacity = builder.getInitialCapacity();
+    if (evictsBySize()) {
+      initialCapacity = (int) Math.min(initialCapacity, maxSize);
+    }
+
+    int segmentShift = 0;
+    int segmentCount = 1;
+    while (segmentCount < concurrencyLevel && (!evictsBySize() || segmentCount * 2 <= maxSize)) {
+      ++segmentShift;
+      segmentCount <<= 1;
+    }
+    this.segmentShift = 32 - segmentShift;
+    segmentMask = segmentCount - 1;
+
+    this.segments = newSegmentArray(segmentCount);
+
+    int segmentCapacity = initialCapacity / segmentCount;
+    if (segmentCapacity * segmentCount < initialCapacity) {
+      ++segmentCapacity;
+    }
+
+    int entryCapacity = Math.max(1, Math.min(segmentCapacity, maxEntries(MAXIMUM_CAPACITY)));
+
+    // Ensure sum of segment max sizes = overall max size
+    long maxSegmentSize = maxSize / segmentCount + 1;
+    long remainder = maxSize % segmentCount;
+    for (int i = 0; i < this.segments.length; ++i) {
+      if (evictsBySize() && i == remainder) {
+        maxSegmentSize--;
+      }
+      this.segments[i] = new Segment<K, V>(this, entryCapacity,
+          evictsBySize() ? maxSegmentSize : UNSET_INT, builder.getStatsCounterSupplier().get());
+    }
+  }
+
+  boolean evictsBySize() {
+    return maxSize >= 0;
+  }
+
+  boolean expires() {
+    return expireAfterWriteNanos > 0;
+  }
+
+  /**
+   * Changes the maximum size of this map, distributing it over the segments in the same way as at
+   * construction.
+   */
+  synchronized void setMaximumSize(long maximumSize) {
+    checkState(evictsBySize(), "cache is not bounded by size");
+    checkArgument(maximumSize >= 0, "maximum size must not be negative");
+    this.maxSize = maximumSize;
+    long maxSegmentSize = maximumSize / segments.length + 1;
+    long remainder = maximumSize % segments.length;
+    for (int i = 0; i < segments.length; ++i) {
+      if (i == remainder) {
+        maxSegmentSize--;
+      }
+      segments[i].setMaxSegmentSize(maxSegmentSize);
+    }
+  }
+
+  int hash(Object key) {
+    return LocalCache.rehash(keyEquivalence.hash(key));
+  }
+
+  Segment<K, V> segmentFor(int hash) {
+    return segments[(hash >>> segmentShift) & segmentMask];
+  }
+
+  @SuppressWarnings("unchecked")
+  final Segment<K, V>[] newSegmentArray(int ssize) {
+    return new Segment[ssize];
+  }
+
+  /** Returns whether the value of {@code entry} was written too long ago to be live. */
+  boolean isExpired(Table table, int entry, long now) {
+    return expires() && now - table.writeTimes[entry] > expireAfterWriteNanos;
+  }
+
+  /** Notifies listeners that an entry has been automatically removed due to expiration or size. */
+  void processPendingNotifications() {
+    RemovalNotification<K, V> notification;
+    while ((notification = removalNotificationQueue.poll()) != null) {
+      try {
+        removalListener.onRemoval(notification);
+      } catch (Throwable e) {
+        logger.log(Level.WARNING, "Exception thrown by removal listener", e);
+      }
+    }
+  }
+
+  /**
+   * The value of an entry whose value is being loaded. Threads which need the value wait for the
+   * future, rather than loading it again.
+   */
+  static final class Loading<V> {
+    final SettableFuture<V> future = SettableFuture.create();
+  }
+
+  /** Returns the maximum number of entries of a table with {@code capacity} slots. */
+  static int maxEntries(int capacity) {
+    // leave a quarter of the slots empty, so that probe sequences stay short
+    return capacity - (capacity >>> 2);
+  }
+
+  /** Returns the number of slots of a table able to hold {@code entries} entries. */
+  static int capacityFor(int entries) {
+    int capacity = MINIMUM_CAPACITY;
+    while (capacity < MAXIMUM_CAPACITY && maxEntries(capacity) < entries) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /**
+   * The arrays holding the entries of a segment. The entries are numbered densely from zero, and
+   * the key, value, hash code and write time of an entry are elements of parallel arrays at its
+   * number. An open-addressed table of slots maps hash codes to entry numbers.
+   *
+   * <p>Once a segment replaces its table, the old table is never written again. The current table
+   * is only written while the segment's lock is held, and only read without it through
+   * {@link #entry}, {@link #key}, {@link #value}, and the elements of the entries those return.
+   * A new entry's elements are written before it is added to a slot, and its key is written after
+   * its other elements, so a reader which finds an entry through a slot sees all of it.
+   */
+  static final class Table {
+    /** The number of the entry in each slot plus one, or zero if the slot is empty. */
+    final AtomicIntegerArray slots;
+
+    final int mask;
+
+    /** The key of each entry at index {@code 2 * entry}, and its value at {@code 2 * entry + 1}. */
+    final AtomicReferenceArray<Object> keysAndValues;
+
+    /** The hash code of the key of each entry. */
+    final int[] hashes;
+
+    /** The time at which the value of each entry was written. Null unless entries expire. */
+    @Nullable
+    final long[] writeTimes;
+
+    Table(int capacity, int entryCapacity, boolean expires) {
+      slots = new AtomicIntegerArray(capacity);
+      mask = capacity - 1;
+      keysAndValues = new AtomicReferenceArray<Object>(entryCapacity * 2);
+      hashes = new int[entryCapacity];
+      writeTimes = expires ? new long[entryCapacity] : null;
+    }
+
+    int capacity() {
+      return mask + 1;
+    }
+
+    int entryCapacity() {
+      return hashes.length;
+    }
+
+    /** Returns the entry in {@code slot}, or NONE if the slot is empty. */
+    int entry(int slot) {
+      return slots.get(slot) - 1;
+    }
+
+    Object key(int entry) {
+      return keysAndValues.get(entry << 1);
+    }
+
+    Object value(int entry) {
+      return keysAndValues.get((entry << 1) + 1);
+    }
+
+    void setKey(int entry, @Nullable Object key) {
+      keysAndValues.set(entry << 1, key);
+    }
+
+    void setValue(int entry, @Nullable Object value) {
+      keysAndValues.set((entry << 1) + 1, value);
+    }
+
+    /** Puts {@code entry} in the first empty slot of the probe sequence of its hash code. */
+    void addSlot(int entry) {
+      int slot = hashes[entry] & mask;
+      while (slots.get(slot) != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots.set(slot, entry + 1);
+    }
+
+    /** Returns the slot of {@code entry}, which must be in the table. */
+    int slotOf(int entry) {
+      int slot = hashes[entry] & mask;
+      while (slots.get(slot) != entry + 1) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    /**
+     * Empties {@code slot}, and moves the following entries of its probe sequence back to fill the
+     * gap, so that no lookup passes an empty slot before reaching its key.
+     */
+    void removeSlot(int slot) {
+      int gap = slot;
+      for (int i = (slot + 1) & mask; slots.get(i) != 0; i = (i + 1) & mask) {
+        // the entry can fill the gap unless its probe sequence starts after the gap
+        int start = hashes[entry(i)] & mask;
+        if (((i - start) & mask) >= ((i - gap) & mask)) {
+          slots.set(gap, slots.get(i));
+          gap = i;
+        }
+      }
+      slots.set(gap, 0);
+    }
+
+    /** Copies the elements of {@code from} of {@code source} into {@code to} of this table. */
+    void copyEntry(Table source, int from, int to) {
+      hashes[to] = source.hashes[from];
+      if (writeTimes != null) {
+        writeTimes[to] = source.writeTimes[from];
+      }
+      setValue(to, source.value(from));
+      setKey(to, source.key(from));
+    }
+  }
+
+  /**
+   * A doubly linked list of the entries of a table, with the links of each entry in arrays
+   * parallel to the table's. The links of entries which aren't in the list are undefined.
+   */
+  static final class EntryList {
+    int[] prev;
+    int[] next;
+    int head = NONE;
+    int tail = NONE;
+
+    EntryList(int capacity) {
+      prev = new int[capacity];
+      next = new int[capacity];
+    }
+
+    void add(int entry) {
+      prev[entry] = tail;
+      next[entry] = NONE;
+      if (tail == NONE) {
+        head = entry;
+      } else {
+        next[tail] = entry;
+      }
+      tail = entry;
+    }
+
+    void remove(int entry) {
+      link(prev[entry], next[entry]);
+    }
+
+    void moveToLast(int entry) {
+      if (entry != tail) {
+        remove(entry);
+        add(entry);
+      }
+    }
+
+    /** Puts {@code to}, which isn't in the list, in the place of {@code from}. */
+    void move(int from, int to) {
+      prev[to] = prev[from];
+      next[to] = next[from];
+      link(prev[to], to);
+      link(to, next[to]);
+    }
+
+    private void link(int first, int second) {
+      if (first == NONE) {
+        head = second;
+      } else {
+        next[first] = second;
+      }
+      if (second == NONE) {
+        tail = first;
+      } else {
+        prev[second] = first;
+      }
+    }
+
+    void clear() {
+      head = NONE;
+      tail = NONE;
+    }
+
+    /** Resizes the link arrays to {@code capacity} entries, which must hold every linked entry. */
+    void resize(int capacity) {
+      int[] newPrev = new int[capacity];
+      int[] newNext = new int[capacity];
+      int length = Math.min(capacity, prev.length);
+      System.arraycopy(prev, 0, newPrev, 0, length);
+      System.arraycopy(next, 0, newNext, 0, length);
+      prev = newPrev;
+      next = newNext;
+    }
+  }
+
+  /**
+   * Segments are specialized versions of hash tables. This subclass inherits from ReentrantLock
+   * opportunistically, just to simplify some locking and avoid separate construction.
+   */
+  @SuppressWarnings("serial") // This class is never serialized.
+  static final class Segment<K, V> extends ReentrantLock {
+
+    final CompactLocalCache<K, V> map;
+
+    /** The number of live entries in this segment. */
+    volatile int count;
+
+    /**
+     * The number of entries in the table, including those whose value is being loaded. The entries
+     * of the table are numbered from zero to one less than this.
+     */
+    @GuardedBy("Segment.this")
+    int used;
+
+    /**
+     * Incremented before and after entries are removed from or moved within the table, so that it
+     * is odd while they are. A lock-free read which sees it change is repeated under the lock.
+     */
+    volatile int version;
+
+    /** The per-segment table. */
+    volatile Table table;
+
+    /** The maximum number of entries of this segment. UNSET_INT if there is no maximum. */
+    @GuardedBy("Segment.this")
+    long maxSegmentSize;
+
+    /** The live entries, least recently used first. Null unless evicting by size. */
+    @GuardedBy("Segment.this")
+    @Nullable
+    final EntryList accessOrder;
+
+    /** The live entries, least recently written first. Null unless expiring. */
+    @GuardedBy("Segment.this")
+    @Nullable
+    final EntryList writeOrder;
+
+    /**
+     * The keys of recent reads, which are moved to the end of the access order when the buffer is
+     * drained under the lock. Reads are dropped if the buffer is full and the lock is contended.
+     */
+    final Queue<Object> readBuffer;
+
+    /** A counter of the number of reads since the last write, used to drain queues on a small
+     * fraction of read operations.
+     */
+    final AtomicInteger readCount = new AtomicInteger();
+
+    /** Accumulates cache statistics. */
+    final StatsCounter statsCounter;
+
+    /** The number of times a thread waited to acquire the lock, and the total nanos it waited. */
+    final AtomicLong lockWaitCount = new AtomicLong();
+    final AtomicLong lockWaitTime = new AtomicLong();
+
+    Segment(CompactLocalCache<K, V> map, int entryCapacity, long maxSegmentSize,
+        StatsCounter statsCounter) {
+      this.map = map;
+      this.maxSegmentSize = maxSegmentSize;
+      this.statsCounter = statsCounter;
+      accessOrder = map.evictsBySize() ? new EntryList(entryCapacity) : null;
+      writeOrder = map.expires() ? new EntryList(entryCapacity) : null;
+      readBuffer = map.evictsBySize()
+          ? new ReadBuffer<Object>()
+          : LocalCache.<Object>discardingQueue();
+      table = new Table(capacityFor(entryCapacity), entryCapacity, map.expires());
+    }
+
+    /**
+     * Acquires the lock, counting the acquisitions which had to wait and for how long, as
+     * reported by {@link CacheMetrics}.
+     */
+    @Override
+    public void lock() {
+      if (!tryLock()) {
+        long start = System.nanoTime();
+        super.lock();
+        lockWaitCount.incrementAndGet();
+        lockWaitTime.addAndGet(System.nanoTime() - start);
+      }
+    }
+
+    /**
+     * Returns the entry of {@code key} in {@code table}, or NONE. May be called without the lock,
+     * as long as the version is checked afterwards.
+     */
+    int find(Table table, Object key, int hash) {
+      int mask = table.mask;
+      for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+        int entry = table.entry(slot);
+        if (entry == NONE) {
+          return NONE;
+        }
+        if (table.hashes[entry] == hash) {
+          Object entryKey = table.key(entry);
+          if (entryKey != null && map.keyEquivalence.equivalent(key, entryKey)) {
+            return entry;
+          }
+        }
+      }
+    }
+
+    /** Returns the live entry for {@code key}, or NONE. */
+    @GuardedBy("Segment.this")
+    int findLive(Object key, int hash) {
+      Table table = this.table;
+      int entry = find(table, key, hash);
+      return (entry == NONE || table.value(entry) instanceof Loading) ? NONE : entry;
+    }
+
+    @Nullable
+    Object liveValue(Table table, int entry, long now) {
+      Object value = table.value(entry);
+      return (value instanceof Loading || map.isExpired(table, entry, now)) ? null : value;
+    }
+
+    // reads
+
+    /**
+     * Returns the live value of {@code key} without locking, or RETRY if the table changed while
+     * it was read.
+     */
+    @Nullable
+    Object tryGet(Object key, int hash, long now) {
+      int version = this.version;
+      if ((version & 1) != 0) {
+        return RETRY;
+      }
+      Table table = this.table;
+      int entry = find(table, key, hash);
+      Object value = (entry == NONE) ? null : liveValue(table, entry, now);
+      return (this.version == version) ? value : RETRY;
+    }
+
+    @Nullable
+    Object lockedGet(Object key, int hash, long now) {
+      lock();
+      try {
+        Table table = this.table;
+        int entry = find(table, key, hash);
+        return (entry == NONE) ? null : liveValue(table, entry, now);
+      } finally {
+        unlock();
+      }
+    }
+
+    /** Returns the live value of {@code key}, recording the read, or null. */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    V get(Object key, int hash) {
+      try {
+        long now = map.ticker.read();
+        Object value = tryGet(key, hash, now);
+        if (value == RETRY) {
+          value = lockedGet(key, hash, now);
+        }
+        if (value != null) {
+          recordRead(key);
+        }
+        return (V) value;
+      } finally {
+        postReadCleanup();
+      }
+    }
+
+    boolean containsKey(Object key, int hash) {
+      long now = map.ticker.read();
+      Object value = tryGet(key, hash, now);
+      if (value == RETRY) {
+        value = lockedGet(key, hash, now);
+      }
+      return value != null;
+    }
+
+    boolean containsValue(Object value) {
+      long now = map.ticker.read();
+      int version = this.version;
+      if ((version & 1) == 0) {
+        boolean found = containsValue(table, value, now);
+        if (this.version == version) {
+          return found;
+        }
+      }
+      lock();
+      try {
+        return containsValue(table, value, now);
+      } finally {
+        unlock();
+      }
+    }
+
+    private boolean containsValue(Table table, Object value, long now) {
+      for (int entry = 0; entry < table.entryCapacity(); entry++) {
+        // entries which were never used have no value
+        Object entryValue = liveValue(table, entry, now);
+        if (entryValue != null && map.valueEquivalence.equivalent(value, entryValue)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Returns the live entries of this segment. */
+    @SuppressWarnings("unchecked")
+    List<Entry<K, V>> entries() {
+      List<Entry<K, V>> entries = Lists.newArrayList();
+      lock();
+      try {
+        long now = map.ticker.read();
+        Table table = this.table;
+        for (int entry = 0; entry < used; entry++) {
+          Object value = liveValue(table, entry, now);
+          if (value != null) {
+            entries.add(Maps.immutableEntry((K) table.key(entry), (V) value));
+          }
+        }
+      } finally {
+        unlock();
+      }
+      return entries;
+    }
+
+    // loading
+
+    V get(K key, int hash, CacheLoader<? super K, V> loader) throws ExecutionException {
+      V value = get(key, hash);
+      if (value != null) {
+        statsCounter.recordHits(1);
+        return value;
+      }
+      return lockedGetOrLoad(key, hash, loader);
+    }
+
+    @SuppressWarnings("unchecked")
+    V lockedGetOrLoad(K key, int hash, CacheLoader<? super K, V> loader)
+        throws ExecutionException {
+      Loading<V> loading = null;
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+        // expired entries were just removed
+        Table table = this.table;
+        int entry = find(table, key, hash);
+        if (entry != NONE) {
+          Object value = table.value(entry);
+          if (!(value instanceof Loading)) {
+            recordLockedRead(entry);
+            statsCounter.recordHits(1);
+            return (V) value;
+          }
+          loading = (Loading<V>) value;
+        }
+        if (loading == null) {
+          Loading<V> newLoading = new Loading<V>();
+          insert(key, hash, newLoading, now);
+          return load(key, hash, newLoading, loader);
+        }
+      } finally {
+        if (isHeldByCurrentThread()) {
+          unlock();
+          postWriteCleanup();
+        }
+      }
+
+      statsCounter.recordMisses(1);
+      try {
+        return getUninterruptibly(loading.future);
+      } catch (ExecutionException e) {
+        throw rethrow(e.getCause());
+      }
+    }
+
+    /**
+     * Loads the value of {@code key}, whose entry holds {@code loading}, and stores it. Must be
+     * called with the lock held, which it releases before loading.
+     */
+    V load(K key, int hash, Loading<V> loading, CacheLoader<? super K, V> loader)
+        throws ExecutionException {
+      unlock();
+      postWriteCleanup();
+
+      statsCounter.recordMisses(1);
+      long start = System.nanoTime();
+      Throwable failure;
+      try {
+        V value = loader.load(key);
+        if (value != null) {
+          long loadTime = System.nanoTime() - start;
+          statsCounter.recordLoadSuccess(loadTime);
+          map.loadLatencies.record(loadTime);
+          storeLoadedValue(key, hash, loading, value);
+          loading.future.set(value);
+          return value;
+        }
+        failure = new InvalidCacheLoadException("CacheLoader returned null for key " + key + ".");
+      } catch (Throwable t) {
+        if (t instanceof InterruptedException) {
+          Thread.currentThread().interrupt();
+        }
+        failure = t;
+      }
+      long loadTime = System.nanoTime() - start;
+      statsCounter.recordLoadException(loadTime);
+      map.loadLatencies.record(loadTime);
+      removeLoading(key, hash, loading);
+      loading.future.setException(failure);
+      if (failure instanceof InvalidCacheLoadException) {
+        throw (InvalidCacheLoadException) failure;
+      }
+      throw rethrow(failure);
+    }
+
+    /** Returns the exception thrown by {@code get} when a load fails with {@code cause}. */
+    static ExecutionException rethrow(Throwable cause) throws ExecutionException {
+      if (cause instanceof Error) {
+        throw new ExecutionError((Error) cause);
+      } else if (cause instanceof RuntimeException) {
+        throw new UncheckedExecutionException(cause);
+      }
+      return new ExecutionException(cause);
+    }
+
+    void storeLoadedValue(K key, int hash, Loading<V> loading, V value) {
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+        Table table = this.table;
+        int entry = find(table, key, hash);
+        if (entry != NONE && table.value(entry) == loading) {
+          setLiveValue(table, entry, value, now);
+          evictEntries();
+        } else {
+          // the loaded value was replaced by a put while it was loading
+          enqueueNotification(key, value, RemovalCause.REPLACED);
+        }
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    void removeLoading(K key, int hash, Loading<V> loading) {
+      lock();
+      try {
+        Table table = this.table;
+        int entry = find(table, key, hash);
+        if (entry != NONE && table.value(entry) == loading) {
+          removeEntry(entry, RemovalCause.EXPLICIT);
+        }
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    // writes
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    V put(K key, int hash, V value, boolean onlyIfAbsent) {
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+        Table table = this.table;
+        int entry = find(table, key, hash);
+        if (entry == NONE) {
+          insert(key, hash, value, now);
+          evictEntries();
+          return null;
+        }
+        Object oldValue = table.value(entry);
+        if (oldValue instanceof Loading) {
+          // the value being loaded will be discarded
+          setLiveValue(table, entry, value, now);
+          evictEntries();
+          return null;
+        } else if (onlyIfAbsent) {
+          recordLockedRead(entry);
+          return (V) oldValue;
+        }
+        enqueueNotification(key, (V) oldValue, RemovalCause.REPLACED);
+        replaceValue(table, entry, value, now);
+        return (V) oldValue;
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    V replace(K key, int hash, V newValue) {
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+        int entry = findLive(key, hash);
+        if (entry == NONE) {
+          return null;
+        }
+        Table table = this.table;
+        V oldValue = (V) table.value(entry);
+        enqueueNotification(key, oldValue, RemovalCause.REPLACED);
+        replaceValue(table, entry, newValue, now);
+        return oldValue;
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    boolean replace(K key, int hash, V oldValue, V newValue) {
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+        int entry = findLive(key, hash);
+        if (entry == NONE) {
+          return false;
+        }
+        Table table = this.table;
+        V value = (V) table.value(entry);
+        if (!map.valueEquivalence.equivalent(oldValue, value)) {
+          recordLockedRead(entry);
+          return false;
+        }
+        enqueueNotification(key, value, RemovalCause.REPLACED);
+        replaceValue(table, entry, newValue, now);
+        return true;
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    V remove(Object key, int hash) {
+      lock();
+      try {
+        preWriteCleanup(map.ticker.read());
+        int entry = findLive(key, hash);
+        if (entry == NONE) {
+          return null;
+        }
+        V value = (V) table.value(entry);
+        removeEntry(entry, RemovalCause.EXPLICIT);
+        return value;
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    boolean remove(Object key, int hash, Object value) {
+      lock();
+      try {
+        preWriteCleanup(map.ticker.read());
+        int entry = findLive(key, hash);
+        if (entry == NONE || !map.valueEquivalence.equivalent(value, table.value(entry))) {
+          return false;
+        }
+        removeEntry(entry, RemovalCause.EXPLICIT);
+        return true;
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    /** Removes the live entries, leaving those whose value is being loaded. */
+    @SuppressWarnings("unchecked")
+    void clear() {
+      if (count == 0) {
+        return;
+      }
+      lock();
+      try {
+        Table oldTable = table;
+        Table newTable =
+            new Table(oldTable.capacity(), oldTable.entryCapacity(), map.expires());
+        int loads = 0;
+        for (int entry = 0; entry < used; entry++) {
+          Object value = oldTable.value(entry);
+          if (value instanceof Loading) {
+            newTable.copyEntry(oldTable, entry, loads);
+            newTable.addSlot(loads);
+            loads++;
+          } else {
+            enqueueNotification((K) oldTable.key(entry), (V) value, RemovalCause.EXPLICIT);
+          }
+        }
+        if (accessOrder != null) {
+          accessOrder.clear();
+        }
+        if (writeOrder != null) {
+          writeOrder.clear();
+        }
+        table = newTable;
+        used = loads;
+        count = 0;
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    /**
+     * Adds a new entry, growing the table if necessary, and returns the entry. The entry is added
+     * to a slot last, so that lock-free readers never see it incomplete.
+     */
+    @GuardedBy("Segment.this")
+    int insert(K key, int hash, Object value, long now) {
+      if (used == table.entryCapacity()) {
+        grow();
+      }
+      Table table = this.table;
+      int entry = used++;
+      table.hashes[entry] = hash;
+      if (value instanceof Loading) {
+        table.setValue(entry, value);
+      } else {
+        setLiveValue(table, entry, value, now);
+      }
+      table.setKey(entry, key);
+      table.addSlot(entry);
+      return entry;
+    }
+
+    /** Stores the value of an entry which was not live, and adds the entry to the orders. */
+    @GuardedBy("Segment.this")
+    void setLiveValue(Table table, int entry, Object value, long now) {
+      if (writeOrder != null) {
+        table.writeTimes[entry] = now;
+        writeOrder.add(entry);
+      }
+      if (accessOrder != null) {
+        accessOrder.add(entry);
+      }
+      table.setValue(entry, value);
+      count = count + 1; // write-volatile
+    }
+
+    /** Replaces the value of a live entry, which becomes the most recently written and used. */
+    @GuardedBy("Segment.this")
+    void replaceValue(Table table, int entry, Object value, long now) {
+      if (writeOrder != null) {
+        table.writeTimes[entry] = now;
+        writeOrder.moveToLast(entry);
+      }
+      recordLockedRead(entry);
+      table.setValue(entry, value);
+    }
+
+    /**
+     * Removes {@code entry}, sending a notification with {@code cause} if it was live. The last
+     * entry of the table is moved into its place, so that the entries stay densely numbered.
+     */
+    @SuppressWarnings("unchecked")
+    @GuardedBy("Segment.this")
+    void removeEntry(int entry, RemovalCause cause) {
+      Table table = this.table;
+      Object value = table.value(entry);
+      if (!(value instanceof Loading)) {
+        if (accessOrder != null) {
+          accessOrder.remove(entry);
+        }
+        if (writeOrder != null) {
+          writeOrder.remove(entry);
+        }
+        count = count - 1; // write-volatile
+        enqueueNotification((K) table.key(entry), (V) value, cause);
+      }
+
+      version++;
+      table.removeSlot(table.slotOf(entry));
+      int last = --used;
+      if (entry != last) {
+        int lastSlot = table.slotOf(last);
+        if (!(table.value(last) instanceof Loading)) {
+          if (accessOrder != null) {
+            accessOrder.move(last, entry);
+          }
+          if (writeOrder != null) {
+            writeOrder.move(last, entry);
+          }
+        }
+        table.copyEntry(table, last, entry);
+        table.slots.set(lastSlot, entry + 1);
+      }
+      table.setKey(last, null);
+      table.setValue(last, null);
+      version++;
+    }
+
+    /**
+     * Replaces the table by one with room for more entries. The entry arrays grow by half, up to
+     * one more than the maximum size of the segment, and the slots double whenever the entries
+     * would fill more than three quarters of them. The old table is left unchanged, so that
+     * lock-free reads of it remain correct.
+     */
+    @GuardedBy("Segment.this")
+    void grow() {
+      Table oldTable = table;
+      int oldEntryCapacity = oldTable.entryCapacity();
+      long entryCapacity = oldEntryCapacity + (oldEntryCapacity >> 1) + 1;
+      if (map.evictsBySize()) {
+        // a write may exceed the maximum by one entry before evicting
+        entryCapacity = Math.min(entryCapacity, maxSegmentSize + 1);
+      }
+      entryCapacity = Math.min(Math.max(entryCapacity, used + 1), maxEntries(MAXIMUM_CAPACITY));
+      checkState(entryCapacity > used, "segment is full");
+
+      int capacity = Math.max(oldTable.capacity(), capacityFor((int) entryCapacity));
+      Table newTable = new Table(capacity, (int) entryCapacity, map.expires());
+      for (int entry = 0; entry < used; entry++) {
+        newTable.copyEntry(oldTable, entry, entry);
+      }
+      if (capacity == oldTable.capacity()) {
+        for (int slot = 0; slot < capacity; slot++) {
+          newTable.slots.set(slot, oldTable.slots.get(slot));
+        }
+      } else {
+        for (int entry = 0; entry < used; entry++) {
+          newTable.addSlot(entry);
+        }
+      }
+      if (accessOrder != null) {
+        accessOrder.resize((int) entryCapacity);
+      }
+      if (writeOrder != null) {
+        writeOrder.resize((int) entryCapacity);
+      }
+      table = newTable;
+    }
+
+    // eviction and expiration
+
+    @GuardedBy("Segment.this")
+    void evictEntries() {
+      if (!map.evictsBySize()) {
+        return;
+      }
+      while (count > maxSegmentSize) {
+        removeEntry(accessOrder.head, RemovalCause.SIZE);
+      }
+    }
+
+    /**
+     * Changes the maximum size of this segment, evicting entries in batches of at most
+     * {@link LocalCache#EVICTION_BATCH} and releasing the lock between batches.
+     */
+    void setMaxSegmentSize(long newMaxSegmentSize) {
+      boolean fits = false;
+      while (!fits) {
+        lock();
+        try {
+          preWriteCleanup(map.ticker.read());
+          for (int i = 0; i < LocalCache.EVICTION_BATCH && count > newMaxSegmentSize; i++) {
+            removeEntry(accessOrder.head, RemovalCause.SIZE);
+          }
+          fits = count <= newMaxSegmentSize;
+          maxSegmentSize = Math.max(newMaxSegmentSize, count);
+        } finally {
+          unlock();
+          postWriteCleanup();
+        }
+      }
+    }
+
+    @GuardedBy("Segment.this")
+    void expireEntries(long now) {
+      if (writeOrder == null) {
+        return;
+      }
+      while (writeOrder.head != NONE && map.isExpired(table, writeOrder.head, now)) {
+        removeEntry(writeOrder.head, RemovalCause.EXPIRED);
+      }
+    }
+
+    @GuardedBy("Segment.this")
+    void enqueueNotification(@Nullable K key, @Nullable V value, RemovalCause cause) {
+      if (cause.wasEvicted()) {
+        statsCounter.recordEviction();
+      }
+      if (map.removalNotificationQueue != LocalCache.DISCARDING_QUEUE) {
+        map.removalNotificationQueue.offer(new RemovalNotification<K, V>(key, value, cause));
+      }
+    }
+
+    // recency
+
+    /**
+     * Records a read of {@code key} in the read buffer. If the current thread's part of the buffer
+     * is full, it is drained if the lock is available.
+     */
+    void recordRead(Object key) {
+      if (map.evictsBySize() && !readBuffer.offer(key)) {
+        if (tryLock()) {
+          try {
+            drainReadBuffer();
+          } finally {
+            unlock();
+          }
+        }
+        readBuffer.offer(key);
+      }
+    }
+
+    @GuardedBy("Segment.this")
+    void recordLockedRead(int entry) {
+      if (accessOrder != null) {
+        accessOrder.moveToLast(entry);
+      }
+    }
+
+    @GuardedBy("Segment.this")
+    void drainReadBuffer() {
+      Object key;
+      while ((key = readBuffer.poll()) != null) {
+        // the entry may have been removed since it was read
+        int entry = findLive(key, map.hash(key));
+        if (entry != NONE) {
+          accessOrder.moveToLast(entry);
+        }
+      }
+    }
+
+    // cleanup
+
+    @GuardedBy("Segment.this")
+    void preWriteCleanup(long now) {
+      drainReadBuffer();
+      expireEntries(now);
+      readCount.set(0);
+    }
+
+    void postWriteCleanup() {
+      if (!isHeldByCurrentThread()) {
+        map.processPendingNotifications();
+      }
+    }
+
+    /** Cleans up after every {@link LocalCache#DRAIN_THRESHOLD} reads of an ordered segment. */
+    void postReadCleanup() {
+      if ((accessOrder != null || writeOrder != null)
+          && (readCount.incrementAndGet() & LocalCache.DRAIN_THRESHOLD) == 0) {
+        cleanUp();
+      }
+    }
+
+    void cleanUp() {
+      if (tryLock()) {
+        try {
+          preWriteCleanup(map.ticker.read());
+        } finally {
+          unlock();
+        }
+      }
+      postWriteCleanup();
+    }
+  }
+
+  // ConcurrentMap methods
+
+  @Override
+  public boolean isEmpty() {
+    for (Segment<K, V> segment : segments) {
+      if (segment.count != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  long longSize() {
+    long sum = 0;
+    for (Segment<K, V> segment : segments) {
+      sum += segment.count;
+    }
+    return sum;
+  }
+
+  @Override
+  public int size() {
+    return Ints.saturatedCast(longSize());
+  }
+
+  @Override
+  @Nullable
+  public V get(@Nullable Object key) {
+    if (key == null) {
+      return null;
+    }
+    int hash = hash(key);
+    return segmentFor(hash).get(key, hash);
+  }
+
+  @Nullable
+  V getIfPresent(Object key) {
+    int hash = hash(checkNotNull(key));
+    Segment<K, V> segment = segmentFor(hash);
+    V value = segment.get(key, hash);
+    if (value == null) {
+      segment.statsCounter.recordMisses(1);
+    } else {
+      segment.statsCounter.recordHits(1);
+    }
+    return value;
+  }
+
+  V get(K key, CacheLoader<? super K, V> loader) throws ExecutionException {
+    int hash = hash(checkNotNull(key));
+    return segmentFor(hash).get(key, hash, loader);
+  }
+
+  V getOrLoad(K key) throws ExecutionException {
+    return get(key, defaultLoader);
+  }
+
+  /**
+   * Loads a new value for {@code key}, using {@link CacheLoader#reload} if it has a live value,
+   * and stores it unless the entry was changed meanwhile. Failures are logged.
+   */
+  void refresh(K key) {
+    int hash = hash(checkNotNull(key));
+    Segment<K, V> segment = segmentFor(hash);
+    V oldValue = get(key);
+    long start = System.nanoTime();
+    try {
+      V newValue = (oldValue == null)
+          ? defaultLoader.load(key)
+          : getUninterruptibly(defaultLoader.reload(key, oldValue));
+      if (newValue == null) {
+        throw new InvalidCacheLoadException("CacheLoader returned null for key " + key + ".");
+      }
+      long loadTime = System.nanoTime() - start;
+      segment.statsCounter.recordLoadSuccess(loadTime);
+      loadLatencies.record(loadTime);
+      if (oldValue == null) {
+        putIfAbsent(key, newValue);
+      } else {
+        replace(key, oldValue, newValue);
+      }
+    } catch (Throwable t) {
+      if (t instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      long loadTime = System.nanoTime() - start;
+      segment.statsCounter.recordLoadException(loadTime);
+      loadLatencies.record(loadTime);
+      logger.log(Level.WARNING, "Exception thrown during refresh", t);
+    }
+  }
+
+  @Override
+  public boolean containsKey(@Nullable Object key) {
+    if (key == null) {
+      return false;
+    }
+    int hash = hash(key);
+    return segmentFor(hash).containsKey(key, hash);
+  }
+
+  @Override
+  public boolean containsValue(@Nullable Object value) {
+    if (value == null) {
+      return false;
+    }
+    for (Segment<K, V> segment : segments) {
+      if (segment.containsValue(value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public V put(K key, V value) {
+    checkNotNull(key);
+    checkNotNull(value);
+    int hash = hash(key);
+    return segmentFor(hash).put(key, hash, value, false);
+  }
+
+  @Override
+  public V putIfAbsent(K key, V value) {
+    checkNotNull(key);
+    checkNotNull(value);
+    int hash = hash(key);
+    return segmentFor(hash).put(key, hash, value, true);
+  }
+
+  @Override
+  public V remove(@Nullable Object key) {
+    if (key == null) {
+      return null;
+    }
+    int hash = hash(key);
+    return segmentFor(hash).remove(key, hash);
+  }
+
+  @Override
+  public boolean remove(@Nullable Object key, @Nullable Object value) {
+    if (key == null || value == null) {
+      return false;
+    }
+    int hash = hash(key);
+    return segmentFor(hash).remove(key, hash, value);
+  }
+
+  @Override
+  public boolean replace(K key, @Nullable V oldValue, V newValue) {
+    checkNotNull(key);
+    checkNotNull(newValue);
+    if (oldValue == null) {
+      return false;
+    }
+    int hash = hash(key);
+    return segmentFor(hash).replace(key, hash, oldValue, newValue);
+  }
+
+  @Override
+  public V replace(K key, V value) {
+    checkNotNull(key);
+    checkNotNull(value);
+    int hash = hash(key);
+    return segmentFor(hash).replace(key, hash, value);
+  }
+
+  @Override
+  public void clear() {
+    for (Segment<K, V> segment : segments) {
+      segment.clear();
+    }
+  }
+
+  void cleanUp() {
+    for (Segment<K, V> segment : segments) {
+      segment.cleanUp();
+    }
+  }
+
+  Set<Entry<K, V>> entrySet;
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    Set<Entry<K, V>> es = entrySet;
+    return (es != null) ? es : (entrySet = new EntrySet());
+  }
+
+  final class EntrySet extends AbstractSet<Entry<K, V>> {
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+      return new EntryIterator();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry<?, ?> e = (Entry<?, ?>) o;
+      Object key = e.getKey();
+      if (key == null) {
+        return false;
+      }
+      V v = CompactLocalCache.this.get(key);
+      return v != null && valueEquivalence.equivalent(e.getValue(), v);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry<?, ?> e = (Entry<?, ?>) o;
+      Object key = e.getKey();
+      return key != null && CompactLocalCache.this.remove(key, e.getValue());
+    }
+
+    @Override
+    public int size() {
+      return CompactLocalCache.this.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return CompactLocalCache.this.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+      CompactLocalCache.this.clear();
+    }
+  }
+
+  /**
+   * Iterates over the live entries of one segment at a time. The entries of a segment are read
+   * when the iterator reaches it, so the iterator is weakly consistent.
+   */
+  final class EntryIterator implements Iterator<Entry<K, V>> {
+    int nextSegmentIndex;
+    Iterator<Entry<K, V>> segmentEntries = Iterators.emptyIterator();
+    Entry<K, V> lastReturned;
+
+    @Override
+    public boolean hasNext() {
+      while (!segmentEntries.hasNext() && nextSegmentIndex < segments.length) {
+        segmentEntries = segments[nextSegmentIndex++].entries().iterator();
+      }
+      return segmentEntries.hasNext();
+    }
+
+    @Override
+    public Entry<K, V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = segmentEntries.next();
+      return new WriteThroughEntry(lastReturned.getKey(), lastReturned.getValue());
+    }
+
+    @Override
+    public void remove() {
+      checkState(lastReturned != null);
+      CompactLocalCache.this.remove(lastReturned.getKey());
+      lastReturned = null;
+    }
+  }
+
+  /** An entry whose {@code setValue} writes through to the map. */
+  final class WriteThroughEntry implements Entry<K, V> {
+    final K key; // non-null
+    V value; // non-null
+
+    WriteThroughEntry(K key, V value) {
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    public K getKey() {
+      return key;
+    }
+
+    @Override
+    public V getValue() {
+      return value;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object object) {
+      // Cannot use key and value equivalence
+      if (object instanceof Entry) {
+        Entry<?, ?> that = (Entry<?, ?>) object;
+        return key.equals(that.getKey()) && value.equals(that.getValue());
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      // Cannot use key and value equivalence
+      return key.hashCode() ^ value.hashCode();
+    }
+
+    @Override
+    public V setValue(V newValue) {
+      V oldValue = put(key, newValue);
+      value = newValue;
+      return oldValue;
+    }
+
+    @Override
+    public String toString() {
+      return getKey() + "=" + getValue();
+    }
+  }
+
+  // Serialization Support
+
+  /**
+   * Recreates a cache with the same configuration, without its entries, when deserialized.
+   */
+  static final class SerializationProxy<K, V> implements Serializable {
+    private static final long serialVersionUID = 1;
+
+    final Equivalence<Object> keyEquivalence;
+    final Equivalence<Object> valueEquivalence;
+    final long expireAfterWriteNanos;
+    final long maxSize;
+    final int concurrencyLevel;
+    final RemovalListener<? super K, ? super V> removalListener;
+    final Ticker ticker;
+    final CacheLoader<? super K, V> loader;
+
+    SerializationProxy(CompactLocalCache<K, V> cache) {
+      keyEquivalence = cache.keyEquivalence;
+      valueEquivalence = cache.valueEquivalence;
+      expireAfterWriteNanos = cache.expireAfterWriteNanos;
+      maxSize = cache.maxSize;
+      concurrencyLevel = cache.concurrencyLevel;
+      removalListener = cache.removalListener;
+      ticker = (cache.ticker == Ticker.systemTicker() || cache.ticker == NULL_TICKER)
+          ? null : cache.ticker;
+      loader = cache.defaultLoader;
+    }
+
+    private Object readResolve() {
+      CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+          .compactEntries()
+          .keyEquivalence(keyEquivalence)
+          .valueEquivalence(valueEquivalence)
+          .concurrencyLevel(concurrencyLevel);
+      builder.removalListener(removalListener);
+      if (expireAfterWriteNanos > 0) {
+        builder.expireAfterWrite(expireAfterWriteNanos, TimeUnit.NANOSECONDS);
+      }
+      if (maxSize != UNSET_INT) {
+        builder.maximumSize(maxSize);
+      }
+      if (ticker != null) {
+        builder.ticker(ticker);
+      }
+      return (loader == null) ? builder.build() : builder.build(loader);
+    }
+  }
+
+  static class CompactManualCache<K, V> implements Cache<K, V>, ManagedCache, Serializable {
+    final CompactLocalCache<K, V> cache;
+
+    CompactManualCache(CacheBuilder<? super K, ? super V> builder) {
+      this(new CompactLocalCache<K, V>(builder, null));
+    }
+
+    CompactManualCache(CompactLocalCache<K, V> cache) {
+      this.cache = cache;
+    }
+
+    // Cache methods
+
+    @Override
+    @Nullable
+    public V getIfPresent(K key) {
+      return cache.getIfPresent(key);
+    }
+
+    @Override
+    public V get(K key, final Callable<? extends V> valueLoader) throws ExecutionException {
+      checkNotNull(valueLoader);
+      return cache.get(key, new CacheLoader<Object, V>() {
+        @Override
+        public V load(Object key) throws Exception {
+          return valueLoader.call();
+        }
+      });
+    }
+
+    @Override
+    public ImmutableMap<K, V> getAllPresent(Iterable<? extends K> keys) {
+      Map<K, V> result = Maps.newLinkedHashMap();
+      for (K key : keys) {
+        V value = cache.getIfPresent(key);
+        if (value != null) {
+          result.put(key, value);
+        }
+      }
+      return ImmutableMap.copyOf(result);
+    }
+
+    @Override
+    public void put(K key, V value) {
+      cache.put(key, value);
+    }
+
+    @Override
+    public void invalidate(Object key) {
+      checkNotNull(key);
+      cache.remove(key);
+    }
+
+    @Override
+    public void invalidateAll(Iterable<?> keys) {
+      for (Object key : keys) {
+        invalidate(key);
+      }
+    }
+
+    @Override
+    public void invalidateAll() {
+      cache.clear();
+    }
+
+    @Override
+    public long size() {
+      return cache.longSize();
+    }
+
+    @Override
+    public ConcurrentMap<K, V> asMap() {
+      return cache;
+    }
+
+    @Override
+    public CacheStats stats() {
+      SimpleStatsCounter aggregator = new SimpleStatsCounter();
+      for (Segment<K, V> segment : cache.segments) {
+        aggregator.incrementBy(segment.statsCounter);
+      }
+      return aggregator.snapshot();
+    }
+
+    @Override
+    public CacheMetrics metrics() {
+      long lockWaitCount = 0;
+      long lockWaitTime = 0;
+      long readBufferDepth = 0;
+      for (Segment<K, V> segment : cache.segments) {
+        lockWaitCount += segment.lockWaitCount.get();
+        lockWaitTime += segment.lockWaitTime.get();
+        readBufferDepth += segment.readBuffer.size();
+      }
+      CacheStats stats = stats();
+      // every entry weighs one
+      return new CacheMetrics(stats, cache.loadLatencies.snapshot(), lockWaitCount, lockWaitTime,
+          stats.evictionCount(), readBufferDepth, cache.removalNotificationQueue.size());
+    }
+
+    @Override
+    public CachePolicy policy() {
+      return new CachePolicy() {
+        @Override
+        public boolean isBounded() {
+          return cache.evictsBySize();
+        }
+
+        @Override
+        public long getMaximum() {
+          checkState(isBounded(), "cache is not bounded by size or weight");
+          return cache.maxSize;
+        }
+
+        @Override
+        public void setMaximum(long maximum) {
+          cache.setMaximumSize(maximum);
+        }
+      };
+    }
+
+    @Override
+    public void cleanUp() {
+      cache.cleanUp();
+    }
+
+    /*
+     * These methods have been moved to LoadingCache, but they temporarily
+     * remain in Cache in Guava.
+     */
+
+    public V get(K key) throws ExecutionException {
+      return cache.getOrLoad(key);
+    }
+
+    public V getUnchecked(K key) {
+      try {
+        return get(key);
+      } catch (ExecutionException e) {
+        throw new UncheckedExecutionException(e.getCause());
+      }
+    }
+
+    public final V apply(K key) {
+      return getUnchecked(key);
+    }
+
+    // Serialization Support
+
+    private static final long serialVersionUID = 1;
+
+    Object writeReplace() {
+      return new SerializationProxy<K, V>(cache);
+    }
+  }
+
+  static class CompactLoadingCache<K, V>
+      extends CompactManualCache<K, V> implements LoadingCache<K, V> {
+
+    CompactLoadingCache(CacheBuilder<? super K, ? super V> builder,
+        CacheLoader<? super K, V> loader) {
+      super(new CompactLocalCache<K, V>(builder, checkNotNull(loader)));
+    }
+
+    // LoadingCache methods
+
+    /**
+     * Returns the values of {@code keys}, loading absent values one at a time with
+     * {@link CacheLoader#load}.
+     */
+    @Override
+    public ImmutableMap<K, V> getAll(Iterable<? extends K> keys) throws ExecutionException {
+      Map<K, V> result = Maps.newLinkedHashMap();
+      for (K key : keys) {
+        result.put(key, get(key));
+      }
+      return ImmutableMap.copyOf(result);
+    }
+
+    @Override
+    public void refresh(K key) {
+      cache.refresh(key);
+    }
+
+    // Serialization Support
+
+    private static final long serialVersionUID = 1;
+  }
+}
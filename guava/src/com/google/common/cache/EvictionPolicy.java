@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+
+/**
+ * The policy used to choose which entries to discard when a cache exceeds its
+ * {@linkplain CacheBuilder#maximumSize maximum size} or
+ * {@linkplain CacheBuilder#maximumWeight maximum weight}.
+ *
+ * @see CacheBuilder#evictionPolicy
+ * @since 12.0
+ */
+@Beta
+public enum EvictionPolicy {
+  /**
+   * Discards the least recently used entries first. This is the default policy, and performs well
+   * when recently used entries are likely to be used again soon.
+   */
+  LEAST_RECENTLY_USED,
+
+  /**
+   * Discards the least recently used entries first, but only admits a newly added entry if it is
+   * estimated to be accessed more frequently than the entry it would displace; otherwise the new
+   * entry is discarded instead. Access frequencies are estimated using a compact count-min sketch
+   * whose counters are periodically halved, so that the history adapts to changes in popularity.
+   *
+   * <p>This policy protects frequently used entries from being flushed out by scans or by bursts
+   * of one-time accesses, which typically yields a noticeably higher hit rate than
+   * {@link #LEAST_RECENTLY_USED} for skewed workloads. It costs about eight bytes of sketch per
+   * entry of maximum size.
+   */
+  TINY_LFU
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.annotations.Beta;
+
+/**
+ * Calculates when cache entries expire, for caches built with {@link CacheBuilder#expireAfter}.
+ * Each method returns the number of nanoseconds for which the entry should be retained from the
+ * current time; a duration of zero or less causes the entry to expire immediately. To leave the
+ * expiration time of an entry unchanged, return {@code currentDuration}.
+ *
+ * <p>All times are read from the cache's {@linkplain CacheBuilder#ticker ticker}. Methods are
+ * called while the cache is performing the corresponding operation, so implementations should be
+ * fast and must not access the cache.
+ *
+ * @param <K> the type of the keys of the cache
+ * @param <V> the type of the values of the cache
+ * @since 12.0
+ */
+@Beta
+public interface Expiry<K, V> {
+
+  /**
+   * Returns the duration for which a new entry should be retained after it is created, whether by
+   * being loaded or by being written to the cache.
+   *
+   * @param key the key of the entry
+   * @param value the value of the entry
+   * @param currentTime the current ticker time, in nanoseconds
+   */
+  long expireAfterCreate(K key, V value, long currentTime);
+
+  /**
+   * Returns the duration for which an entry should be retained after its value is replaced,
+   * whether by being refreshed or by being written to the cache.
+   *
+   * @param key the key of the entry
+   * @param value the new value of the entry
+   * @param currentTime the current ticker time, in nanoseconds
+   * @param currentDuration the remaining time before the entry would otherwise expire, in
+   *     nanoseconds
+   */
+  long expireAfterUpdate(K key, V value, long currentTime, long currentDuration);
+
+  /**
+   * Returns the duration for which an entry should be retained after it is read.
+   *
+   * @param key the key of the entry
+   * @param value the value of the entry
+   * @param currentTime the current ticker time, in nanoseconds
+   * @param currentDuration the remaining time before the entry would otherwise expire, in
+   *     nanoseconds
+   */
+  long expireAfterRead(K key, V value, long currentTime, long currentDuration);
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A probabilistic estimate of how often each element has been seen recently, used by the
+ * {@link EvictionPolicy#TINY_LFU} admission policy.
+ *
+ * <p>This is a count-min sketch of depth four. Each counter is four bits wide, so frequencies
+ * saturate at 15, and sixteen counters are packed into every {@code long} of the table. An element
+ * selects one group of four counters (a quarter of a {@code long}) from each of four table slots,
+ * and its estimated frequency is the minimum of those counters. Once the number of increments
+ * reaches ten times the table's capacity, all counters are halved so that the sketch reflects
+ * recent history rather than all-time popularity.
+ *
+ * <p>The table holds one {@code long} per element of capacity, and is not thread-safe; a
+ * {@link LocalCache.Segment} only touches its sketch while holding its lock.
+ */
+final class FrequencySketch {
+
+  /*
+   * Distinct odd multipliers, so that the four slot indexes of an element are independent of one
+   * another.
+   */
+  private static final long[] SEEDS = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+  /** Clears the high bit of each counter after a right shift. */
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  /** Selects the low bit of each counter. */
+  private static final long ONE_MASK = 0x1111111111111111L;
+
+  /** The largest table that will be allocated, as a power of two. */
+  private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  /** The number of increments after which all counters are halved. */
+  int sampleSize;
+
+  /** The number of increments since the counters were last halved. */
+  int size;
+
+  int tableMask;
+  long[] table;
+
+  /**
+   * Creates a sketch able to estimate the frequencies of roughly {@code expectedSize} distinct
+   * elements.
+   */
+  FrequencySketch(long expectedSize) {
+    checkArgument(expectedSize >= 0);
+    table = new long[tableSizeFor(expectedSize)];
+    tableMask = table.length - 1;
+    sampleSize = sampleSizeFor(table.length);
+  }
+
+  /**
+   * Grows the sketch so that it can estimate the frequencies of roughly {@code expectedSize}
+   * distinct elements. Growing discards the frequency history.
+   */
+  void ensureCapacity(long expectedSize) {
+    int tableSize = tableSizeFor(expectedSize);
+    if (tableSize > table.length) {
+      table = new long[tableSize];
+      tableMask = tableSize - 1;
+      sampleSize = sampleSizeFor(tableSize);
+      size = 0;
+    }
+  }
+
+  /**
+   * Returns the estimated number of recent occurrences of an element with the given hash, up to a
+   * maximum of 15.
+   */
+  int frequency(int hash) {
+    int spread = spread(hash);
+    int start = (spread & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(spread, i);
+      int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Records one occurrence of an element with the given hash, halving all counters if the sample
+   * size has been reached.
+   */
+  void increment(int hash) {
+    int spread = spread(hash);
+    int start = (spread & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(spread, i), start + i);
+    }
+    if (added && (++size == sampleSize)) {
+      reset();
+    }
+  }
+
+  /**
+   * Increments the {@code counter}th counter of {@code table[index]} unless it is saturated.
+   * Returns whether the counter was incremented.
+   */
+  boolean incrementAt(int index, int counter) {
+    int offset = counter << 2;
+    long mask = 0xfL << offset;
+    if ((table[index] & mask) != mask) {
+      table[index] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  /** Halves every counter, and adjusts the size for the remainders lost to truncation. */
+  void reset() {
+    int odd = 0;
+    for (int i = 0; i < table.length; i++) {
+      odd += Long.bitCount(table[i] & ONE_MASK);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    // each element contributed to four counters
+    size = (size >>> 1) - (odd >>> 2);
+  }
+
+  int indexOf(int spread, int i) {
+    long hash = (spread + SEEDS[i]) * SEEDS[i];
+    hash += hash >>> 32;
+    return ((int) hash) & tableMask;
+  }
+
+  /**
+   * Applies a supplemental hash function to a given hash code. The cache has already spread the
+   * bits of its keys' hash codes, but within one segment the high bits are all the same, as they
+   * were used to select the segment.
+   */
+  static int spread(int hash) {
+    // the finalization mix of murmur3
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    return hash ^ (hash >>> 16);
+  }
+
+  static int tableSizeFor(long expectedSize) {
+    int maximum = (int) Math.min(Math.max(expectedSize, 1), MAXIMUM_CAPACITY);
+    return (maximum == 1) ? 1 : Integer.highestOneBit(maximum - 1) << 1;
+  }
+
+  static int sampleSizeFor(int tableSize) {
+    return (int) Math.min(10L * tableSize, Integer.MAX_VALUE);
+  }
+}
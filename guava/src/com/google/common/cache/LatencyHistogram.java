@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in buckets whose bounds are powers of two nanoseconds: bucket {@code i} counts
+ * the durations of at least 2<sup>i-1</sup> and less than 2<sup>i</sup> nanoseconds, and bucket
+ * zero counts durations of zero. Recording a duration is a single atomic increment.
+ */
+final class LatencyHistogram {
+
+  /** The number of buckets, enough for any non-negative {@code long} duration. */
+  static final int BUCKETS = 64;
+
+  final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  void record(long nanos) {
+    counts.incrementAndGet(bucket(nanos));
+  }
+
+  /** Returns the bucket counting {@code nanos}; negative durations are counted as zero. */
+  static int bucket(long nanos) {
+    return (nanos <= 0) ? 0 : Long.SIZE - Long.numberOfLeadingZeros(nanos);
+  }
+
+  /** Returns the counts of each bucket. */
+  long[] snapshot() {
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+    }
+    return snapshot;
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.google.common.cache;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.cache.CacheBuilder.NULL_TICKER;
@@ -26,6 +27,7 @@ import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Equivalence;
 import com.google.common.base.Equivalences;
+import com.google.common.base.Function;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Ticker;
 import com.google.common.cache.AbstractCache.SimpleStatsCounter;
@@ -37,6 +39,7 @@ import com.google.common.cache.CacheLoader.UnsupportedLoadingOperationException;
 import com.google.common.collect.AbstractLinkedIterator;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.Ints;
@@ -60,7 +63,10 @@ import java.util.AbstractMap;
 import java.util.AbstractQueue;
 import java.util.AbstractSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Queue;
@@ -69,8 +75,11 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
@@ -109,7 +118,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
    *
    * This implementation uses a per-segment queue to record a memento of the additions, removals,
    * and accesses that were performed on the map. The queue is drained on writes and when it exceeds
-   * its capacity threshold.
+   * its capacity threshold. Accesses are recorded in a striped ring buffer that never blocks or
+   * allocates, and may drop records when heavily contended.
    *
    * The Least Recently Used page replacement algorithm was chosen due to its simplicity, high hit
    * rate, and ability to be implemented with O(1) time complexity. The initial LRU implementation
@@ -148,6 +158,24 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   // TODO(fry): empirically optimize this
   static final int DRAIN_MAX = 16;
 
+  /**
+   * Maximum number of expired entries to be removed, and of removal notifications to be delivered,
+   * by a single maintenance task run on the cache's executor.
+   */
+  static final int MAINTENANCE_MAX = 64;
+
+  /**
+   * Maximum number of entries evicted while holding a segment's lock when the maximum weight of the
+   * cache is reduced.
+   */
+  static final int EVICTION_BATCH = 64;
+
+  /**
+   * Minimum number of entries a segment's frequency sketch is sized for, if the segment may hold
+   * that many, so that segments with small tables still estimate frequencies usefully.
+   */
+  static final int MINIMUM_SKETCH_SIZE = 64;
+
   // Fields
 
   static final Logger logger = Logger.getLogger(LocalCache.class.getName());
@@ -184,12 +212,48 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   /** Strategy for referencing values. */
   final Strength valueStrength;
 
-  /** The maximum weight of this map. UNSET_INT if there is no maximum. */
-  final long maxWeight;
+  /**
+   * The maximum weight of this map. UNSET_INT if there is no maximum. May only change from one
+   * non-negative value to another, through {@link #setMaximumWeight}.
+   */
+  volatile long maxWeight;
 
   /** Weigher to weigh cache entries. */
   final Weigher<K, V> weigher;
 
+  /** The policy used to choose which entries to evict when the maximum weight is exceeded. */
+  final EvictionPolicy evictionPolicy;
+
+  /**
+   * The number of segments whose eldest entries are compared to choose each entry to evict when
+   * the maximum weight applies to the whole map, or 0 if each segment is bounded by its own share
+   * of the maximum weight.
+   */
+  final int evictionSampleSize;
+
+  /** The weight of the live entries of all segments. Null unless eviction is global. */
+  @Nullable
+  final AtomicLong globalWeight;
+
+  /** Serializes values which are stored off-heap. Null if values are stored on the heap. */
+  @Nullable
+  final CacheCodec<V> valueCodec;
+
+  /** Allocates the off-heap memory holding serialized values. Null if values are on the heap. */
+  @Nullable
+  final SlabAllocator slabAllocator;
+
+  /** Whether entries are weighed by the length of their serialized values. */
+  final boolean weighsValueBytes;
+
+  /** Collects the entries waiting to be refreshed together. Null if refreshes aren't coalesced. */
+  @Nullable
+  final RefreshBatcher<K, V> refreshBatcher;
+
+  /** Holds the entries evicted because of the size of the cache. Null if there is none. */
+  @Nullable
+  final SecondTier<K, V> secondTier;
+
   /** How long after the last access to an entry the map will retain that entry. */
   final long expireAfterAccessNanos;
 
@@ -199,6 +263,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   /** How long after the last write an entry becomes a candidate for refresh. */
   final long refreshNanos;
 
+  /** Calculates the expiration time of each entry. Null if entries don't expire variably. */
+  @Nullable
+  final Expiry<? super K, ? super V> expiry;
+
   /** Entries waiting to be consumed by the removal listener. */
   // TODO(fry): define a new type which creates event objects and automates the clear logic
   final Queue<RemovalNotification<K, V>> removalNotificationQueue;
@@ -212,6 +280,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   /** Measures time in a testable way. */
   final Ticker ticker;
 
+  /**
+   * The executor on which routine maintenance is performed, or null if it is performed by the
+   * threads using the cache.
+   */
+  @Nullable
+  final Executor executor;
+
   /** Factory used to create new entries. */
   final EntryFactory entryFactory;
 
@@ -221,6 +296,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
    */
   final StatsCounter globalStatsCounter;
 
+  /** Counts the durations of all loads, whether successful or not. */
+  final LatencyHistogram loadLatencies = new LatencyHistogram();
+
   /**
    * The default cache loader to use on loading operations.
    */
@@ -241,9 +319,20 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     maxWeight = builder.getMaximumWeight();
     weigher = builder.getWeigher();
+    evictionPolicy = builder.getEvictionPolicy();
+    evictionSampleSize = evictsBySize() ? builder.getEvictionSampleSize() : 0;
+    globalWeight = evictsGlobally() ? new AtomicLong() : null;
+    valueCodec = builder.getValueCodec();
+    slabAllocator = (valueCodec == null) ? null : new SlabAllocator();
+    weighsValueBytes = builder.weighsValueBytes();
+    secondTier = builder.createSecondTier();
     expireAfterAccessNanos = builder.getExpireAfterAccessNanos();
+    expiry = builder.getExpiry();
     expireAfterWriteNanos = builder.getExpireAfterWriteNanos();
     refreshNanos = builder.getRefreshNanos();
+    refreshBatcher = builder.coalescesRefreshes()
+        ? new RefreshBatcher<K, V>(builder.getRefreshBatchSize(), builder.getRefreshWindowNanos())
+        : null;
 
     removalListener = builder.getRemovalListener();
     removalNotificationQueue = (removalListener == NullListener.INSTANCE)
@@ -251,7 +340,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         : new ConcurrentLinkedQueue<RemovalNotification<K, V>>();
 
     ticker = builder.getTicker(recordsTime());
-    entryFactory = EntryFactory.getFactory(keyStrength, usesAccessEntries(), usesWriteEntries());
+    executor = builder.getExecutor();
+    entryFactory = expiresVariably()
+        ? EntryFactory.getVariableFactory(keyStrength)
+        : EntryFactory.getFactory(keyStrength, usesAccessEntries(), usesWriteEntries());
     globalStatsCounter = builder.getStatsCounterSupplier().get();
     defaultLoader = loader;
 
@@ -285,7 +377,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       segmentSize <<= 1;
     }
 
-    if (evictsBySize()) {
+    if (evictsGlobally()) {
+      // any segment may hold the whole of the maximum weight
+      for (int i = 0; i < this.segments.length; ++i) {
+        this.segments[i] =
+            createSegment(segmentSize, maxWeight, builder.getStatsCounterSupplier().get());
+      }
+    } else if (evictsBySize()) {
       // Ensure sum of segment max weights = overall max weights
       long maxSegmentWeight = maxWeight / segmentCount + 1;
       long remainder = maxWeight % segmentCount;
@@ -308,12 +406,54 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     return maxWeight >= 0;
   }
 
+  /**
+   * Returns whether the maximum weight applies to the whole map, with each entry to evict chosen
+   * by sampling several segments, rather than to each segment separately.
+   */
+  boolean evictsGlobally() {
+    return evictionSampleSize > 0;
+  }
+
+  /**
+   * Changes the maximum weight of this map, distributing it over the segments in the same way as
+   * at construction. Segments which exceed their new maximum are shrunk one at a time; see
+   * {@link Segment#setMaxSegmentWeight}. If eviction is global, entries are instead evicted in
+   * batches from each segment in turn, until the map fits; see {@link Segment#trimGlobally}.
+   */
+  synchronized void setMaximumWeight(long maximumWeight) {
+    checkState(evictsBySize(), "cache is not bounded by size or weight");
+    checkArgument(maximumWeight >= 0, "maximum weight must not be negative");
+    this.maxWeight = maximumWeight;
+    if (evictsGlobally()) {
+      boolean evicted = true;
+      while (evicted && globalWeight.get() > maximumWeight) {
+        evicted = false;
+        for (Segment<K, V> segment : segments) {
+          evicted |= segment.trimGlobally() > 0;
+        }
+      }
+      return;
+    }
+    long maxSegmentWeight = maximumWeight / segments.length + 1;
+    long remainder = maximumWeight % segments.length;
+    for (int i = 0; i < segments.length; ++i) {
+      if (i == remainder) {
+        maxSegmentWeight--;
+      }
+      segments[i].setMaxSegmentWeight(maxSegmentWeight);
+    }
+  }
+
   boolean customWeigher() {
-    return weigher != OneWeigher.INSTANCE;
+    return weigher != OneWeigher.INSTANCE || weighsValueBytes;
+  }
+
+  boolean storesValuesOffHeap() {
+    return valueCodec != null;
   }
 
   boolean expires() {
-    return expiresAfterWrite() || expiresAfterAccess();
+    return expiresAfterWrite() || expiresAfterAccess() || expiresVariably();
   }
 
   boolean expiresAfterWrite() {
@@ -324,12 +464,21 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     return expireAfterAccessNanos > 0;
   }
 
+  boolean expiresVariably() {
+    return expiry != null;
+  }
+
   boolean refreshes() {
     return refreshNanos > 0;
   }
 
+  boolean usesFrequencySketch() {
+    return evictsBySize() && evictionPolicy == EvictionPolicy.TINY_LFU;
+  }
+
   boolean usesAccessQueue() {
-    return expiresAfterAccess() || evictsBySize();
+    // variably expiring entries are rescheduled as reads are drained from the recency queue
+    return expiresAfterAccess() || evictsBySize() || expiresVariably();
   }
 
   boolean usesWriteQueue() {
@@ -341,11 +490,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   }
 
   boolean recordsAccess() {
-    return expiresAfterAccess();
+    // global eviction compares the access times of the eldest entries of different segments, and
+    // snapshots of size-bounded caches merge the access queues of all segments by access time
+    return expiresAfterAccess() || evictsBySize() || evictsGlobally();
   }
 
   boolean recordsTime() {
-    return recordsWrite() || recordsAccess();
+    return recordsWrite() || recordsAccess() || expiresVariably();
   }
 
   boolean usesWriteEntries() {
@@ -541,6 +692,41 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         copyWriteEntry(original, newEntry);
         return newEntry;
       }
+    },
+
+    STRONG_VARIABLE {
+      @Override
+      <K, V> ReferenceEntry<K, V> newEntry(
+          Segment<K, V> segment, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+        return new StrongVariableEntry<K, V>(key, hash, next);
+      }
+
+      @Override
+      <K, V> ReferenceEntry<K, V> copyEntry(
+          Segment<K, V> segment, ReferenceEntry<K, V> original, ReferenceEntry<K, V> newNext) {
+        ReferenceEntry<K, V> newEntry = super.copyEntry(segment, original, newNext);
+        copyAccessEntry(original, newEntry);
+        copyWriteEntry(original, newEntry);
+        copyVariableEntry(original, newEntry);
+        return newEntry;
+      }
+    },
+    WEAK_VARIABLE {
+      @Override
+      <K, V> ReferenceEntry<K, V> newEntry(
+          Segment<K, V> segment, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+        return new WeakVariableEntry<K, V>(segment.keyReferenceQueue, key, hash, next);
+      }
+
+      @Override
+      <K, V> ReferenceEntry<K, V> copyEntry(
+          Segment<K, V> segment, ReferenceEntry<K, V> original, ReferenceEntry<K, V> newNext) {
+        ReferenceEntry<K, V> newEntry = super.copyEntry(segment, original, newNext);
+        copyAccessEntry(original, newEntry);
+        copyWriteEntry(original, newEntry);
+        copyVariableEntry(original, newEntry);
+        return newEntry;
+      }
     };
 
     /**
@@ -566,6 +752,14 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return factories[flags];
     }
 
+    /**
+     * Returns the factory for entries which expire variably. These entries also record their
+     * access and write times, so that they can be used with any other cache features.
+     */
+    static EntryFactory getVariableFactory(Strength keyStrength) {
+      return (keyStrength == Strength.WEAK) ? WEAK_VARIABLE : STRONG_VARIABLE;
+    }
+
     /**
      * Creates a new entry.
      *
@@ -612,6 +806,16 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
       nullifyWriteOrder(original);
     }
+
+    @GuardedBy("Segment.this")
+    <K, V> void copyVariableEntry(ReferenceEntry<K, V> original, ReferenceEntry<K, V> newEntry) {
+      newEntry.setExpirationTime(original.getExpirationTime());
+
+      connectTimerOrder(original.getPreviousInTimerWheel(), newEntry);
+      connectTimerOrder(newEntry, original.getNextInTimerWheel());
+
+      nullifyTimerOrder(original);
+    }
   }
 
   /**
@@ -838,6 +1042,41 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      * Sets the previous entry in the write queue.
      */
     void setPreviousInWriteQueue(ReferenceEntry<K, V> previous);
+
+    /*
+     * Implemented by entries that expire variably. These entries are held in the buckets of a
+     * segment's timer wheel, each of which is a circular doubly-linked list.
+     */
+
+    /**
+     * Returns the time at which this entry expires, in ns.
+     */
+    long getExpirationTime();
+
+    /**
+     * Sets the entry expiration time in ns.
+     */
+    void setExpirationTime(long time);
+
+    /**
+     * Returns the next entry in the same bucket of the timer wheel.
+     */
+    ReferenceEntry<K, V> getNextInTimerWheel();
+
+    /**
+     * Sets the next entry in the same bucket of the timer wheel.
+     */
+    void setNextInTimerWheel(ReferenceEntry<K, V> next);
+
+    /**
+     * Returns the previous entry in the same bucket of the timer wheel.
+     */
+    ReferenceEntry<K, V> getPreviousInTimerWheel();
+
+    /**
+     * Sets the previous entry in the same bucket of the timer wheel.
+     */
+    void setPreviousInTimerWheel(ReferenceEntry<K, V> previous);
   }
 
   private enum NullEntry implements ReferenceEntry<Object, Object> {
@@ -913,6 +1152,30 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     @Override
     public void setPreviousInWriteQueue(ReferenceEntry<Object, Object> previous) {}
+
+    @Override
+    public long getExpirationTime() {
+      return 0;
+    }
+
+    @Override
+    public void setExpirationTime(long time) {}
+
+    @Override
+    public ReferenceEntry<Object, Object> getNextInTimerWheel() {
+      return this;
+    }
+
+    @Override
+    public void setNextInTimerWheel(ReferenceEntry<Object, Object> next) {}
+
+    @Override
+    public ReferenceEntry<Object, Object> getPreviousInTimerWheel() {
+      return this;
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<Object, Object> previous) {}
   }
 
   static abstract class AbstractReferenceEntry<K, V> implements ReferenceEntry<K, V> {
@@ -1000,6 +1263,36 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
       throw new UnsupportedOperationException();
     }
+
+    @Override
+    public long getExpirationTime() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getNextInTimerWheel() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNextInTimerWheel(ReferenceEntry<K, V> next) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInTimerWheel() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<K, V> previous) {
+      throw new UnsupportedOperationException();
+    }
   }
 
   @SuppressWarnings("unchecked") // impl never uses a parameter or returns any non-null value
@@ -1131,6 +1424,38 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       throw new UnsupportedOperationException();
     }
 
+    // null expiration
+
+    @Override
+    public long getExpirationTime() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getNextInTimerWheel() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNextInTimerWheel(ReferenceEntry<K, V> next) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInTimerWheel() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<K, V> previous) {
+      throw new UnsupportedOperationException();
+    }
+
     // The code below is exactly the same for each entry type.
 
     final int hash;
@@ -1339,114 +1664,273 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
-  /**
-   * Used for weakly-referenced keys.
-   */
-  static class WeakEntry<K, V> extends WeakReference<K> implements ReferenceEntry<K, V> {
-    WeakEntry(ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
-      super(key, queue);
-      this.hash = hash;
-      this.next = next;
+  static final class StrongVariableEntry<K, V>
+      extends StrongEntry<K, V> implements ReferenceEntry<K, V> {
+    StrongVariableEntry(K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(key, hash, next);
     }
 
-    @Override
-    public K getKey() {
-      return get();
-    }
+    // The code below is exactly the same for each access entry type.
 
-    // null access
+    volatile long accessTime = Long.MAX_VALUE;
 
     @Override
     public long getAccessTime() {
-      throw new UnsupportedOperationException();
+      return accessTime;
     }
 
     @Override
     public void setAccessTime(long time) {
-      throw new UnsupportedOperationException();
+      this.accessTime = time;
     }
 
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> nextAccess = nullEntry();
+
     @Override
     public ReferenceEntry<K, V> getNextInAccessQueue() {
-      throw new UnsupportedOperationException();
+      return nextAccess;
     }
 
     @Override
     public void setNextInAccessQueue(ReferenceEntry<K, V> next) {
-      throw new UnsupportedOperationException();
+      this.nextAccess = next;
     }
 
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> previousAccess = nullEntry();
+
     @Override
     public ReferenceEntry<K, V> getPreviousInAccessQueue() {
-      throw new UnsupportedOperationException();
+      return previousAccess;
     }
 
     @Override
     public void setPreviousInAccessQueue(ReferenceEntry<K, V> previous) {
-      throw new UnsupportedOperationException();
+      this.previousAccess = previous;
     }
 
-    // null write
+    // The code below is exactly the same for each write entry type.
+
+    volatile long writeTime = Long.MAX_VALUE;
 
     @Override
     public long getWriteTime() {
-      throw new UnsupportedOperationException();
+      return writeTime;
     }
 
     @Override
     public void setWriteTime(long time) {
-      throw new UnsupportedOperationException();
+      this.writeTime = time;
     }
 
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> nextWrite = nullEntry();
+
     @Override
     public ReferenceEntry<K, V> getNextInWriteQueue() {
-      throw new UnsupportedOperationException();
+      return nextWrite;
     }
 
     @Override
     public void setNextInWriteQueue(ReferenceEntry<K, V> next) {
-      throw new UnsupportedOperationException();
+      this.nextWrite = next;
     }
 
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> previousWrite = nullEntry();
+
     @Override
     public ReferenceEntry<K, V> getPreviousInWriteQueue() {
-      throw new UnsupportedOperationException();
+      return previousWrite;
     }
 
     @Override
     public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
-      throw new UnsupportedOperationException();
+      this.previousWrite = previous;
     }
 
-    // The code below is exactly the same for each entry type.
+    // The code below is exactly the same for each variable entry type.
 
-    final int hash;
-    final ReferenceEntry<K, V> next;
-    volatile ValueReference<K, V> valueReference = unset();
+    volatile long expirationTime = Long.MAX_VALUE;
 
     @Override
-    public ValueReference<K, V> getValueReference() {
-      return valueReference;
+    public long getExpirationTime() {
+      return expirationTime;
     }
 
     @Override
-    public void setValueReference(ValueReference<K, V> valueReference) {
-      this.valueReference = valueReference;
+    public void setExpirationTime(long time) {
+      this.expirationTime = time;
     }
 
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> nextInTimerWheel = nullEntry();
+
     @Override
-    public int getHash() {
-      return hash;
+    public ReferenceEntry<K, V> getNextInTimerWheel() {
+      return nextInTimerWheel;
     }
 
     @Override
-    public ReferenceEntry<K, V> getNext() {
-      return next;
+    public void setNextInTimerWheel(ReferenceEntry<K, V> next) {
+      this.nextInTimerWheel = next;
     }
-  }
 
-  static final class WeakAccessEntry<K, V>
-      extends WeakEntry<K, V> implements ReferenceEntry<K, V> {
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> previousInTimerWheel = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInTimerWheel() {
+      return previousInTimerWheel;
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<K, V> previous) {
+      this.previousInTimerWheel = previous;
+    }
+  }
+
+  /**
+   * Used for weakly-referenced keys.
+   */
+  static class WeakEntry<K, V> extends WeakReference<K> implements ReferenceEntry<K, V> {
+    WeakEntry(ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(key, queue);
+      this.hash = hash;
+      this.next = next;
+    }
+
+    @Override
+    public K getKey() {
+      return get();
+    }
+
+    // null access
+
+    @Override
+    public long getAccessTime() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setAccessTime(long time) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getNextInAccessQueue() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNextInAccessQueue(ReferenceEntry<K, V> next) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInAccessQueue() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setPreviousInAccessQueue(ReferenceEntry<K, V> previous) {
+      throw new UnsupportedOperationException();
+    }
+
+    // null write
+
+    @Override
+    public long getWriteTime() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setWriteTime(long time) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getNextInWriteQueue() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNextInWriteQueue(ReferenceEntry<K, V> next) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInWriteQueue() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
+      throw new UnsupportedOperationException();
+    }
+
+    // null expiration
+
+    @Override
+    public long getExpirationTime() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getNextInTimerWheel() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setNextInTimerWheel(ReferenceEntry<K, V> next) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInTimerWheel() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<K, V> previous) {
+      throw new UnsupportedOperationException();
+    }
+
+    // The code below is exactly the same for each entry type.
+
+    final int hash;
+    final ReferenceEntry<K, V> next;
+    volatile ValueReference<K, V> valueReference = unset();
+
+    @Override
+    public ValueReference<K, V> getValueReference() {
+      return valueReference;
+    }
+
+    @Override
+    public void setValueReference(ValueReference<K, V> valueReference) {
+      this.valueReference = valueReference;
+    }
+
+    @Override
+    public int getHash() {
+      return hash;
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getNext() {
+      return next;
+    }
+  }
+
+  static final class WeakAccessEntry<K, V>
+      extends WeakEntry<K, V> implements ReferenceEntry<K, V> {
     WeakAccessEntry(
         ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
       super(queue, key, hash, next);
@@ -1629,6 +2113,134 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  static final class WeakVariableEntry<K, V>
+      extends WeakEntry<K, V> implements ReferenceEntry<K, V> {
+    WeakVariableEntry(
+        ReferenceQueue<K> queue, K key, int hash, @Nullable ReferenceEntry<K, V> next) {
+      super(queue, key, hash, next);
+    }
+
+    // The code below is exactly the same for each access entry type.
+
+    volatile long accessTime = Long.MAX_VALUE;
+
+    @Override
+    public long getAccessTime() {
+      return accessTime;
+    }
+
+    @Override
+    public void setAccessTime(long time) {
+      this.accessTime = time;
+    }
+
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> nextAccess = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getNextInAccessQueue() {
+      return nextAccess;
+    }
+
+    @Override
+    public void setNextInAccessQueue(ReferenceEntry<K, V> next) {
+      this.nextAccess = next;
+    }
+
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> previousAccess = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInAccessQueue() {
+      return previousAccess;
+    }
+
+    @Override
+    public void setPreviousInAccessQueue(ReferenceEntry<K, V> previous) {
+      this.previousAccess = previous;
+    }
+
+    // The code below is exactly the same for each write entry type.
+
+    volatile long writeTime = Long.MAX_VALUE;
+
+    @Override
+    public long getWriteTime() {
+      return writeTime;
+    }
+
+    @Override
+    public void setWriteTime(long time) {
+      this.writeTime = time;
+    }
+
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> nextWrite = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getNextInWriteQueue() {
+      return nextWrite;
+    }
+
+    @Override
+    public void setNextInWriteQueue(ReferenceEntry<K, V> next) {
+      this.nextWrite = next;
+    }
+
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> previousWrite = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInWriteQueue() {
+      return previousWrite;
+    }
+
+    @Override
+    public void setPreviousInWriteQueue(ReferenceEntry<K, V> previous) {
+      this.previousWrite = previous;
+    }
+
+    // The code below is exactly the same for each variable entry type.
+
+    volatile long expirationTime = Long.MAX_VALUE;
+
+    @Override
+    public long getExpirationTime() {
+      return expirationTime;
+    }
+
+    @Override
+    public void setExpirationTime(long time) {
+      this.expirationTime = time;
+    }
+
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> nextInTimerWheel = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getNextInTimerWheel() {
+      return nextInTimerWheel;
+    }
+
+    @Override
+    public void setNextInTimerWheel(ReferenceEntry<K, V> next) {
+      this.nextInTimerWheel = next;
+    }
+
+    @GuardedBy("Segment.this")
+    ReferenceEntry<K, V> previousInTimerWheel = nullEntry();
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInTimerWheel() {
+      return previousInTimerWheel;
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<K, V> previous) {
+      this.previousInTimerWheel = previous;
+    }
+  }
+
   /**
    * References a weak value.
    */
@@ -1836,10 +2448,130 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
   }
 
   /**
-   * Applies a supplemental hash function to a given hash code, which defends against poor quality
-   * hash functions. This is critical when the concurrent hash map uses power-of-two length hash
-   * tables, that otherwise encounter collisions for hash codes that do not differ in lower or
-   * upper bits.
+   * The serialized form of a value, stored in a chunk of off-heap memory. The chunk is freed once
+   * the cache has released the value and no reader is still copying it out.
+   */
+  static final class OffHeapValue {
+    final SlabAllocator allocator;
+    final SlabAllocator.Chunk chunk;
+
+    /** The number of readers copying out this value, plus one until the cache releases it. */
+    final AtomicInteger references = new AtomicInteger(1);
+
+    /** Whether the cache has queued the release of this value. */
+    @GuardedBy("Segment.this")
+    boolean released;
+
+    OffHeapValue(SlabAllocator allocator, byte[] bytes) {
+      this.allocator = allocator;
+      this.chunk = allocator.allocate(bytes.length);
+      chunk.write(bytes);
+    }
+
+    /**
+     * Returns a copy of the serialized value, or null if the value was already released.
+     */
+    @Nullable
+    byte[] read() {
+      while (true) {
+        int count = references.get();
+        if (count == 0) {
+          return null;
+        }
+        if (references.compareAndSet(count, count + 1)) {
+          break;
+        }
+      }
+      try {
+        return chunk.read();
+      } finally {
+        release();
+      }
+    }
+
+    void release() {
+      if (references.decrementAndGet() == 0) {
+        allocator.free(chunk);
+      }
+    }
+  }
+
+  /**
+   * References a value stored off-heap. Every call to {@link #get} decodes a new copy of the value.
+   */
+  static final class OffHeapValueReference<K, V> implements ValueReference<K, V> {
+    final OffHeapValue value;
+    final CacheCodec<V> codec;
+    final ReferenceEntry<K, V> entry;
+    final int weight;
+
+    OffHeapValueReference(OffHeapValue value, CacheCodec<V> codec, ReferenceEntry<K, V> entry,
+        int weight) {
+      this.value = value;
+      this.codec = codec;
+      this.entry = entry;
+      this.weight = weight;
+    }
+
+    @Override
+    public V get() {
+      byte[] bytes = value.read();
+      if (bytes != null) {
+        return codec.decode(bytes);
+      }
+
+      // The value was replaced or removed after this reference was read from the entry, and has
+      // since been released. Read through to the entry's current value, if it has a new one.
+      ValueReference<K, V> current = entry.getValueReference();
+      if (current instanceof LoadingValueReference) {
+        current = ((LoadingValueReference<K, V>) current).getOldValue();
+      }
+      if (current instanceof OffHeapValueReference
+          && ((OffHeapValueReference<K, V>) current).value == value) {
+        return null;
+      }
+      return current.get();
+    }
+
+    @Override
+    public int getWeight() {
+      return weight;
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getEntry() {
+      return entry;
+    }
+
+    @Override
+    public ValueReference<K, V> copyFor(ReferenceQueue<V> queue, ReferenceEntry<K, V> entry) {
+      return new OffHeapValueReference<K, V>(value, codec, entry, weight);
+    }
+
+    @Override
+    public boolean isLoading() {
+      return false;
+    }
+
+    @Override
+    public boolean isActive() {
+      return true;
+    }
+
+    @Override
+    public V waitForValue() {
+      return get();
+    }
+
+    @Override
+    public void notifyNewValue(V newValue) {}
+  }
+
+  /**
+   * Applies a supplemental hash function to a given hash code, which defends against poor quality
+   * hash functions. This is critical when the concurrent hash map uses power-of-two length hash
+   * tables, that otherwise encounter collisions for hash codes that do not differ in lower or
+   * upper bits.
    *
    * @param h hash code
    */
@@ -1961,9 +2693,44 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         && (now - entry.getWriteTime() > expireAfterWriteNanos)) {
       return true;
     }
+    if (expiresVariably() && hasPassed(entry.getExpirationTime(), now)) {
+      return true;
+    }
     return false;
   }
 
+  /**
+   * Returns true if {@code now} is at or after the variable expiration time {@code expirationTime}.
+   * Times are compared by their difference, as the ticker may wrap, except that
+   * {@link Long#MAX_VALUE}, with which entries start, means never.
+   */
+  static boolean hasPassed(long expirationTime, long now) {
+    return (expirationTime != Long.MAX_VALUE) && (now - expirationTime >= 0);
+  }
+
+  /**
+   * The longest duration for which an entry may be retained by an {@link Expiry}, which keeps
+   * expiration times from overflowing.
+   */
+  static final long MAXIMUM_EXPIRY = Long.MAX_VALUE >> 1;
+
+  /**
+   * Returns the time at which an entry will expire, given the duration for which it should be
+   * retained from {@code now} as computed by an {@link Expiry}.
+   */
+  static long variableExpirationTime(long now, long duration) {
+    long time = now + Math.max(0, Math.min(duration, MAXIMUM_EXPIRY));
+    return (time == Long.MAX_VALUE) ? time - 1 : time; // Long.MAX_VALUE is reserved for never
+  }
+
+  /**
+   * Returns the time remaining from {@code now} until {@code expirationTime}, as passed to an
+   * {@link Expiry}; {@link Long#MAX_VALUE} if the entry never expires.
+   */
+  static long remainingNanos(long expirationTime, long now) {
+    return (expirationTime == Long.MAX_VALUE) ? Long.MAX_VALUE : expirationTime - now;
+  }
+
   // queues
 
   @GuardedBy("Segment.this")
@@ -1992,20 +2759,48 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     nulled.setPreviousInWriteQueue(nullEntry);
   }
 
+  @GuardedBy("Segment.this")
+  static <K, V> void connectTimerOrder(ReferenceEntry<K, V> previous, ReferenceEntry<K, V> next) {
+    previous.setNextInTimerWheel(next);
+    next.setPreviousInTimerWheel(previous);
+  }
+
+  @GuardedBy("Segment.this")
+  static <K, V> void nullifyTimerOrder(ReferenceEntry<K, V> nulled) {
+    ReferenceEntry<K, V> nullEntry = nullEntry();
+    nulled.setNextInTimerWheel(nullEntry);
+    nulled.setPreviousInTimerWheel(nullEntry);
+  }
+
   /**
    * Notifies listeners that an entry has been automatically removed due to expiration, eviction,
    * or eligibility for garbage collection. This should be called every time expireEntries or
    * evictEntry is called (once the lock is released).
    */
   void processPendingNotifications() {
+    processPendingNotifications(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Notifies listeners of at most {@code limit} pending removals, returning true if the limit was
+   * reached.
+   */
+  boolean processPendingNotifications(int limit) {
     RemovalNotification<K, V> notification;
-    while ((notification = removalNotificationQueue.poll()) != null) {
+    int i = 0;
+    while (i < limit && (notification = removalNotificationQueue.poll()) != null) {
       try {
         removalListener.onRemoval(notification);
       } catch (Throwable e) {
         logger.log(Level.WARNING, "Exception thrown by removal listener", e);
       }
+      i++;
     }
+    return i == limit;
+  }
+
+  boolean performsMaintenanceAsynchronously() {
+    return executor != null;
   }
 
   @SuppressWarnings("unchecked")
@@ -2090,7 +2885,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     /**
      * The maximum weight of this segment. UNSET_INT if there is no maximum.
      */
-    final long maxSegmentWeight;
+    @GuardedBy("Segment.this")
+    long maxSegmentWeight;
 
     /**
      * The key reference queue contains entries whose keys have been garbage collected, and which
@@ -2106,8 +2902,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     /**
      * The recency queue is used to record which entries were accessed for updating the access
-     * list's ordering. It is drained as a batch operation when either the DRAIN_THRESHOLD is
-     * crossed or a write occurs on the segment.
+     * list's ordering. It is a lossy {@link ReadBuffer}, drained as a batch operation when either
+     * the DRAIN_THRESHOLD is crossed, a reading thread's stripe of the buffer fills up, or a write
+     * occurs on the segment.
      */
     final Queue<ReferenceEntry<K, V>> recencyQueue;
 
@@ -2117,6 +2914,35 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      */
     final AtomicInteger readCount = new AtomicInteger();
 
+    /**
+     * Whether a maintenance task for this segment has been submitted to the cache's executor and
+     * has not yet finished. At most one such task is outstanding at a time.
+     */
+    final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+
+    /**
+     * Whether a maintenance task found this segment's lock held and left its locked work undone.
+     * The thread releasing the lock then submits another task.
+     */
+    final AtomicBoolean maintenancePending = new AtomicBoolean();
+
+    /** The number of times a thread waited to acquire this segment's lock. */
+    final AtomicLong lockWaitCount = new AtomicLong();
+
+    /** The total time, in nanoseconds, spent waiting to acquire this segment's lock. */
+    final AtomicLong lockWaitTime = new AtomicLong();
+
+    /** The total weight of the entries evicted from this segment. */
+    volatile long evictionWeight;
+
+    /** Performs a bounded amount of maintenance, when run on the cache's executor. */
+    final Runnable maintenanceTask = new Runnable() {
+      @Override
+      public void run() {
+        runMaintenance();
+      }
+    };
+
     /**
      * A queue of elements currently in the map, ordered by write time. Elements are added to the
      * tail of the queue on write.
@@ -2131,9 +2957,33 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     @GuardedBy("Segment.this")
     final Queue<ReferenceEntry<K, V>> accessQueue;
 
+    /**
+     * Orders the entries currently in the map by their expiration times. Null unless entries expire
+     * variably.
+     */
+    @GuardedBy("Segment.this")
+    final TimerWheel<K, V> timerWheel;
+
+    /**
+     * Estimates how often entries of this segment were recently accessed, for use by the
+     * {@link EvictionPolicy#TINY_LFU} admission policy. Null unless that policy is in use.
+     */
+    @GuardedBy("Segment.this")
+    final FrequencySketch frequencySketch;
+
+    /**
+     * Off-heap values which have been removed from this segment, and are released once the lock is
+     * no longer held so that concurrent readers can follow the entry to its new value.
+     */
+    final Queue<OffHeapValue> offHeapReleaseQueue;
+
     /** Accumulates cache statistics. */
     final StatsCounter statsCounter;
 
+    /** The state of the generator choosing which segments to sample for global eviction. */
+    @GuardedBy("Segment.this")
+    int sampleSeed = System.identityHashCode(this) | 1;
+
     Segment(LocalCache<K, V> map, int initialCapacity, long maxSegmentWeight,
         StatsCounter statsCounter) {
       this.map = map;
@@ -2141,6 +2991,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       this.statsCounter = statsCounter;
       initTable(newEntryArray(initialCapacity));
 
+      frequencySketch = map.usesFrequencySketch()
+          ? new FrequencySketch(sketchSize(initialCapacity))
+          : null;
+
       keyReferenceQueue = map.usesKeyReferences()
            ? new ReferenceQueue<K>() : null;
 
@@ -2148,7 +3002,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
            ? new ReferenceQueue<V>() : null;
 
       recencyQueue = map.usesAccessQueue()
-          ? new ConcurrentLinkedQueue<ReferenceEntry<K, V>>()
+          ? new ReadBuffer<ReferenceEntry<K, V>>()
           : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
 
       writeQueue = map.usesWriteQueue()
@@ -2158,6 +3012,22 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       accessQueue = map.usesAccessQueue()
           ? new AccessQueue<K, V>()
           : LocalCache.<ReferenceEntry<K, V>>discardingQueue();
+
+      timerWheel = map.expiresVariably() ? new TimerWheel<K, V>(map.ticker.read()) : null;
+
+      offHeapReleaseQueue = map.storesValuesOffHeap()
+          ? new ConcurrentLinkedQueue<OffHeapValue>()
+          : LocalCache.<OffHeapValue>discardingQueue();
+    }
+
+    /**
+     * Returns the number of entries the frequency sketch is sized for while the table has
+     * {@code tableLength} buckets. The sketch grows with the table, rather than being allocated for
+     * the maximum size up front, but never beyond the number of entries the segment may hold.
+     */
+    long sketchSize(int tableLength) {
+      long size = Math.max(tableLength, MINIMUM_SKETCH_SIZE);
+      return map.customWeigher() ? size : Math.min(size, maxSegmentWeight);
     }
 
     AtomicReferenceArray<ReferenceEntry<K, V>> newEntryArray(int size) {
@@ -2191,12 +3061,30 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      */
     @GuardedBy("Segment.this")
     void setValue(ReferenceEntry<K, V> entry, K key, V value, long now) {
+      if (map.secondTier != null) {
+        map.secondTier.invalidate(key);
+      }
       ValueReference<K, V> previous = entry.getValueReference();
-      int weight = map.weigher.weigh(key, value);
-      checkState(weight >= 0, "Weights must be non-negative");
-
-      ValueReference<K, V> valueReference =
-          map.valueStrength.referenceValue(this, entry, value, weight);
+      if (map.expiresVariably()) {
+        long duration = previous.isActive()
+            ? map.expiry.expireAfterUpdate(
+                key, value, now, remainingNanos(entry.getExpirationTime(), now))
+            : map.expiry.expireAfterCreate(key, value, now);
+        entry.setExpirationTime(variableExpirationTime(now, duration));
+      }
+      ValueReference<K, V> valueReference;
+      int weight;
+      if (map.storesValuesOffHeap()) {
+        byte[] bytes = map.valueCodec.encode(value);
+        weight = map.weighsValueBytes ? bytes.length : map.weigher.weigh(key, value);
+        checkState(weight >= 0, "Weights must be non-negative");
+        valueReference = new OffHeapValueReference<K, V>(
+            new OffHeapValue(map.slabAllocator, bytes), map.valueCodec, entry, weight);
+      } else {
+        weight = map.weigher.weigh(key, value);
+        checkState(weight >= 0, "Weights must be non-negative");
+        valueReference = map.valueStrength.referenceValue(this, entry, value, weight);
+      }
       entry.setValueReference(valueReference);
       recordWrite(entry, weight, now);
       previous.notifyNewValue(value);
@@ -2227,13 +3115,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         // at this point e is either null or expired;
         return lockedGetOrLoad(key, hash, loader);
       } catch (ExecutionException ee) {
-        Throwable cause = ee.getCause();
-        if (cause instanceof Error) {
-          throw new ExecutionError((Error) cause);
-        } else if (cause instanceof RuntimeException) {
-          throw new UncheckedExecutionException(cause);
-        }
-        throw ee;
+        throw translateLoadException(ee);
       } finally {
         postReadCleanup();
       }
@@ -2282,6 +3164,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
               // immediately reuse invalid entries
               writeQueue.remove(e);
               accessQueue.remove(e);
+              descheduleExpiration(e);
               this.count = newCount; // write-volatile
             }
             break;
@@ -2327,7 +3210,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         throw new AssertionError();
       }
 
-      checkState(!Thread.holdsLock(e), "Recursive load");
+      checkState(!Thread.holdsLock(e)
+          && !ClaimedValueReference.isOwnedByCurrentThread(valueReference), "Recursive load");
       // don't consider expiration as we're concurrent with loading
       try {
         V value = valueReference.waitForValue();
@@ -2347,6 +3231,15 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     V loadSync(K key, int hash, LoadingValueReference<K, V> loadingValueReference,
         CacheLoader<? super K, V> loader) throws ExecutionException {
+      if (map.secondTier != null) {
+        V value = map.secondTier.remove(key, map.ticker.read());
+        if (value != null) {
+          // the entry was evicted rather than loaded, so this isn't recorded as a load
+          loadingValueReference.set(value);
+          storeLoadedValue(key, hash, loadingValueReference, value);
+          return value;
+        }
+      }
       ListenableFuture<V> loadingFuture = loadingValueReference.loadFuture(key, loader);
       return getAndRecordStats(key, hash, loadingValueReference, loadingFuture);
     }
@@ -2358,19 +3251,27 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           new Runnable() {
             @Override
             public void run() {
-              try {
-                V newValue = getAndRecordStats(key, hash, loadingValueReference, loadingFuture);
-                // update loadingFuture for the sake of other pending requests
-                loadingValueReference.set(newValue);
-              } catch (Throwable t) {
-                logger.log(Level.WARNING, "Exception thrown during refresh", t);
-                loadingValueReference.setException(t);
-              }
+              completeRefresh(key, hash, loadingValueReference, loadingFuture);
             }
           }, sameThreadExecutor);
       return loadingFuture;
     }
 
+    /**
+     * Stores the result of an asynchronous load, once {@code loadingFuture} is done.
+     */
+    void completeRefresh(K key, int hash, LoadingValueReference<K, V> loadingValueReference,
+        ListenableFuture<V> loadingFuture) {
+      try {
+        V newValue = getAndRecordStats(key, hash, loadingValueReference, loadingFuture);
+        // update loadingFuture for the sake of other pending requests
+        loadingValueReference.set(newValue);
+      } catch (Throwable t) {
+        logger.log(Level.WARNING, "Exception thrown during refresh", t);
+        loadingValueReference.setException(t);
+      }
+    }
+
     /**
      * Waits uninterruptibly for {@code newValue} to be loaded, and then records loading stats.
      */
@@ -2382,20 +3283,248 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         if (value == null) {
           throw new InvalidCacheLoadException("CacheLoader returned null for key " + key + ".");
         }
-        statsCounter.recordLoadSuccess(loadingValueReference.elapsedNanos());
+        long loadTime = loadingValueReference.elapsedNanos();
+        statsCounter.recordLoadSuccess(loadTime);
+        map.loadLatencies.record(loadTime);
         storeLoadedValue(key, hash, loadingValueReference, value);
         return value;
       } finally {
         if (value == null) {
-          statsCounter.recordLoadException(loadingValueReference.elapsedNanos());
+          long loadTime = loadingValueReference.elapsedNanos();
+          statsCounter.recordLoadException(loadTime);
+          map.loadLatencies.record(loadTime);
+          removeLoadingValue(key, hash, loadingValueReference);
+        }
+      }
+    }
+
+    // asynchronous loading
+
+    ListenableFuture<V> getAsync(K key, int hash, CacheLoader<? super K, V> loader,
+        Executor executor) {
+      try {
+        if (count != 0) { // read-volatile
+          // don't call getLiveEntry, which would ignore loading values
+          ReferenceEntry<K, V> e = getEntry(key, hash);
+          if (e != null) {
+            long now = map.ticker.read();
+            V value = getLiveValue(e, now);
+            if (value != null) {
+              recordRead(e, now);
+              statsCounter.recordHits(1);
+              scheduleRefreshAsync(e, key, hash, now, loader, executor);
+              return Futures.immediateFuture(value);
+            }
+            ValueReference<K, V> valueReference = e.getValueReference();
+            if (valueReference.isLoading()) {
+              statsCounter.recordMisses(1);
+              return loadingFuture(key, (LoadingValueReference<K, V>) valueReference);
+            }
+          }
+        }
+
+        // at this point e is either null or expired;
+        return lockedGetOrLoadAsync(key, hash, loader, executor);
+      } finally {
+        postReadCleanup();
+      }
+    }
+
+    ListenableFuture<V> lockedGetOrLoadAsync(K key, int hash, CacheLoader<? super K, V> loader,
+        Executor executor) {
+      ReferenceEntry<K, V> e;
+      ValueReference<K, V> valueReference = null;
+      LoadingValueReference<K, V> loadingValueReference = null;
+      boolean createNewEntry = true;
+
+      lock();
+      try {
+        // re-read ticker once inside the lock
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+
+        int newCount = this.count - 1;
+        AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+        int index = hash & (table.length() - 1);
+        ReferenceEntry<K, V> first = table.get(index);
+
+        for (e = first; e != null; e = e.getNext()) {
+          K entryKey = e.getKey();
+          if (e.getHash() == hash && entryKey != null
+              && map.keyEquivalence.equivalent(key, entryKey)) {
+            valueReference = e.getValueReference();
+            if (valueReference.isLoading()) {
+              createNewEntry = false;
+            } else {
+              V value = valueReference.get();
+              if (value == null) {
+                enqueueNotification(entryKey, hash, valueReference, RemovalCause.COLLECTED);
+              } else if (map.isExpired(e, now)) {
+                enqueueNotification(entryKey, hash, valueReference, RemovalCause.EXPIRED);
+              } else {
+                recordLockedRead(e, now);
+                statsCounter.recordHits(1);
+                return Futures.immediateFuture(value);
+              }
+
+              // immediately reuse invalid entries
+              writeQueue.remove(e);
+              accessQueue.remove(e);
+              descheduleExpiration(e);
+              this.count = newCount; // write-volatile
+            }
+            break;
+          }
+        }
+
+        if (createNewEntry) {
+          loadingValueReference = new LoadingValueReference<K, V>();
+
+          if (e == null) {
+            e = newEntry(key, hash, first);
+            e.setValueReference(loadingValueReference);
+            table.set(index, e);
+          } else {
+            e.setValueReference(loadingValueReference);
+          }
+        }
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+
+      statsCounter.recordMisses(1);
+      if (createNewEntry) {
+        return loadOnExecutor(key, hash, loadingValueReference, loader, executor);
+      } else {
+        // The entry is already loading. Share the pending load.
+        return loadingFuture(key, (LoadingValueReference<K, V>) valueReference);
+      }
+    }
+
+    /**
+     * Loads the value for {@code key} on {@code executor}, returning a future which completes with
+     * the loaded value. The value is stored by the executor thread, so the caller never waits.
+     */
+    ListenableFuture<V> loadOnExecutor(final K key, final int hash,
+        final LoadingValueReference<K, V> loadingValueReference,
+        final CacheLoader<? super K, V> loader, Executor executor) {
+      ListenableFuture<V> result = loadingFuture(key, loadingValueReference);
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              loadSync(key, hash, loadingValueReference, loader);
+            } catch (Throwable t) {
+              // the failure was already delivered to all pending futures
+            }
+          }
+        });
+      } catch (RuntimeException e) {
+        // the executor rejected the load
+        loadingValueReference.setException(e);
+        statsCounter.recordLoadException(0);
+        map.loadLatencies.record(0);
+        removeLoadingValue(key, hash, loadingValueReference);
+      }
+      return result;
+    }
+
+    /**
+     * Returns a new future which completes with the value loaded by {@code loadingValueReference},
+     * or fails if that load fails or returns {@code null}. Each caller gets its own future, so that
+     * cancelling one of them doesn't affect the load itself.
+     */
+    ListenableFuture<V> loadingFuture(final Object key,
+        LoadingValueReference<K, V> loadingValueReference) {
+      final ListenableFuture<V> futureValue = loadingValueReference.futureValue;
+      final SettableFuture<V> result = SettableFuture.create();
+      futureValue.addListener(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                V value = getUninterruptibly(futureValue);
+                if (value == null) {
+                  result.setException(new InvalidCacheLoadException(
+                      "CacheLoader returned null for key " + key + "."));
+                } else {
+                  result.set(value);
+                }
+              } catch (ExecutionException e) {
+                LoadingValueReference.setException(result, e.getCause());
+              } catch (Throwable t) {
+                LoadingValueReference.setException(result, t);
+              }
+            }
+          }, sameThreadExecutor);
+      return result;
+    }
+
+    /**
+     * Refreshes the value of {@code entry} on {@code executor} if it is due to be refreshed and
+     * isn't already being refreshed.
+     */
+    void scheduleRefreshAsync(ReferenceEntry<K, V> entry, final K key, final int hash, long now,
+        final CacheLoader<? super K, V> loader, Executor executor) {
+      if (map.refreshes() && (now - entry.getWriteTime() > map.refreshNanos)
+          && !entry.getValueReference().isLoading()) {
+        if (map.refreshBatcher != null && loader == map.defaultLoader) {
+          scheduleBatchedRefresh(key, hash, now, executor);
+          return;
+        }
+        final LoadingValueReference<K, V> loadingValueReference =
+            insertLoadingValueReference(key, hash);
+        if (loadingValueReference == null) {
+          return;
+        }
+        try {
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              loadAsync(key, hash, loadingValueReference, loader);
+            }
+          });
+        } catch (RuntimeException e) {
+          logger.log(Level.WARNING, "Exception thrown during refresh", e);
+          loadingValueReference.setException(e);
           removeLoadingValue(key, hash, loadingValueReference);
         }
       }
     }
 
+    @Nullable
+    ListenableFuture<V> getIfPresentAsync(Object key, int hash, Executor executor) {
+      try {
+        // loading entries aren't included in count, so don't check it
+        ReferenceEntry<K, V> e = getEntry(key, hash);
+        if (e != null) {
+          long now = map.ticker.read();
+          V value = getLiveValue(e, now);
+          if (value != null) {
+            recordRead(e, now);
+            scheduleRefreshAsync(e, e.getKey(), hash, now, map.defaultLoader, executor);
+            return Futures.immediateFuture(value);
+          }
+          ValueReference<K, V> valueReference = e.getValueReference();
+          if (valueReference.isLoading()) {
+            return loadingFuture(key, (LoadingValueReference<K, V>) valueReference);
+          }
+        }
+        return null;
+      } finally {
+        postReadCleanup();
+      }
+    }
+
     V scheduleRefresh(ReferenceEntry<K, V> entry, K key, int hash, V oldValue, long now,
         CacheLoader<? super K, V> loader) {
       if (map.refreshes() && (now - entry.getWriteTime() > map.refreshNanos)) {
+        if (map.refreshBatcher != null && loader == map.defaultLoader) {
+          scheduleBatchedRefresh(key, hash, now, null);
+          return oldValue;
+        }
         V newValue = refresh(key, hash, loader);
         if (newValue != null) {
           return newValue;
@@ -2404,6 +3533,23 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return oldValue;
     }
 
+    /**
+     * Adds the entry for {@code key} to the current refresh batch, unless it is already being
+     * refreshed. If the batch is then due to be refreshed, it is refreshed on {@code executor}, or
+     * on the calling thread if {@code executor} is null.
+     */
+    void scheduleBatchedRefresh(K key, int hash, long now, @Nullable Executor executor) {
+      LoadingValueReference<K, V> loadingValueReference = insertLoadingValueReference(key, hash);
+      if (loadingValueReference == null) {
+        return;
+      }
+      List<PendingRefresh<K, V>> batch = map.refreshBatcher.add(
+          new PendingRefresh<K, V>(key, hash, loadingValueReference), now);
+      if (batch != null) {
+        map.reloadBatch(batch, executor);
+      }
+    }
+
     /**
      * Refreshes the value associated with {@code key}, unless another thread is already doing so.
      * Returns the newly refreshed value associated with {@code key} if it was refreshed inline, or
@@ -2479,13 +3625,86 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
     }
 
+    /**
+     * Returns the entry for {@code key}, after installing {@code loadingValueReference} in it
+     * unless it has a live value or is already loading. This lets {@code getAll} load the absent
+     * keys itself, while sharing the loads already in progress; concurrent calls to {@code get}
+     * wait for the installed reference rather than loading again.
+     */
+    ReferenceEntry<K, V> claimLoad(K key, int hash,
+        LoadingValueReference<K, V> loadingValueReference) {
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+
+        int newCount = this.count - 1;
+        AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+        int index = hash & (table.length() - 1);
+        ReferenceEntry<K, V> first = table.get(index);
+
+        for (ReferenceEntry<K, V> e = first; e != null; e = e.getNext()) {
+          K entryKey = e.getKey();
+          if (e.getHash() == hash && entryKey != null
+              && map.keyEquivalence.equivalent(key, entryKey)) {
+            ValueReference<K, V> valueReference = e.getValueReference();
+            if (valueReference.isLoading()) {
+              return e;
+            }
+            V value = valueReference.get();
+            if (value == null) {
+              enqueueNotification(entryKey, hash, valueReference, RemovalCause.COLLECTED);
+            } else if (map.isExpired(e, now)) {
+              enqueueNotification(entryKey, hash, valueReference, RemovalCause.EXPIRED);
+            } else {
+              recordLockedRead(e, now);
+              return e;
+            }
+
+            // immediately reuse invalid entries
+            writeQueue.remove(e);
+            accessQueue.remove(e);
+            descheduleExpiration(e);
+            this.count = newCount; // write-volatile
+            e.setValueReference(loadingValueReference);
+            return e;
+          }
+        }
+
+        ReferenceEntry<K, V> e = newEntry(key, hash, first);
+        e.setValueReference(loadingValueReference);
+        table.set(index, e);
+        return e;
+      } finally {
+        unlock();
+        postWriteCleanup();
+      }
+    }
+
+    /**
+     * Acquires this segment's lock, recording how long the current thread waited for it if it was
+     * held by another thread. Uncontended acquisitions aren't timed.
+     */
+    @Override
+    public void lock() {
+      if (!tryLock()) {
+        long start = System.nanoTime();
+        super.lock();
+        lockWaitCount.incrementAndGet();
+        lockWaitTime.addAndGet(System.nanoTime() - start);
+      }
+    }
+
     // reference queues, for garbage collection cleanup
 
     /**
-     * Cleanup collected entries when the lock is available.
+     * Cleanup collected entries when the lock is available, or on the cache's executor if it has
+     * one.
      */
     void tryDrainReferenceQueues() {
-      if (tryLock()) {
+      if (map.performsMaintenanceAsynchronously()) {
+        scheduleMaintenance();
+      } else if (tryLock()) {
         try {
           drainReferenceQueues();
         } finally {
@@ -2561,7 +3780,8 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     /**
      * Records the relative order in which this read was performed by adding {@code entry} to the
      * recency queue. At write-time, or when the queue is full past the threshold, the queue will
-     * be drained and the entries therein processed.
+     * be drained and the entries therein processed. If the reading thread's part of the queue is
+     * full and the lock is contended, the read is not recorded.
      *
      * <p>Note: locked reads should use {@link #recordLockedRead}.
      */
@@ -2569,7 +3789,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (map.recordsAccess()) {
         entry.setAccessTime(now);
       }
-      recencyQueue.add(entry);
+      if (map.expiresVariably()) {
+        recordVariableRead(entry, now);
+      }
+      if (!recencyQueue.offer(entry)) {
+        tryDrainRecencyQueue();
+        recencyQueue.offer(entry);
+      }
     }
 
     /**
@@ -2584,9 +3810,28 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (map.recordsAccess()) {
         entry.setAccessTime(now);
       }
+      if (map.expiresVariably()) {
+        recordVariableRead(entry, now);
+        timerWheel.schedule(entry);
+      }
+      recordFrequency(entry);
       accessQueue.add(entry);
     }
 
+    /**
+     * Updates the expiration time of {@code entry} after it was read. The entry is moved to its new
+     * position in the timer wheel when the read is recorded in the access queue.
+     */
+    void recordVariableRead(ReferenceEntry<K, V> entry, long now) {
+      K key = entry.getKey();
+      V value = entry.getValueReference().get();
+      if (key != null && value != null) {
+        long duration = map.expiry.expireAfterRead(
+            key, value, now, remainingNanos(entry.getExpirationTime(), now));
+        entry.setExpirationTime(variableExpirationTime(now, duration));
+      }
+    }
+
     /**
      * Updates eviction metadata that {@code entry} was just written. This currently amounts to
      * adding {@code entry} to relevant eviction lists.
@@ -2596,6 +3841,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       // we are already under lock, so drain the recency queue immediately
       drainRecencyQueue();
       totalWeight += weight;
+      if (map.evictsGlobally()) {
+        map.globalWeight.addAndGet(weight);
+      }
 
       if (map.recordsAccess()) {
         entry.setAccessTime(now);
@@ -2603,8 +3851,23 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (map.recordsWrite()) {
         entry.setWriteTime(now);
       }
+      recordFrequency(entry);
       accessQueue.add(entry);
       writeQueue.add(entry);
+      if (map.expiresVariably()) {
+        timerWheel.schedule(entry);
+      }
+    }
+
+    /**
+     * Records in the frequency sketch that {@code entry} was just accessed, if this segment admits
+     * entries by frequency.
+     */
+    @GuardedBy("Segment.this")
+    void recordFrequency(ReferenceEntry<K, V> entry) {
+      if (map.usesFrequencySketch()) {
+        frequencySketch.increment(entry.getHash());
+      }
     }
 
     /**
@@ -2617,12 +3880,29 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     void drainRecencyQueue() {
       ReferenceEntry<K, V> e;
       while ((e = recencyQueue.poll()) != null) {
+        recordFrequency(e);
         // An entry may be in the recency queue despite it being removed from
         // the map . This can occur when the entry was concurrently read while a
         // writer is removing it from the segment or after a clear has removed
         // all of the segment's entries.
         if (accessQueue.contains(e)) {
           accessQueue.add(e);
+          if (map.expiresVariably()) {
+            timerWheel.schedule(e);
+          }
+        }
+      }
+    }
+
+    /**
+     * Drains the recency queue when the lock is available.
+     */
+    void tryDrainRecencyQueue() {
+      if (tryLock()) {
+        try {
+          drainRecencyQueue();
+        } finally {
+          unlock();
         }
       }
     }
@@ -2630,10 +3910,12 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     // expiration
 
     /**
-     * Cleanup expired entries when the lock is available.
+     * Cleanup expired entries when the lock is available, or on the cache's executor if it has one.
      */
     void tryExpireEntries(long now) {
-      if (tryLock()) {
+      if (map.performsMaintenanceAsynchronously()) {
+        scheduleMaintenance();
+      } else if (tryLock()) {
         try {
           expireEntries(now);
         } finally {
@@ -2645,70 +3927,306 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     @GuardedBy("Segment.this")
     void expireEntries(long now) {
+      expireEntries(now, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes at most {@code limit} expired entries, returning true if the limit was reached before
+     * all of the expired entries were removed.
+     */
+    @GuardedBy("Segment.this")
+    boolean expireEntries(long now, int limit) {
       drainRecencyQueue();
 
+      int i = 0;
       ReferenceEntry<K, V> e;
       while ((e = writeQueue.peek()) != null && map.isExpired(e, now)) {
+        if (i++ == limit) {
+          return true;
+        }
         if (!removeEntry(e, e.getHash(), RemovalCause.EXPIRED)) {
           throw new AssertionError();
         }
       }
       while ((e = accessQueue.peek()) != null && map.isExpired(e, now)) {
+        if (i++ == limit) {
+          return true;
+        }
         if (!removeEntry(e, e.getHash(), RemovalCause.EXPIRED)) {
           throw new AssertionError();
         }
       }
+      if (map.expiresVariably()) {
+        timerWheel.advance(now);
+        while ((e = timerWheel.pollExpired()) != null) {
+          if (!map.isExpired(e, now)) {
+            // a concurrent read extended the entry's lifetime after the wheel was advanced
+            timerWheel.schedule(e);
+          } else if (i++ == limit) {
+            // leave the entry for the next run
+            timerWheel.schedule(e);
+            return true;
+          } else if (!removeEntry(e, e.getHash(), RemovalCause.EXPIRED)) {
+            throw new AssertionError();
+          }
+        }
+      }
+      return false;
+    }
+
+    // eviction
+
+    @GuardedBy("Segment.this")
+    void enqueueNotification(ReferenceEntry<K, V> entry, RemovalCause cause) {
+      enqueueNotification(entry.getKey(), entry.getHash(), entry.getValueReference(), cause);
+    }
+
+    @GuardedBy("Segment.this")
+    void enqueueNotification(@Nullable K key, int hash, ValueReference<K, V> valueReference,
+        RemovalCause cause) {
+      totalWeight -= valueReference.getWeight();
+      if (map.evictsGlobally()) {
+        map.globalWeight.addAndGet(-valueReference.getWeight());
+      }
+      if (cause.wasEvicted()) {
+        statsCounter.recordEviction();
+        evictionWeight += valueReference.getWeight(); // write-volatile
+      }
+      if (map.removalNotificationQueue != DISCARDING_QUEUE) {
+        V value = valueReference.get();
+        RemovalNotification<K, V> notification = new RemovalNotification<K, V>(key, value, cause);
+        map.removalNotificationQueue.offer(notification);
+      }
+      if (map.storesValuesOffHeap()) {
+        enqueueOffHeapRelease(valueReference);
+      }
+    }
+
+    @GuardedBy("Segment.this")
+    void enqueueOffHeapRelease(ValueReference<K, V> valueReference) {
+      if (valueReference instanceof LoadingValueReference) {
+        valueReference = ((LoadingValueReference<K, V>) valueReference).getOldValue();
+      }
+      if (valueReference instanceof OffHeapValueReference) {
+        OffHeapValue value = ((OffHeapValueReference<K, V>) valueReference).value;
+        if (!value.released) {
+          value.released = true;
+          offHeapReleaseQueue.offer(value);
+        }
+      }
+    }
+
+    void releaseOffHeapValues() {
+      OffHeapValue value;
+      while ((value = offHeapReleaseQueue.poll()) != null) {
+        value.release();
+      }
+    }
+
+    /**
+     * Performs eviction if the segment is full. This should only be called prior to adding a new
+     * entry and increasing {@code count}.
+     *
+     * @param candidate the entry whose value was just stored if it was not previously present in
+     *     the segment, or null if an existing value was replaced. When admitting entries by
+     *     frequency, the candidate is itself evicted if it is not estimated to be accessed more
+     *     often than the entry that would otherwise be evicted first.
+     */
+    @GuardedBy("Segment.this")
+    void evictEntries(@Nullable ReferenceEntry<K, V> candidate) {
+      if (!map.evictsBySize()) {
+        return;
+      }
+
+      drainRecencyQueue();
+      if (map.evictsGlobally()) {
+        evictGlobally(candidate, Integer.MAX_VALUE);
+        return;
+      }
+      while (totalWeight > maxSegmentWeight) {
+        ReferenceEntry<K, V> e = getNextEvictable();
+        if (candidate != null && map.usesFrequencySketch()
+            && candidate.getValueReference().getWeight() > 0) {
+          if ((e != candidate) && !admit(candidate, e)) {
+            e = candidate;
+          }
+          // the candidate only competes against the first victim
+          candidate = null;
+        }
+        if (!removeEntry(e, e.getHash(), RemovalCause.SIZE)) {
+          throw new AssertionError();
+        }
+      }
+    }
+
+    /**
+     * Changes the maximum weight of this segment. When the segment is heavier than its new maximum,
+     * entries are evicted in batches of at most {@link #EVICTION_BATCH}, releasing the lock between
+     * batches so that concurrent writers are delayed by no more than one batch. Until the segment
+     * fits, its maximum is lowered to its current weight after each batch, so that concurrent
+     * writers only evict enough to make room for their own entries.
+     */
+    void setMaxSegmentWeight(long newMaxSegmentWeight) {
+      boolean fits = false;
+      while (!fits) {
+        lock();
+        try {
+          long now = map.ticker.read();
+          preWriteCleanup(now);
+          drainRecencyQueue();
+
+          for (int i = 0; i < EVICTION_BATCH && totalWeight > newMaxSegmentWeight; i++) {
+            ReferenceEntry<K, V> e = getNextEvictable();
+            if (!removeEntry(e, e.getHash(), RemovalCause.SIZE)) {
+              throw new AssertionError();
+            }
+          }
+          fits = totalWeight <= newMaxSegmentWeight;
+          maxSegmentWeight = Math.max(newMaxSegmentWeight, totalWeight);
+          if (map.usesFrequencySketch()) {
+            // a raised maximum may allow a sketch as large as the table already is
+            frequencySketch.ensureCapacity(sketchSize(table.length()));
+          }
+        } finally {
+          unlock();
+          postWriteCleanup();
+        }
+      }
     }
 
-    // eviction
-
+    /**
+     * Returns whether {@code candidate} should be retained at the expense of {@code victim}, based
+     * on their estimated access frequencies.
+     */
     @GuardedBy("Segment.this")
-    void enqueueNotification(ReferenceEntry<K, V> entry, RemovalCause cause) {
-      enqueueNotification(entry.getKey(), entry.getHash(), entry.getValueReference(), cause);
+    boolean admit(ReferenceEntry<K, V> candidate, ReferenceEntry<K, V> victim) {
+      return frequencySketch.frequency(candidate.getHash())
+          > frequencySketch.frequency(victim.getHash());
     }
 
+    /**
+     * Evicts entries while the whole map is heavier than its maximum, when eviction is global. Each
+     * entry evicted is the least recently accessed of the eldest entries of this segment and of up
+     * to {@code evictionSampleSize - 1} other segments, chosen at random. Other segments are only
+     * sampled if their lock can be acquired without waiting, and at most one of their locks is held
+     * at a time, so concurrent writers to different segments can't deadlock.
+     *
+     * @param candidate as for {@link #evictEntries}
+     * @param limit the maximum number of entries to evict
+     * @return the number of entries evicted
+     */
     @GuardedBy("Segment.this")
-    void enqueueNotification(@Nullable K key, int hash, ValueReference<K, V> valueReference,
-        RemovalCause cause) {
-      totalWeight -= valueReference.getWeight();
-      if (cause.wasEvicted()) {
-        statsCounter.recordEviction();
-      }
-      if (map.removalNotificationQueue != DISCARDING_QUEUE) {
-        V value = valueReference.get();
-        RemovalNotification<K, V> notification = new RemovalNotification<K, V>(key, value, cause);
-        map.removalNotificationQueue.offer(notification);
+    int evictGlobally(@Nullable ReferenceEntry<K, V> candidate, int limit) {
+      Segment<K, V>[] segments = map.segments;
+      int evicted = 0;
+      while (evicted < limit && map.globalWeight.get() > map.maxWeight) {
+        Segment<K, V> victimSegment = this;
+        ReferenceEntry<K, V> victim = peekEvictable();
+
+        int start = nextSampleIndex();
+        int samples = 1;
+        for (int i = 0; i < segments.length && samples < map.evictionSampleSize; i++) {
+          Segment<K, V> segment = segments[(start + i) & map.segmentMask];
+          if (segment == this || segment.isHeldByCurrentThread() || !segment.tryLock()) {
+            continue;
+          }
+          samples++;
+          segment.drainRecencyQueue();
+          ReferenceEntry<K, V> e = segment.peekEvictable();
+          if (e != null && (victim == null || e.getAccessTime() - victim.getAccessTime() < 0)) {
+            if (victimSegment != this) {
+              victimSegment.unlock();
+            }
+            victimSegment = segment;
+            victim = e;
+          } else {
+            segment.unlock();
+          }
+        }
+        if (victim == null) {
+          // nothing which could be sampled has any weight
+          return evicted;
+        }
+
+        if (candidate != null && map.usesFrequencySketch()
+            && candidate.getValueReference().getWeight() > 0) {
+          if (victim != candidate && frequencySketch.frequency(candidate.getHash())
+              <= victimSegment.frequencySketch.frequency(victim.getHash())) {
+            if (victimSegment != this) {
+              victimSegment.unlock();
+              victimSegment = this;
+            }
+            victim = candidate;
+          }
+          // the candidate only competes against the first victim
+          candidate = null;
+        }
+
+        try {
+          if (!victimSegment.removeEntry(victim, victim.getHash(), RemovalCause.SIZE)) {
+            throw new AssertionError();
+          }
+        } finally {
+          if (victimSegment != this) {
+            victimSegment.unlock();
+            victimSegment.releaseOffHeapValues();
+          }
+        }
+        evicted++;
       }
+      return evicted;
     }
 
     /**
-     * Performs eviction if the segment is full. This should only be called prior to adding a new
-     * entry and increasing {@code count}.
+     * Evicts up to {@link #EVICTION_BATCH} entries while the whole map is heavier than its maximum,
+     * when eviction is global, and returns the number of entries evicted.
      */
-    @GuardedBy("Segment.this")
-    void evictEntries() {
-      if (!map.evictsBySize()) {
-        return;
+    int trimGlobally() {
+      lock();
+      try {
+        long now = map.ticker.read();
+        preWriteCleanup(now);
+        drainRecencyQueue();
+        maxSegmentWeight = map.maxWeight;
+        return evictGlobally(null, EVICTION_BATCH);
+      } finally {
+        unlock();
+        postWriteCleanup();
       }
+    }
 
-      drainRecencyQueue();
-      while (totalWeight > maxSegmentWeight) {
-        ReferenceEntry<K, V> e = getNextEvictable();
-        if (!removeEntry(e, e.getHash(), RemovalCause.SIZE)) {
-          throw new AssertionError();
-        }
-      }
+    /** Returns the index of the first segment to sample for global eviction. */
+    @GuardedBy("Segment.this")
+    int nextSampleIndex() {
+      // xorshift
+      int x = sampleSeed;
+      x ^= x << 13;
+      x ^= x >>> 17;
+      x ^= x << 5;
+      sampleSeed = x;
+      return x;
     }
 
     // TODO(fry): instead implement this with an eviction head
     ReferenceEntry<K, V> getNextEvictable() {
+      ReferenceEntry<K, V> e = peekEvictable();
+      if (e == null) {
+        throw new AssertionError();
+      }
+      return e;
+    }
+
+    /** Returns the least recently used entry which has weight, or null if there is none. */
+    @GuardedBy("Segment.this")
+    @Nullable
+    ReferenceEntry<K, V> peekEvictable() {
       for (ReferenceEntry<K, V> e : accessQueue) {
         int weight = e.getValueReference().getWeight();
         if (weight > 0) {
           return e;
         }
       }
-      throw new AssertionError();
+      return null;
     }
 
     /**
@@ -2885,7 +4403,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
                 newCount = this.count + 1;
               }
               this.count = newCount; // write-volatile
-              evictEntries();
+              evictEntries(e);
               return null;
             } else if (onlyIfAbsent) {
               // Mimic
@@ -2898,7 +4416,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
               ++modCount;
               enqueueNotification(key, hash, valueReference, RemovalCause.REPLACED);
               setValue(e, key, value, now);
-              evictEntries();
+              evictEntries(null);
               return entryValue;
             }
           }
@@ -2911,7 +4429,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         table.set(index, newEntry);
         newCount = this.count + 1;
         this.count = newCount; // write-volatile
-        evictEntries();
+        evictEntries(newEntry);
         return null;
       } finally {
         unlock();
@@ -2944,6 +4462,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       AtomicReferenceArray<ReferenceEntry<K, V>> newTable = newEntryArray(oldCapacity << 1);
       threshold = newTable.length() * 3 / 4;
       int newMask = newTable.length() - 1;
+      if (map.usesFrequencySketch()) {
+        frequencySketch.ensureCapacity(sketchSize(newTable.length()));
+      }
       for (int oldIndex = 0; oldIndex < oldCapacity; ++oldIndex) {
         // We need to guarantee that any existing reads of old Map can
         // proceed. So we cannot yet null out each bin.
@@ -3025,7 +4546,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
               ++modCount;
               enqueueNotification(key, hash, valueReference, RemovalCause.REPLACED);
               setValue(e, key, newValue, now);
-              evictEntries();
+              evictEntries(null);
               return true;
             } else {
               // Mimic
@@ -3077,7 +4598,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
             ++modCount;
             enqueueNotification(key, hash, valueReference, RemovalCause.REPLACED);
             setValue(e, key, newValue, now);
-            evictEntries();
+            evictEntries(null);
             return entryValue;
           }
         }
@@ -3130,6 +4651,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
         return null;
       } finally {
+        if (map.secondTier != null) {
+          // while locked and the entry is unlinked, so that it can't be evicted there again
+          map.secondTier.invalidate(key);
+        }
         unlock();
         postWriteCleanup();
       }
@@ -3143,6 +4668,11 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         preWriteCleanup(now);
 
         int newCount = this.count + 1;
+        if (newCount > this.threshold) { // ensure capacity
+          expand();
+          newCount = this.count + 1;
+        }
+
         AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
         int index = hash & (table.length() - 1);
         ReferenceEntry<K, V> first = table.get(index);
@@ -3163,7 +4693,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
               }
               setValue(e, key, newValue, now);
               this.count = newCount; // write-volatile
-              evictEntries();
+              evictEntries(oldValueReference.isActive() ? null : e);
               return true;
             }
 
@@ -3179,7 +4709,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         setValue(newEntry, key, newValue, now);
         table.set(index, newEntry);
         this.count = newCount; // write-volatile
-        evictEntries();
+        evictEntries(newEntry);
         return true;
       } finally {
         unlock();
@@ -3251,6 +4781,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           clearReferenceQueues();
           writeQueue.clear();
           accessQueue.clear();
+          if (map.expiresVariably()) {
+            timerWheel.clear();
+          }
           readCount.set(0);
 
           ++modCount;
@@ -3268,8 +4801,12 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
         ReferenceEntry<K, V> entry, @Nullable K key, int hash, ValueReference<K, V> valueReference,
         RemovalCause cause) {
       enqueueNotification(key, hash, valueReference, cause);
+      if (cause == RemovalCause.SIZE && map.secondTier != null) {
+        moveToSecondTier(entry, key, valueReference);
+      }
       writeQueue.remove(entry);
       accessQueue.remove(entry);
+      descheduleExpiration(entry);
 
       if (valueReference.isLoading()) {
         valueReference.notifyNewValue(null);
@@ -3279,6 +4816,33 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       }
     }
 
+    /**
+     * Writes the value of an entry evicted because of the size of the cache to the second tier,
+     * along with the time at which it would otherwise have expired.
+     */
+    @GuardedBy("Segment.this")
+    void moveToSecondTier(
+        ReferenceEntry<K, V> entry, @Nullable K key, ValueReference<K, V> valueReference) {
+      V value = valueReference.get();
+      if (key == null || value == null) {
+        return;
+      }
+      long expirationTime = map.expiresVariably() ? entry.getExpirationTime() : Long.MAX_VALUE;
+      if (map.expiresAfterWrite()) {
+        expirationTime = expirationTime(entry.getWriteTime(), map.expireAfterWriteNanos);
+      }
+      if (map.expiresAfterAccess()) {
+        expirationTime = Math.min(expirationTime,
+            expirationTime(entry.getAccessTime(), map.expireAfterAccessNanos));
+      }
+      map.secondTier.put(key, value, expirationTime);
+    }
+
+    private long expirationTime(long time, long durationNanos) {
+      long expirationTime = time + durationNanos;
+      return (expirationTime < time) ? Long.MAX_VALUE : expirationTime;
+    }
+
     @GuardedBy("Segment.this")
     @Nullable
     ReferenceEntry<K, V> removeEntryFromChain(ReferenceEntry<K, V> first,
@@ -3297,11 +4861,19 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return newFirst;
     }
 
+    @GuardedBy("Segment.this")
+    void descheduleExpiration(ReferenceEntry<K, V> entry) {
+      if (map.expiresVariably()) {
+        timerWheel.deschedule(entry);
+      }
+    }
+
     @GuardedBy("Segment.this")
     void removeCollectedEntry(ReferenceEntry<K, V> entry) {
       enqueueNotification(entry, RemovalCause.COLLECTED);
       writeQueue.remove(entry);
       accessQueue.remove(entry);
+      descheduleExpiration(entry);
     }
 
     /**
@@ -3444,7 +5016,11 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      */
     void postReadCleanup() {
       if ((readCount.incrementAndGet() & DRAIN_THRESHOLD) == 0) {
-        cleanUp();
+        if (map.performsMaintenanceAsynchronously()) {
+          scheduleMaintenance();
+        } else {
+          cleanUp();
+        }
       }
     }
 
@@ -3463,7 +5039,18 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
      * Performs routine cleanup following a write.
      */
     void postWriteCleanup() {
-      runUnlockedCleanup();
+      if (map.performsMaintenanceAsynchronously()) {
+        if (!isHeldByCurrentThread()) {
+          releaseOffHeapValues();
+          if (maintenancePending.get()
+              || !map.removalNotificationQueue.isEmpty()
+              || (map.refreshBatcher != null && !map.refreshBatcher.isEmpty())) {
+            scheduleMaintenance();
+          }
+        }
+      } else {
+        runUnlockedCleanup();
+      }
     }
 
     void cleanUp() {
@@ -3472,6 +5059,47 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       runUnlockedCleanup();
     }
 
+    /**
+     * Returns the live entries of this segment with their weights, most recently accessed first if
+     * the segment maintains an access queue, and in no particular order otherwise.
+     */
+    List<CacheSnapshots.Record<K, V>> snapshot() {
+      List<CacheSnapshots.Record<K, V>> records = Lists.newArrayList();
+      lock();
+      try {
+        long now = map.ticker.read();
+        if (map.usesAccessQueue()) {
+          drainRecencyQueue();
+          for (ReferenceEntry<K, V> e : accessQueue) {
+            addSnapshotRecord(records, e, now);
+          }
+          Collections.reverse(records);
+        } else {
+          AtomicReferenceArray<ReferenceEntry<K, V>> table = this.table;
+          for (int i = 0; i < table.length(); ++i) {
+            for (ReferenceEntry<K, V> e = table.get(i); e != null; e = e.getNext()) {
+              addSnapshotRecord(records, e, now);
+            }
+          }
+        }
+      } finally {
+        unlock();
+      }
+      return records;
+    }
+
+    @GuardedBy("Segment.this")
+    private void addSnapshotRecord(
+        List<CacheSnapshots.Record<K, V>> records, ReferenceEntry<K, V> e, long now) {
+      K key = e.getKey();
+      ValueReference<K, V> valueReference = e.getValueReference();
+      V value = valueReference.get();
+      if (key != null && value != null && !map.isExpired(e, now)) {
+        records.add(new CacheSnapshots.Record<K, V>(
+            key, value, valueReference.getWeight(), map.recordsAccess() ? e.getAccessTime() : 0));
+      }
+    }
+
     void runLockedCleanup(long now) {
       if (tryLock()) {
         try {
@@ -3487,7 +5115,59 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     void runUnlockedCleanup() {
       // locked cleanup may generate notifications we can send unlocked
       if (!isHeldByCurrentThread()) {
+        releaseOffHeapValues();
         map.processPendingNotifications();
+        map.reloadDueRefreshes();
+      }
+    }
+
+    /**
+     * Submits this segment's maintenance task to the cache's executor, unless it is already
+     * pending. If the executor rejects the task, the maintenance is performed on this thread.
+     */
+    void scheduleMaintenance() {
+      if (maintenanceScheduled.compareAndSet(false, true)) {
+        try {
+          map.executor.execute(maintenanceTask);
+        } catch (RuntimeException e) {
+          logger.log(Level.WARNING, "Exception thrown when submitting maintenance task", e);
+          maintenanceScheduled.set(false);
+          cleanUp();
+        }
+      }
+    }
+
+    /**
+     * Performs a bounded amount of cleanup on the cache's executor: collected and expired entries
+     * are removed from this segment, and pending removal notifications are delivered. Another task
+     * is submitted if work remains. If the lock is held, the locked work is marked as pending, and
+     * another task is submitted once the lock is released.
+     */
+    void runMaintenance() {
+      boolean moreWork = false;
+      // marked before trying the lock, so that a holder which releases it afterwards sees the mark
+      maintenancePending.set(true);
+      if (tryLock()) {
+        try {
+          maintenancePending.set(false);
+          drainReferenceQueues();
+          moreWork = expireEntries(map.ticker.read(), MAINTENANCE_MAX);
+          readCount.set(0);
+        } finally {
+          unlock();
+        }
+      }
+      releaseOffHeapValues();
+      moreWork |= map.processPendingNotifications(MAINTENANCE_MAX);
+      map.reloadDueRefreshes();
+
+      maintenanceScheduled.set(false);
+      // notifications may have been enqueued after they were last polled, or the lock released,
+      // by a thread which found this task still scheduled
+      if (moreWork
+          || !map.removalNotificationQueue.isEmpty()
+          || (maintenancePending.get() && !isLocked())) {
+        scheduleMaintenance();
       }
     }
 
@@ -3531,7 +5211,7 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return setException(futureValue, t);
     }
 
-    private static boolean setException(SettableFuture<?> future, Throwable t) {
+    static boolean setException(SettableFuture<?> future, Throwable t) {
       try {
         return future.setException(t);
       } catch (Error e) {
@@ -3606,6 +5286,19 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  /**
+   * A key claimed by {@link LocalCache#getAll}, which loads it without synchronizing on its entry.
+   * Records the claiming thread instead, so that a recursive load of the key fails fast.
+   */
+  static final class ClaimedValueReference<K, V> extends LoadingValueReference<K, V> {
+    final Thread owner = Thread.currentThread();
+
+    static boolean isOwnedByCurrentThread(ValueReference<?, ?> valueReference) {
+      return valueReference instanceof ClaimedValueReference
+          && ((ClaimedValueReference<?, ?>) valueReference).owner == Thread.currentThread();
+    }
+  }
+
   // Queues
 
   /**
@@ -3807,78 +5500,306 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
 
     @Override
-    public ReferenceEntry<K, V> peek() {
-      ReferenceEntry<K, V> next = head.getNextInAccessQueue();
-      return (next == head) ? null : next;
+    public ReferenceEntry<K, V> peek() {
+      ReferenceEntry<K, V> next = head.getNextInAccessQueue();
+      return (next == head) ? null : next;
+    }
+
+    @Override
+    public ReferenceEntry<K, V> poll() {
+      ReferenceEntry<K, V> next = head.getNextInAccessQueue();
+      if (next == head) {
+        return null;
+      }
+
+      remove(next);
+      return next;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object o) {
+      ReferenceEntry<K, V> e = (ReferenceEntry) o;
+      ReferenceEntry<K, V> previous = e.getPreviousInAccessQueue();
+      ReferenceEntry<K, V> next = e.getNextInAccessQueue();
+      connectAccessOrder(previous, next);
+      nullifyAccessOrder(e);
+
+      return next != NullEntry.INSTANCE;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean contains(Object o) {
+      ReferenceEntry<K, V> e = (ReferenceEntry) o;
+      return e.getNextInAccessQueue() != NullEntry.INSTANCE;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return head.getNextInAccessQueue() == head;
+    }
+
+    @Override
+    public int size() {
+      int size = 0;
+      for (ReferenceEntry<K, V> e = head.getNextInAccessQueue(); e != head;
+          e = e.getNextInAccessQueue()) {
+        size++;
+      }
+      return size;
+    }
+
+    @Override
+    public void clear() {
+      ReferenceEntry<K, V> e = head.getNextInAccessQueue();
+      while (e != head) {
+        ReferenceEntry<K, V> next = e.getNextInAccessQueue();
+        nullifyAccessOrder(e);
+        e = next;
+      }
+
+      head.setNextInAccessQueue(head);
+      head.setPreviousInAccessQueue(head);
+    }
+
+    @Override
+    public Iterator<ReferenceEntry<K, V>> iterator() {
+      return new AbstractLinkedIterator<ReferenceEntry<K, V>>(peek()) {
+        @Override
+        protected ReferenceEntry<K, V> computeNext(ReferenceEntry<K, V> previous) {
+          ReferenceEntry<K, V> next = previous.getNextInAccessQueue();
+          return (next == head) ? null : next;
+        }
+      };
+    }
+  }
+
+  /**
+   * A lossy, bounded buffer recording which entries were read, for replay against the access queue
+   * under the segment lock. Readers only append to the buffer, and never allocate or block to do
+   * so; a single drainer (holding the segment lock) consumes it.
+   *
+   * <p>To avoid contention between readers, the buffer is split into stripes which are created on
+   * demand, and each thread appends to the stripe selected by its thread id. Each stripe is a ring
+   * buffer with a fixed capacity. A read is discarded rather than recorded if another thread claims
+   * the same slot concurrently, and {@link #offer} fails if the reading thread's stripe is full.
+   * Losing a small fraction of reads only makes the access order slightly less precise.
+   *
+   * <p>Entries are polled stripe by stripe, so the reads of any one thread are replayed in the
+   * order in which they were recorded, but the reads of different threads may be interleaved
+   * arbitrarily.
+   */
+  static final class ReadBuffer<E> extends AbstractQueue<E> {
+    /** The number of reads that each stripe can hold. Must be a power of two. */
+    static final int STRIPE_CAPACITY = 16;
+
+    static final int STRIPE_MASK = STRIPE_CAPACITY - 1;
+
+    /** The maximum number of stripes, as a power of two no smaller than the number of CPUs. */
+    static final int MAXIMUM_STRIPES =
+        Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+    final AtomicReferenceArray<Stripe<E>> stripes =
+        new AtomicReferenceArray<Stripe<E>>(MAXIMUM_STRIPES);
+
+    static final class Stripe<E> {
+      final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<E>(STRIPE_CAPACITY);
+
+      /** The number of slots ever claimed by readers. */
+      final AtomicLong writeCounter = new AtomicLong();
+
+      /** The number of slots ever consumed; only written by the drainer. */
+      volatile long readCounter;
+
+      boolean offer(E element) {
+        long tail = writeCounter.get();
+        if (tail - readCounter >= STRIPE_CAPACITY) {
+          return false;
+        }
+        if (writeCounter.compareAndSet(tail, tail + 1)) {
+          buffer.set((int) tail & STRIPE_MASK, element);
+        }
+        // else another thread claimed this slot; drop the read
+        return true;
+      }
+
+      @Nullable
+      E peek() {
+        return buffer.get((int) readCounter & STRIPE_MASK);
+      }
+
+      @Nullable
+      E poll() {
+        long head = readCounter;
+        int index = (int) head & STRIPE_MASK;
+        // null if the stripe is empty, or if a slot was claimed but not yet filled
+        E element = buffer.get(index);
+        if (element != null) {
+          buffer.set(index, null);
+          readCounter = head + 1;
+        }
+        return element;
+      }
+
+      void addTo(Collection<E> elements) {
+        long tail = writeCounter.get();
+        for (long i = readCounter; i < tail; i++) {
+          E element = buffer.get((int) i & STRIPE_MASK);
+          if (element == null) {
+            break;
+          }
+          elements.add(element);
+        }
+      }
+    }
+
+    /**
+     * Returns the stripe used by the current thread, creating it if necessary.
+     */
+    Stripe<E> stripe() {
+      int index = rehash((int) Thread.currentThread().getId()) & (MAXIMUM_STRIPES - 1);
+      Stripe<E> stripe = stripes.get(index);
+      if (stripe == null) {
+        stripes.compareAndSet(index, null, new Stripe<E>());
+        stripe = stripes.get(index);
+      }
+      return stripe;
+    }
+
+    // implements Queue
+
+    /**
+     * Records a read of {@code element}. Returns false only if the current thread's stripe is full;
+     * note that the read may still be dropped if the offer succeeds.
+     */
+    @Override
+    public boolean offer(E element) {
+      return stripe().offer(element);
     }
 
     @Override
-    public ReferenceEntry<K, V> poll() {
-      ReferenceEntry<K, V> next = head.getNextInAccessQueue();
-      if (next == head) {
-        return null;
+    public E peek() {
+      for (int i = 0; i < MAXIMUM_STRIPES; i++) {
+        Stripe<E> stripe = stripes.get(i);
+        if (stripe != null) {
+          E element = stripe.peek();
+          if (element != null) {
+            return element;
+          }
+        }
       }
-
-      remove(next);
-      return next;
+      return null;
     }
 
+    /** Removes a recorded read. Must only be called by a single thread at a time. */
     @Override
-    @SuppressWarnings("unchecked")
-    public boolean remove(Object o) {
-      ReferenceEntry<K, V> e = (ReferenceEntry) o;
-      ReferenceEntry<K, V> previous = e.getPreviousInAccessQueue();
-      ReferenceEntry<K, V> next = e.getNextInAccessQueue();
-      connectAccessOrder(previous, next);
-      nullifyAccessOrder(e);
-
-      return next != NullEntry.INSTANCE;
+    public E poll() {
+      for (int i = 0; i < MAXIMUM_STRIPES; i++) {
+        Stripe<E> stripe = stripes.get(i);
+        if (stripe != null) {
+          E element = stripe.poll();
+          if (element != null) {
+            return element;
+          }
+        }
+      }
+      return null;
     }
 
     @Override
-    @SuppressWarnings("unchecked")
-    public boolean contains(Object o) {
-      ReferenceEntry<K, V> e = (ReferenceEntry) o;
-      return e.getNextInAccessQueue() != NullEntry.INSTANCE;
+    public int size() {
+      return snapshot().size();
     }
 
     @Override
-    public boolean isEmpty() {
-      return head.getNextInAccessQueue() == head;
+    public Iterator<E> iterator() {
+      return Iterators.unmodifiableIterator(snapshot().iterator());
     }
 
-    @Override
-    public int size() {
-      int size = 0;
-      for (ReferenceEntry<K, V> e = head.getNextInAccessQueue(); e != head;
-          e = e.getNextInAccessQueue()) {
-        size++;
+    /** Returns the recorded reads, in the order that they would be polled. */
+    List<E> snapshot() {
+      List<E> elements = Lists.newArrayList();
+      for (int i = 0; i < MAXIMUM_STRIPES; i++) {
+        Stripe<E> stripe = stripes.get(i);
+        if (stripe != null) {
+          stripe.addTo(elements);
+        }
       }
-      return size;
+      return elements;
     }
+  }
 
-    @Override
-    public void clear() {
-      ReferenceEntry<K, V> e = head.getNextInAccessQueue();
-      while (e != head) {
-        ReferenceEntry<K, V> next = e.getNextInAccessQueue();
-        nullifyAccessOrder(e);
-        e = next;
+  /**
+   * An entry which is waiting for its batch to be refreshed.
+   */
+  static final class PendingRefresh<K, V> {
+    final K key;
+    final int hash;
+    final LoadingValueReference<K, V> loadingValueReference;
+
+    PendingRefresh(K key, int hash, LoadingValueReference<K, V> loadingValueReference) {
+      this.key = key;
+      this.hash = hash;
+      this.loadingValueReference = loadingValueReference;
+    }
+  }
+
+  /**
+   * Collects the entries which are due to be refreshed by a cache built with
+   * {@link CacheBuilder#coalesceRefreshes} into batches. A batch is handed out to be refreshed
+   * once it is full, or once its window has elapsed since its first entry was added.
+   */
+  static final class RefreshBatcher<K, V> {
+    final int maxBatchSize;
+    final long windowNanos;
+
+    @GuardedBy("this")
+    List<PendingRefresh<K, V>> batch = Lists.newArrayList();
+
+    @GuardedBy("this")
+    long batchStart;
+
+    /** The size of the current batch, which may be read without holding the lock. */
+    volatile int size;
+
+    RefreshBatcher(int maxBatchSize, long windowNanos) {
+      this.maxBatchSize = maxBatchSize;
+      this.windowNanos = windowNanos;
+    }
+
+    /**
+     * Adds an entry to the current batch. Returns the batch if it is now due to be refreshed, or
+     * null otherwise.
+     */
+    @Nullable
+    synchronized List<PendingRefresh<K, V>> add(PendingRefresh<K, V> pending, long now) {
+      if (batch.isEmpty()) {
+        batchStart = now;
       }
+      batch.add(pending);
+      size = batch.size();
+      return (batch.size() >= maxBatchSize) ? takeBatch() : takeIfDue(now);
+    }
 
-      head.setNextInAccessQueue(head);
-      head.setPreviousInAccessQueue(head);
+    /**
+     * Returns the current batch if its window has elapsed by {@code now}, or null otherwise.
+     */
+    @Nullable
+    synchronized List<PendingRefresh<K, V>> takeIfDue(long now) {
+      return (!batch.isEmpty() && now - batchStart >= windowNanos) ? takeBatch() : null;
     }
 
-    @Override
-    public Iterator<ReferenceEntry<K, V>> iterator() {
-      return new AbstractLinkedIterator<ReferenceEntry<K, V>>(peek()) {
-        @Override
-        protected ReferenceEntry<K, V> computeNext(ReferenceEntry<K, V> previous) {
-          ReferenceEntry<K, V> next = previous.getNextInAccessQueue();
-          return (next == head) ? null : next;
-        }
-      };
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    @GuardedBy("this")
+    private List<PendingRefresh<K, V>> takeBatch() {
+      List<PendingRefresh<K, V>> result = batch;
+      batch = Lists.newArrayList();
+      size = 0;
+      return result;
     }
   }
 
@@ -3890,6 +5811,44 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  /**
+   * Returns the live entries of this map with their weights, up to a total weight of
+   * {@code maxWeight}. The entries are listed most recently accessed first if the map records
+   * access times, merging the segments by access time before the weight is capped, and in no
+   * particular order otherwise.
+   */
+  List<CacheSnapshots.Record<K, V>> snapshot(long maxWeight) {
+    List<CacheSnapshots.Record<K, V>> all = Lists.newArrayList();
+    for (Segment<K, V> segment : segments) {
+      all.addAll(segment.snapshot());
+    }
+    if (recordsAccess()) {
+      // the sort is stable, so entries read at the same tick keep their order within a segment
+      Collections.sort(all, SNAPSHOT_RECENCY_ORDER);
+    }
+
+    List<CacheSnapshots.Record<K, V>> records = Lists.newArrayList();
+    long totalWeight = 0;
+    for (CacheSnapshots.Record<K, V> record : all) {
+      totalWeight += record.weight;
+      if (totalWeight > maxWeight) {
+        break;
+      }
+      records.add(record);
+    }
+    return records;
+  }
+
+  /** Orders snapshot records most recently accessed first; the ticker may wrap. */
+  private static final Comparator<CacheSnapshots.Record<?, ?>> SNAPSHOT_RECENCY_ORDER =
+      new Comparator<CacheSnapshots.Record<?, ?>>() {
+        @Override
+        public int compare(CacheSnapshots.Record<?, ?> left, CacheSnapshots.Record<?, ?> right) {
+          long difference = right.accessTime - left.accessTime;
+          return (difference < 0) ? -1 : (difference > 0) ? 1 : 0;
+        }
+      };
+
   // ConcurrentMap methods
 
   @Override
@@ -3969,6 +5928,44 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     return get(key, defaultLoader);
   }
 
+  ListenableFuture<V> getAsync(K key, Executor executor) {
+    int hash = hash(checkNotNull(key));
+    return segmentFor(hash).getAsync(key, hash, defaultLoader, executor);
+  }
+
+  @Nullable
+  ListenableFuture<V> getIfPresentAsync(Object key, Executor executor) {
+    int hash = hash(checkNotNull(key));
+    ListenableFuture<V> future = segmentFor(hash).getIfPresentAsync(key, hash, executor);
+    if (future == null) {
+      globalStatsCounter.recordMisses(1);
+    } else {
+      globalStatsCounter.recordHits(1);
+    }
+    return future;
+  }
+
+  ListenableFuture<ImmutableMap<K, V>> getAllAsync(Iterable<? extends K> keys,
+      Executor executor) {
+    final Set<K> keySet = Sets.newLinkedHashSet(keys);
+    List<ListenableFuture<V>> futures = Lists.newArrayListWithCapacity(keySet.size());
+    for (K key : keySet) {
+      futures.add(getAsync(key, executor));
+    }
+    return Futures.transform(Futures.allAsList(futures),
+        new Function<List<V>, ImmutableMap<K, V>>() {
+          @Override
+          public ImmutableMap<K, V> apply(List<V> values) {
+            ImmutableMap.Builder<K, V> builder = ImmutableMap.builder();
+            Iterator<V> valueIterator = values.iterator();
+            for (K key : keySet) {
+              builder.put(key, valueIterator.next());
+            }
+            return builder.build();
+          }
+        });
+  }
+
   ImmutableMap<K, V> getAllPresent(Iterable<? extends K> keys) {
     int hits = 0;
     int misses = 0;
@@ -4010,21 +6007,33 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     try {
       if (!keysToLoad.isEmpty()) {
-        try {
-          Map<K, V> newEntries = loadAll(keysToLoad, defaultLoader);
-          for (K key : keysToLoad) {
-            V value = newEntries.get(key);
-            if (value == null) {
-              throw new InvalidCacheLoadException("loadAll failed to return a value for " + key);
-            }
+        // claim the absent keys, so that concurrent gets wait for this load rather than loading
+        Map<K, LoadingValueReference<K, V>> claimed = Maps.newLinkedHashMap();
+        Set<K> loading = Sets.newLinkedHashSet();
+        for (K key : keysToLoad) {
+          int hash = hash(key);
+          LoadingValueReference<K, V> loadingValueReference = new ClaimedValueReference<K, V>();
+          ValueReference<K, V> valueReference =
+              segmentFor(hash).claimLoad(key, hash, loadingValueReference).getValueReference();
+          V value = valueReference.get();
+          if (valueReference == loadingValueReference) {
+            claimed.put(key, loadingValueReference);
+          } else if (valueReference.isLoading() || value == null) {
+            loading.add(key);
+          } else {
+            // loaded since the first lookup
             result.put(key, value);
           }
-        } catch (UnsupportedLoadingOperationException e) {
-          // loadAll not implemented, fallback to load
-          for (K key : keysToLoad) {
-            misses--; // get will count this miss
-            result.put(key, get(key, defaultLoader));
-          }
+        }
+
+        if (!claimed.isEmpty()) {
+          loadClaimed(claimed, result);
+        }
+        // only wait for the loads of other threads once the claimed keys are loaded, as those
+        // threads may in turn be waiting for them
+        for (K key : loading) {
+          misses--; // get will count this miss
+          result.put(key, get(key, defaultLoader));
         }
       }
       return ImmutableMap.copyOf(result);
@@ -4034,6 +6043,84 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
+  /**
+   * Loads the values of the {@code claimed} keys into the cache and into {@code result}, with
+   * {@link CacheLoader#loadAll} if the loader implements it, and otherwise one key at a time. If
+   * loading fails, the claimed keys which weren't loaded are removed, and concurrent gets waiting
+   * for them fail with the same cause.
+   */
+  void loadClaimed(Map<K, LoadingValueReference<K, V>> claimed, Map<K, V> result)
+      throws ExecutionException {
+    try {
+      try {
+        // loadAll puts each value, which also completes the claim of its key
+        Map<K, V> newEntries = loadAll(claimed.keySet(), defaultLoader);
+        for (K key : claimed.keySet()) {
+          V value = newEntries.get(key);
+          if (value == null) {
+            throw new InvalidCacheLoadException("loadAll failed to return a value for " + key);
+          }
+          result.put(key, value);
+        }
+      } catch (UnsupportedLoadingOperationException e) {
+        // loadAll not implemented, fallback to load
+        for (Map.Entry<K, LoadingValueReference<K, V>> entry : claimed.entrySet()) {
+          K key = entry.getKey();
+          int hash = hash(key);
+          try {
+            result.put(key, segmentFor(hash).loadSync(key, hash, entry.getValue(), defaultLoader));
+          } catch (ExecutionException ee) {
+            throw translateLoadException(ee);
+          }
+        }
+      }
+    } catch (ExecutionException e) {
+      abandonClaims(claimed, e.getCause());
+      throw e;
+    } catch (ExecutionError e) {
+      abandonClaims(claimed, e.getCause());
+      throw e;
+    } catch (UncheckedExecutionException e) {
+      abandonClaims(claimed, e.getCause());
+      throw e;
+    } catch (RuntimeException e) {
+      abandonClaims(claimed, e);
+      throw e;
+    } catch (Error e) {
+      abandonClaims(claimed, e);
+      throw e;
+    }
+  }
+
+  /**
+   * Fails the claims of the keys which weren't loaded with {@code cause}, and removes them from
+   * the cache.
+   */
+  void abandonClaims(Map<K, LoadingValueReference<K, V>> claimed, Throwable cause) {
+    for (Map.Entry<K, LoadingValueReference<K, V>> entry : claimed.entrySet()) {
+      LoadingValueReference<K, V> loadingValueReference = entry.getValue();
+      if (loadingValueReference.setException(cause)) {
+        K key = entry.getKey();
+        int hash = hash(key);
+        segmentFor(hash).removeLoadingValue(key, hash, loadingValueReference);
+      }
+    }
+  }
+
+  /**
+   * Returns {@code e}, or throws the unchecked exception which {@code get} throws instead of
+   * {@code e} when the load failed with an unchecked exception or error.
+   */
+  static ExecutionException translateLoadException(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof Error) {
+      throw new ExecutionError((Error) cause);
+    } else if (cause instanceof RuntimeException) {
+      throw new UncheckedExecutionException(cause);
+    }
+    return e;
+  }
+
   /**
    * Returns the result of calling {@link CacheLoader#loadAll}, or null if {@code loader} doesn't
    * implement {@code loadAll}.
@@ -4060,12 +6147,12 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       throw new ExecutionError(e);
     } finally {
       if (!success) {
-        globalStatsCounter.recordLoadException(stopwatch.elapsedTime(NANOSECONDS));
+        recordLoadException(stopwatch.elapsedTime(NANOSECONDS));
       }
     }
 
     if (result == null) {
-      globalStatsCounter.recordLoadException(stopwatch.elapsedTime(NANOSECONDS));
+      recordLoadException(stopwatch.elapsedTime(NANOSECONDS));
       throw new InvalidCacheLoadException(loader + " returned null map from loadAll");
     }
 
@@ -4084,15 +6171,22 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
 
     if (nullsPresent) {
-      globalStatsCounter.recordLoadException(stopwatch.elapsedTime(NANOSECONDS));
+      recordLoadException(stopwatch.elapsedTime(NANOSECONDS));
       throw new InvalidCacheLoadException(loader + " returned null keys or values from loadAll");
     }
 
     // TODO(fry): record count of loaded entries
-    globalStatsCounter.recordLoadSuccess(stopwatch.elapsedTime(NANOSECONDS));
+    long loadTime = stopwatch.elapsedTime(NANOSECONDS);
+    globalStatsCounter.recordLoadSuccess(loadTime);
+    loadLatencies.record(loadTime);
     return result;
   }
 
+  void recordLoadException(long loadTime) {
+    globalStatsCounter.recordLoadException(loadTime);
+    loadLatencies.record(loadTime);
+  }
+
   /**
    * Returns the internal entry for the specified key. The entry may be loading, expired, or
    * partially collected.
@@ -4123,6 +6217,117 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     segmentFor(hash).refresh(key, hash, defaultLoader);
   }
 
+  /**
+   * Refreshes the current refresh batch if its window has elapsed.
+   */
+  void reloadDueRefreshes() {
+    if (refreshBatcher != null && !refreshBatcher.isEmpty()) {
+      List<PendingRefresh<K, V>> batch = refreshBatcher.takeIfDue(ticker.read());
+      if (batch != null) {
+        reloadBatch(batch);
+      }
+    }
+  }
+
+  /**
+   * Refreshes a batch of entries on {@code executor}, or on the calling thread if
+   * {@code executor} is null.
+   */
+  void reloadBatch(final List<PendingRefresh<K, V>> batch, @Nullable Executor executor) {
+    if (executor == null) {
+      reloadBatch(batch);
+      return;
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          reloadBatch(batch);
+        }
+      });
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Exception thrown during refresh", e);
+      for (PendingRefresh<K, V> pending : batch) {
+        pending.loadingValueReference.setException(e);
+        segmentFor(pending.hash).removeLoadingValue(
+            pending.key, pending.hash, pending.loadingValueReference);
+      }
+    }
+  }
+
+  /**
+   * Refreshes a batch of entries with a single call to {@link CacheLoader#reloadAll}, falling back
+   * to individual reloads if the loader doesn't support it. Entries whose old values have been
+   * removed since they joined the batch are loaded individually.
+   */
+  void reloadBatch(final List<PendingRefresh<K, V>> batch) {
+    Map<K, V> oldValues = Maps.newLinkedHashMap();
+    final List<PendingRefresh<K, V>> reloading = Lists.newArrayListWithCapacity(batch.size());
+    for (PendingRefresh<K, V> pending : batch) {
+      V oldValue = pending.loadingValueReference.get();
+      if (oldValue == null) {
+        segmentFor(pending.hash).loadAsync(
+            pending.key, pending.hash, pending.loadingValueReference, defaultLoader);
+      } else {
+        oldValues.put(pending.key, oldValue);
+        reloading.add(pending);
+      }
+    }
+    if (reloading.isEmpty()) {
+      return;
+    }
+
+    for (PendingRefresh<K, V> pending : reloading) {
+      pending.loadingValueReference.stopwatch.start();
+    }
+    ListenableFuture<Map<K, V>> future;
+    try {
+      @SuppressWarnings("unchecked") // the loader accepts any K
+      CacheLoader<K, V> loader = (CacheLoader<K, V>) defaultLoader;
+      future = loader.reloadAll(Collections.unmodifiableMap(oldValues));
+      if (future == null) {
+        future = Futures.immediateFailedFuture(
+            new InvalidCacheLoadException("CacheLoader returned null for reloadAll."));
+      }
+    } catch (UnsupportedLoadingOperationException e) {
+      for (PendingRefresh<K, V> pending : reloading) {
+        pending.loadingValueReference.stopwatch.reset();
+        segmentFor(pending.hash).loadAsync(
+            pending.key, pending.hash, pending.loadingValueReference, defaultLoader);
+      }
+      return;
+    } catch (Throwable t) {
+      future = Futures.immediateFailedFuture(t);
+    }
+
+    final ListenableFuture<Map<K, V>> reloaded = future;
+    reloaded.addListener(
+        new Runnable() {
+          @Override
+          public void run() {
+            Map<K, V> newValues = null;
+            Throwable failure = null;
+            try {
+              newValues = getUninterruptibly(reloaded);
+              if (newValues == null) {
+                failure = new InvalidCacheLoadException("reloadAll returned null map.");
+              }
+            } catch (ExecutionException e) {
+              failure = e.getCause();
+            } catch (Throwable t) {
+              failure = t;
+            }
+            for (PendingRefresh<K, V> pending : reloading) {
+              ListenableFuture<V> newValue = (failure == null)
+                  ? Futures.immediateFuture(newValues.get(pending.key))
+                  : Futures.<V>immediateFailedFuture(failure);
+              segmentFor(pending.hash).completeRefresh(
+                  pending.key, pending.hash, pending.loadingValueReference, newValue);
+            }
+          }
+        }, sameThreadExecutor);
+  }
+
   @Override
   public boolean containsKey(@Nullable Object key) {
     // does not impact recency ordering
@@ -4239,6 +6444,9 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     for (Segment<K, V> segment : segments) {
       segment.clear();
     }
+    if (secondTier != null) {
+      secondTier.clear();
+    }
   }
 
   void invalidateAll(Iterable<?> keys) {
@@ -4590,8 +6798,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     final Equivalence<Object> valueEquivalence;
     final long expireAfterWriteNanos;
     final long expireAfterAccessNanos;
+    final Expiry<? super K, ? super V> expiry;
     final long maxWeight;
     final Weigher<K, V> weigher;
+    final EvictionPolicy evictionPolicy;
+    final int evictionSampleSize;
+    final CacheCodec<V> valueCodec;
+    final boolean weighsValueBytes;
     final int concurrencyLevel;
     final RemovalListener<? super K, ? super V> removalListener;
     final Ticker ticker;
@@ -4607,8 +6820,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
           cache.valueEquivalence,
           cache.expireAfterWriteNanos,
           cache.expireAfterAccessNanos,
+          cache.expiry,
           cache.maxWeight,
           cache.weigher,
+          cache.evictionPolicy,
+          cache.evictionSampleSize,
+          cache.valueCodec,
+          cache.weighsValueBytes,
           cache.concurrencyLevel,
           cache.removalListener,
           cache.ticker,
@@ -4618,8 +6836,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     private ManualSerializationProxy(
         Strength keyStrength, Strength valueStrength,
         Equivalence<Object> keyEquivalence, Equivalence<Object> valueEquivalence,
-        long expireAfterWriteNanos, long expireAfterAccessNanos, long maxWeight,
-        Weigher<K, V> weigher, int concurrencyLevel,
+        long expireAfterWriteNanos, long expireAfterAccessNanos,
+        Expiry<? super K, ? super V> expiry, long maxWeight, Weigher<K, V> weigher,
+        EvictionPolicy evictionPolicy, int evictionSampleSize, CacheCodec<V> valueCodec,
+        boolean weighsValueBytes, int concurrencyLevel,
         RemovalListener<? super K, ? super V> removalListener,
         Ticker ticker, CacheLoader<? super K, V> loader) {
       this.keyStrength = keyStrength;
@@ -4628,8 +6848,13 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       this.valueEquivalence = valueEquivalence;
       this.expireAfterWriteNanos = expireAfterWriteNanos;
       this.expireAfterAccessNanos = expireAfterAccessNanos;
+      this.expiry = expiry;
       this.maxWeight = maxWeight;
       this.weigher = weigher;
+      this.evictionPolicy = evictionPolicy;
+      this.evictionSampleSize = evictionSampleSize;
+      this.valueCodec = valueCodec;
+      this.weighsValueBytes = weighsValueBytes;
       this.concurrencyLevel = concurrencyLevel;
       this.removalListener = removalListener;
       this.ticker = (ticker == Ticker.systemTicker() || ticker == NULL_TICKER)
@@ -4652,16 +6877,32 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       if (expireAfterAccessNanos > 0) {
         builder.expireAfterAccess(expireAfterAccessNanos, TimeUnit.NANOSECONDS);
       }
+      if (expiry != null) {
+        builder.expireAfter(expiry);
+      }
       if (weigher != OneWeigher.INSTANCE) {
         builder.weigher(weigher);
         if (maxWeight != UNSET_INT) {
           builder.maximumWeight(maxWeight);
         }
+      } else if (weighsValueBytes) {
+        builder.maximumWeight(maxWeight);
       } else {
         if (maxWeight != UNSET_INT) {
           builder.maximumSize(maxWeight);
         }
       }
+      if (valueCodec != null) {
+        builder.offHeapValues(valueCodec);
+      }
+      if (evictionPolicy != null && maxWeight != UNSET_INT) {
+        // null if serialized before eviction policies were introduced
+        builder.evictionPolicy(evictionPolicy);
+      }
+      if (evictionSampleSize > 0) {
+        // 0 if serialized before global eviction was introduced
+        builder.globalEviction(evictionSampleSize);
+      }
       if (ticker != null) {
         builder.ticker(ticker);
       }
@@ -4738,7 +6979,32 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
     }
   }
 
-  static class LocalManualCache<K, V> implements Cache<K, V>, Serializable {
+  /**
+   * Implemented by the caches which {@link CacheBuilder} builds, to expose their internals through
+   * static accessors such as {@link CacheMetrics#snapshot} rather than through {@link Cache}.
+   */
+  interface ManagedCache {
+    CacheMetrics metrics();
+
+    CachePolicy policy();
+  }
+
+  /**
+   * Returns {@code cache}, or the cache to which it forwards, as a cache built by
+   * {@link CacheBuilder}.
+   *
+   * @throws IllegalArgumentException if {@code cache} wasn't built by {@code CacheBuilder}
+   */
+  static ManagedCache managedCache(Cache<?, ?> cache) {
+    checkNotNull(cache);
+    while (cache instanceof ForwardingCache) {
+      cache = ((ForwardingCache<?, ?>) cache).delegate();
+    }
+    checkArgument(cache instanceof ManagedCache, "cache was not built by CacheBuilder: %s", cache);
+    return (ManagedCache) cache;
+  }
+
+  static class LocalManualCache<K, V> implements Cache<K, V>, ManagedCache, Serializable {
     final LocalCache<K, V> localCache;
 
     LocalManualCache(CacheBuilder<? super K, ? super V> builder) {
@@ -4747,7 +7013,12 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
 
     protected LocalManualCache(CacheBuilder<? super K, ? super V> builder,
         CacheLoader<? super K, V> loader) {
-      this.localCache = new LocalCache<K, V>(builder, loader);
+      this(new LocalCache<K, V>(builder, loader));
+      CacheSnapshots.restore(localCache, builder);
+    }
+
+    LocalManualCache(LocalCache<K, V> localCache) {
+      this.localCache = localCache;
     }
 
     // Cache methods
@@ -4812,7 +7083,52 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       for (Segment<K, V> segment : localCache.segments) {
         aggregator.incrementBy(segment.statsCounter);
       }
-      return aggregator.snapshot();
+      CacheStats stats = aggregator.snapshot();
+      SecondTier<K, V> secondTier = localCache.secondTier;
+      if (secondTier == null) {
+        return stats;
+      }
+      return new CacheStats(stats.hitCount(), stats.missCount(), stats.loadSuccessCount(),
+          stats.loadExceptionCount(), stats.totalLoadTime(), stats.evictionCount(),
+          secondTier.hitCount(), secondTier.liveBytes());
+    }
+
+    @Override
+    public CacheMetrics metrics() {
+      long lockWaitCount = 0;
+      long lockWaitTime = 0;
+      long evictionWeight = 0;
+      long recencyQueueDepth = 0;
+      for (Segment<K, V> segment : localCache.segments) {
+        lockWaitCount += segment.lockWaitCount.get();
+        lockWaitTime += segment.lockWaitTime.get();
+        evictionWeight += segment.evictionWeight;
+        recencyQueueDepth += segment.recencyQueue.size();
+      }
+      return new CacheMetrics(stats(), localCache.loadLatencies.snapshot(), lockWaitCount,
+          lockWaitTime, evictionWeight, recencyQueueDepth,
+          localCache.removalNotificationQueue.size());
+    }
+
+    @Override
+    public CachePolicy policy() {
+      return new CachePolicy() {
+        @Override
+        public boolean isBounded() {
+          return localCache.evictsBySize();
+        }
+
+        @Override
+        public long getMaximum() {
+          checkState(isBounded(), "cache is not bounded by size or weight");
+          return localCache.maxWeight;
+        }
+
+        @Override
+        public void setMaximum(long maximum) {
+          localCache.setMaximumWeight(maximum);
+        }
+      };
     }
 
     @Override
@@ -4858,6 +7174,10 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       super(builder, checkNotNull(loader));
     }
 
+    LocalLoadingCache(LocalCache<K, V> localCache) {
+      super(localCache);
+    }
+
     // Cache methods
 
     @Override
@@ -4878,4 +7198,38 @@ class LocalCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>
       return new LoadingSerializationProxy<K, V>(localCache);
     }
   }
+
+  static class LocalAsyncLoadingCache<K, V> implements AsyncLoadingCache<K, V> {
+    final LocalCache<K, V> localCache;
+    final Executor executor;
+    final LoadingCache<K, V> synchronous;
+
+    LocalAsyncLoadingCache(CacheBuilder<? super K, ? super V> builder,
+        CacheLoader<? super K, V> loader, Executor executor) {
+      this.localCache = new LocalCache<K, V>(builder, checkNotNull(loader));
+      this.executor = checkNotNull(executor);
+      this.synchronous = new LocalLoadingCache<K, V>(localCache);
+    }
+
+    @Override
+    public ListenableFuture<V> get(K key) {
+      return localCache.getAsync(key, executor);
+    }
+
+    @Override
+    public ListenableFuture<ImmutableMap<K, V>> getAll(Iterable<? extends K> keys) {
+      return localCache.getAllAsync(keys, executor);
+    }
+
+    @Override
+    @Nullable
+    public ListenableFuture<V> getIfPresent(K key) {
+      return localCache.getIfPresentAsync(key, executor);
+    }
+
+    @Override
+    public LoadingCache<K, V> synchronous() {
+      return synchronous;
+    }
+  }
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A second tier for a cache built with {@link CacheBuilder#secondTier}, which keeps serialized
+ * copies of the entries evicted from the cache because of its size in a memory-mapped file.
+ *
+ * <p>The file is used as a circular log: each entry is appended after the previous one, wrapping
+ * around to the start of the file when the end is reached, and overwriting the oldest entries. An
+ * index of keys to the position of their records is kept on the heap. Entries are removed from the
+ * index when they are taken back into the cache, or when their key is written to or invalidated in
+ * the cache, so the file may also contain records which are no longer live; their space is reused
+ * once the log wraps around to them.
+ *
+ * <p>Each record consists of the length of its serialized value, the {@link Ticker} time at which
+ * the entry would have expired from the cache, and the serialized value itself.
+ */
+final class SecondTier<K, V> {
+
+  /** The size of the length and expiration time preceding each serialized value. */
+  static final int HEADER_SIZE = 12;
+
+  /** The position of a live or dead record in the log. */
+  static final class Record<K> {
+    final K key;
+    final int offset;
+    final int size;
+
+    Record(K key, int offset, int size) {
+      this.key = key;
+      this.offset = offset;
+      this.size = size;
+    }
+  }
+
+  final CacheCodec<V> codec;
+
+  @GuardedBy("this")
+  final ByteBuffer buffer;
+
+  /**
+   * The live records, by key. Only modified while holding the lock, but concurrent so that
+   * writers can check for a record without taking the lock.
+   */
+  final ConcurrentMap<K, Record<K>> index = Maps.newConcurrentMap();
+
+  /** All of the records in the file, live or dead, from oldest to newest. */
+  @GuardedBy("this")
+  final Queue<Record<K>> log = new LinkedList<Record<K>>();
+
+  /** The offset at which the next record will be written. */
+  @GuardedBy("this")
+  int writeOffset;
+
+  /** The total size of the live records. */
+  @GuardedBy("this")
+  long liveBytes;
+
+  @GuardedBy("this")
+  long hitCount;
+
+  /**
+   * Maps the first {@code capacity} bytes of {@code file}, creating the file if necessary. Any
+   * existing contents of the file are ignored.
+   */
+  SecondTier(File file, int capacity, CacheCodec<V> codec) throws IOException {
+    this.codec = codec;
+    this.buffer = Files.map(file, MapMode.READ_WRITE, capacity);
+  }
+
+  /**
+   * Appends the value of an evicted entry, replacing any record already held for {@code key}. The
+   * record is dropped if it doesn't fit in the file at all.
+   */
+  void put(K key, V value, long expirationTime) {
+    byte[] bytes = codec.encode(value);
+    int size = HEADER_SIZE + bytes.length;
+    synchronized (this) {
+      removeLive(key);
+      int capacity = buffer.capacity();
+      if (bytes.length > capacity - HEADER_SIZE) {
+        return;
+      }
+
+      if (writeOffset + size > capacity) {
+        // the records between the write offset and the end of the file are the oldest ones
+        while (!log.isEmpty() && log.peek().offset >= writeOffset) {
+          discard(log.remove());
+        }
+        writeOffset = 0;
+      }
+      while (!log.isEmpty() && log.peek().offset >= writeOffset
+          && log.peek().offset < writeOffset + size) {
+        discard(log.remove());
+      }
+
+      buffer.position(writeOffset);
+      buffer.putInt(bytes.length);
+      buffer.putLong(expirationTime);
+      buffer.put(bytes);
+
+      Record<K> record = new Record<K>(key, writeOffset, size);
+      log.add(record);
+      index.put(key, record);
+      liveBytes += size;
+      writeOffset += size;
+    }
+  }
+
+  /**
+   * Removes and returns the value held for {@code key}, or returns null if there is none or if it
+   * has expired by {@code now}.
+   */
+  @Nullable
+  V remove(Object key, long now) {
+    if (!index.containsKey(key)) {
+      return null;
+    }
+    byte[] bytes;
+    synchronized (this) {
+      Record<K> record = removeLive(key);
+      if (record == null) {
+        return null;
+      }
+      buffer.position(record.offset);
+      bytes = new byte[buffer.getInt()];
+      long expirationTime = buffer.getLong();
+      if (now - expirationTime >= 0) {
+        return null;
+      }
+      buffer.get(bytes);
+      hitCount++;
+    }
+    return codec.decode(bytes);
+  }
+
+  /**
+   * Removes any value held for {@code key}. Called on every write to the cache, so the lock is
+   * only taken if a record may exist.
+   */
+  void invalidate(Object key) {
+    if (index.containsKey(key)) {
+      synchronized (this) {
+        removeLive(key);
+      }
+    }
+  }
+
+  /** Removes all values. */
+  synchronized void clear() {
+    index.clear();
+    log.clear();
+    writeOffset = 0;
+    liveBytes = 0;
+  }
+
+  synchronized long hitCount() {
+    return hitCount;
+  }
+
+  synchronized long liveBytes() {
+    return liveBytes;
+  }
+
+  @GuardedBy("this")
+  @Nullable
+  private Record<K> removeLive(Object key) {
+    Record<K> record = index.remove(key);
+    if (record != null) {
+      liveBytes -= record.size;
+    }
+    return record;
+  }
+
+  @GuardedBy("this")
+  private void discard(Record<K> record) {
+    if (index.get(record.key) == record) {
+      index.remove(record.key);
+      liveBytes -= record.size;
+    }
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.Lists;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Allocates chunks of off-heap memory for the values of a cache built with
+ * {@link CacheBuilder#offHeapValues}.
+ *
+ * <p>Memory is obtained from the JVM in slabs of direct {@link ByteBuffer}s of about
+ * {@link #SLAB_SIZE} bytes, each of which is carved into equally sized chunks. Chunk sizes are
+ * rounded up to one of four size classes per power of two, so that no more than a fifth of a chunk
+ * is wasted, and freed chunks are kept on a per-class free list to be reused by later allocations.
+ * Slabs are never returned to the JVM, so the memory reserved by an allocator is bounded by the
+ * largest amount it ever held at once. Values larger than a slab are given dedicated buffers, which
+ * are not pooled.
+ *
+ * <p>Allocating and freeing are synchronized, but reading and writing the contents of a chunk are
+ * not; callers must ensure that a chunk is not freed while it is in use.
+ */
+final class SlabAllocator {
+
+  /** The smallest chunk size, as a power of two. */
+  static final int MIN_CHUNK_SHIFT = 6;
+
+  /** The largest pooled chunk size, as a power of two. */
+  static final int SLAB_SHIFT = 20;
+
+  static final int SLAB_SIZE = 1 << SLAB_SHIFT;
+
+  /** The number of size classes, which are 64 bytes, and then four per power of two. */
+  static final int SIZE_CLASSES = ((SLAB_SHIFT - MIN_CHUNK_SHIFT) << 2) + 1;
+
+  /** A region of off-heap memory holding one value. */
+  static final class Chunk {
+    final ByteBuffer slab;
+    final int slabIndex;
+    final int offset;
+    final int length;
+
+    Chunk(ByteBuffer slab, int slabIndex, int offset, int length) {
+      this.slab = slab;
+      this.slabIndex = slabIndex;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /** Copies {@code bytes} into this chunk. */
+    void write(byte[] bytes) {
+      ByteBuffer buffer = slab.duplicate();
+      buffer.position(offset);
+      buffer.put(bytes, 0, length);
+    }
+
+    /** Returns a copy of the contents of this chunk. */
+    byte[] read() {
+      byte[] bytes = new byte[length];
+      ByteBuffer buffer = slab.duplicate();
+      buffer.position(offset);
+      buffer.get(bytes);
+      return bytes;
+    }
+  }
+
+  @GuardedBy("this")
+  final List<ByteBuffer> slabs = Lists.newArrayList();
+
+  /** The size class of each slab, indexed like {@link #slabs}. */
+  @GuardedBy("this")
+  int[] slabClasses = new int[16];
+
+  /**
+   * For each size class, a stack of the free chunks of that size, each encoded as the index of its
+   * slab in the high 32 bits and its offset in the low 32 bits.
+   */
+  @GuardedBy("this")
+  final long[][] freeChunks = new long[SIZE_CLASSES][];
+
+  @GuardedBy("this")
+  final int[] freeCounts = new int[SIZE_CLASSES];
+
+  @GuardedBy("this")
+  long reservedBytes;
+
+  @GuardedBy("this")
+  long allocatedBytes;
+
+  /**
+   * Returns a chunk able to hold {@code length} bytes.
+   *
+   * @throws OutOfMemoryError if the JVM's limit on direct memory has been reached
+   */
+  Chunk allocate(int length) {
+    checkArgument(length >= 0);
+    if (length > SLAB_SIZE) {
+      synchronized (this) {
+        reservedBytes += length;
+        allocatedBytes += length;
+      }
+      return new Chunk(ByteBuffer.allocateDirect(length), -1, 0, length);
+    }
+
+    int sizeClass = sizeClass(length);
+    int chunkSize = chunkSize(sizeClass);
+    synchronized (this) {
+      if (freeCounts[sizeClass] == 0) {
+        addSlab(sizeClass, chunkSize);
+      }
+      long address = freeChunks[sizeClass][--freeCounts[sizeClass]];
+      int slabIndex = (int) (address >>> 32);
+      allocatedBytes += chunkSize;
+      return new Chunk(slabs.get(slabIndex), slabIndex, (int) address, length);
+    }
+  }
+
+  /** Returns {@code chunk} to the pool. A chunk must be freed at most once. */
+  void free(Chunk chunk) {
+    if (chunk.slabIndex < 0) {
+      synchronized (this) {
+        // the buffer itself is reclaimed by the garbage collector
+        reservedBytes -= chunk.length;
+        allocatedBytes -= chunk.length;
+      }
+      return;
+    }
+
+    synchronized (this) {
+      int sizeClass = slabClasses[chunk.slabIndex];
+      allocatedBytes -= chunkSize(sizeClass);
+      push(sizeClass, ((long) chunk.slabIndex << 32) | chunk.offset);
+    }
+  }
+
+  /** Returns the number of bytes of direct memory obtained by this allocator. */
+  synchronized long reservedBytes() {
+    return reservedBytes;
+  }
+
+  /** Returns the number of bytes in chunks which have been allocated and not yet freed. */
+  synchronized long allocatedBytes() {
+    return allocatedBytes;
+  }
+
+  @GuardedBy("this")
+  private void addSlab(int sizeClass, int chunkSize) {
+    int chunksPerSlab = SLAB_SIZE / chunkSize;
+    int slabIndex = slabs.size();
+    slabs.add(ByteBuffer.allocateDirect(chunksPerSlab * chunkSize));
+    if (slabIndex == slabClasses.length) {
+      int[] newSlabClasses = new int[slabIndex << 1];
+      System.arraycopy(slabClasses, 0, newSlabClasses, 0, slabIndex);
+      slabClasses = newSlabClasses;
+    }
+    slabClasses[slabIndex] = sizeClass;
+    reservedBytes += chunksPerSlab * chunkSize;
+
+    // push in reverse so that chunks are handed out in address order
+    for (int i = chunksPerSlab - 1; i >= 0; i--) {
+      push(sizeClass, ((long) slabIndex << 32) | (i * chunkSize));
+    }
+  }
+
+  @GuardedBy("this")
+  private void push(int sizeClass, long address) {
+    long[] stack = freeChunks[sizeClass];
+    int count = freeCounts[sizeClass];
+    if (stack == null) {
+      stack = freeChunks[sizeClass] = new long[16];
+    } else if (count == stack.length) {
+      long[] newStack = new long[count << 1];
+      System.arraycopy(stack, 0, newStack, 0, count);
+      stack = freeChunks[sizeClass] = newStack;
+    }
+    stack[count] = address;
+    freeCounts[sizeClass] = count + 1;
+  }
+
+  /** Returns the smallest size class whose chunks can hold {@code length} bytes. */
+  static int sizeClass(int length) {
+    if (length <= (1 << MIN_CHUNK_SHIFT)) {
+      return 0;
+    }
+    int shift = 31 - Integer.numberOfLeadingZeros(length - 1);
+    int step = 1 << (shift - 2);
+    int quarter = ((length - 1) - (1 << shift)) / step;
+    return ((shift - MIN_CHUNK_SHIFT) << 2) + quarter + 1;
+  }
+
+  /** Returns the size of the chunks of the given size class. */
+  static int chunkSize(int sizeClass) {
+    if (sizeClass == 0) {
+      return 1 << MIN_CHUNK_SHIFT;
+    }
+    int shift = ((sizeClass - 1) >> 2) + MIN_CHUNK_SHIFT;
+    int quarter = (sizeClass - 1) & 3;
+    return (1 << shift) + ((quarter + 1) << (shift - 2));
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.LocalCache.rehash;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A counter which spreads the updates of concurrent threads over several cells, so that threads
+ * counting cache hits at the same time rarely contend on a single memory location. Updates go to a
+ * single base cell until an update fails because of contention; from then on each thread updates
+ * the cell chosen by its thread id, which is created when first used. The value of the counter is
+ * the sum of all of the cells.
+ */
+final class StripedCounter {
+
+  /** The maximum number of cells, as a power of two no smaller than the number of CPUs. */
+  static final int MAXIMUM_CELLS =
+      Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+  final AtomicLong base = new AtomicLong();
+
+  /** Null until contention is first observed. */
+  volatile AtomicReferenceArray<AtomicLong> cells;
+
+  void increment() {
+    add(1);
+  }
+
+  void add(long x) {
+    AtomicReferenceArray<AtomicLong> cells = this.cells;
+    if (cells == null) {
+      long b = base.get();
+      if (base.compareAndSet(b, b + x)) {
+        return;
+      }
+      cells = createCells();
+    }
+    int index = rehash((int) Thread.currentThread().getId()) & (cells.length() - 1);
+    AtomicLong cell = cells.get(index);
+    if (cell == null) {
+      cells.compareAndSet(index, null, new AtomicLong());
+      cell = cells.get(index);
+    }
+    cell.addAndGet(x);
+  }
+
+  /**
+   * Returns the current value of the counter. Updates made concurrently with this call may or may
+   * not be included.
+   */
+  long sum() {
+    long sum = base.get();
+    AtomicReferenceArray<AtomicLong> cells = this.cells;
+    if (cells != null) {
+      for (int i = 0; i < cells.length(); i++) {
+        AtomicLong cell = cells.get(i);
+        if (cell != null) {
+          sum += cell.get();
+        }
+      }
+    }
+    return sum;
+  }
+
+  private synchronized AtomicReferenceArray<AtomicLong> createCells() {
+    if (cells == null) {
+      cells = new AtomicReferenceArray<AtomicLong>(MAXIMUM_CELLS);
+    }
+    return cells;
+  }
+}
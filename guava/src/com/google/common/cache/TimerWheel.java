@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.cache;
+
+import static com.google.common.cache.LocalCache.connectTimerOrder;
+import static com.google.common.cache.LocalCache.nullEntry;
+import static com.google.common.cache.LocalCache.nullifyTimerOrder;
+
+import com.google.common.cache.LocalCache.AbstractReferenceEntry;
+import com.google.common.cache.LocalCache.ReferenceEntry;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A hierarchical timer wheel which orders the entries of a segment of a cache built with
+ * {@link CacheBuilder#expireAfter} by their expiration times, so that expired entries can be found
+ * in amortized constant time.
+ *
+ * <p>The wheel consists of several levels of buckets, each level having a coarser resolution than
+ * the one below it: the buckets of the lowest level each span about a second, and those of the
+ * levels above about a minute, an hour and a day. An entry is placed in the lowest level whose
+ * range covers its remaining time, in the bucket for its expiration time. As time advances, the
+ * buckets whose span has passed are emptied; their entries are either found to have expired, or
+ * are moved down to a finer level. Each bucket is a circular doubly-linked list of entries, linked
+ * through their timer links, with a sentinel entry at its head.
+ *
+ * <p>Expired entries are collected in a separate list, from which they are taken by
+ * {@link #pollExpired}. All methods must be called while holding the segment's lock.
+ */
+final class TimerWheel<K, V> {
+
+  /** The number of buckets in each level. */
+  static final int[] BUCKETS = {64, 64, 32, 4, 1};
+
+  /** The span of each bucket in each level, in nanoseconds, rounded up to a power of two. */
+  static final long[] SPANS = {
+    1L << 30, // 1.07s
+    1L << 36, // 1.14m
+    1L << 42, // 1.22h
+    1L << 47, // 1.63d
+    1L << 49, // 6.5d
+    1L << 49, // 6.5d
+  };
+
+  /** The number of bits by which a time is shifted to find its tick at each level. */
+  static final int[] SHIFT = new int[SPANS.length];
+
+  static {
+    for (int i = 0; i < SPANS.length; i++) {
+      SHIFT[i] = Long.numberOfTrailingZeros(SPANS[i]);
+    }
+  }
+
+  @GuardedBy("Segment.this")
+  final ReferenceEntry<K, V>[][] wheel;
+
+  /** Holds the entries which have been found to have expired. */
+  @GuardedBy("Segment.this")
+  final ReferenceEntry<K, V> expired = new Sentinel<K, V>();
+
+  /** The time up to which the wheel has been advanced. */
+  @GuardedBy("Segment.this")
+  long nanos;
+
+  @SuppressWarnings("unchecked") // generic array creation
+  TimerWheel(long now) {
+    this.nanos = now;
+    wheel = (ReferenceEntry<K, V>[][]) new ReferenceEntry<?, ?>[BUCKETS.length][];
+    for (int i = 0; i < BUCKETS.length; i++) {
+      wheel[i] = (ReferenceEntry<K, V>[]) new ReferenceEntry<?, ?>[BUCKETS[i]];
+      for (int j = 0; j < BUCKETS[i]; j++) {
+        wheel[i][j] = new Sentinel<K, V>();
+      }
+    }
+  }
+
+  /**
+   * Adds {@code entry} to the bucket for its expiration time, first removing it from the wheel if
+   * it was already present.
+   */
+  @GuardedBy("Segment.this")
+  void schedule(ReferenceEntry<K, V> entry) {
+    deschedule(entry);
+    link(findBucket(entry.getExpirationTime()), entry);
+  }
+
+  /**
+   * Removes {@code entry} from the wheel, if it is present.
+   */
+  @GuardedBy("Segment.this")
+  void deschedule(ReferenceEntry<K, V> entry) {
+    ReferenceEntry<K, V> next = entry.getNextInTimerWheel();
+    if (next != nullEntry()) {
+      connectTimerOrder(entry.getPreviousInTimerWheel(), next);
+      nullifyTimerOrder(entry);
+    }
+  }
+
+  /**
+   * Advances the wheel to {@code now}, moving the entries which have expired by then to the list of
+   * expired entries.
+   */
+  @GuardedBy("Segment.this")
+  void advance(long now) {
+    long previousTime = nanos;
+    nanos = now;
+    for (int i = 0; i < SHIFT.length - 1; i++) {
+      long previousTicks = previousTime >> SHIFT[i];
+      long currentTicks = now >> SHIFT[i];
+      if (currentTicks - previousTicks <= 0L) {
+        break;
+      }
+      expire(i, previousTicks, currentTicks - previousTicks);
+    }
+  }
+
+  /**
+   * Removes and returns an expired entry, or returns null if there are none.
+   */
+  @Nullable
+  @GuardedBy("Segment.this")
+  ReferenceEntry<K, V> pollExpired() {
+    ReferenceEntry<K, V> entry = expired.getNextInTimerWheel();
+    if (entry == expired) {
+      return null;
+    }
+    deschedule(entry);
+    return entry;
+  }
+
+  /** Removes all entries from the wheel. */
+  @GuardedBy("Segment.this")
+  void clear() {
+    for (ReferenceEntry<K, V>[] buckets : wheel) {
+      for (ReferenceEntry<K, V> sentinel : buckets) {
+        clear(sentinel);
+      }
+    }
+    clear(expired);
+  }
+
+  /**
+   * Empties the buckets of a level whose span has passed, expiring or rescheduling their entries.
+   */
+  @GuardedBy("Segment.this")
+  private void expire(int level, long previousTicks, long delta) {
+    ReferenceEntry<K, V>[] buckets = wheel[level];
+    int mask = buckets.length - 1;
+    int steps = (int) Math.min(delta + 1, buckets.length);
+    int start = (int) (previousTicks & mask);
+    for (int i = start; i < start + steps; i++) {
+      ReferenceEntry<K, V> sentinel = buckets[i & mask];
+      ReferenceEntry<K, V> entry = sentinel.getNextInTimerWheel();
+      if (entry == sentinel) {
+        continue;
+      }
+      // detach the bucket's entries before redistributing them, as they may rejoin this bucket
+      ReferenceEntry<K, V> last = sentinel.getPreviousInTimerWheel();
+      connectTimerOrder(sentinel, sentinel);
+      while (true) {
+        ReferenceEntry<K, V> next = entry.getNextInTimerWheel();
+        nullifyTimerOrder(entry);
+        link(findBucket(entry.getExpirationTime()), entry);
+        if (entry == last) {
+          break;
+        }
+        entry = next;
+      }
+    }
+  }
+
+  /**
+   * Returns the sentinel of the bucket for the given expiration time, or of the list of expired
+   * entries if the wheel has already been advanced past it.
+   */
+  @GuardedBy("Segment.this")
+  private ReferenceEntry<K, V> findBucket(long time) {
+    int length = wheel.length - 1;
+    if (time == Long.MAX_VALUE) {
+      return wheel[length][0]; // never expires
+    }
+    long duration = time - nanos;
+    if (duration <= 0) {
+      return expired;
+    }
+    for (int i = 0; i < length; i++) {
+      if (duration < SPANS[i + 1]) {
+        long ticks = time >> SHIFT[i];
+        int index = (int) (ticks & (wheel[i].length - 1));
+        return wheel[i][index];
+      }
+    }
+    return wheel[length][0];
+  }
+
+  /** Adds {@code entry} to the tail of the list headed by {@code sentinel}. */
+  @GuardedBy("Segment.this")
+  private static <K, V> void link(ReferenceEntry<K, V> sentinel, ReferenceEntry<K, V> entry) {
+    connectTimerOrder(sentinel.getPreviousInTimerWheel(), entry);
+    connectTimerOrder(entry, sentinel);
+  }
+
+  @GuardedBy("Segment.this")
+  private static <K, V> void clear(ReferenceEntry<K, V> sentinel) {
+    ReferenceEntry<K, V> entry = sentinel.getNextInTimerWheel();
+    while (entry != sentinel) {
+      ReferenceEntry<K, V> next = entry.getNextInTimerWheel();
+      nullifyTimerOrder(entry);
+      entry = next;
+    }
+    connectTimerOrder(sentinel, sentinel);
+  }
+
+  /** The head of a bucket, which is never itself scheduled. */
+  static final class Sentinel<K, V> extends AbstractReferenceEntry<K, V> {
+    ReferenceEntry<K, V> nextInTimerWheel = this;
+    ReferenceEntry<K, V> previousInTimerWheel = this;
+
+    @Override
+    public long getExpirationTime() {
+      return Long.MAX_VALUE;
+    }
+
+    @Override
+    public void setExpirationTime(long time) {}
+
+    @Override
+    public ReferenceEntry<K, V> getNextInTimerWheel() {
+      return nextInTimerWheel;
+    }
+
+    @Override
+    public void setNextInTimerWheel(ReferenceEntry<K, V> next) {
+      this.nextInTimerWheel = next;
+    }
+
+    @Override
+    public ReferenceEntry<K, V> getPreviousInTimerWheel() {
+      return previousInTimerWheel;
+    }
+
+    @Override
+    public void setPreviousInTimerWheel(ReferenceEntry<K, V> previous) {
+      this.previousInTimerWheel = previous;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+
+/**
+ * Skeletal implementation of {@link RangeMap}, in terms of {@link RangeMap#getEntry} and
+ * {@link RangeMap#asMapOfRanges}.
+ */
+abstract class AbstractRangeMap<K extends Comparable, V> implements RangeMap<K, V> {
+  AbstractRangeMap() {}
+
+  @Override
+  @Nullable
+  public V get(K key) {
+    Entry<Range<K>, V> entry = getEntry(key);
+    return (entry == null) ? null : entry.getValue();
+  }
+
+  @Override
+  public void putAll(RangeMap<K, V> rangeMap) {
+    for (Entry<Range<K>, V> entry : rangeMap.asMapOfRanges().entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public boolean equals(@Nullable Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (obj instanceof RangeMap) {
+      RangeMap<?, ?> other = (RangeMap<?, ?>) obj;
+      return asMapOfRanges().equals(other.asMapOfRanges());
+    }
+    return false;
+  }
+
+  @Override
+  public final int hashCode() {
+    return asMapOfRanges().hashCode();
+  }
+
+  @Override
+  public final String toString() {
+    return asMapOfRanges().toString();
+  }
+}
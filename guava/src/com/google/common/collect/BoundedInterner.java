@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An {@link Interner} which retains strong references to a bounded number of instances, in a
+ * set-associative table: each instance may only be held in one of the {@value #WAYS} slots of the
+ * set selected by its hash code. Lookups don't lock. Insertions lock the set, and evict one of
+ * its instances when it is full, choosing it with the CLOCK algorithm so that recently interned
+ * instances are kept in preference.
+ *
+ * <p>Because it only holds strong references, this interner doesn't add to the reference
+ * processing work of the garbage collector, unlike {@link Interners#newWeakInterner}.
+ */
+class BoundedInterner<E> implements Interner<E> {
+  /** The number of slots in each set. */
+  static final int WAYS = 4;
+
+  /** The maximum number of locks guarding the sets. */
+  static final int MAXIMUM_LOCKS = 64;
+
+  /** The maximum size of the table. */
+  static final int MAXIMUM_CAPACITY = 1 << 30;
+
+  /*
+   * Slots are never emptied, only overwritten, so lookups may stop at the first empty slot of a
+   * set: instances are always inserted into the first empty slot.
+   */
+  final AtomicReferenceArray<Entry<E>> table;
+  final int ways;
+  final int mask;
+
+  /** The locks guarding insertions, each striped across the sets with the same low bits. */
+  final Object[] locks;
+
+  /** The position of the clock hand of each set, guarded by its lock. */
+  final int[] hands;
+
+  BoundedInterner(int maximumSize) {
+    checkArgument(maximumSize > 0, "maximumSize must be positive: %s", maximumSize);
+    int capacity = Integer.highestOneBit(Math.min(maximumSize, MAXIMUM_CAPACITY));
+    this.table = new AtomicReferenceArray<Entry<E>>(capacity);
+    this.ways = Math.min(WAYS, capacity);
+    int sets = capacity / ways;
+    this.mask = sets - 1;
+    this.locks = new Object[Math.min(sets, MAXIMUM_LOCKS)];
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+    this.hands = new int[sets];
+  }
+
+  /** An interned instance, and whether it was interned again since the clock hand passed it. */
+  static final class Entry<E> {
+    final int hash;
+    final E value;
+
+    /*
+     * Written without synchronization by lookups; a lost write only makes the entry a little more
+     * likely to be evicted.
+     */
+    boolean referenced;
+
+    Entry(int hash, E value) {
+      this.hash = hash;
+      this.value = value;
+    }
+  }
+
+  @Override public E intern(E sample) {
+    int hash = hash(checkNotNull(sample).hashCode());
+    int first = firstIndex(hash);
+    for (int i = first; i < first + ways; i++) {
+      Entry<E> e = table.get(i);
+      if (e == null) {
+        break;
+      }
+      if (e.hash == hash && sample.equals(e.value)) {
+        return found(e);
+      }
+    }
+    return insert(hash, sample);
+  }
+
+  static int hash(int hashCode) {
+    return Hashing.smear(hashCode);
+  }
+
+  /** Returns the index of the first slot of the set for {@code hash}. */
+  int firstIndex(int hash) {
+    return (hash & mask) * ways;
+  }
+
+  /** Marks {@code e} as recently used, and returns its value. */
+  static <E> E found(Entry<E> e) {
+    if (!e.referenced) {
+      e.referenced = true;
+    }
+    return e.value;
+  }
+
+  /**
+   * Returns the instance equal to {@code sample} if another thread interned it since it was
+   * looked up, or else inserts {@code sample}, evicting an instance if its set is full.
+   */
+  E insert(int hash, E sample) {
+    int set = hash & mask;
+    int first = set * ways;
+    synchronized (locks[set & (locks.length - 1)]) {
+      for (int i = first; i < first + ways; i++) {
+        Entry<E> e = table.get(i);
+        if (e == null) {
+          table.set(i, new Entry<E>(hash, sample));
+          return sample;
+        }
+        if (e.hash == hash && sample.equals(e.value)) {
+          return found(e);
+        }
+      }
+
+      // advance the hand past the recently used entries, giving each of them a second chance;
+      // lookups may set their flags again meanwhile, so stop after one full turn
+      int hand = hands[set];
+      for (int i = 0; i < ways; i++) {
+        Entry<E> e = table.get(first + hand);
+        if (!e.referenced) {
+          break;
+        }
+        e.referenced = false;
+        hand = (hand + 1) % ways;
+      }
+      table.set(first + hand, new Entry<E>(hash, sample));
+      hands[set] = (hand + 1) % ways;
+      return sample;
+    }
+  }
+
+  /** Returns the number of instances currently held; for testing. */
+  int size() {
+    int size = 0;
+    for (int i = 0; i < table.length(); i++) {
+      if (table.get(i) != null) {
+        size++;
+      }
+    }
+    return size;
+  }
+}
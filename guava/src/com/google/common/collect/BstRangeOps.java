@@ -51,6 +51,42 @@ final class BstRangeOps {
     return total;
   }
 
+  /**
+   * Returns the node whose entry covers position {@code index} of the specified tree restricted to
+   * the specified range, where each entry covers {@link BstAggregate#entryValue} consecutive
+   * positions in key order, or {@code null} if {@code index} is not less than
+   * {@link #totalInRange}. Assumes that the tree satisfies the binary search ordering property
+   * relative to {@code range.comparator()}.
+   */
+  @Nullable
+  public static <K, N extends BstNode<K, N>> N select(
+      BstAggregate<? super N> aggregate, GeneralRange<K> range, long index, @Nullable N root) {
+    checkNotNull(aggregate);
+    checkNotNull(range);
+    if (index < 0 || range.isEmpty()) {
+      return null;
+    }
+    if (range.hasLowerBound()) {
+      index += totalBeyondRangeToSide(aggregate, range, LEFT, root);
+    }
+    N node = root;
+    while (node != null) {
+      long leftTotal = aggregate.treeValue(node.childOrNull(LEFT));
+      if (index < leftTotal) {
+        node = node.childOrNull(LEFT);
+        continue;
+      }
+      index -= leftTotal;
+      int entryValue = aggregate.entryValue(node);
+      if (index < entryValue) {
+        return range.contains(node.getKey()) ? node : null;
+      }
+      index -= entryValue;
+      node = node.childOrNull(RIGHT);
+    }
+    return null;
+  }
+
   // Returns total value strictly to the specified side of the specified range.
   private static <K, N extends BstNode<K, N>> long totalBeyondRangeToSide(
       BstAggregate<? super N> aggregate, GeneralRange<K> range, BstSide side, @Nullable N root) {
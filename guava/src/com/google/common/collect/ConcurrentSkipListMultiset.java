@@ -0,0 +1,824 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Multisets.checkNonnegative;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Serialization.FieldSetter;
+import com.google.common.math.IntMath;
+import com.google.common.primitives.Ints;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+
+/**
+ * A thread-safe {@link SortedMultiset}, backed by a lock-free skip list of its distinct elements.
+ * Each element's count is a single atomic field of its skip list node, so {@link #add}, {@link
+ * #remove}, {@link #setCount} and {@link #count} never block, and updates to different elements
+ * proceed in parallel. Adding or removing the last occurrence of an element takes expected
+ * {@code O(log n)} time for {@code n} distinct elements; changing the count of an element that is
+ * already present takes a single compare-and-set after the search.
+ *
+ * <p>Iterators, and the views returned by {@link #elementSet}, {@link #entrySet}, {@link
+ * #descendingMultiset} and the {@code headMultiset}, {@code tailMultiset} and {@code subMultiset}
+ * methods, are <i>weakly consistent</i>: they never throw {@link
+ * java.util.ConcurrentModificationException}, and reflect some, all or none of the changes made
+ * since they were created. Entries returned by entry iterators are snapshots of the count at the
+ * time they were returned. As with {@link ConcurrentHashMultiset}, {@link #size} is not a
+ * constant-time operation, and is only an estimate while the multiset is being modified.
+ *
+ * <p>Elements are ordered by their natural ordering or by an explicit {@link Comparator}, which,
+ * as for {@link TreeMultiset}, must be consistent with equals. This multiset does not permit null
+ * elements.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class ConcurrentSkipListMultiset<E> extends AbstractSortedMultiset<E>
+    implements Serializable {
+
+  /**
+   * Creates a new, empty multiset, sorted according to the elements' natural order. All elements
+   * inserted into the multiset must implement the {@code Comparable} interface and be mutually
+   * comparable.
+   */
+  @SuppressWarnings("unchecked")
+  public static <E extends Comparable> ConcurrentSkipListMultiset<E> create() {
+    return new ConcurrentSkipListMultiset<E>((Comparator) Ordering.natural());
+  }
+
+  /**
+   * Creates a new, empty multiset, sorted according to the specified comparator.
+   */
+  public static <E> ConcurrentSkipListMultiset<E> create(Comparator<? super E> comparator) {
+    return new ConcurrentSkipListMultiset<E>(checkNotNull(comparator));
+  }
+
+  /**
+   * Creates a new multiset containing the specified elements, sorted according to their natural
+   * order.
+   */
+  public static <E extends Comparable> ConcurrentSkipListMultiset<E> create(
+      Iterable<? extends E> elements) {
+    ConcurrentSkipListMultiset<E> multiset = create();
+    Iterables.addAll(multiset, elements);
+    return multiset;
+  }
+
+  /*
+   * The skip list follows Herlihy and Shavit's lock-free skip list. Every node but the head has
+   * a random height, and is linked into the list at each level up to its height. An element is
+   * present exactly when its node is linked at level 0 with a positive count.
+   *
+   * A count of zero is terminal: once a node's count reaches zero it is never changed again. The
+   * thread that sets it to zero, or any thread that finds it at zero, marks the node's forward
+   * links, top down, by wrapping their targets in a Marked holder, and then any search that
+   * passes the node unlinks it. Marked links never change again, so read-only searches never step
+   * down from a node whose count is zero. A later add of the same element inserts a new node.
+   * Nodes are only ever linked behind unmarked predecessors, so insertion never races with
+   * removal.
+   *
+   * Views share the head and tail of the multiset they were created from, and differ only in
+   * their range.
+   */
+
+  /** Nodes have between 1 and {@code MAX_LEVEL + 1} levels; each extra level is 1/4 as likely. */
+  static final int MAX_LEVEL = 15;
+
+  private static final class Node<E> {
+    @Nullable final E element;
+    volatile int count;
+    /** The forward links, each holding either a {@code Node} or a {@code Marked} node. */
+    final AtomicReferenceArray<Object> next;
+
+    Node(@Nullable E element, int count, int height) {
+      this.element = element;
+      this.count = count;
+      this.next = new AtomicReferenceArray<Object>(height);
+    }
+
+    /** Returns the next node at {@code level}, whether or not the link is marked. */
+    @SuppressWarnings("unchecked")
+    Node<E> next(int level) {
+      Object next = this.next.get(level);
+      return (Node<E>) ((next instanceof Marked) ? ((Marked) next).node : next);
+    }
+
+    /** Replaces the unmarked link {@code expect} at {@code level} with {@code update}. */
+    boolean casNext(int level, Node<E> expect, Node<E> update) {
+      return next.compareAndSet(level, expect, update);
+    }
+
+    void mark(int level) {
+      Object next;
+      do {
+        next = this.next.get(level);
+      } while (!(next instanceof Marked)
+          && !this.next.compareAndSet(level, next, new Marked(next)));
+    }
+
+    boolean casCount(int expect, int update) {
+      return COUNT_UPDATER.compareAndSet(this, expect, update);
+    }
+  }
+
+  private static final class Marked {
+    final Object node;
+
+    Marked(Object node) {
+      this.node = node;
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicIntegerFieldUpdater<Node> COUNT_UPDATER =
+      AtomicIntegerFieldUpdater.newUpdater(Node.class, "count");
+
+  private transient final GeneralRange<E> range;
+  private transient final Node<E> head;
+  private transient final Node<E> tail;
+  private transient final Predicate<E> tooLow;
+  private transient final Predicate<E> notTooHigh;
+
+  /** Seed for the node heights; racy updates only make the heights less random. */
+  private transient int randomSeed = new Random().nextInt() | 0x100;
+
+  private ConcurrentSkipListMultiset(Comparator<? super E> comparator) {
+    this(GeneralRange.all(comparator),
+        new Node<E>(null, 0, MAX_LEVEL + 1), new Node<E>(null, 0, 0));
+    for (int level = 0; level <= MAX_LEVEL; level++) {
+      head.next.set(level, tail);
+    }
+  }
+
+  private ConcurrentSkipListMultiset(GeneralRange<E> range, Node<E> head, Node<E> tail) {
+    super(range.comparator());
+    this.range = range;
+    this.head = head;
+    this.tail = tail;
+    this.tooLow = new Predicate<E>() {
+      @Override public boolean apply(E element) {
+        return ConcurrentSkipListMultiset.this.range.tooLow(element);
+      }
+    };
+    this.notTooHigh = new Predicate<E>() {
+      @Override public boolean apply(E element) {
+        return !ConcurrentSkipListMultiset.this.range.tooHigh(element);
+      }
+    };
+  }
+
+  // Skip list operations
+
+  private int randomHeight() {
+    int x = randomSeed;
+    x ^= x << 13;
+    x ^= x >>> 17;
+    x ^= x << 5;
+    randomSeed = x;
+    return Math.min(Integer.numberOfTrailingZeros(x) >> 1, MAX_LEVEL) + 1;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E> Node<E>[] newNodeArray() {
+    return new Node[MAX_LEVEL + 1];
+  }
+
+  /**
+   * Fills {@code preds} and {@code succs}, at every level, with the last node whose element is
+   * less than {@code element} and the node after it, unlinking every deleted node it passes.
+   * Returns {@code true} if {@code succs[0]} holds {@code element}.
+   */
+  @SuppressWarnings("unchecked")
+  private boolean find(E element, Node<E>[] preds, Node<E>[] succs) {
+    retry:
+    while (true) {
+      Node<E> pred = head;
+      for (int level = MAX_LEVEL; level >= 0; level--) {
+        Node<E> curr = pred.next(level);
+        while (curr != tail) {
+          Object succ = curr.next.get(level);
+          if (succ instanceof Marked) {
+            Node<E> unmarked = (Node<E>) ((Marked) succ).node;
+            if (!pred.casNext(level, curr, unmarked)) {
+              continue retry;
+            }
+            curr = unmarked;
+          } else if (comparator.compare(curr.element, element) < 0) {
+            pred = curr;
+            curr = (Node<E>) succ;
+          } else {
+            break;
+          }
+        }
+        preds[level] = pred;
+        succs[level] = curr;
+      }
+      return succs[0] != tail && comparator.compare(succs[0].element, element) == 0;
+    }
+  }
+
+  /**
+   * Returns the live node holding {@code element}, or {@code null} if there is none. Never
+   * modifies the list.
+   */
+  @Nullable
+  private Node<E> findNode(E element) {
+    for (Node<E> node = lastBelow(element).next(0); node != tail; node = node.next(0)) {
+      int cmp = comparator.compare(node.element, element);
+      if (cmp > 0) {
+        break;
+      } else if (cmp == 0 && node.count != 0) {
+        return node;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the last live node, or the head, for which {@code predicate} holds; it must hold for
+   * a prefix of the list. Never modifies the list.
+   */
+  private Node<E> lastWhere(Predicate<? super E> predicate) {
+    Node<E> pred = head;
+    for (int level = MAX_LEVEL; level >= 0; level--) {
+      Node<E> curr = pred.next(level);
+      while (curr != tail && predicate.apply(curr.element)) {
+        if (curr.count != 0) {
+          pred = curr;
+        }
+        curr = curr.next(level);
+      }
+    }
+    return pred;
+  }
+
+  /**
+   * Returns the last live node, or the head, whose element is less than {@code element}. This is
+   * {@code lastWhere} specialized to the comparator, as it is on the path of every single-element
+   * query and update. Never modifies the list.
+   */
+  private Node<E> lastBelow(E element) {
+    Node<E> pred = head;
+    for (int level = MAX_LEVEL; level >= 0; level--) {
+      Node<E> curr = pred.next(level);
+      while (curr != tail && comparator.compare(curr.element, element) < 0) {
+        if (curr.count != 0) {
+          pred = curr;
+        }
+        curr = curr.next(level);
+      }
+    }
+    return pred;
+  }
+
+  /**
+   * Returns the live node holding {@code element}, or inserts a node holding {@code element} with
+   * the positive count {@code count} and returns {@code null}.
+   */
+  @Nullable
+  private Node<E> getOrInsert(E element, int count) {
+    Node<E>[] preds = newNodeArray();
+    Node<E>[] succs = newNodeArray();
+    int height = randomHeight();
+    while (true) {
+      if (find(element, preds, succs)) {
+        Node<E> existing = succs[0];
+        if (existing.count != 0) {
+          return existing;
+        }
+        // existing is being removed; finish that and try again
+        unlink(existing);
+        continue;
+      }
+      Node<E> node = new Node<E>(element, count, height);
+      for (int level = 0; level < height; level++) {
+        node.next.set(level, succs[level]);
+      }
+      if (!preds[0].casNext(0, succs[0], node)) {
+        continue;
+      }
+      linkAbove(node, preds, succs);
+      return null;
+    }
+  }
+
+  /** Links a node that has just been linked at level 0 into each of its other levels. */
+  private void linkAbove(Node<E> node, Node<E>[] preds, Node<E>[] succs) {
+    for (int level = 1; level < node.next.length(); level++) {
+      while (true) {
+        Object succ = node.next.get(level);
+        if (succ instanceof Marked) {
+          return; // removed concurrently; the remover unlinks whatever we linked
+        }
+        if (succ != succs[level] && !node.next.compareAndSet(level, succ, succs[level])) {
+          continue;
+        }
+        if (preds[level].casNext(level, succs[level], node)) {
+          break;
+        }
+        find(node.element, preds, succs);
+        if (succs[0] != node) {
+          return; // removed concurrently
+        }
+      }
+    }
+  }
+
+  /** Unlinks a node whose count is zero. Safe to call from several threads at once. */
+  private void unlink(Node<E> node) {
+    for (int level = node.next.length() - 1; level >= 0; level--) {
+      node.mark(level);
+    }
+    find(node.element, ConcurrentSkipListMultiset.<E>newNodeArray(),
+        ConcurrentSkipListMultiset.<E>newNodeArray());
+  }
+
+  /** Returns the first live node in range at or after {@code node}, or {@code null}. */
+  @Nullable
+  private Node<E> liveAtOrAfter(Node<E> node) {
+    for (; node != tail; node = node.next(0)) {
+      if (range.tooHigh(node.element)) {
+        return null;
+      } else if (node.count != 0) {
+        return node;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the last live node in range at or before {@code node}, or {@code null}. */
+  @Nullable
+  private Node<E> liveAtOrBefore(Node<E> node) {
+    while (node != head) {
+      if (range.tooLow(node.element)) {
+        return null;
+      } else if (node.count != 0) {
+        return node;
+      }
+      node = lastBelow(node.element);
+    }
+    return null;
+  }
+
+  @Nullable
+  private Node<E> firstNode() {
+    return liveAtOrAfter(lastWhere(tooLow).next(0));
+  }
+
+  @Nullable
+  private Node<E> lastNode() {
+    return liveAtOrBefore(lastWhere(notTooHigh));
+  }
+
+  // Query Operations
+
+  @Override public int count(@Nullable Object element) {
+    if (element == null) {
+      return 0;
+    }
+    try {
+      @SuppressWarnings("unchecked")
+      E e = (E) element;
+      if (!range.contains(e)) {
+        return 0;
+      }
+      Node<E> node = findNode(e);
+      return (node == null) ? 0 : node.count;
+    } catch (ClassCastException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>If the data in the multiset is modified by any other threads during this method,
+   * it is undefined which (if any) of these modifications will be reflected in the result.
+   */
+  @Override public int size() {
+    long sum = 0L;
+    for (Node<E> node = firstNode(); node != null; node = liveAtOrAfter(node.next(0))) {
+      sum += node.count;
+    }
+    return Ints.saturatedCast(sum);
+  }
+
+  @Override int distinctElements() {
+    int distinct = 0;
+    for (Node<E> node = firstNode(); node != null; node = liveAtOrAfter(node.next(0))) {
+      distinct++;
+    }
+    return distinct;
+  }
+
+  @Override public boolean isEmpty() {
+    return firstNode() == null;
+  }
+
+  /*
+   * Note: the superclass toArray() methods assume that size() gives a correct
+   * answer, which ours does not.
+   */
+
+  @Override public Object[] toArray() {
+    return snapshot().toArray();
+  }
+
+  @Override public <T> T[] toArray(T[] array) {
+    return snapshot().toArray(array);
+  }
+
+  private List<E> snapshot() {
+    List<E> list = Lists.newArrayList();
+    for (Node<E> node = firstNode(); node != null; node = liveAtOrAfter(node.next(0))) {
+      for (int i = node.count; i > 0; i--) {
+        list.add(node.element);
+      }
+    }
+    return list;
+  }
+
+  // Modification Operations
+
+  /**
+   * Adds a number of occurrences of the specified element to this multiset.
+   *
+   * @return the previous count of the element before the operation; possibly zero
+   * @throws IllegalArgumentException if {@code occurrences} is negative, if the resulting amount
+   *     would exceed {@link Integer#MAX_VALUE}, or if {@code element} is outside the range of
+   *     this view
+   */
+  @Override public int add(E element, int occurrences) {
+    checkNotNull(element);
+    if (occurrences == 0) {
+      return count(element);
+    }
+    checkArgument(occurrences > 0, "Invalid occurrences: %s", occurrences);
+    checkArgument(range.contains(element));
+
+    while (true) {
+      // most adds are to elements already present, which need no write to the list
+      Node<E> node = findNode(element);
+      if (node == null) {
+        node = getOrInsert(element, occurrences);
+        if (node == null) {
+          return 0;
+        }
+      }
+      while (true) {
+        int oldValue = node.count;
+        if (oldValue == 0) {
+          // a concurrent remove took the count to zero; finish it and insert a new node
+          unlink(node);
+          break;
+        }
+        try {
+          int newValue = IntMath.checkedAdd(oldValue, occurrences);
+          if (node.casCount(oldValue, newValue)) {
+            return oldValue;
+          }
+        } catch (ArithmeticException overflow) {
+          throw new IllegalArgumentException("Overflow adding " + occurrences
+              + " occurrences to a count of " + oldValue);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes a number of occurrences of the specified element from this multiset. If the multiset
+   * contains fewer than this number of occurrences to begin with, all occurrences will be removed.
+   *
+   * @return the count of the element before the operation; possibly zero
+   * @throws IllegalArgumentException if {@code occurrences} is negative
+   */
+  @Override public int remove(@Nullable Object element, int occurrences) {
+    if (occurrences == 0) {
+      return count(element);
+    }
+    checkArgument(occurrences > 0, "Invalid occurrences: %s", occurrences);
+    if (element == null) {
+      return 0;
+    }
+    Node<E> node;
+    try {
+      @SuppressWarnings("unchecked")
+      E e = (E) element;
+      if (!range.contains(e)) {
+        return 0;
+      }
+      node = findNode(e);
+    } catch (ClassCastException e) {
+      return 0;
+    }
+    if (node == null) {
+      return 0;
+    }
+    while (true) {
+      int oldValue = node.count;
+      if (oldValue == 0) {
+        return 0;
+      }
+      int newValue = Math.max(0, oldValue - occurrences);
+      if (node.casCount(oldValue, newValue)) {
+        if (newValue == 0) {
+          unlink(node);
+        }
+        return oldValue;
+      }
+    }
+  }
+
+  /**
+   * Adds or removes occurrences of {@code element} such that the {@link #count} of the
+   * element becomes {@code count}.
+   *
+   * @return the count of {@code element} in the multiset before this call
+   * @throws IllegalArgumentException if {@code count} is negative, or if {@code element} is
+   *     outside the range of this view
+   */
+  @Override public int setCount(E element, int count) {
+    checkNotNull(element);
+    checkNonnegative(count, "count");
+    checkArgument(range.contains(element));
+    while (true) {
+      Node<E> node = (count == 0) ? findNode(element) : getOrInsert(element, count);
+      if (node == null) {
+        return 0;
+      }
+      while (true) {
+        int oldValue = node.count;
+        if (oldValue == 0) {
+          if (count == 0) {
+            return 0;
+          }
+          unlink(node);
+          break;
+        }
+        if (node.casCount(oldValue, count)) {
+          if (count == 0) {
+            unlink(node);
+          }
+          return oldValue;
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets the number of occurrences of {@code element} to {@code newCount}, but only if
+   * the count is currently {@code expectedOldCount}. If {@code element} does not appear
+   * in the multiset exactly {@code expectedOldCount} times, no changes will be made.
+   *
+   * @return {@code true} if the change was successful. This usually indicates
+   *     that the multiset has been modified, but not always: in the case that
+   *     {@code expectedOldCount == newCount}, the method will return {@code true} if
+   *     the condition was met.
+   * @throws IllegalArgumentException if {@code expectedOldCount} or {@code newCount} is negative,
+   *     or if {@code element} is outside the range of this view
+   */
+  @Override public boolean setCount(E element, int expectedOldCount, int newCount) {
+    checkNotNull(element);
+    checkNonnegative(expectedOldCount, "oldCount");
+    checkNonnegative(newCount, "newCount");
+    checkArgument(range.contains(element));
+
+    Node<E> node = findNode(element);
+    int oldValue = (node == null) ? 0 : node.count;
+    if (oldValue != expectedOldCount) {
+      return false;
+    } else if (oldValue == 0) {
+      if (newCount == 0) {
+        return true;
+      }
+      // if our insert lost the race, it must have lost to a nonzero count, so we can stop
+      return getOrInsert(element, newCount) == null;
+    } else if (node.casCount(oldValue, newCount)) {
+      if (newCount == 0) {
+        unlink(node);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  @Override public void clear() {
+    for (Node<E> node = firstNode(); node != null; node = liveAtOrAfter(node.next(0))) {
+      int oldValue;
+      while ((oldValue = node.count) != 0) {
+        if (node.casCount(oldValue, 0)) {
+          unlink(node);
+          break;
+        }
+      }
+    }
+  }
+
+  // Navigation
+
+  @Override public Entry<E> firstEntry() {
+    Node<E> node = firstNode();
+    return (node == null) ? null : snapshotEntry(node);
+  }
+
+  @Override public Entry<E> lastEntry() {
+    Node<E> node = lastNode();
+    return (node == null) ? null : snapshotEntry(node);
+  }
+
+  @Override public Entry<E> pollFirstEntry() {
+    for (Node<E> node = firstNode(); node != null; node = firstNode()) {
+      Entry<E> result = poll(node);
+      if (result != null) {
+        return result;
+      }
+    }
+    return null;
+  }
+
+  @Override public Entry<E> pollLastEntry() {
+    for (Node<E> node = lastNode(); node != null; node = lastNode()) {
+      Entry<E> result = poll(node);
+      if (result != null) {
+        return result;
+      }
+    }
+    return null;
+  }
+
+  /** Removes every occurrence held by {@code node}, or returns null if another thread did. */
+  @Nullable
+  private Entry<E> poll(Node<E> node) {
+    int oldValue;
+    while ((oldValue = node.count) != 0) {
+      if (node.casCount(oldValue, 0)) {
+        unlink(node);
+        return Multisets.immutableEntry(node.element, oldValue);
+      }
+    }
+    return null;
+  }
+
+  /** Returns an entry for {@code node}, or for its last observed count once it is gone. */
+  private Entry<E> snapshotEntry(Node<E> node) {
+    return Multisets.immutableEntry(node.element, node.count);
+  }
+
+  @Override Iterator<Entry<E>> entryIterator() {
+    return removableIterator(new AbstractIterator<Entry<E>>() {
+      private Node<E> last;
+
+      @Override protected Entry<E> computeNext() {
+        // advance from the last returned node only now, to see elements inserted since
+        Node<E> node = (last == null) ? firstNode() : liveAtOrAfter(last.next(0));
+        for (; node != null; node = liveAtOrAfter(node.next(0))) {
+          int count = node.count;
+          if (count != 0) {
+            last = node;
+            return Multisets.immutableEntry(node.element, count);
+          }
+        }
+        return endOfData();
+      }
+    });
+  }
+
+  @Override Iterator<Entry<E>> descendingEntryIterator() {
+    return removableIterator(new AbstractIterator<Entry<E>>() {
+      private Node<E> last;
+
+      @Override protected Entry<E> computeNext() {
+        Node<E> node = (last == null) ? lastNode() : liveAtOrBefore(lastBelow(last.element));
+        for (; node != null; node = liveAtOrBefore(lastBelow(node.element))) {
+          int count = node.count;
+          if (count != 0) {
+            last = node;
+            return Multisets.immutableEntry(node.element, count);
+          }
+        }
+        return endOfData();
+      }
+    });
+  }
+
+  /**
+   * AbstractIterator doesn't support remove(), so, as in ConcurrentHashMultiset, we delegate to
+   * it with a ForwardingIterator that removes the last returned element.
+   */
+  private Iterator<Entry<E>> removableIterator(final Iterator<Entry<E>> readOnlyIterator) {
+    return new ForwardingIterator<Entry<E>>() {
+      private Entry<E> last;
+
+      @Override protected Iterator<Entry<E>> delegate() {
+        return readOnlyIterator;
+      }
+
+      @Override public Entry<E> next() {
+        last = super.next();
+        return last;
+      }
+
+      @Override public void remove() {
+        checkState(last != null);
+        ConcurrentSkipListMultiset.this.setCount(last.getElement(), 0);
+        last = null;
+      }
+    };
+  }
+
+  // Views
+
+  @Override public SortedMultiset<E> headMultiset(E upperBound, BoundType boundType) {
+    checkNotNull(upperBound);
+    return new ConcurrentSkipListMultiset<E>(
+        range.intersect(GeneralRange.upTo(comparator, upperBound, boundType)), head, tail);
+  }
+
+  @Override public SortedMultiset<E> tailMultiset(E lowerBound, BoundType boundType) {
+    checkNotNull(lowerBound);
+    return new ConcurrentSkipListMultiset<E>(
+        range.intersect(GeneralRange.downTo(comparator, lowerBound, boundType)), head, tail);
+  }
+
+  // Serialization
+
+  // These constants allow the deserialization code to set final fields. This holder class
+  // makes sure they are not initialized unless an instance is deserialized.
+  private static class FieldSettersHolder {
+    static final FieldSetter<AbstractSortedMultiset> COMPARATOR_FIELD_SETTER =
+        Serialization.getFieldSetter(AbstractSortedMultiset.class, "comparator");
+    static final FieldSetter<ConcurrentSkipListMultiset> RANGE_FIELD_SETTER =
+        Serialization.getFieldSetter(ConcurrentSkipListMultiset.class, "range");
+    static final FieldSetter<ConcurrentSkipListMultiset> HEAD_FIELD_SETTER =
+        Serialization.getFieldSetter(ConcurrentSkipListMultiset.class, "head");
+    static final FieldSetter<ConcurrentSkipListMultiset> TAIL_FIELD_SETTER =
+        Serialization.getFieldSetter(ConcurrentSkipListMultiset.class, "tail");
+    static final FieldSetter<ConcurrentSkipListMultiset> TOO_LOW_FIELD_SETTER =
+        Serialization.getFieldSetter(ConcurrentSkipListMultiset.class, "tooLow");
+    static final FieldSetter<ConcurrentSkipListMultiset> NOT_TOO_HIGH_FIELD_SETTER =
+        Serialization.getFieldSetter(ConcurrentSkipListMultiset.class, "notTooHigh");
+  }
+
+  /**
+   * @serialData the comparator, the number of distinct elements, the first element, its count,
+   *     the second element, its count, and so on
+   */
+  private void writeObject(ObjectOutputStream stream) throws IOException {
+    stream.defaultWriteObject();
+    stream.writeObject(comparator);
+    // snapshot first, so that the number of entries matches the entries written
+    List<Entry<E>> entries = Lists.newArrayList(entryIterator());
+    stream.writeInt(entries.size());
+    for (Entry<E> entry : entries) {
+      stream.writeObject(entry.getElement());
+      stream.writeInt(entry.getCount());
+    }
+  }
+
+  private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+    stream.defaultReadObject();
+    @SuppressWarnings("unchecked") // reading data stored by writeObject
+    Comparator<? super E> comparator = (Comparator<? super E>) stream.readObject();
+    ConcurrentSkipListMultiset<E> template = new ConcurrentSkipListMultiset<E>(comparator);
+    FieldSettersHolder.COMPARATOR_FIELD_SETTER.set(this, comparator);
+    FieldSettersHolder.RANGE_FIELD_SETTER.set(this, template.range);
+    FieldSettersHolder.HEAD_FIELD_SETTER.set(this, template.head);
+    FieldSettersHolder.TAIL_FIELD_SETTER.set(this, template.tail);
+    FieldSettersHolder.TOO_LOW_FIELD_SETTER.set(this, template.tooLow);
+    FieldSettersHolder.NOT_TOO_HIGH_FIELD_SETTER.set(this, template.notTooHigh);
+    randomSeed = template.randomSeed;
+    Serialization.populateMultiset(this, stream);
+  }
+
+  private static final long serialVersionUID = 1;
+}
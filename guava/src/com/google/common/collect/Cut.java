@@ -99,6 +99,26 @@ abstract class Cut<C extends Comparable> implements Comparable<Cut<C>>, Serializ
     return false;
   }
 
+  /**
+   * Returns the number of cuts in {@code cuts}, which must be in nondecreasing order, that lie
+   * below {@code value}. Used by the immutable range collections, which store their ranges as a
+   * flat array of alternating lower and upper bounds: {@code value} lies in the range at index
+   * {@code i} exactly when the result is {@code 2 * i + 1}.
+   */
+  static <C extends Comparable> int countBelow(Cut<C>[] cuts, C value) {
+    int low = 0;
+    int high = cuts.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (cuts[mid].isLessThan(value)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
   /*
    * The implementation neither produces nor consumes any non-null instance of type C, so
    * casting the type parameter is safe.
@@ -16,23 +16,45 @@
 
 package com.google.common.collect;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Multisets.checkNonnegative;
+
 import com.google.common.annotations.GwtCompatible;
 import com.google.common.annotations.GwtIncompatible;
+import com.google.common.base.Objects;
+import com.google.common.primitives.Ints;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.HashMap;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.Nullable;
 
 /**
- * Multiset implementation backed by a {@link HashMap}.
+ * Multiset implementation backed by a hash table.
+ *
+ * <p>The table uses open addressing with linear probing, and holds each distinct element, its
+ * hash code and its count in three parallel arrays, so the multiset takes no objects per element.
+ * Adding, removing and counting occurrences don't allocate, unless the table has to grow to make
+ * room for a new distinct element.
+ *
+ * <p>Instances serialized by earlier releases can be deserialized by this one. The reverse is not
+ * possible: before release 12.0, {@code HashMultiset} extended {@code AbstractMapBasedMultiset},
+ * and those releases can't deserialize an instance serialized without that superclass.
  *
  * @author Kevin Bourrillion
  * @author Jared Levy
  * @since 2.0 (imported from Google Collections Library)
  */
 @GwtCompatible(serializable = true, emulated = true)
-public final class HashMultiset<E> extends AbstractMapBasedMultiset<E> {
+public final class HashMultiset<E> extends AbstractMultiset<E> implements Serializable {
 
   /**
    * Creates a new, empty {@code HashMultiset} using the default initial
@@ -68,12 +90,430 @@ public final class HashMultiset<E> extends AbstractMapBasedMultiset<E> {
     return multiset;
   }
 
+  private static final int DEFAULT_EXPECTED_SIZE = 12;
+  private static final int MAXIMUM_CAPACITY = Ints.MAX_POWER_OF_TWO;
+
+  /** Stands for the null element in the table, where null marks the empty slots. */
+  private static final Object NULL_ELEMENT = new Object();
+
+  /*
+   * Each distinct element is held in the first empty slot at or after the slot selected by its
+   * hash; removing one shifts back the elements after it, so that lookups may stop at the first
+   * empty slot.
+   */
+  private transient Object[] elements;
+  private transient int[] hashes;
+  private transient int[] counts;
+  private transient int distinctElements;
+
+  /*
+   * Cache the size for efficiency. Using a long lets us avoid the need for
+   * overflow checking and ensures that size() will function correctly even if
+   * the multiset had once been larger than Integer.MAX_VALUE.
+   */
+  private transient long size;
+
+  private transient int modCount;
+
   private HashMultiset() {
-    super(new HashMap<E, Count>());
+    this(DEFAULT_EXPECTED_SIZE);
   }
 
   private HashMultiset(int distinctElements) {
-    super(Maps.<E, Count>newHashMapWithExpectedSize(distinctElements));
+    checkArgument(distinctElements >= 0,
+        "distinctElements cannot be negative: %s", distinctElements);
+    allocate(capacityFor(distinctElements));
+  }
+
+  private void allocate(int capacity) {
+    elements = new Object[capacity];
+    hashes = new int[capacity];
+    counts = new int[capacity];
+  }
+
+  /** Returns the most distinct elements a table of {@code capacity} slots holds; 3/4 full. */
+  private static int maxSize(int capacity) {
+    return capacity - capacity / 4;
+  }
+
+  private static int capacityFor(int distinctElements) {
+    int capacity = 4;
+    while (maxSize(capacity) < distinctElements && capacity < MAXIMUM_CAPACITY) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private static Object mask(@Nullable Object element) {
+    return (element == null) ? NULL_ELEMENT : element;
+  }
+
+  @SuppressWarnings("unchecked") // only elements of type E are stored
+  private E elementAt(int slot) {
+    Object element = elements[slot];
+    return (element == NULL_ELEMENT) ? null : (E) element;
+  }
+
+  private static int hash(Object maskedElement) {
+    return Hashing.smear(maskedElement.hashCode());
+  }
+
+  /** Returns the slot holding {@code element}, or -1 if it has no occurrences. */
+  private int slotOf(@Nullable Object element) {
+    Object masked = mask(element);
+    int hash = hash(masked);
+    Object[] elements = this.elements;
+    int mask = elements.length - 1;
+    for (int i = hash & mask; elements[i] != null; i = (i + 1) & mask) {
+      if (hashes[i] == hash && Objects.equal(elements[i], masked)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the slot holding {@code maskedElement}, or else the empty slot where it would be
+   * inserted, as {@code -1 - slot}.
+   */
+  private int findOrEmpty(Object maskedElement, int hash) {
+    Object[] elements = this.elements;
+    int mask = elements.length - 1;
+    int i = hash & mask;
+    for (; elements[i] != null; i = (i + 1) & mask) {
+      if (hashes[i] == hash && Objects.equal(elements[i], maskedElement)) {
+        return i;
+      }
+    }
+    return -1 - i;
+  }
+
+  /** Inserts a new distinct element into the empty {@code slot}, growing the table if needed. */
+  private void insert(int slot, Object maskedElement, int hash, int count) {
+    elements[slot] = maskedElement;
+    hashes[slot] = hash;
+    counts[slot] = count;
+    modCount++;
+    if (++distinctElements > maxSize(elements.length)) {
+      checkState(elements.length < MAXIMUM_CAPACITY, "too many distinct elements");
+      rehash(elements.length << 1);
+    }
+  }
+
+  private void rehash(int newCapacity) {
+    Object[] oldElements = elements;
+    int[] oldHashes = hashes;
+    int[] oldCounts = counts;
+    allocate(newCapacity);
+    int mask = newCapacity - 1;
+    for (int j = 0; j < oldElements.length; j++) {
+      if (oldElements[j] != null) {
+        int i = oldHashes[j] & mask;
+        while (elements[i] != null) {
+          i = (i + 1) & mask;
+        }
+        elements[i] = oldElements[j];
+        hashes[i] = oldHashes[j];
+        counts[i] = oldCounts[j];
+      }
+    }
+  }
+
+  /**
+   * Empties the slot {@code hole}, then shifts back the elements after it which may move closer
+   * to the slot selected by their hash, so that lookups don't stop too early.
+   */
+  private void removeSlot(int hole) {
+    int mask = elements.length - 1;
+    for (int i = (hole + 1) & mask; elements[i] != null; i = (i + 1) & mask) {
+      // the element in slot i may fill the hole unless its preferred slot is in (hole, i]
+      if (((i - hashes[i]) & mask) >= ((i - hole) & mask)) {
+        elements[hole] = elements[i];
+        hashes[hole] = hashes[i];
+        counts[hole] = counts[i];
+        hole = i;
+      }
+    }
+    elements[hole] = null;
+    counts[hole] = 0;
+    distinctElements--;
+    modCount++;
+  }
+
+  // Query Operations
+
+  @Override public int size() {
+    return Ints.saturatedCast(size);
+  }
+
+  @Override public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override public int count(@Nullable Object element) {
+    int slot = slotOf(element);
+    return (slot < 0) ? 0 : counts[slot];
+  }
+
+  @Override int distinctElements() {
+    return distinctElements;
+  }
+
+  // Modification Operations
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalArgumentException if the call would result in more than
+   *     {@link Integer#MAX_VALUE} occurrences of {@code element} in this
+   *     multiset.
+   */
+  @Override public int add(@Nullable E element, int occurrences) {
+    if (occurrences == 0) {
+      return count(element);
+    }
+    checkOccurrences(occurrences);
+    Object masked = mask(element);
+    int hash = hash(masked);
+    int slot = findOrEmpty(masked, hash);
+    int oldCount;
+    if (slot < 0) {
+      oldCount = 0;
+      insert(-1 - slot, masked, hash, occurrences);
+    } else {
+      oldCount = counts[slot];
+      long newCount = (long) oldCount + (long) occurrences;
+      if (newCount > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("too many occurrences: " + newCount);
+      }
+      counts[slot] = (int) newCount;
+    }
+    size += occurrences;
+    return oldCount;
+  }
+
+  /*
+   * Checks the argument without calling checkArgument, whose varargs array and boxed argument
+   * would make every call allocate.
+   */
+  private static void checkOccurrences(int occurrences) {
+    if (occurrences < 0) {
+      throw new IllegalArgumentException("occurrences cannot be negative: " + occurrences);
+    }
+  }
+
+  @Override public int remove(@Nullable Object element, int occurrences) {
+    if (occurrences == 0) {
+      return count(element);
+    }
+    checkOccurrences(occurrences);
+    int slot = slotOf(element);
+    if (slot < 0) {
+      return 0;
+    }
+    int oldCount = counts[slot];
+    if (oldCount > occurrences) {
+      counts[slot] = oldCount - occurrences;
+      size -= occurrences;
+    } else {
+      removeSlot(slot);
+      size -= oldCount;
+    }
+    return oldCount;
+  }
+
+  @Override public int setCount(@Nullable E element, int count) {
+    if (count < 0) {
+      checkNonnegative(count, "count");
+    }
+    Object masked = mask(element);
+    int hash = hash(masked);
+    int slot = findOrEmpty(masked, hash);
+    int oldCount;
+    if (slot < 0) {
+      oldCount = 0;
+      if (count > 0) {
+        insert(-1 - slot, masked, hash, count);
+      }
+    } else {
+      oldCount = counts[slot];
+      if (count == 0) {
+        removeSlot(slot);
+      } else {
+        counts[slot] = count;
+      }
+    }
+    size += (count - oldCount);
+    return oldCount;
+  }
+
+  @Override public void clear() {
+    if (distinctElements > 0) {
+      Arrays.fill(elements, null);
+      Arrays.fill(counts, 0);
+      distinctElements = 0;
+      size = 0L;
+      modCount++;
+    }
+  }
+
+  // Views
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Invoking {@link Multiset.Entry#getCount} on an entry in the returned
+   * set always returns the current count of that element in the multiset, as
+   * opposed to the count at the time the entry was retrieved.
+   */
+  @Override
+  public Set<Multiset.Entry<E>> entrySet() {
+    return super.entrySet();
+  }
+
+  @Override Iterator<Entry<E>> entryIterator() {
+    return new Itr<Entry<E>>() {
+      @Override Entry<E> output(int slot) {
+        return new SlotEntry(slot);
+      }
+    };
+  }
+
+  /**
+   * An entry for the element of a slot, whose count is the current count of that element even
+   * after it was moved or removed.
+   */
+  private final class SlotEntry extends Multisets.AbstractEntry<E> {
+    final Object maskedElement;
+    int slot;
+
+    SlotEntry(int slot) {
+      this.maskedElement = elements[slot];
+      this.slot = slot;
+    }
+
+    @SuppressWarnings("unchecked") // only elements of type E are stored
+    @Override public E getElement() {
+      return (maskedElement == NULL_ELEMENT) ? null : (E) maskedElement;
+    }
+
+    @Override public int getCount() {
+      Object[] elements = HashMultiset.this.elements;
+      if (slot >= elements.length || elements[slot] != maskedElement) {
+        slot = slotOf(getElement());
+        if (slot < 0) {
+          slot = 0;
+          return 0;
+        }
+      }
+      return counts[slot];
+    }
+  }
+
+  @Override public Iterator<E> iterator() {
+    return new Itr<E>() {
+      int slot;
+      int occurrencesLeft;
+
+      @Override public boolean hasNext() {
+        return occurrencesLeft > 0 || super.hasNext();
+      }
+
+      @Override public E next() {
+        if (occurrencesLeft == 0) {
+          slot = nextSlot();
+          occurrencesLeft = counts[slot];
+        } else {
+          checkForComodification();
+          canRemove = true;
+        }
+        occurrencesLeft--;
+        return elementAt(slot);
+      }
+
+      @Override public void remove() {
+        checkForComodification();
+        checkState(canRemove,
+            "no calls to next() since the last call to remove()");
+        if (counts[slot] == 1) {
+          super.remove();
+        } else {
+          counts[slot]--;
+          size--;
+          canRemove = false;
+        }
+      }
+
+      @Override E output(int slot) {
+        throw new AssertionError();
+      }
+    };
+  }
+
+  /**
+   * Iterates over the occupied slots, starting after an empty slot so that no cluster of elements
+   * wraps around the end of the iteration. Removing the element of a slot then only shifts back
+   * elements which weren't visited yet, and the iteration revisits that slot.
+   */
+  private abstract class Itr<T> implements Iterator<T> {
+    final int start;
+    int offset; // the offset from start of the next slot to visit
+    int remaining = distinctElements;
+    int expectedModCount = modCount;
+    int lastSlot = -1;
+    boolean canRemove;
+
+    Itr() {
+      int i = 0;
+      while (elements[i] != null) {
+        i++;
+      }
+      start = i + 1;
+    }
+
+    abstract T output(int slot);
+
+    @Override public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    @Override public T next() {
+      return output(nextSlot());
+    }
+
+    int nextSlot() {
+      checkForComodification();
+      if (remaining == 0) {
+        throw new NoSuchElementException();
+      }
+      remaining--;
+      int mask = elements.length - 1;
+      int slot;
+      do {
+        slot = (start + offset++) & mask;
+      } while (elements[slot] == null);
+      lastSlot = slot;
+      canRemove = true;
+      return slot;
+    }
+
+    /** Removes all occurrences of the element of the last visited slot. */
+    @Override public void remove() {
+      checkForComodification();
+      checkState(canRemove,
+          "no calls to next() since the last call to remove()");
+      canRemove = false;
+      size -= counts[lastSlot];
+      removeSlot(lastSlot);
+      offset--;
+      expectedModCount = modCount;
+    }
+
+    void checkForComodification() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
   }
 
   /**
@@ -91,8 +531,7 @@ public final class HashMultiset<E> extends AbstractMapBasedMultiset<E> {
       throws IOException, ClassNotFoundException {
     stream.defaultReadObject();
     int distinctElements = Serialization.readCount(stream);
-    setBackingMap(
-        Maps.<E, Count>newHashMapWithExpectedSize(distinctElements));
+    allocate(capacityFor(distinctElements));
     Serialization.populateMultiset(this, stream, distinctElements);
   }
 
@@ -28,16 +28,20 @@ import com.google.common.annotations.GwtCompatible;
 final class Hashing {
   private Hashing() {}
 
+  private static final int C1 = 0xcc9e2d51;
+  private static final int C2 = 0x1b873593;
+
   /*
-   * This method was written by Doug Lea with assistance from members of JCP
-   * JSR-166 Expert Group and released to the public domain, as explained at
-   * http://creativecommons.org/licenses/publicdomain
-   * 
-   * As of 2010/06/11, this method is identical to the (package private) hash
-   * method in OpenJDK 7's java.util.HashMap class.
+   * This method was rewritten in Java from an intermediate step of the Murmur
+   * hash function.
+   * http://code.google.com/p/smhasher/source/browse/trunk/MurmurHash3.cpp
+   *
+   * Unlike the shift-based mix used by java.util.HashMap, it spreads runs of
+   * nearby hash codes, such as those of Strings differing only in their last
+   * characters, over the whole table, which linear probing relies on to keep
+   * probe sequences short.
    */
   static int smear(int hashCode) {
-    hashCode ^= (hashCode >>> 20) ^ (hashCode >>> 12);
-    return hashCode ^ (hashCode >>> 7) ^ (hashCode >>> 4);
+    return C2 * Integer.rotateLeft(hashCode * C1, 15);
   }
 }
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+
+/**
+ * An immutable {@link RangeMap}. Its ranges are stored as a single array of their bounds, in
+ * increasing order, which {@link #get} and {@link #getEntry} binary search in {@code O(log n)}
+ * time.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class ImmutableRangeMap<K extends Comparable, V> extends AbstractRangeMap<K, V>
+    implements Serializable {
+  @SuppressWarnings("unchecked")
+  private static final ImmutableRangeMap<Comparable<?>, Object> EMPTY =
+      new ImmutableRangeMap<Comparable<?>, Object>(new Cut[0], new Object[0]);
+
+  /**
+   * Returns an empty immutable range map.
+   */
+  @SuppressWarnings("unchecked")
+  public static <K extends Comparable, V> ImmutableRangeMap<K, V> of() {
+    return (ImmutableRangeMap<K, V>) (ImmutableRangeMap) EMPTY;
+  }
+
+  /**
+   * Returns an immutable range map mapping the single range {@code range} to {@code value}.
+   *
+   * @throws IllegalArgumentException if {@code range} is empty
+   */
+  public static <K extends Comparable, V> ImmutableRangeMap<K, V> of(Range<K> range, V value) {
+    return new Builder<K, V>().put(range, value).build();
+  }
+
+  /**
+   * Returns an immutable copy of {@code rangeMap}.
+   */
+  public static <K extends Comparable, V> ImmutableRangeMap<K, V> copyOf(
+      RangeMap<K, ? extends V> rangeMap) {
+    if (rangeMap instanceof ImmutableRangeMap) {
+      @SuppressWarnings("unchecked") // safe since the range map is immutable
+      ImmutableRangeMap<K, V> result = (ImmutableRangeMap<K, V>) rangeMap;
+      return result;
+    }
+    Builder<K, V> builder = builder();
+    for (Entry<Range<K>, ? extends V> entry : rangeMap.asMapOfRanges().entrySet()) {
+      builder.put(entry.getKey(), entry.getValue());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns a new builder for an immutable range map.
+   */
+  public static <K extends Comparable, V> Builder<K, V> builder() {
+    return new Builder<K, V>();
+  }
+
+  /**
+   * A builder for immutable range maps. Ranges may be put in any order, but must not overlap.
+   *
+   * @since 12.0
+   */
+  @Beta
+  public static final class Builder<K extends Comparable, V> {
+    private final List<Entry<Range<K>, V>> entries = Lists.newArrayList();
+
+    /**
+     * Creates a new builder. The returned builder is equivalent to the builder generated by
+     * {@link ImmutableRangeMap#builder}.
+     */
+    public Builder() {}
+
+    /**
+     * Maps the keys of {@code range} to {@code value} in the built range map.
+     *
+     * @throws IllegalArgumentException if {@code range} is empty
+     */
+    public Builder<K, V> put(Range<K> range, V value) {
+      checkNotNull(range);
+      checkNotNull(value);
+      checkArgument(!range.isEmpty(), "Range must not be empty, but was %s", range);
+      entries.add(Maps.immutableEntry(range, value));
+      return this;
+    }
+
+    /**
+     * Puts every range of {@code rangeMap} into the built range map.
+     */
+    public Builder<K, V> putAll(RangeMap<K, ? extends V> rangeMap) {
+      for (Entry<Range<K>, ? extends V> entry : rangeMap.asMapOfRanges().entrySet()) {
+        put(entry.getKey(), entry.getValue());
+      }
+      return this;
+    }
+
+    /**
+     * Returns a newly-created immutable range map.
+     *
+     * @throws IllegalArgumentException if any two ranges put into this builder overlap
+     */
+    public ImmutableRangeMap<K, V> build() {
+      if (entries.isEmpty()) {
+        return of();
+      }
+      Collections.sort(entries, new Comparator<Entry<Range<K>, V>>() {
+        @Override public int compare(Entry<Range<K>, V> left, Entry<Range<K>, V> right) {
+          return left.getKey().lowerBound.compareTo(right.getKey().lowerBound);
+        }
+      });
+      @SuppressWarnings("unchecked")
+      Cut<K>[] cuts = new Cut[2 * entries.size()];
+      Object[] values = new Object[entries.size()];
+      for (int i = 0; i < entries.size(); i++) {
+        Range<K> range = entries.get(i).getKey();
+        if (i > 0) {
+          Range<K> previous = entries.get(i - 1).getKey();
+          checkArgument(previous.upperBound.compareTo(range.lowerBound) <= 0,
+              "Overlapping ranges: %s and %s", previous, range);
+        }
+        cuts[2 * i] = range.lowerBound;
+        cuts[2 * i + 1] = range.upperBound;
+        values[i] = entries.get(i).getValue();
+      }
+      return new ImmutableRangeMap<K, V>(cuts, values);
+    }
+  }
+
+  /**
+   * The bounds of the ranges, alternating lower and upper, in nondecreasing order: adjacent ranges
+   * may share a bound.
+   */
+  private final transient Cut<K>[] cuts;
+  private final transient Object[] values;
+  private transient ImmutableMap<Range<K>, V> asMapOfRanges;
+
+  private ImmutableRangeMap(Cut<K>[] cuts, Object[] values) {
+    this.cuts = cuts;
+    this.values = values;
+  }
+
+  private Range<K> rangeAt(int index) {
+    return Ranges.create(cuts[2 * index], cuts[2 * index + 1]);
+  }
+
+  @SuppressWarnings("unchecked") // only V's are stored in values
+  private V valueAt(int index) {
+    return (V) values[index];
+  }
+
+  @Override
+  @Nullable
+  public V get(K key) {
+    checkNotNull(key);
+    int below = Cut.countBelow(cuts, key);
+    return ((below & 1) == 1) ? valueAt(below >> 1) : null;
+  }
+
+  @Override
+  @Nullable
+  public Entry<Range<K>, V> getEntry(K key) {
+    checkNotNull(key);
+    int below = Cut.countBelow(cuts, key);
+    if ((below & 1) == 0) {
+      return null;
+    }
+    int index = below >> 1;
+    return Maps.immutableEntry(rangeAt(index), valueAt(index));
+  }
+
+  @Override
+  public Range<K> span() {
+    if (cuts.length == 0) {
+      throw new NoSuchElementException();
+    }
+    return Ranges.create(cuts[0], cuts[cuts.length - 1]);
+  }
+
+  @Override
+  public ImmutableMap<Range<K>, V> asMapOfRanges() {
+    ImmutableMap<Range<K>, V> result = asMapOfRanges;
+    if (result == null) {
+      ImmutableMap.Builder<Range<K>, V> builder = ImmutableMap.builder();
+      for (int i = 0; i < values.length; i++) {
+        builder.put(rangeAt(i), valueAt(i));
+      }
+      result = asMapOfRanges = builder.build();
+    }
+    return result;
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the range map unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void put(Range<K> range, V value) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the range map unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void putAll(RangeMap<K, V> rangeMap) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the range map unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void remove(Range<K> range) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the range map unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException();
+  }
+
+  /*
+   * This class is used to serialize ImmutableRangeMap instances. It captures their mappings, which
+   * are rebuilt through the public builder.
+   */
+  private static class SerializedForm implements Serializable {
+    final ImmutableMap<? extends Range<?>, ?> mapOfRanges;
+
+    SerializedForm(ImmutableRangeMap<?, ?> rangeMap) {
+      this.mapOfRanges = rangeMap.asMapOfRanges();
+    }
+
+    @SuppressWarnings("unchecked")
+    Object readResolve() {
+      Builder<Comparable, Object> builder = builder();
+      for (Entry<? extends Range<?>, ?> entry : mapOfRanges.entrySet()) {
+        builder.put((Range<Comparable>) entry.getKey(), entry.getValue());
+      }
+      return builder.build();
+    }
+
+    private static final long serialVersionUID = 0;
+  }
+
+  private Object writeReplace() {
+    return new SerializedForm(this);
+  }
+
+  private static final long serialVersionUID = 0;
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+
+import java.io.Serializable;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+
+/**
+ * An immutable {@link RangeSet}. Its ranges are stored as a single array of their bounds, in
+ * increasing order, which {@link #contains}, {@link #rangeContaining} and {@link #encloses} binary
+ * search in {@code O(log n)} time.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class ImmutableRangeSet<C extends Comparable> extends AbstractRangeSet<C>
+    implements Serializable {
+  @SuppressWarnings("unchecked")
+  private static final ImmutableRangeSet<Comparable<?>> EMPTY =
+      new ImmutableRangeSet<Comparable<?>>(new Cut[0]);
+
+  /**
+   * Returns an empty immutable range set.
+   */
+  @SuppressWarnings("unchecked")
+  public static <C extends Comparable> ImmutableRangeSet<C> of() {
+    return (ImmutableRangeSet<C>) (ImmutableRangeSet) EMPTY;
+  }
+
+  /**
+   * Returns an immutable range set containing the single range {@code range}, or an empty range
+   * set if {@code range} is empty.
+   */
+  public static <C extends Comparable> ImmutableRangeSet<C> of(Range<C> range) {
+    checkNotNull(range);
+    if (range.isEmpty()) {
+      return of();
+    }
+    @SuppressWarnings("unchecked")
+    Cut<C>[] cuts = new Cut[] {range.lowerBound, range.upperBound};
+    return new ImmutableRangeSet<C>(cuts);
+  }
+
+  /**
+   * Returns an immutable copy of {@code rangeSet}.
+   */
+  public static <C extends Comparable> ImmutableRangeSet<C> copyOf(RangeSet<C> rangeSet) {
+    if (rangeSet instanceof ImmutableRangeSet) {
+      return (ImmutableRangeSet<C>) rangeSet;
+    }
+    return new Builder<C>().addAll(rangeSet).build();
+  }
+
+  /**
+   * Returns a new builder for an immutable range set.
+   */
+  public static <C extends Comparable> Builder<C> builder() {
+    return new Builder<C>();
+  }
+
+  /**
+   * A builder for immutable range sets. Ranges may be added in any order, and connected ranges are
+   * coalesced as they would be by {@link RangeSet#add}.
+   *
+   * @since 12.0
+   */
+  @Beta
+  public static final class Builder<C extends Comparable> {
+    private final RangeSet<C> rangeSet = TreeRangeSet.create();
+
+    /**
+     * Creates a new builder. The returned builder is equivalent to the builder generated by
+     * {@link ImmutableRangeSet#builder}.
+     */
+    public Builder() {}
+
+    /**
+     * Adds the values of {@code range} to the built range set.
+     */
+    public Builder<C> add(Range<C> range) {
+      rangeSet.add(range);
+      return this;
+    }
+
+    /**
+     * Adds every range of {@code ranges} to the built range set.
+     */
+    public Builder<C> addAll(RangeSet<C> ranges) {
+      rangeSet.addAll(ranges);
+      return this;
+    }
+
+    /**
+     * Returns a newly-created immutable range set.
+     */
+    public ImmutableRangeSet<C> build() {
+      if (rangeSet.isEmpty()) {
+        return of();
+      }
+      @SuppressWarnings("unchecked")
+      Cut<C>[] cuts = new Cut[2 * rangeSet.asRanges().size()];
+      int i = 0;
+      for (Range<C> range : rangeSet.asRanges()) {
+        cuts[i++] = range.lowerBound;
+        cuts[i++] = range.upperBound;
+      }
+      return new ImmutableRangeSet<C>(cuts);
+    }
+  }
+
+  /**
+   * The bounds of the ranges, alternating lower and upper, in strictly increasing order: the ranges
+   * are nonempty and pairwise disconnected.
+   */
+  private final transient Cut<C>[] cuts;
+  private transient ImmutableSet<Range<C>> asRanges;
+
+  private ImmutableRangeSet(Cut<C>[] cuts) {
+    this.cuts = cuts;
+  }
+
+  private Range<C> rangeAt(int index) {
+    return Ranges.create(cuts[2 * index], cuts[2 * index + 1]);
+  }
+
+  @Override
+  @Nullable
+  public Range<C> rangeContaining(C value) {
+    checkNotNull(value);
+    int below = Cut.countBelow(cuts, value);
+    return ((below & 1) == 1) ? rangeAt(below >> 1) : null;
+  }
+
+  @Override
+  public boolean contains(C value) {
+    checkNotNull(value);
+    return (Cut.countBelow(cuts, value) & 1) == 1;
+  }
+
+  @Override
+  public boolean encloses(Range<C> otherRange) {
+    checkNotNull(otherRange);
+    // find the last range whose lower bound is at or below otherRange's
+    int low = 0;
+    int high = cuts.length >> 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (cuts[2 * mid].compareTo(otherRange.lowerBound) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low > 0 && cuts[2 * low - 1].compareTo(otherRange.upperBound) >= 0;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return cuts.length == 0;
+  }
+
+  @Override
+  public Range<C> span() {
+    if (cuts.length == 0) {
+      throw new NoSuchElementException();
+    }
+    return Ranges.create(cuts[0], cuts[cuts.length - 1]);
+  }
+
+  @Override
+  public ImmutableSet<Range<C>> asRanges() {
+    ImmutableSet<Range<C>> result = asRanges;
+    if (result == null) {
+      ImmutableSet.Builder<Range<C>> builder = ImmutableSet.builder();
+      for (int i = 0; i < cuts.length >> 1; i++) {
+        builder.add(rangeAt(i));
+      }
+      result = asRanges = builder.build();
+    }
+    return result;
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the range set unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void add(Range<C> range) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the range set unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void remove(Range<C> range) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the range set unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void addAll(RangeSet<C> other) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the range set unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void removeAll(RangeSet<C> other) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the range set unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException();
+  }
+
+  /*
+   * This class is used to serialize ImmutableRangeSet instances. It captures their ranges, which
+   * are rebuilt through the public builder.
+   */
+  private static class SerializedForm implements Serializable {
+    final Object[] ranges;
+
+    SerializedForm(ImmutableRangeSet<?> rangeSet) {
+      this.ranges = rangeSet.asRanges().toArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    Object readResolve() {
+      Builder<Comparable> builder = builder();
+      for (Object range : ranges) {
+        builder.add((Range<Comparable>) range);
+      }
+      return builder.build();
+    }
+
+    private static final long serialVersionUID = 0;
+  }
+
+  private Object writeReplace() {
+    return new SerializedForm(this);
+  }
+
+  private static final long serialVersionUID = 0;
+}
@@ -262,7 +262,7 @@ public class ImmutableSortedMap<K, V>
       validateEntries(list, comparator);
     }
 
-    return new ImmutableSortedMap<K, V>(ImmutableList.copyOf(list), comparator);
+    return create(ImmutableList.copyOf(list), comparator);
   }
   
   private static <K, V> void sortEntries(
@@ -405,18 +405,39 @@ public class ImmutableSortedMap<K, V>
     @Override public ImmutableSortedMap<K, V> build() {
       sortEntries(entries, comparator);
       validateEntries(entries, comparator);
-      return new ImmutableSortedMap<K, V>(
-          ImmutableList.copyOf(entries), comparator);
+      return create(ImmutableList.copyOf(entries), comparator);
     }
   }
 
   final transient ImmutableList<Entry<K, V>> entries;
   private final transient Comparator<? super K> comparator;
+  // an index over a list which holds the keys from searchIndexOffset on, or
+  // null
+  @Nullable private final transient SortedSearchIndex searchIndex;
+  private final transient int searchIndexOffset;
 
   ImmutableSortedMap(
       ImmutableList<Entry<K, V>> entries, Comparator<? super K> comparator) {
+    this(entries, comparator, null, 0);
+  }
+
+  private ImmutableSortedMap(ImmutableList<Entry<K, V>> entries,
+      Comparator<? super K> comparator,
+      @Nullable SortedSearchIndex searchIndex, int searchIndexOffset) {
     this.entries = entries;
     this.comparator = comparator;
+    this.searchIndex = searchIndex;
+    this.searchIndexOffset = searchIndexOffset;
+  }
+
+  /**
+   * Creates a map of the given sorted entries, with a search index if there
+   * are enough of them.
+   */
+  private static <K, V> ImmutableSortedMap<K, V> create(
+      ImmutableList<Entry<K, V>> entries, Comparator<? super K> comparator) {
+    return new ImmutableSortedMap<K, V>(entries, comparator,
+        SortedSearchIndex.create(keyList(entries)), 0);
   }
 
   @Override
@@ -528,19 +549,13 @@ public class ImmutableSortedMap<K, V>
     return (ks == null) ? (keySet = createKeySet()) : ks;
   }
 
-  @SuppressWarnings("serial") // does not use default serialization
   private ImmutableSortedSet<K> createKeySet() {
     if (isEmpty()) {
       return ImmutableSortedSet.emptySet(comparator);
     }
 
     return new RegularImmutableSortedSet<K>(
-        new TransformedImmutableList<Entry<K, V>, K>(entries) {
-
-          @Override K transform(Entry<K, V> entry) {
-            return entry.getKey();
-          }
-        }, comparator);
+        keyList(), comparator, searchIndex, searchIndexOffset);
   }
   
   private transient ImmutableCollection<V> values;
@@ -713,6 +728,11 @@ public class ImmutableSortedMap<K, V>
   }
 
   private ImmutableList<K> keyList() {
+    return keyList(entries);
+  }
+
+  private static <K, V> ImmutableList<K> keyList(
+      ImmutableList<Entry<K, V>> entries) {
     return new TransformedImmutableList<Entry<K, V>, K>(entries) {
       @Override
       K transform(Entry<K, V> entry) {
@@ -723,15 +743,19 @@ public class ImmutableSortedMap<K, V>
 
   private int index(
       Object key, KeyPresentBehavior presentBehavior, KeyAbsentBehavior absentBehavior) {
-    return SortedLists.binarySearch(
-        keyList(), checkNotNull(key), unsafeComparator(), presentBehavior, absentBehavior);
+    return (searchIndex == null)
+        ? SortedLists.binarySearch(keyList(), checkNotNull(key), unsafeComparator(),
+            presentBehavior, absentBehavior)
+        : searchIndex.binarySearch(keyList(), searchIndexOffset, checkNotNull(key),
+            unsafeComparator(), presentBehavior, absentBehavior);
   }
 
   private ImmutableSortedMap<K, V> createSubmap(
       int newFromIndex, int newToIndex) {
     if (newFromIndex < newToIndex) {
       return new ImmutableSortedMap<K, V>(
-          entries.subList(newFromIndex, newToIndex), comparator);
+          entries.subList(newFromIndex, newToIndex), comparator, searchIndex,
+          searchIndexOffset + newFromIndex);
     } else {
       return emptyMap(comparator);
     }
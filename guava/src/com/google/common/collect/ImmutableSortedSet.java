@@ -403,7 +403,8 @@ public abstract class ImmutableSortedSet<E> extends ImmutableSortedSetFauxveride
         SortedIterables.sortedUnique(comparator, elements));
     return list.isEmpty()
         ? ImmutableSortedSet.<E>emptySet(comparator)
-        : new RegularImmutableSortedSet<E>(list, comparator);
+        : new RegularImmutableSortedSet<E>(
+            list, comparator, SortedSearchIndex.create(list), 0);
   }
 
   private static <E> ImmutableSortedSet<E> copyOfInternal(
@@ -412,7 +413,8 @@ public abstract class ImmutableSortedSet<E> extends ImmutableSortedSetFauxveride
         ImmutableList.copyOf(SortedIterables.sortedUnique(comparator, elements));
     return list.isEmpty()
         ? ImmutableSortedSet.<E>emptySet(comparator)
-        : new RegularImmutableSortedSet<E>(list, comparator);
+        : new RegularImmutableSortedSet<E>(
+            list, comparator, SortedSearchIndex.create(list), 0);
   }
 
   /**
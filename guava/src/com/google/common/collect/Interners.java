@@ -103,6 +103,35 @@ public final class Interners {
     return new CustomInterner<E>(new MapMaker().weakKeys());
   }
 
+  /**
+   * Returns a new thread-safe interner which retains strong references to at most {@code
+   * maximumSize} instances, evicting instances which weren't recently interned to make room for
+   * new ones. Looking up an instance which is held doesn't lock, and unlike {@link
+   * #newWeakInterner}, this interner doesn't add to the reference processing work of the garbage
+   * collector, which makes it a better choice for interning large numbers of short-lived values.
+   *
+   * <p>An evicted instance is never returned again, so {@code intern(a) == intern(b)} only holds
+   * for equal instances if the canonical instance wasn't evicted in between.
+   *
+   * @throws IllegalArgumentException if {@code maximumSize} is not positive
+   * @since 12.0
+   */
+  public static <E> Interner<E> newBoundedInterner(int maximumSize) {
+    return new BoundedInterner<E>(maximumSize);
+  }
+
+  /**
+   * Returns a new thread-safe string interner which retains strong references to at most {@code
+   * maximumSize} strings, like {@link #newBoundedInterner}, and which can also intern character
+   * sequences and UTF-8 encoded bytes without creating a new string if an equal one is held.
+   *
+   * @throws IllegalArgumentException if {@code maximumSize} is not positive
+   * @since 12.0
+   */
+  public static StringInterner newStringInterner(int maximumSize) {
+    return new StringInterner(maximumSize);
+  }
+
   /**
    * Returns a function that delegates to the {@link Interner#intern} method of the given interner.
    *
@@ -0,0 +1,622 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * An immutable hash map whose updated versions share most of their structure with the original.
+ * {@link #with} and {@link #without} return a new map which differs from this one in a single
+ * mapping, in time and space proportional to the logarithm in base 32 of the size of the map,
+ * leaving this map unchanged. This makes it cheap to keep a series of snapshots of a map which
+ * changes a little at a time, where rebuilding an {@link ImmutableMap} for each version would
+ * copy every entry.
+ *
+ * <p>The map is a hash array mapped trie: each level of the trie consumes five bits of a key's
+ * smeared hash code and holds up to 32 entries and subtries, packed into an array by means of two
+ * bitmaps. An update copies only the nodes on the path to the changed key. Keys whose hash codes
+ * are equal are kept together in a list at the bottom of the trie.
+ *
+ * <p>Like {@code ImmutableMap}, this map rejects null keys and values, and its methods that would
+ * modify it throw {@link UnsupportedOperationException}. Unlike {@code ImmutableMap}, its iteration
+ * order is unspecified, and it uses its keys' {@link Object#hashCode} and {@link Object#equals}.
+ * Use {@link ImmutableMap#copyOf(Map)} and {@link #copyOf(Map)} to convert between the two.
+ *
+ * <p>Instances are thread-safe, and serializable if their keys and values are.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V>
+    implements Serializable {
+  private static final PersistentHashMap<Object, Object> EMPTY =
+      new PersistentHashMap<Object, Object>(BitmapNode.EMPTY, 0);
+
+  private static final int BITS_PER_LEVEL = 5;
+  private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+
+  // The levels of bitmap nodes consume hash bits 0-4, 5-9, ..., 30-31, and collision nodes lie
+  // below them.
+  private static final int MAX_DEPTH = (Integer.SIZE + BITS_PER_LEVEL - 1) / BITS_PER_LEVEL + 1;
+
+  private final transient Node root;
+  private final transient int size;
+
+  private PersistentHashMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Returns the empty map.
+   */
+  @SuppressWarnings("unchecked") // the empty map holds no keys or values
+  public static <K, V> PersistentHashMap<K, V> of() {
+    return (PersistentHashMap<K, V>) EMPTY;
+  }
+
+  /**
+   * Returns a map containing the mappings of {@code map}. Returns {@code map} itself if it is a
+   * {@code PersistentHashMap}.
+   *
+   * @throws NullPointerException if any key or value in {@code map} is null
+   */
+  public static <K, V> PersistentHashMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+    if (map instanceof PersistentHashMap) {
+      @SuppressWarnings("unchecked") // safe since the map is immutable
+      PersistentHashMap<K, V> persistentMap = (PersistentHashMap<K, V>) map;
+      return persistentMap;
+    }
+    PersistentHashMap<K, V> result = of();
+    for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+      result = result.with(entry.getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  /**
+   * Returns a map with the mappings of this map, except that {@code key} maps to {@code value}.
+   * Returns this map if {@code key} already maps to the same instance of {@code value}.
+   *
+   * @throws NullPointerException if {@code key} or {@code value} is null
+   */
+  public PersistentHashMap<K, V> with(K key, V value) {
+    checkNotNull(key);
+    checkNotNull(value);
+    Change change = new Change();
+    Node newRoot = root.put(key, value, hash(key), 0, change);
+    return (newRoot == root) ? this : new PersistentHashMap<K, V>(newRoot, size + change.sizeDelta);
+  }
+
+  /**
+   * Returns a map with the mappings of this map, except for any mapping for {@code key}. Returns
+   * this map if it contains no mapping for {@code key}.
+   */
+  public PersistentHashMap<K, V> without(@Nullable Object key) {
+    if (key == null) {
+      return this;
+    }
+    Change change = new Change();
+    Node newRoot = root.remove(key, hash(key), 0, change);
+    return (newRoot == root) ? this : new PersistentHashMap<K, V>(newRoot, size + change.sizeDelta);
+  }
+
+  @Override public V get(@Nullable Object key) {
+    if (key == null) {
+      return null;
+    }
+    @SuppressWarnings("unchecked") // only values of type V are added
+    V value = (V) root.get(key, hash(key), 0);
+    return value;
+  }
+
+  @Override public boolean containsKey(@Nullable Object key) {
+    return get(key) != null;
+  }
+
+  @Override public int size() {
+    return size;
+  }
+
+  @Override public boolean isEmpty() {
+    return size == 0;
+  }
+
+  private transient Set<Entry<K, V>> entrySet;
+
+  @Override public Set<Entry<K, V>> entrySet() {
+    Set<Entry<K, V>> result = entrySet;
+    return (result == null) ? entrySet = new EntrySet() : result;
+  }
+
+  private final class EntrySet extends AbstractSet<Entry<K, V>> {
+    @Override public UnmodifiableIterator<Entry<K, V>> iterator() {
+      return new Itr<Entry<K, V>>() {
+        @SuppressWarnings("unchecked") // only keys of type K and values of type V are added
+        @Override Entry<K, V> output(Object key, Object value) {
+          return Maps.immutableEntry((K) key, (V) value);
+        }
+      };
+    }
+
+    @Override public int size() {
+      return size;
+    }
+
+    @Override public boolean contains(@Nullable Object object) {
+      if (object instanceof Entry) {
+        Entry<?, ?> entry = (Entry<?, ?>) object;
+        V value = get(entry.getKey());
+        return value != null && value.equals(entry.getValue());
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Returns the keys of this map. This is more efficient than iterating over {@code
+   * keySet()}, which creates an entry per key.
+   */
+  UnmodifiableIterator<K> keyIterator() {
+    return new Itr<K>() {
+      @SuppressWarnings("unchecked") // only keys of type K are added
+      @Override K output(Object key, Object value) {
+        return (K) key;
+      }
+    };
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the map unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override public V put(K key, V value) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the map unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override public V remove(Object key) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the map unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override public void putAll(Map<? extends K, ? extends V> map) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the map unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override public void clear() {
+    throw new UnsupportedOperationException();
+  }
+
+  static int hash(Object key) {
+    return Hashing.smear(key.hashCode());
+  }
+
+  /** Records how an update changed the size of the map. */
+  static final class Change {
+    int sizeDelta;
+  }
+
+  /** A node of the trie. Updates return a new node, or this node if nothing changed. */
+  abstract static class Node {
+    abstract Object get(Object key, int hash, int shift);
+
+    abstract Node put(Object key, Object value, int hash, int shift, Change change);
+
+    abstract Node remove(Object key, int hash, int shift, Change change);
+
+    /** Returns the number of mappings held directly in this node. */
+    abstract int entryCount();
+
+    abstract Object keyAt(int index);
+
+    abstract Object valueAt(int index);
+
+    abstract int childCount();
+
+    abstract Node childAt(int index);
+  }
+
+  /**
+   * A node which holds up to 32 mappings and children, one for each value of the five bits of the
+   * hash code that this level consumes. A mapping is held directly if no other key in this subtrie
+   * shares those bits, and otherwise in a child.
+   */
+  static final class BitmapNode extends Node {
+    static final BitmapNode EMPTY = new BitmapNode(0, 0, new Object[0]);
+
+    // the positions held by mappings
+    final int dataMap;
+    // the positions held by children
+    final int nodeMap;
+    // the keys and values of the mappings in position order, then the children in position order
+    final Object[] content;
+
+    BitmapNode(int dataMap, int nodeMap, Object[] content) {
+      this.dataMap = dataMap;
+      this.nodeMap = nodeMap;
+      this.content = content;
+    }
+
+    int dataIndex(int bit) {
+      return Integer.bitCount(dataMap & (bit - 1));
+    }
+
+    int nodeIndex(int bit) {
+      return 2 * Integer.bitCount(dataMap) + Integer.bitCount(nodeMap & (bit - 1));
+    }
+
+    @Override Object get(Object key, int hash, int shift) {
+      int bit = 1 << ((hash >>> shift) & LEVEL_MASK);
+      if ((dataMap & bit) != 0) {
+        int index = 2 * dataIndex(bit);
+        return key.equals(content[index]) ? content[index + 1] : null;
+      } else if ((nodeMap & bit) != 0) {
+        return ((Node) content[nodeIndex(bit)]).get(key, hash, shift + BITS_PER_LEVEL);
+      } else {
+        return null;
+      }
+    }
+
+    @Override Node put(Object key, Object value, int hash, int shift, Change change) {
+      int bit = 1 << ((hash >>> shift) & LEVEL_MASK);
+      if ((dataMap & bit) != 0) {
+        int index = 2 * dataIndex(bit);
+        Object existingKey = content[index];
+        Object existingValue = content[index + 1];
+        if (key.equals(existingKey)) {
+          if (value == existingValue) {
+            return this;
+          }
+          Object[] newContent = content.clone();
+          newContent[index + 1] = value;
+          return new BitmapNode(dataMap, nodeMap, newContent);
+        }
+        change.sizeDelta = 1;
+        Node child = merge(existingKey, existingValue, hash(existingKey), key, value, hash,
+            shift + BITS_PER_LEVEL);
+        return inlineToNode(bit, child);
+      } else if ((nodeMap & bit) != 0) {
+        int index = nodeIndex(bit);
+        Node child = (Node) content[index];
+        Node newChild = child.put(key, value, hash, shift + BITS_PER_LEVEL, change);
+        return (newChild == child) ? this : withChild(index, newChild);
+      } else {
+        change.sizeDelta = 1;
+        int index = 2 * dataIndex(bit);
+        Object[] newContent = new Object[content.length + 2];
+        System.arraycopy(content, 0, newContent, 0, index);
+        newContent[index] = key;
+        newContent[index + 1] = value;
+        System.arraycopy(content, index, newContent, index + 2, content.length - index);
+        return new BitmapNode(dataMap | bit, nodeMap, newContent);
+      }
+    }
+
+    @Override Node remove(Object key, int hash, int shift, Change change) {
+      int bit = 1 << ((hash >>> shift) & LEVEL_MASK);
+      if ((dataMap & bit) != 0) {
+        int index = 2 * dataIndex(bit);
+        if (!key.equals(content[index])) {
+          return this;
+        }
+        change.sizeDelta = -1;
+        if (shift > 0 && nodeMap == 0 && Integer.bitCount(dataMap) == 2) {
+          // The remaining mapping will be inlined by the parent, which doesn't look at its
+          // position in this node.
+          int remaining = 2 - index;
+          return singleton(content[remaining], content[remaining + 1]);
+        }
+        Object[] newContent = new Object[content.length - 2];
+        System.arraycopy(content, 0, newContent, 0, index);
+        System.arraycopy(content, index + 2, newContent, index, newContent.length - index);
+        return new BitmapNode(dataMap ^ bit, nodeMap, newContent);
+      } else if ((nodeMap & bit) != 0) {
+        int index = nodeIndex(bit);
+        Node child = (Node) content[index];
+        Node newChild = child.remove(key, hash, shift + BITS_PER_LEVEL, change);
+        if (newChild == child) {
+          return this;
+        }
+        if (!isSingleton(newChild)) {
+          return withChild(index, newChild);
+        }
+        if (shift > 0 && dataMap == 0 && Integer.bitCount(nodeMap) == 1) {
+          // pass the single remaining mapping up to be inlined higher up
+          return newChild;
+        }
+        return nodeToInline(bit, (BitmapNode) newChild);
+      } else {
+        return this;
+      }
+    }
+
+    private BitmapNode withChild(int index, Node child) {
+      Object[] newContent = content.clone();
+      newContent[index] = child;
+      return new BitmapNode(dataMap, nodeMap, newContent);
+    }
+
+    /** Replaces the mapping at {@code bit} with {@code child}, which holds it and another. */
+    private BitmapNode inlineToNode(int bit, Node child) {
+      int oldIndex = 2 * dataIndex(bit);
+      int newIndex = nodeIndex(bit) - 2;
+      Object[] newContent = new Object[content.length - 1];
+      System.arraycopy(content, 0, newContent, 0, oldIndex);
+      System.arraycopy(content, oldIndex + 2, newContent, oldIndex, newIndex - oldIndex);
+      newContent[newIndex] = child;
+      System.arraycopy(
+          content, newIndex + 2, newContent, newIndex + 1, content.length - newIndex - 2);
+      return new BitmapNode(dataMap ^ bit, nodeMap | bit, newContent);
+    }
+
+    /** Replaces the child at {@code bit} with the single mapping held by {@code child}. */
+    private BitmapNode nodeToInline(int bit, BitmapNode child) {
+      int oldIndex = nodeIndex(bit);
+      int newIndex = 2 * dataIndex(bit);
+      Object[] newContent = new Object[content.length + 1];
+      System.arraycopy(content, 0, newContent, 0, newIndex);
+      newContent[newIndex] = child.content[0];
+      newContent[newIndex + 1] = child.content[1];
+      System.arraycopy(content, newIndex, newContent, newIndex + 2, oldIndex - newIndex);
+      System.arraycopy(
+          content, oldIndex + 1, newContent, oldIndex + 2, content.length - oldIndex - 1);
+      return new BitmapNode(dataMap | bit, nodeMap ^ bit, newContent);
+    }
+
+    @Override int entryCount() {
+      return Integer.bitCount(dataMap);
+    }
+
+    @Override Object keyAt(int index) {
+      return content[2 * index];
+    }
+
+    @Override Object valueAt(int index) {
+      return content[2 * index + 1];
+    }
+
+    @Override int childCount() {
+      return Integer.bitCount(nodeMap);
+    }
+
+    @Override Node childAt(int index) {
+      return (Node) content[2 * Integer.bitCount(dataMap) + index];
+    }
+  }
+
+  /** A node which holds two or more mappings for keys whose smeared hash codes are all equal. */
+  static final class CollisionNode extends Node {
+    final int hash;
+    // the keys and values of the mappings, alternately
+    final Object[] content;
+
+    CollisionNode(int hash, Object[] content) {
+      this.hash = hash;
+      this.content = content;
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < content.length; i += 2) {
+        if (key.equals(content[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override Object get(Object key, int hash, int shift) {
+      int index = indexOf(key);
+      return (index < 0) ? null : content[index + 1];
+    }
+
+    @Override Node put(Object key, Object value, int hash, int shift, Change change) {
+      int index = indexOf(key);
+      if (index >= 0) {
+        if (content[index + 1] == value) {
+          return this;
+        }
+        Object[] newContent = content.clone();
+        newContent[index + 1] = value;
+        return new CollisionNode(hash, newContent);
+      }
+      change.sizeDelta = 1;
+      Object[] newContent = new Object[content.length + 2];
+      System.arraycopy(content, 0, newContent, 0, content.length);
+      newContent[content.length] = key;
+      newContent[content.length + 1] = value;
+      return new CollisionNode(hash, newContent);
+    }
+
+    @Override Node remove(Object key, int hash, int shift, Change change) {
+      int index = indexOf(key);
+      if (index < 0) {
+        return this;
+      }
+      change.sizeDelta = -1;
+      if (content.length == 4) {
+        int remaining = 2 - index;
+        return singleton(content[remaining], content[remaining + 1]);
+      }
+      Object[] newContent = new Object[content.length - 2];
+      System.arraycopy(content, 0, newContent, 0, index);
+      System.arraycopy(content, index + 2, newContent, index, newContent.length - index);
+      return new CollisionNode(hash, newContent);
+    }
+
+    @Override int entryCount() {
+      return content.length / 2;
+    }
+
+    @Override Object keyAt(int index) {
+      return content[2 * index];
+    }
+
+    @Override Object valueAt(int index) {
+      return content[2 * index + 1];
+    }
+
+    @Override int childCount() {
+      return 0;
+    }
+
+    @Override Node childAt(int index) {
+      throw new AssertionError();
+    }
+  }
+
+  /**
+   * Returns a node holding the two mappings, whose keys differ, as a child at level {@code shift}.
+   */
+  static Node merge(Object key0, Object value0, int hash0, Object key1, Object value1, int hash1,
+      int shift) {
+    if (shift >= Integer.SIZE) {
+      return new CollisionNode(hash0, new Object[] {key0, value0, key1, value1});
+    }
+    int position0 = (hash0 >>> shift) & LEVEL_MASK;
+    int position1 = (hash1 >>> shift) & LEVEL_MASK;
+    if (position0 == position1) {
+      Node child = merge(key0, value0, hash0, key1, value1, hash1, shift + BITS_PER_LEVEL);
+      return new BitmapNode(0, 1 << position0, new Object[] {child});
+    }
+    Object[] content = (position0 < position1)
+        ? new Object[] {key0, value0, key1, value1}
+        : new Object[] {key1, value1, key0, value0};
+    return new BitmapNode((1 << position0) | (1 << position1), 0, content);
+  }
+
+  /**
+   * Returns a node holding just one mapping, which its parent will inline. Its position is
+   * arbitrary, since it is only ever read through {@link Node#keyAt} and {@link Node#valueAt}.
+   */
+  static BitmapNode singleton(Object key, Object value) {
+    return new BitmapNode(1, 0, new Object[] {key, value});
+  }
+
+  static boolean isSingleton(Node node) {
+    if (node instanceof BitmapNode) {
+      BitmapNode bitmapNode = (BitmapNode) node;
+      return bitmapNode.nodeMap == 0 && Integer.bitCount(bitmapNode.dataMap) == 1;
+    }
+    return false;
+  }
+
+  /** Visits the mappings of the trie depth first. */
+  private abstract class Itr<T> extends UnmodifiableIterator<T> {
+    final Node[] nodes = new Node[MAX_DEPTH];
+    // the next child to visit of each node in nodes
+    final int[] children = new int[MAX_DEPTH];
+    int depth;
+    Node node = root;
+    int entry;
+    int remaining = size;
+
+    Itr() {
+      nodes[0] = root;
+    }
+
+    abstract T output(Object key, Object value);
+
+    @Override public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    @Override public T next() {
+      if (remaining == 0) {
+        throw new NoSuchElementException();
+      }
+      while (entry == node.entryCount()) {
+        advance();
+      }
+      remaining--;
+      T result = output(node.keyAt(entry), node.valueAt(entry));
+      entry++;
+      return result;
+    }
+
+    /** Moves to the next node in depth-first order, which exists since mappings remain. */
+    private void advance() {
+      while (children[depth] == nodes[depth].childCount()) {
+        depth--;
+      }
+      node = nodes[depth].childAt(children[depth]++);
+      depth++;
+      nodes[depth] = node;
+      children[depth] = 0;
+      entry = 0;
+    }
+  }
+
+  // Serialization
+
+  private static class SerializedForm implements Serializable {
+    final Object[] keys;
+    final Object[] values;
+
+    SerializedForm(PersistentHashMap<?, ?> map) {
+      keys = new Object[map.size()];
+      values = new Object[map.size()];
+      int i = 0;
+      for (Entry<?, ?> entry : map.entrySet()) {
+        keys[i] = entry.getKey();
+        values[i] = entry.getValue();
+        i++;
+      }
+    }
+
+    Object readResolve() {
+      PersistentHashMap<Object, Object> map = of();
+      for (int i = 0; i < keys.length; i++) {
+        map = map.with(keys[i], values[i]);
+      }
+      return map;
+    }
+
+    private static final long serialVersionUID = 0;
+  }
+
+  Object writeReplace() {
+    return new SerializedForm(this);
+  }
+
+  private static final long serialVersionUID = 0;
+}
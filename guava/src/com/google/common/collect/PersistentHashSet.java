@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import com.google.common.annotations.Beta;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.annotation.Nullable;
+
+/**
+ * An immutable hash set whose updated versions share most of their structure with the original.
+ * {@link #with} and {@link #without} return a new set which differs from this one in a single
+ * element, in time and space proportional to the logarithm in base 32 of the size of the set,
+ * leaving this set unchanged. It is backed by a {@link PersistentHashMap}; see that class for
+ * details.
+ *
+ * <p>Like {@link ImmutableSet}, this set rejects null elements, and its methods that would modify
+ * it throw {@link UnsupportedOperationException}. Unlike {@code ImmutableSet}, its iteration order
+ * is unspecified. Use {@link ImmutableSet#copyOf(Collection)} and {@link #copyOf(Iterable)} to
+ * convert between the two.
+ *
+ * <p>Instances are thread-safe, and serializable if their elements are.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class PersistentHashSet<E> extends AbstractSet<E> implements Serializable {
+  private static final PersistentHashSet<Object> EMPTY =
+      new PersistentHashSet<Object>(PersistentHashMap.<Object, Boolean>of());
+
+  private final transient PersistentHashMap<E, Boolean> map;
+
+  private PersistentHashSet(PersistentHashMap<E, Boolean> map) {
+    this.map = map;
+  }
+
+  /**
+   * Returns the empty set.
+   */
+  @SuppressWarnings("unchecked") // the empty set holds no elements
+  public static <E> PersistentHashSet<E> of() {
+    return (PersistentHashSet<E>) EMPTY;
+  }
+
+  /**
+   * Returns a set containing the distinct elements of {@code elements}. Returns {@code elements}
+   * itself if it is a {@code PersistentHashSet}.
+   *
+   * @throws NullPointerException if any of {@code elements} is null
+   */
+  public static <E> PersistentHashSet<E> copyOf(Iterable<? extends E> elements) {
+    if (elements instanceof PersistentHashSet) {
+      @SuppressWarnings("unchecked") // safe since the set is immutable
+      PersistentHashSet<E> set = (PersistentHashSet<E>) elements;
+      return set;
+    }
+    PersistentHashMap<E, Boolean> map = PersistentHashMap.of();
+    for (E element : elements) {
+      map = map.with(element, Boolean.TRUE);
+    }
+    return new PersistentHashSet<E>(map);
+  }
+
+  /**
+   * Returns a set with the elements of this set and {@code element}. Returns this set if it
+   * already contains {@code element}.
+   *
+   * @throws NullPointerException if {@code element} is null
+   */
+  public PersistentHashSet<E> with(E element) {
+    PersistentHashMap<E, Boolean> newMap = map.with(element, Boolean.TRUE);
+    return (newMap == map) ? this : new PersistentHashSet<E>(newMap);
+  }
+
+  /**
+   * Returns a set with the elements of this set except {@code element}. Returns this set if it
+   * doesn't contain {@code element}.
+   */
+  public PersistentHashSet<E> without(@Nullable Object element) {
+    PersistentHashMap<E, Boolean> newMap = map.without(element);
+    return (newMap == map) ? this : new PersistentHashSet<E>(newMap);
+  }
+
+  @Override public boolean contains(@Nullable Object object) {
+    return map.containsKey(object);
+  }
+
+  @Override public UnmodifiableIterator<E> iterator() {
+    return map.keyIterator();
+  }
+
+  @Override public int size() {
+    return map.size();
+  }
+
+  @Override public boolean isEmpty() {
+    return map.isEmpty();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the set unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override public boolean add(E element) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the set unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override public boolean remove(Object object) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the set unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override public boolean addAll(Collection<? extends E> newElements) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the set unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override public boolean removeAll(Collection<?> oldElements) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the set unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override public boolean retainAll(Collection<?> elementsToKeep) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Guaranteed to throw an exception and leave the set unmodified.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override public void clear() {
+    throw new UnsupportedOperationException();
+  }
+
+  // Serialization
+
+  private static class SerializedForm implements Serializable {
+    final Object[] elements;
+
+    SerializedForm(Object[] elements) {
+      this.elements = elements;
+    }
+
+    Object readResolve() {
+      return copyOf(Arrays.asList(elements));
+    }
+
+    private static final long serialVersionUID = 0;
+  }
+
+  Object writeReplace() {
+    return new SerializedForm(toArray());
+  }
+
+  private static final long serialVersionUID = 0;
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import com.google.common.annotations.Beta;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+
+/**
+ * A mapping from disjoint nonempty {@linkplain Range ranges} of keys to non-null values. Each key
+ * of type {@code K} is mapped to the value of the range that contains it, if any.
+ *
+ * <p>Unlike a {@link RangeSet}, a range map does not coalesce connected ranges, even when they map
+ * to equal values; {@link #asMapOfRanges} shows the ranges exactly as they were put, less any parts
+ * that were later overwritten or removed.
+ *
+ * @since 12.0
+ */
+@Beta
+public interface RangeMap<K extends Comparable, V> {
+
+  /**
+   * Returns the value associated with the range containing {@code key}, or {@code null} if no range
+   * contains {@code key}.
+   */
+  @Nullable
+  V get(K key);
+
+  /**
+   * Returns the range containing {@code key} and its associated value, or {@code null} if no range
+   * contains {@code key}.
+   */
+  @Nullable
+  Entry<Range<K>, V> getEntry(K key);
+
+  /**
+   * Returns the smallest range that {@linkplain Range#encloses encloses} every range of this range
+   * map.
+   *
+   * @throws NoSuchElementException if this range map is empty
+   */
+  Range<K> span();
+
+  /**
+   * Maps every key in {@code range} to {@code value}, replacing any previous mapping of those keys.
+   * Ranges that overlap {@code range} are trimmed, or split in two if {@code range} lies strictly
+   * inside them. Putting an empty range has no effect.
+   *
+   * @throws UnsupportedOperationException if this range map does not support the {@code put}
+   *     operation
+   */
+  void put(Range<K> range, V value);
+
+  /**
+   * Puts every range of {@code rangeMap} into this range map, in increasing order.
+   *
+   * @throws UnsupportedOperationException if this range map does not support the {@code putAll}
+   *     operation
+   */
+  void putAll(RangeMap<K, V> rangeMap);
+
+  /**
+   * Removes the mappings of every key in {@code range}, trimming or splitting the ranges that
+   * overlap it. Removing an empty range has no effect.
+   *
+   * @throws UnsupportedOperationException if this range map does not support the {@code remove}
+   *     operation
+   */
+  void remove(Range<K> range);
+
+  /**
+   * Removes all mappings from this range map.
+   *
+   * @throws UnsupportedOperationException if this range map does not support the {@code clear}
+   *     operation
+   */
+  void clear();
+
+  /**
+   * Returns an unmodifiable view of this range map as a map from its ranges to their values,
+   * iterating in increasing order of the ranges.
+   */
+  Map<Range<K>, V> asMapOfRanges();
+
+  /**
+   * Returns {@code true} if {@code obj} is a range map with the same {@linkplain #asMapOfRanges
+   * mappings} as this range map.
+   */
+  @Override
+  boolean equals(@Nullable Object obj);
+
+  /**
+   * Returns {@code asMapOfRanges().hashCode()}.
+   */
+  @Override
+  int hashCode();
+
+  /**
+   * Returns a readable representation of this range map, such as {@code "{[1..3)=a, [3..5]=b}"}.
+   */
+  @Override
+  String toString();
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import com.google.common.annotations.Beta;
+
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * A set of values of type {@code C}, made up of zero or more disjoint, nonempty {@linkplain Range
+ * ranges}. Ranges that are {@linkplain Range#isConnected connected} are always coalesced, so
+ * adding {@code [1..3)} and {@code [3..5]} to an empty range set produces a set whose only range
+ * is {@code [1..5]}.
+ *
+ * <p>A range set is not a {@link Set} of its values; use {@link #contains} to test for a value and
+ * {@link #asRanges} to see its ranges.
+ *
+ * @since 12.0
+ */
+@Beta
+public interface RangeSet<C extends Comparable> {
+
+  /**
+   * Returns {@code true} if {@code value} lies in one of the ranges of this range set.
+   */
+  boolean contains(C value);
+
+  /**
+   * Returns the range of this range set that contains {@code value}, or {@code null} if there is
+   * none.
+   */
+  @Nullable
+  Range<C> rangeContaining(C value);
+
+  /**
+   * Returns {@code true} if a single range of this range set {@linkplain Range#encloses encloses}
+   * {@code otherRange}.
+   */
+  boolean encloses(Range<C> otherRange);
+
+  /**
+   * Returns {@code true} if every range of {@code other} is {@linkplain #encloses enclosed} by this
+   * range set.
+   */
+  boolean enclosesAll(RangeSet<C> other);
+
+  /**
+   * Returns {@code true} if this range set contains no ranges.
+   */
+  boolean isEmpty();
+
+  /**
+   * Returns the smallest range that {@linkplain Range#encloses encloses} every range of this range
+   * set.
+   *
+   * @throws NoSuchElementException if this range set is empty
+   */
+  Range<C> span();
+
+  /**
+   * Returns a view of the ranges of this range set, in increasing order of their lower bounds. The
+   * ranges are disjoint, nonempty and pairwise disconnected.
+   */
+  Set<Range<C>> asRanges();
+
+  /**
+   * Adds the values of {@code range} to this range set, coalescing it with any range of this range
+   * set that it is connected to. Adding an empty range has no effect.
+   *
+   * @throws UnsupportedOperationException if this range set does not support the {@code add}
+   *     operation
+   */
+  void add(Range<C> range);
+
+  /**
+   * Removes the values of {@code range} from this range set, splitting any range of this range set
+   * that contains values on both sides of it. Removing an empty range has no effect.
+   *
+   * @throws UnsupportedOperationException if this range set does not support the {@code remove}
+   *     operation
+   */
+  void remove(Range<C> range);
+
+  /**
+   * Adds every range of {@code other} to this range set.
+   *
+   * @throws UnsupportedOperationException if this range set does not support the {@code addAll}
+   *     operation
+   */
+  void addAll(RangeSet<C> other);
+
+  /**
+   * Removes every range of {@code other} from this range set.
+   *
+   * @throws UnsupportedOperationException if this range set does not support the {@code removeAll}
+   *     operation
+   */
+  void removeAll(RangeSet<C> other);
+
+  /**
+   * Removes all ranges from this range set.
+   *
+   * @throws UnsupportedOperationException if this range set does not support the {@code clear}
+   *     operation
+   */
+  void clear();
+
+  /**
+   * Returns {@code true} if {@code obj} is a range set with the same {@linkplain #asRanges ranges}
+   * as this range set.
+   */
+  @Override
+  boolean equals(@Nullable Object obj);
+
+  /**
+   * Returns {@code asRanges().hashCode()}.
+   */
+  @Override
+  int hashCode();
+
+  /**
+   * Returns a readable representation of this range set, such as {@code "{[1..3), (5..+∞)}"}.
+   */
+  @Override
+  String toString();
+}
@@ -19,15 +19,17 @@ package com.google.common.collect;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.annotations.GwtCompatible;
-import com.google.common.collect.ImmutableSet.ArrayImmutableSet;
-import com.google.common.collect.ImmutableSet.TransformedImmutableSet;
 
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.Immutable;
 
 /**
  * Implementation of {@link ImmutableMap} with two or more entries.
  *
+ * <p>Keys and values are stored alternately, in insertion order, in a single
+ * array, and a power-of-two table of ints maps each key's smeared hash to its
+ * position in that array using linear probing. No entry objects are retained;
+ * they are created only when iterating over {@link #entrySet}.
+ *
  * @author Jesse Wilson
  * @author Kevin Bourrillion
  * @author Gregory Kick
@@ -35,136 +37,102 @@ import javax.annotation.concurrent.Immutable;
 @GwtCompatible(serializable = true, emulated = true)
 final class RegularImmutableMap<K, V> extends ImmutableMap<K, V> {
 
-  // entries in insertion order
-  private final transient LinkedEntry<K, V>[] entries;
-  // array of linked lists of entries
-  private final transient LinkedEntry<K, V>[] table;
+  // keys at even indices and their values at the following odd indices, in
+  // insertion order
+  private final transient Object[] alternatingKeysAndValues;
+  /*
+   * In hashed positions (plus zeros): one plus the index of each entry in its
+   * low bits, and the high bits of the key's smeared hash in the bits above
+   * those, so that most probes for other keys are rejected without loading the
+   * key.
+   */
+  private final transient int[] table;
   // 'and' with an int to get a table index
   private final transient int mask;
+  // 'and' with a table value to get one plus the entry index
+  private final transient int indexMask;
   private final transient int keySetHashCode;
 
   // TODO(gak): investigate avoiding the creation of ImmutableEntries since we
   // re-copy them anyway.
   RegularImmutableMap(Entry<?, ?>... immutableEntries) {
     int size = immutableEntries.length;
-    entries = createEntryArray(size);
+    alternatingKeysAndValues = new Object[2 * size];
 
-    int tableSize = chooseTableSize(size);
-    table = createEntryArray(tableSize);
+    int tableSize = ImmutableSet.chooseTableSize(size);
+    table = new int[tableSize];
     mask = tableSize - 1;
+    indexMask = (Integer.highestOneBit(size) << 1) - 1;
 
     int keySetHashCodeMutable = 0;
     for (int entryIndex = 0; entryIndex < size; entryIndex++) {
-      // each of our 6 callers carefully put only Entry<K, V>s into the array!
-      @SuppressWarnings("unchecked")
-      Entry<K, V> entry = (Entry<K, V>) immutableEntries[entryIndex];
-      K key = entry.getKey();
+      Entry<?, ?> entry = immutableEntries[entryIndex];
+      Object key = entry.getKey();
       int keyHashCode = key.hashCode();
       keySetHashCodeMutable += keyHashCode;
-      int tableIndex = Hashing.smear(keyHashCode) & mask;
-      @Nullable LinkedEntry<K, V> existing = table[tableIndex];
-      // prepend, not append, so the entries can be immutable
-      LinkedEntry<K, V> linkedEntry =
-          newLinkedEntry(key, entry.getValue(), existing);
-      table[tableIndex] = linkedEntry;
-      entries[entryIndex] = linkedEntry;
-      while (existing != null) {
-        checkArgument(!key.equals(existing.getKey()), "duplicate key: %s", key);
-        existing = existing.next();
+      int hash = Hashing.smear(keyHashCode);
+      int hashBits = hash & ~indexMask;
+      for (int i = hash; true; i++) {
+        int tableIndex = i & mask;
+        int existing = table[tableIndex];
+        if (existing == 0) {
+          table[tableIndex] = hashBits | (entryIndex + 1);
+          break;
+        }
+        checkArgument((existing & ~indexMask) != hashBits
+            || !key.equals(keyAt((existing & indexMask) - 1)),
+            "duplicate key: %s", key);
       }
+      alternatingKeysAndValues[2 * entryIndex] = key;
+      alternatingKeysAndValues[2 * entryIndex + 1] = entry.getValue();
     }
     keySetHashCode = keySetHashCodeMutable;
   }
 
-  private static int chooseTableSize(int size) {
-    // least power of 2 greater than size
-    int tableSize = Integer.highestOneBit(size) << 1;
-    checkArgument(tableSize > 0, "table too large: %s", size);
-    return tableSize;
-  }
-
-  /**
-   * Creates a {@link LinkedEntry} array to hold parameterized entries. The
-   * result must never be upcast back to LinkedEntry[] (or Object[], etc.), or
-   * allowed to escape the class.
+  /*
+   * Each of our 6 callers carefully put only Entry<K, V>s into the array, so
+   * the keys and values are of the right types.
    */
-  @SuppressWarnings("unchecked") // Safe as long as the javadocs are followed
-  private LinkedEntry<K, V>[] createEntryArray(int size) {
-    return new LinkedEntry[size];
-  }
-
-  private static <K, V> LinkedEntry<K, V> newLinkedEntry(K key, V value,
-      @Nullable LinkedEntry<K, V> next) {
-    return (next == null)
-        ? new TerminalEntry<K, V>(key, value)
-        : new NonTerminalEntry<K, V>(key, value, next);
+  @SuppressWarnings("unchecked")
+  K keyAt(int index) {
+    return (K) alternatingKeysAndValues[2 * index];
   }
 
-  private interface LinkedEntry<K, V> extends Entry<K, V> {
-    /** Returns the next entry in the list or {@code null} if none exists. */
-    @Nullable LinkedEntry<K, V> next();
-  }
-
-  /** {@code LinkedEntry} implementation that has a next value. */
-  @Immutable
-  @SuppressWarnings("serial") // this class is never serialized
-  private static final class NonTerminalEntry<K, V>
-      extends ImmutableEntry<K, V> implements LinkedEntry<K, V> {
-    final LinkedEntry<K, V> next;
-
-    NonTerminalEntry(K key, V value, LinkedEntry<K, V> next) {
-      super(key, value);
-      this.next = next;
-    }
-
-    @Override public LinkedEntry<K, V> next() {
-      return next;
-    }
-  }
-
-  /**
-   * {@code LinkedEntry} implementation that serves as the last entry in the
-   * list.  I.e. no next entry
-   */
-  @Immutable
-  @SuppressWarnings("serial") // this class is never serialized
-  private static final class TerminalEntry<K, V> extends ImmutableEntry<K, V>
-      implements LinkedEntry<K, V> {
-    TerminalEntry(K key, V value) {
-      super(key, value);
-    }
-
-    @Nullable @Override public LinkedEntry<K, V> next() {
-      return null;
-    }
+  @SuppressWarnings("unchecked")
+  V valueAt(int index) {
+    return (V) alternatingKeysAndValues[2 * index + 1];
   }
 
   @Override public V get(@Nullable Object key) {
     if (key == null) {
       return null;
     }
-    int index = Hashing.smear(key.hashCode()) & mask;
-    for (LinkedEntry<K, V> entry = table[index];
-        entry != null;
-        entry = entry.next()) {
-      K candidateKey = entry.getKey();
-
+    int hash = Hashing.smear(key.hashCode());
+    int hashBits = hash & ~indexMask;
+    for (int i = hash; true; i++) {
+      int entry = table[i & mask];
+      if (entry == 0) {
+        return null;
+      }
       /*
-       * Assume that equals uses the == optimization when appropriate, and that
-       * it would check hash codes as an optimization when appropriate. If we
-       * did these things, it would just make things worse for the most
+       * The hash bits are already loaded, so comparing them is free. Beyond
+       * that, assume that equals uses the == optimization when appropriate, and
+       * that it would check hash codes as an optimization when appropriate. If
+       * we did these things, it would just make things worse for the most
        * performance-conscious users.
        */
-      if (key.equals(candidateKey)) {
-        return entry.getValue();
+      if ((entry & ~indexMask) == hashBits) {
+        int index = (entry & indexMask) - 1;
+        if (key.equals(alternatingKeysAndValues[2 * index])) {
+          return valueAt(index);
+        }
       }
     }
-    return null;
   }
 
   @Override
   public int size() {
-    return entries.length;
+    return alternatingKeysAndValues.length / 2;
   }
 
   @Override public boolean isEmpty() {
@@ -175,8 +143,8 @@ final class RegularImmutableMap<K, V> extends ImmutableMap<K, V> {
     if (value == null) {
       return false;
     }
-    for (Entry<K, V> entry : entries) {
-      if (entry.getValue().equals(value)) {
+    for (int i = 1; i < alternatingKeysAndValues.length; i += 2) {
+      if (alternatingKeysAndValues[i].equals(value)) {
         return true;
       }
     }
@@ -195,14 +163,31 @@ final class RegularImmutableMap<K, V> extends ImmutableMap<K, V> {
   }
 
   @SuppressWarnings("serial") // uses writeReplace(), not default serialization
-  private static class EntrySet<K, V> extends ArrayImmutableSet<Entry<K, V>> {
+  private static class EntrySet<K, V> extends ImmutableSet<Entry<K, V>> {
     final transient RegularImmutableMap<K, V> map;
 
     EntrySet(RegularImmutableMap<K, V> map) {
-      super(map.entries);
       this.map = map;
     }
 
+    @Override
+    public int size() {
+      return map.size();
+    }
+
+    @Override public boolean isEmpty() {
+      return false;
+    }
+
+    @Override public UnmodifiableIterator<Entry<K, V>> iterator() {
+      return new AbstractIndexedListIterator<Entry<K, V>>(map.size()) {
+        @Override protected Entry<K, V> get(int index) {
+          return new ImmutableEntry<K, V>(
+              map.keyAt(index), map.valueAt(index));
+        }
+      };
+    }
+
     @Override public boolean contains(Object target) {
       if (target instanceof Entry) {
         Entry<?, ?> entry = (Entry<?, ?>) target;
@@ -211,6 +196,21 @@ final class RegularImmutableMap<K, V> extends ImmutableMap<K, V> {
       }
       return false;
     }
+
+    // Computed from the backing array so that hashing the map creates no
+    // entries.
+    @Override public int hashCode() {
+      Object[] keysAndValues = map.alternatingKeysAndValues;
+      int hashCode = 0;
+      for (int i = 0; i < keysAndValues.length; i += 2) {
+        hashCode += keysAndValues[i].hashCode() ^ keysAndValues[i + 1].hashCode();
+      }
+      return hashCode;
+    }
+
+    @Override boolean isPartialView() {
+      return true;
+    }
   }
 
   private transient ImmutableSet<K> keySet;
@@ -221,23 +221,42 @@ final class RegularImmutableMap<K, V> extends ImmutableMap<K, V> {
   }
 
   @SuppressWarnings("serial") // uses writeReplace(), not default serialization
-  private static class KeySet<K, V>
-      extends TransformedImmutableSet<Entry<K, V>, K> {
+  private static class KeySet<K, V> extends ImmutableSet<K> {
     final RegularImmutableMap<K, V> map;
 
     KeySet(RegularImmutableMap<K, V> map) {
-      super(map.entries, map.keySetHashCode);
       this.map = map;
     }
 
-    @Override K transform(Entry<K, V> element) {
-      return element.getKey();
+    @Override
+    public int size() {
+      return map.size();
+    }
+
+    @Override public boolean isEmpty() {
+      return false;
+    }
+
+    @Override public UnmodifiableIterator<K> iterator() {
+      return new AbstractIndexedListIterator<K>(map.size()) {
+        @Override protected K get(int index) {
+          return map.keyAt(index);
+        }
+      };
     }
 
     @Override public boolean contains(Object target) {
       return map.containsKey(target);
     }
 
+    @Override public int hashCode() {
+      return map.keySetHashCode;
+    }
+
+    @Override boolean isHashCodeFast() {
+      return true;
+    }
+
     @Override boolean isPartialView() {
       return true;
     }
@@ -260,13 +279,13 @@ final class RegularImmutableMap<K, V> extends ImmutableMap<K, V> {
 
     @Override
     public int size() {
-      return map.entries.length;
+      return map.size();
     }
 
     @Override public UnmodifiableIterator<V> iterator() {
-      return new AbstractIndexedListIterator<V>(map.entries.length) {
+      return new AbstractIndexedListIterator<V>(map.size()) {
         @Override protected V get(int index) {
-          return map.entries[index].getValue();
+          return map.valueAt(index);
         }
       };
     }
@@ -283,7 +302,13 @@ final class RegularImmutableMap<K, V> extends ImmutableMap<K, V> {
   @Override public String toString() {
     StringBuilder result
         = Collections2.newStringBuilderForCollection(size()).append('{');
-    Collections2.STANDARD_JOINER.appendTo(result, entries);
+    for (int i = 0; i < alternatingKeysAndValues.length; i += 2) {
+      if (i > 0) {
+        result.append(", ");
+      }
+      result.append(alternatingKeysAndValues[i])
+          .append('=').append(alternatingKeysAndValues[i + 1]);
+    }
     return result.append('}').toString();
   }
 
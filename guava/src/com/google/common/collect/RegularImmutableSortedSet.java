@@ -25,9 +25,10 @@ import static com.google.common.collect.SortedLists.KeyPresentBehavior.FIRST_AFT
 import static com.google.common.collect.SortedLists.KeyPresentBehavior.FIRST_PRESENT;
 
 import com.google.common.annotations.GwtCompatible;
+import com.google.common.collect.SortedLists.KeyAbsentBehavior;
+import com.google.common.collect.SortedLists.KeyPresentBehavior;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -47,11 +48,23 @@ import javax.annotation.Nullable;
 final class RegularImmutableSortedSet<E> extends ImmutableSortedSet<E> {
 
   private transient final ImmutableList<E> elements;
+  // an index over a list which holds elements from searchIndexOffset on, or
+  // null
+  @Nullable private transient final SortedSearchIndex searchIndex;
+  private transient final int searchIndexOffset;
 
   RegularImmutableSortedSet(
       ImmutableList<E> elements, Comparator<? super E> comparator) {
+    this(elements, comparator, null, 0);
+  }
+
+  RegularImmutableSortedSet(ImmutableList<E> elements,
+      Comparator<? super E> comparator, @Nullable SortedSearchIndex searchIndex,
+      int searchIndexOffset) {
     super(comparator);
     this.elements = elements;
+    this.searchIndex = searchIndex;
+    this.searchIndexOffset = searchIndexOffset;
     checkArgument(!elements.isEmpty());
   }
 
@@ -73,7 +86,7 @@ final class RegularImmutableSortedSet<E> extends ImmutableSortedSet<E> {
       return false;
     }
     try {
-      return binarySearch(o) >= 0;
+      return search(o, ANY_PRESENT, INVERTED_INSERTION_INDEX) >= 0;
     } catch (ClassCastException e) {
       return false;
     }
@@ -125,18 +138,21 @@ final class RegularImmutableSortedSet<E> extends ImmutableSortedSet<E> {
     return false;
   }
 
-  private int binarySearch(Object key) {
-    // TODO(kevinb): split this into binarySearch(E) and 
-    // unsafeBinarySearch(Object), use each appropriately. name all methods that
-    // might throw CCE "unsafe*".
-    
+  private int search(Object key, KeyPresentBehavior presentBehavior,
+      KeyAbsentBehavior absentBehavior) {
+    // TODO(kevinb): split this into search(E) and unsafeSearch(Object), use
+    // each appropriately. name all methods that might throw CCE "unsafe*".
+
     // Pretend the comparator can compare anything. If it turns out it can't
     // compare a and b, we should get a CCE on the subsequent line. Only methods
     // that are spec'd to throw CCE should call this.
-    @SuppressWarnings("unchecked")
-    Comparator<Object> unsafeComparator = (Comparator<Object>) comparator;
+    Comparator<Object> unsafeComparator = unsafeComparator();
 
-    return Collections.binarySearch(elements, key, unsafeComparator);
+    return (searchIndex == null)
+        ? SortedLists.binarySearch(elements, key, unsafeComparator,
+            presentBehavior, absentBehavior)
+        : searchIndex.binarySearch(elements, searchIndexOffset, key,
+            unsafeComparator, presentBehavior, absentBehavior);
   }
 
   @Override boolean isPartialView() {
@@ -200,11 +216,9 @@ final class RegularImmutableSortedSet<E> extends ImmutableSortedSet<E> {
   ImmutableSortedSet<E> headSetImpl(E toElement, boolean inclusive) {
     int index;
     if (inclusive) {
-      index = SortedLists.binarySearch(
-          elements, checkNotNull(toElement), comparator(), FIRST_AFTER, NEXT_HIGHER);
+      index = search(checkNotNull(toElement), FIRST_AFTER, NEXT_HIGHER);
     } else {
-      index = SortedLists.binarySearch(
-          elements, checkNotNull(toElement), comparator(), FIRST_PRESENT, NEXT_HIGHER);
+      index = search(checkNotNull(toElement), FIRST_PRESENT, NEXT_HIGHER);
     }
     return createSubset(0, index);
   }
@@ -220,11 +234,9 @@ final class RegularImmutableSortedSet<E> extends ImmutableSortedSet<E> {
   ImmutableSortedSet<E> tailSetImpl(E fromElement, boolean inclusive) {
     int index;
     if (inclusive) {
-      index = SortedLists.binarySearch(
-          elements, checkNotNull(fromElement), comparator(), FIRST_PRESENT, NEXT_HIGHER);
+      index = search(checkNotNull(fromElement), FIRST_PRESENT, NEXT_HIGHER);
     } else {
-      index = SortedLists.binarySearch(
-          elements, checkNotNull(fromElement), comparator(), FIRST_AFTER, NEXT_HIGHER);
+      index = search(checkNotNull(fromElement), FIRST_AFTER, NEXT_HIGHER);
     }
     return createSubset(index, size());
   }
@@ -242,21 +254,20 @@ final class RegularImmutableSortedSet<E> extends ImmutableSortedSet<E> {
       return this;
     } else if (newFromIndex < newToIndex) {
       return new RegularImmutableSortedSet<E>(
-          elements.subList(newFromIndex, newToIndex), comparator);
+          elements.subList(newFromIndex, newToIndex), comparator, searchIndex,
+          searchIndexOffset + newFromIndex);
     } else {
       return emptySet(comparator);
     }
   }
 
-  @SuppressWarnings("unchecked")
   @Override int indexOf(@Nullable Object target) {
     if (target == null) {
       return -1;
     }
     int position;
     try {
-      position = SortedLists.binarySearch(elements, (E) target, comparator(), 
-          ANY_PRESENT, INVERTED_INSERTION_INDEX);
+      position = search(target, ANY_PRESENT, INVERTED_INSERTION_INDEX);
     } catch (ClassCastException e) {
       return -1;
     }
@@ -262,10 +262,24 @@ import javax.annotation.Nullable;
     if (!(list instanceof RandomAccess)) {
       list = Lists.newArrayList(list);
     }
+    return binarySearch(
+        list, key, comparator, presentBehavior, absentBehavior, 0, list.size());
+  }
+
+  /**
+   * Searches the random-access {@code list} like {@link #binarySearch(List, Object, Comparator,
+   * KeyPresentBehavior, KeyAbsentBehavior)}, but only compares {@code key} with the elements from
+   * {@code fromIndex}, inclusive, to {@code toIndex}, exclusive. The caller must know that {@code
+   * key} is greater than any elements before {@code fromIndex} and less than any elements from
+   * {@code toIndex} on.
+   */
+  static <E> int binarySearch(List<? extends E> list, @Nullable E key,
+      Comparator<? super E> comparator, KeyPresentBehavior presentBehavior,
+      KeyAbsentBehavior absentBehavior, int fromIndex, int toIndex) {
     // TODO(user): benchmark when it's best to do a linear search
 
-    int lower = 0;
-    int upper = list.size() - 1;
+    int lower = fromIndex;
+    int upper = toIndex - 1;
 
     while (lower <= upper) {
       int middle = (lower + upper) >>> 1;
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import com.google.common.annotations.GwtCompatible;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.SortedLists.KeyAbsentBehavior;
+import com.google.common.collect.SortedLists.KeyPresentBehavior;
+
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * An index that speeds up binary searches of a large sorted list, like the upper levels of a
+ * B-tree. It splits the list into blocks of {@link #BLOCK_SIZE} elements, about a cache line of
+ * references, and keeps a compact array of the first element of each block, the block's fence
+ * key. A search finds the block that may contain the key by searching the fence keys, and then
+ * searches only that block.
+ *
+ * <p>The fence keys are held directly, so a search of a map's keys loads an entry only for the
+ * few comparisons within the final block, and the fence array is small enough for most of it to
+ * stay cached. The index doesn't change the list, so iteration order is unaffected, and it may be
+ * shared by views of contiguous ranges of the list given their offset into it.
+ */
+@GwtCompatible
+final class SortedSearchIndex {
+  @VisibleForTesting static final int BLOCK_SHIFT = 4;
+  @VisibleForTesting static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+  /**
+   * The smallest list that is worth indexing. Below this size, the elements touched by a plain
+   * binary search tend to stay cached anyway.
+   */
+  @VisibleForTesting static final int MIN_INDEXED_SIZE = 1 << 12;
+
+  // the first element of each block
+  private final Object[] fences;
+
+  /**
+   * Returns an index over the elements of {@code sortedList}, or {@code null} if the list is too
+   * small to need one.
+   */
+  @Nullable static SortedSearchIndex create(List<?> sortedList) {
+    return (sortedList.size() < MIN_INDEXED_SIZE) ? null : new SortedSearchIndex(sortedList);
+  }
+
+  @VisibleForTesting SortedSearchIndex(List<?> sortedList) {
+    fences = new Object[(sortedList.size() + BLOCK_SIZE - 1) >> BLOCK_SHIFT];
+    for (int block = 0; block < fences.length; block++) {
+      fences[block] = sortedList.get(block << BLOCK_SHIFT);
+    }
+  }
+
+  /**
+   * Returns the index in the indexed list of the first element of the block which would contain
+   * {@code key}: the last block whose fence key is not greater than {@code key}, or the first block
+   * if every fence key is greater.
+   */
+  int blockStart(Object key, Comparator<Object> comparator) {
+    int lower = 0;
+    int upper = fences.length - 1;
+    while (lower < upper) {
+      int middle = (lower + upper + 1) >>> 1;
+      if (comparator.compare(key, fences[middle]) < 0) {
+        upper = middle - 1;
+      } else {
+        lower = middle;
+      }
+    }
+    return lower << BLOCK_SHIFT;
+  }
+
+  /**
+   * Searches {@code list}, which consists of the elements of the indexed list starting at {@code
+   * offset}, like {@link SortedLists#binarySearch(List, Object, Comparator, KeyPresentBehavior,
+   * KeyAbsentBehavior)}. The list must be random-access and must not contain duplicates.
+   */
+  <E> int binarySearch(List<? extends E> list, int offset, E key,
+      Comparator<? super E> comparator, KeyPresentBehavior presentBehavior,
+      KeyAbsentBehavior absentBehavior) {
+    // Pretend the comparator can compare anything. If it turns out it can't compare the key with a
+    // fence key, it'll throw a CCE, as comparing the key with a list element would.
+    @SuppressWarnings("unchecked")
+    Comparator<Object> unsafeComparator = (Comparator<Object>) comparator;
+    int start = blockStart(key, unsafeComparator) - offset;
+    int size = list.size();
+    int fromIndex = Math.min(Math.max(start, 0), size);
+    int toIndex = Math.min(Math.max(start + BLOCK_SIZE, 0), size);
+    return SortedLists.binarySearch(
+        list, key, comparator, presentBehavior, absentBehavior, fromIndex, toIndex);
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+import com.google.common.annotations.Beta;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A bounded, thread-safe {@link Interner} of strings, which can also look up the canonical string
+ * for a {@link CharSequence} or for UTF-8 encoded bytes without first creating a string from
+ * them. A new string is only created when no equal string is held, which makes this interner
+ * suitable for canonicalizing the text fields of decoded messages.
+ *
+ * <p>The interner retains strong references to at most its maximum size of strings, and evicts a
+ * string which wasn't recently interned to make room for a new one. Evicted strings are never
+ * returned again, so {@code intern(a) == intern(b)} only holds for equal strings {@code a} and
+ * {@code b} if the canonical string wasn't evicted in between. Lookups don't lock.
+ *
+ * <p>Instances are created by {@link Interners#newStringInterner}.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class StringInterner implements Interner<String> {
+  private final BoundedInterner<String> interner;
+
+  StringInterner(int maximumSize) {
+    this.interner = new BoundedInterner<String>(maximumSize);
+  }
+
+  /**
+   * Returns the canonical string equal to {@code sample}.
+   *
+   * @throws NullPointerException if {@code sample} is null
+   */
+  @Override public String intern(String sample) {
+    return interner.intern(sample);
+  }
+
+  /**
+   * Returns the canonical string with the same characters as {@code chars}, only calling its
+   * {@code toString} method if no such string is held.
+   *
+   * @throws NullPointerException if {@code chars} is null
+   */
+  public String intern(CharSequence chars) {
+    if (chars instanceof String) {
+      return interner.intern((String) chars);
+    }
+    int length = chars.length();
+    int hashCode = 0;
+    for (int i = 0; i < length; i++) {
+      hashCode = 31 * hashCode + chars.charAt(i);
+    }
+    int hash = BoundedInterner.hash(hashCode);
+    int first = interner.firstIndex(hash);
+    for (int i = first; i < first + interner.ways; i++) {
+      BoundedInterner.Entry<String> e = interner.table.get(i);
+      if (e == null) {
+        break;
+      }
+      if (e.hash == hash && contentEquals(e.value, chars)) {
+        return BoundedInterner.found(e);
+      }
+    }
+    return interner.insert(hash, chars.toString());
+  }
+
+  private static boolean contentEquals(String string, CharSequence chars) {
+    int length = string.length();
+    if (chars.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (string.charAt(i) != chars.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the canonical string decoded from the UTF-8 encoded {@code bytes}, only decoding them
+   * into a new string if no such string is held.
+   *
+   * @throws NullPointerException if {@code bytes} is null
+   */
+  public String intern(byte[] bytes) {
+    return intern(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Returns the canonical string decoded from the {@code length} UTF-8 encoded bytes of {@code
+   * bytes} starting at {@code offset}, only decoding them into a new string if no such string is
+   * held. Malformed input is decoded as {@link String#String(byte[], int, int, String)} decodes
+   * it.
+   *
+   * @throws NullPointerException if {@code bytes} is null
+   * @throws IndexOutOfBoundsException if {@code offset} or {@code length} is negative, or {@code
+   *     offset + length} is greater than {@code bytes.length}
+   */
+  public String intern(byte[] bytes, int offset, int length) {
+    checkNotNull(bytes);
+    checkPositionIndexes(offset, offset + length, bytes.length);
+    int end = offset + length;
+    int hashCode = 0;
+    for (int i = offset; i < end; ) {
+      int b = bytes[i];
+      if (b >= 0) {
+        hashCode = 31 * hashCode + b;
+        i++;
+        continue;
+      }
+      int decoded = decodeUtf8(bytes, i, end);
+      if (decoded < 0) {
+        return interner.intern(newString(bytes, offset, length));
+      }
+      int codePoint = decoded >>> 3;
+      if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+        hashCode = 31 * hashCode + codePoint;
+      } else {
+        hashCode = 31 * hashCode + highSurrogate(codePoint);
+        hashCode = 31 * hashCode + lowSurrogate(codePoint);
+      }
+      i += decoded & 7;
+    }
+    int hash = BoundedInterner.hash(hashCode);
+    int first = interner.firstIndex(hash);
+    for (int i = first; i < first + interner.ways; i++) {
+      BoundedInterner.Entry<String> e = interner.table.get(i);
+      if (e == null) {
+        break;
+      }
+      if (e.hash == hash && utf8Equals(e.value, bytes, offset, end)) {
+        return BoundedInterner.found(e);
+      }
+    }
+    return interner.insert(hash, newString(bytes, offset, length));
+  }
+
+  /** Returns whether the well-formed UTF-8 encoded bytes decode to {@code string}. */
+  private static boolean utf8Equals(String string, byte[] bytes, int offset, int end) {
+    int length = string.length();
+    int index = 0;
+    if (end - offset < length) {
+      return false; // each character is encoded in at least one byte
+    }
+    for (int i = offset; i < end; ) {
+      int b = bytes[i];
+      if (b >= 0) {
+        if (index >= length || string.charAt(index++) != b) {
+          return false;
+        }
+        i++;
+        continue;
+      }
+      int decoded = decodeUtf8(bytes, i, end);
+      int codePoint = decoded >>> 3;
+      if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+        if (index >= length || string.charAt(index++) != codePoint) {
+          return false;
+        }
+      } else {
+        if (index + 1 >= length
+            || string.charAt(index++) != highSurrogate(codePoint)
+            || string.charAt(index++) != lowSurrogate(codePoint)) {
+          return false;
+        }
+      }
+      i += decoded & 7;
+    }
+    return index == length;
+  }
+
+  /**
+   * Returns the code point encoded at {@code bytes[index]}, shifted left by three bits and
+   * combined with the number of bytes encoding it, or -1 if the bytes are not well-formed UTF-8.
+   */
+  private static int decodeUtf8(byte[] bytes, int index, int end) {
+    int b0 = bytes[index];
+    if (b0 >= 0) {
+      return (b0 << 3) | 1;
+    }
+    if ((b0 & 0xe0) == 0xc0) {
+      if (index + 1 >= end || !isContinuation(bytes[index + 1])) {
+        return -1;
+      }
+      int codePoint = ((b0 & 0x1f) << 6) | (bytes[index + 1] & 0x3f);
+      return (codePoint < 0x80) ? -1 : (codePoint << 3) | 2;
+    }
+    if ((b0 & 0xf0) == 0xe0) {
+      if (index + 2 >= end
+          || !isContinuation(bytes[index + 1]) || !isContinuation(bytes[index + 2])) {
+        return -1;
+      }
+      int codePoint = ((b0 & 0x0f) << 12)
+          | ((bytes[index + 1] & 0x3f) << 6) | (bytes[index + 2] & 0x3f);
+      if (codePoint < 0x800
+          || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+        return -1;
+      }
+      return (codePoint << 3) | 3;
+    }
+    if ((b0 & 0xf8) == 0xf0) {
+      if (index + 3 >= end || !isContinuation(bytes[index + 1])
+          || !isContinuation(bytes[index + 2]) || !isContinuation(bytes[index + 3])) {
+        return -1;
+      }
+      int codePoint = ((b0 & 0x07) << 18) | ((bytes[index + 1] & 0x3f) << 12)
+          | ((bytes[index + 2] & 0x3f) << 6) | (bytes[index + 3] & 0x3f);
+      if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT
+          || codePoint > Character.MAX_CODE_POINT) {
+        return -1;
+      }
+      return (codePoint << 3) | 4;
+    }
+    return -1;
+  }
+
+  private static boolean isContinuation(byte b) {
+    return (b & 0xc0) == 0x80;
+  }
+
+  private static char highSurrogate(int codePoint) {
+    return (char) ((codePoint >>> 10)
+        + (Character.MIN_HIGH_SURROGATE - (Character.MIN_SUPPLEMENTARY_CODE_POINT >>> 10)));
+  }
+
+  private static char lowSurrogate(int codePoint) {
+    return (char) ((codePoint & 0x3ff) + Character.MIN_LOW_SURROGATE);
+  }
+
+  private static String newString(byte[] bytes, int offset, int length) {
+    try {
+      return new String(bytes, offset, length, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e); // every JVM supports UTF-8
+    }
+  }
+
+  /** Returns the number of strings currently held; for testing. */
+  int size() {
+    return interner.size();
+  }
+}
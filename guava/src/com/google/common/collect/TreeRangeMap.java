@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * A mutable {@link RangeMap} backed by a red-black tree of its ranges, keyed by their lower bounds.
+ * {@link #get} and {@link #getEntry} take {@code O(log n)} time for a range map of {@code n}
+ * ranges. {@link #put} and {@link #remove} take {@code O(log n)} time plus time proportional to the
+ * number of ranges they overwrite.
+ *
+ * <p>This class is not thread-safe.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class TreeRangeMap<K extends Comparable, V> extends AbstractRangeMap<K, V> {
+  /**
+   * Creates an empty {@code TreeRangeMap}.
+   */
+  public static <K extends Comparable, V> TreeRangeMap<K, V> create() {
+    return new TreeRangeMap<K, V>();
+  }
+
+  private final SortedMap<Cut<K>, RangeMapEntry<K, V>> entriesByLowerBound =
+      new TreeMap<Cut<K>, RangeMapEntry<K, V>>();
+  private transient Map<Range<K>, V> asMapOfRanges;
+
+  private TreeRangeMap() {}
+
+  private static final class RangeMapEntry<K extends Comparable, V>
+      extends AbstractMapEntry<Range<K>, V> {
+    final Range<K> range;
+    final V value;
+
+    RangeMapEntry(Range<K> range, V value) {
+      this.range = range;
+      this.value = value;
+    }
+
+    @Override public Range<K> getKey() {
+      return range;
+    }
+
+    @Override public V getValue() {
+      return value;
+    }
+  }
+
+  @Override
+  @Nullable
+  public Entry<Range<K>, V> getEntry(K key) {
+    checkNotNull(key);
+    // No cut lies strictly between belowValue(key) and aboveValue(key), so this is the range with
+    // the greatest lower bound at or below key.
+    RangeMapEntry<K, V> entry = entryBelow(Cut.aboveValue(key));
+    return (entry != null && entry.range.contains(key)) ? entry : null;
+  }
+
+  @Override
+  public Range<K> span() {
+    Range<K> first = entriesByLowerBound.get(entriesByLowerBound.firstKey()).range;
+    Range<K> last = entriesByLowerBound.get(entriesByLowerBound.lastKey()).range;
+    return Ranges.create(first.lowerBound, last.upperBound);
+  }
+
+  @Override
+  public void put(Range<K> range, V value) {
+    checkNotNull(value);
+    if (!range.isEmpty()) {
+      remove(range);
+      putEntry(range, value);
+    }
+  }
+
+  @Override
+  public void remove(Range<K> range) {
+    checkNotNull(range);
+    if (range.isEmpty()) {
+      return;
+    }
+    Cut<K> lowerBound = range.lowerBound;
+    Cut<K> upperBound = range.upperBound;
+
+    RangeMapEntry<K, V> below = entryBelow(lowerBound);
+    RangeMapEntry<K, V> last = entryBelow(upperBound);
+    if (last != null && last.range.upperBound.compareTo(upperBound) > 0) {
+      putEntry(Ranges.create(upperBound, last.range.upperBound), last.value);
+    }
+    if (below != null && below.range.upperBound.compareTo(lowerBound) > 0) {
+      putEntry(Ranges.create(below.range.lowerBound, lowerBound), below.value);
+    }
+    entriesByLowerBound.subMap(lowerBound, upperBound).clear();
+  }
+
+  @Override
+  public void clear() {
+    entriesByLowerBound.clear();
+  }
+
+  @Override
+  public Map<Range<K>, V> asMapOfRanges() {
+    Map<Range<K>, V> result = asMapOfRanges;
+    return (result == null) ? asMapOfRanges = new AsMapOfRanges() : result;
+  }
+
+  private final class AsMapOfRanges extends AbstractMap<Range<K>, V> {
+    @Override public V get(@Nullable Object key) {
+      if (key instanceof Range) {
+        Range<?> range = (Range<?>) key;
+        try {
+          RangeMapEntry<K, V> entry = entriesByLowerBound.get(range.lowerBound);
+          if (entry != null && entry.range.equals(range)) {
+            return entry.value;
+          }
+        } catch (ClassCastException e) {
+          // a range of some other type
+        }
+      }
+      return null;
+    }
+
+    @Override public boolean containsKey(@Nullable Object key) {
+      return get(key) != null;
+    }
+
+    @Override public Set<Entry<Range<K>, V>> entrySet() {
+      return new AbstractSet<Entry<Range<K>, V>>() {
+        @SuppressWarnings("unchecked") // each entry is an Entry<Range<K>, V>
+        @Override public Iterator<Entry<Range<K>, V>> iterator() {
+          return (Iterator) Iterators.unmodifiableIterator(
+              entriesByLowerBound.values().iterator());
+        }
+
+        @Override public int size() {
+          return entriesByLowerBound.size();
+        }
+      };
+    }
+  }
+
+  /**
+   * Returns the entry with the greatest lower bound strictly below {@code cut}, or {@code null} if
+   * there is none.
+   */
+  @Nullable
+  private RangeMapEntry<K, V> entryBelow(Cut<K> cut) {
+    SortedMap<Cut<K>, RangeMapEntry<K, V>> headMap = entriesByLowerBound.headMap(cut);
+    return headMap.isEmpty() ? null : headMap.get(headMap.lastKey());
+  }
+
+  private void putEntry(Range<K> range, V value) {
+    entriesByLowerBound.put(range.lowerBound, new RangeMapEntry<K, V>(range, value));
+  }
+}
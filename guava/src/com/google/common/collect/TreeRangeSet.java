@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.collect;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.Beta;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * A mutable {@link RangeSet} backed by a red-black tree of its ranges, keyed by their lower bounds.
+ * {@link #contains}, {@link #rangeContaining} and {@link #encloses} take {@code O(log n)} time for
+ * a range set of {@code n} ranges. {@link #add} and {@link #remove} take {@code O(log n)} time plus
+ * time proportional to the number of ranges they coalesce or discard.
+ *
+ * <p>This class is not thread-safe.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class TreeRangeSet<C extends Comparable> extends AbstractRangeSet<C> {
+  /**
+   * Creates an empty {@code TreeRangeSet}.
+   */
+  public static <C extends Comparable> TreeRangeSet<C> create() {
+    return new TreeRangeSet<C>();
+  }
+
+  /**
+   * Creates a {@code TreeRangeSet} containing the ranges of {@code rangeSet}.
+   */
+  public static <C extends Comparable> TreeRangeSet<C> create(RangeSet<C> rangeSet) {
+    TreeRangeSet<C> result = create();
+    result.addAll(rangeSet);
+    return result;
+  }
+
+  private final SortedMap<Cut<C>, Range<C>> rangesByLowerBound = new TreeMap<Cut<C>, Range<C>>();
+  private transient Set<Range<C>> asRanges;
+
+  private TreeRangeSet() {}
+
+  @Override
+  @Nullable
+  public Range<C> rangeContaining(C value) {
+    checkNotNull(value);
+    // No cut lies strictly between belowValue(value) and aboveValue(value), so this is the range
+    // with the greatest lower bound at or below value.
+    Range<C> range = rangeBelow(Cut.aboveValue(value));
+    return (range != null && range.contains(value)) ? range : null;
+  }
+
+  @Override
+  public boolean encloses(Range<C> otherRange) {
+    checkNotNull(otherRange);
+    Range<C> range = rangesByLowerBound.get(otherRange.lowerBound);
+    if (range == null) {
+      range = rangeBelow(otherRange.lowerBound);
+    }
+    return range != null && range.encloses(otherRange);
+  }
+
+  @Override
+  public Range<C> span() {
+    Range<C> first = rangesByLowerBound.get(rangesByLowerBound.firstKey());
+    Range<C> last = rangesByLowerBound.get(rangesByLowerBound.lastKey());
+    return Ranges.create(first.lowerBound, last.upperBound);
+  }
+
+  @Override
+  public Set<Range<C>> asRanges() {
+    Set<Range<C>> result = asRanges;
+    return (result == null) ? asRanges = new AsRanges() : result;
+  }
+
+  private final class AsRanges extends ForwardingCollection<Range<C>> implements Set<Range<C>> {
+    final Collection<Range<C>> delegate =
+        Collections.unmodifiableCollection(rangesByLowerBound.values());
+
+    @Override protected Collection<Range<C>> delegate() {
+      return delegate;
+    }
+
+    @Override public boolean equals(@Nullable Object object) {
+      return Sets.equalsImpl(this, object);
+    }
+
+    @Override public int hashCode() {
+      return Sets.hashCodeImpl(this);
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return rangesByLowerBound.isEmpty();
+  }
+
+  @Override
+  public void add(Range<C> range) {
+    checkNotNull(range);
+    if (range.isEmpty()) {
+      return;
+    }
+    Cut<C> lowerBound = range.lowerBound;
+    Cut<C> upperBound = range.upperBound;
+
+    Range<C> below = rangeBelow(lowerBound);
+    if (below != null && below.upperBound.compareTo(lowerBound) >= 0) {
+      if (below.upperBound.compareTo(upperBound) >= 0) {
+        return; // already enclosed
+      }
+      lowerBound = below.lowerBound;
+    }
+
+    Cut<C> newUpperBound = upperBound;
+    Range<C> last = rangesByLowerBound.get(upperBound);
+    if (last == null) {
+      last = rangeBelow(upperBound);
+    }
+    if (last != null && last.upperBound.compareTo(upperBound) > 0) {
+      newUpperBound = last.upperBound;
+    }
+
+    // Every range starting in [lowerBound, upperBound] is now part of the coalesced range.
+    rangesByLowerBound.subMap(lowerBound, upperBound).clear();
+    rangesByLowerBound.remove(upperBound);
+    replaceRange(Ranges.create(lowerBound, newUpperBound));
+  }
+
+  @Override
+  public void remove(Range<C> range) {
+    checkNotNull(range);
+    if (range.isEmpty()) {
+      return;
+    }
+    Cut<C> lowerBound = range.lowerBound;
+    Cut<C> upperBound = range.upperBound;
+
+    Range<C> below = rangeBelow(lowerBound);
+    Range<C> last = rangeBelow(upperBound);
+    if (last != null && last.upperBound.compareTo(upperBound) > 0) {
+      replaceRange(Ranges.create(upperBound, last.upperBound));
+    }
+    if (below != null && below.upperBound.compareTo(lowerBound) > 0) {
+      replaceRange(Ranges.create(below.lowerBound, lowerBound));
+    }
+    rangesByLowerBound.subMap(lowerBound, upperBound).clear();
+  }
+
+  @Override
+  public void clear() {
+    rangesByLowerBound.clear();
+  }
+
+  /**
+   * Returns the range with the greatest lower bound strictly below {@code cut}, or {@code null} if
+   * there is none.
+   */
+  @Nullable
+  private Range<C> rangeBelow(Cut<C> cut) {
+    SortedMap<Cut<C>, Range<C>> headMap = rangesByLowerBound.headMap(cut);
+    return headMap.isEmpty() ? null : headMap.get(headMap.lastKey());
+  }
+
+  private void replaceRange(Range<C> range) {
+    rangesByLowerBound.put(range.lowerBound, range);
+  }
+}
@@ -0,0 +1,627 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.primitives;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.annotations.Beta;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * A hash map from {@code int} keys to {@code int} values, stored unboxed in an open-addressing
+ * table with linear probing. It takes between 32/3 and 64/3 bytes per entry, much less than a
+ * {@code HashMap<Integer, Integer>}, and adding, removing or looking up an entry doesn't
+ * allocate, which makes it a good fit for counters: see {@link #addTo}.
+ *
+ * <p>The map is not a {@link Map}; use {@link #asMap} for a {@code Map<Integer, Integer>} view
+ * of it. Iterate over its entries with a {@link #cursor}, which doesn't box them. Entries are
+ * iterated in no particular order. This class is not thread-safe.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class IntIntHashMap {
+  // zero marks the empty slots, so the entry with key zero is held out of the table
+  private int[] keys;
+  private int[] values;
+  private boolean containsZeroKey;
+  private int zeroValue;
+  private int size;
+  private int modCount;
+
+  private IntIntHashMap(int capacity) {
+    this.keys = new int[capacity];
+    this.values = new int[capacity];
+  }
+
+  /**
+   * Creates a new, empty map.
+   */
+  public static IntIntHashMap create() {
+    return new IntIntHashMap(OpenHashing.MINIMUM_CAPACITY);
+  }
+
+  /**
+   * Creates a new, empty map with room for {@code expectedSize} entries before it has to grow.
+   *
+   * @throws IllegalArgumentException if {@code expectedSize} is negative
+   */
+  public static IntIntHashMap withExpectedSize(int expectedSize) {
+    return new IntIntHashMap(OpenHashing.capacityFor(expectedSize));
+  }
+
+  /**
+   * Returns the number of entries in this map.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns whether this map contains no entries.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the slot holding {@code key}, or -1 if it isn't in the table.
+   */
+  private int slotOf(int key) {
+    int[] keys = this.keys;
+    int mask = keys.length - 1;
+    for (int i = OpenHashing.mix(key) & mask; keys[i] != 0; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns whether this map contains an entry for {@code key}.
+   */
+  public boolean containsKey(int key) {
+    return (key == 0) ? containsZeroKey : slotOf(key) >= 0;
+  }
+
+  /**
+   * Returns the value for {@code key}, or {@code defaultValue} if this map has no entry for it.
+   */
+  public int get(int key, int defaultValue) {
+    if (key == 0) {
+      return containsZeroKey ? zeroValue : defaultValue;
+    }
+    int i = slotOf(key);
+    return (i < 0) ? defaultValue : values[i];
+  }
+
+  /**
+   * Associates {@code value} with {@code key}, and returns whether this map had no entry for
+   * {@code key}.
+   */
+  public boolean put(int key, int value) {
+    if (key == 0) {
+      zeroValue = value;
+      if (containsZeroKey) {
+        return false;
+      }
+      containsZeroKey = true;
+      added();
+      return true;
+    }
+    int mask = keys.length - 1;
+    int i = OpenHashing.mix(key) & mask;
+    for (; keys[i] != 0; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        values[i] = value;
+        return false;
+      }
+    }
+    keys[i] = key;
+    values[i] = value;
+    added();
+    return true;
+  }
+
+  /**
+   * Adds {@code delta} to the value for {@code key}, or associates {@code delta} with {@code key}
+   * if this map has no entry for it, and returns the new value.
+   */
+  public int addTo(int key, int delta) {
+    if (key == 0) {
+      if (containsZeroKey) {
+        return zeroValue += delta;
+      }
+      containsZeroKey = true;
+      zeroValue = delta;
+      added();
+      return delta;
+    }
+    int mask = keys.length - 1;
+    int i = OpenHashing.mix(key) & mask;
+    for (; keys[i] != 0; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        return values[i] += delta;
+      }
+    }
+    keys[i] = key;
+    values[i] = delta;
+    added();
+    return delta;
+  }
+
+  private void added() {
+    modCount++;
+    if (++size > OpenHashing.maxSize(keys.length)) {
+      rehash(OpenHashing.grow(keys.length));
+    }
+  }
+
+  /**
+   * Removes the entry for {@code key} from this map, and returns whether there was one.
+   */
+  public boolean remove(int key) {
+    if (key == 0) {
+      if (!containsZeroKey) {
+        return false;
+      }
+      containsZeroKey = false;
+      zeroValue = 0;
+    } else {
+      int i = slotOf(key);
+      if (i < 0) {
+        return false;
+      }
+      removeSlot(i);
+    }
+    modCount++;
+    size--;
+    return true;
+  }
+
+  /**
+   * Empties the slot {@code hole}, then shifts back the entries after it which may move closer to
+   * their preferred slot, so that lookups don't stop too early.
+   */
+  private void removeSlot(int hole) {
+    int mask = keys.length - 1;
+    for (int i = (hole + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+      if (OpenHashing.canShift(OpenHashing.mix(keys[i]) & mask, hole, i, mask)) {
+        keys[hole] = keys[i];
+        values[hole] = values[i];
+        hole = i;
+      }
+    }
+    keys[hole] = 0;
+    values[hole] = 0;
+  }
+
+  /**
+   * Removes all of the entries from this map. Its capacity is unchanged.
+   */
+  public void clear() {
+    if (size > 0) {
+      Arrays.fill(keys, 0);
+      Arrays.fill(values, 0);
+      containsZeroKey = false;
+      zeroValue = 0;
+      size = 0;
+      modCount++;
+    }
+  }
+
+  private void rehash(int newCapacity) {
+    int[] oldKeys = keys;
+    int[] oldValues = values;
+    int[] newKeys = new int[newCapacity];
+    int[] newValues = new int[newCapacity];
+    int mask = newCapacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      int key = oldKeys[j];
+      if (key != 0) {
+        int i = OpenHashing.mix(key) & mask;
+        while (newKeys[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        newKeys[i] = key;
+        newValues[i] = oldValues[j];
+      }
+    }
+    keys = newKeys;
+    values = newValues;
+  }
+
+  /**
+   * Returns a new cursor over the entries of this map, positioned before the first entry.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * A cursor over the entries of an {@link IntIntHashMap}, which doesn't box them. Advance the
+   * cursor with {@link #next} before reading each entry:
+   *
+   * <pre>   {@code
+   *
+   *   IntIntHashMap.Cursor cursor = map.cursor();
+   *   while (cursor.next()) {
+   *     total += cursor.value();
+   *   }}</pre>
+   *
+   * The cursor fails fast with a {@link ConcurrentModificationException} if the map is modified
+   * other than through the cursor.
+   */
+  /*
+   * The cursor visits the slots in order, starting after an empty slot, so that no cluster of
+   * entries wraps around the end of the iteration. Removing an entry then only shifts back
+   * entries the cursor hasn't visited yet, and the cursor revisits the slot it removed from.
+   */
+  public final class Cursor {
+    private final int start;
+    private int offset; // the offset from start of the next slot to visit
+    private int remaining = size;
+    private int expectedModCount = modCount;
+    private boolean zeroNext = containsZeroKey;
+    private int slot = -1; // the slot of the current entry, or -1 for the zero key
+    private boolean positioned;
+
+    Cursor() {
+      int i = 0;
+      while (keys[i] != 0) {
+        i++;
+      }
+      start = i + 1;
+    }
+
+    /**
+     * Advances this cursor to the next entry, and returns whether there was one.
+     */
+    public boolean next() {
+      checkForComodification();
+      if (remaining == 0) {
+        positioned = false;
+        return false;
+      }
+      remaining--;
+      positioned = true;
+      if (zeroNext) {
+        zeroNext = false;
+        slot = -1;
+        return true;
+      }
+      int mask = keys.length - 1;
+      do {
+        slot = (start + offset++) & mask;
+      } while (keys[slot] == 0);
+      return true;
+    }
+
+    /**
+     * Returns the key of the current entry.
+     *
+     * @throws IllegalStateException if the cursor isn't positioned on an entry
+     */
+    public int key() {
+      checkPositioned();
+      return (slot < 0) ? 0 : keys[slot];
+    }
+
+    /**
+     * Returns the value of the current entry.
+     *
+     * @throws IllegalStateException if the cursor isn't positioned on an entry
+     */
+    public int value() {
+      checkPositioned();
+      return (slot < 0) ? zeroValue : values[slot];
+    }
+
+    /**
+     * Replaces the value of the current entry with {@code value}, and returns the value it
+     * replaced.
+     *
+     * @throws IllegalStateException if the cursor isn't positioned on an entry
+     */
+    public int setValue(int value) {
+      checkPositioned();
+      int oldValue;
+      if (slot < 0) {
+        oldValue = zeroValue;
+        zeroValue = value;
+      } else {
+        oldValue = values[slot];
+        values[slot] = value;
+      }
+      return oldValue;
+    }
+
+    /**
+     * Removes the current entry from the map. The cursor is then positioned before the next
+     * entry.
+     *
+     * @throws IllegalStateException if the cursor isn't positioned on an entry
+     */
+    public void remove() {
+      checkPositioned();
+      positioned = false;
+      if (slot < 0) {
+        containsZeroKey = false;
+        zeroValue = 0;
+      } else {
+        offset--;
+        removeSlot(slot);
+      }
+      size--;
+      expectedModCount = ++modCount;
+    }
+
+    private void checkPositioned() {
+      checkForComodification();
+      checkState(positioned, "cursor is not positioned on an entry");
+    }
+
+    private void checkForComodification() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+  }
+
+  /**
+   * Returns an iterator over the keys of this map, which doesn't box them. The iterator supports
+   * {@link IntIterator#remove}.
+   */
+  public IntIterator keyIterator() {
+    final Cursor cursor = cursor();
+    return new IntIterator() {
+      int remaining = size;
+
+      @Override public boolean hasNext() {
+        return remaining > 0;
+      }
+
+      @Override public int next() {
+        if (!cursor.next()) {
+          throw new NoSuchElementException();
+        }
+        remaining--;
+        return cursor.key();
+      }
+
+      @Override public void remove() {
+        cursor.remove();
+      }
+    };
+  }
+
+  /**
+   * Returns a view of this map as a {@code Map<Integer, Integer>}, which reads and writes through
+   * to this map. The view supports all of the optional {@code Map} operations, but not null keys
+   * or values. Its keys and values are boxed on each access.
+   */
+  public Map<Integer, Integer> asMap() {
+    return new AsMap(this);
+  }
+
+  private static final class AsMap extends AbstractMap<Integer, Integer> {
+    final IntIntHashMap map;
+
+    AsMap(IntIntHashMap map) {
+      this.map = map;
+    }
+
+    @Override public int size() {
+      return map.size;
+    }
+
+    @Override public boolean containsKey(@Nullable Object key) {
+      return (key instanceof Integer) && map.containsKey((Integer) key);
+    }
+
+    @Override public Integer get(@Nullable Object key) {
+      if (key instanceof Integer) {
+        int k = (Integer) key;
+        if (map.containsKey(k)) {
+          return map.get(k, 0);
+        }
+      }
+      return null;
+    }
+
+    @Override public Integer put(Integer key, Integer value) {
+      int k = checkNotNull(key);
+      int v = checkNotNull(value);
+      Integer oldValue = get(key);
+      map.put(k, v);
+      return oldValue;
+    }
+
+    @Override public Integer remove(@Nullable Object key) {
+      Integer oldValue = get(key);
+      if (oldValue != null) {
+        map.remove((Integer) key);
+      }
+      return oldValue;
+    }
+
+    @Override public void clear() {
+      map.clear();
+    }
+
+    @Override public Set<Entry<Integer, Integer>> entrySet() {
+      return new AbstractSet<Entry<Integer, Integer>>() {
+        @Override public int size() {
+          return map.size;
+        }
+
+        @Override public boolean contains(@Nullable Object object) {
+          if (object instanceof Entry) {
+            Entry<?, ?> entry = (Entry<?, ?>) object;
+            Object value = entry.getValue();
+            return value != null && value.equals(get(entry.getKey()));
+          }
+          return false;
+        }
+
+        @Override public boolean remove(@Nullable Object object) {
+          if (contains(object)) {
+            map.remove((Integer) ((Entry<?, ?>) object).getKey());
+            return true;
+          }
+          return false;
+        }
+
+        @Override public void clear() {
+          map.clear();
+        }
+
+        @Override public Iterator<Entry<Integer, Integer>> iterator() {
+          final Cursor cursor = map.cursor();
+          return new Iterator<Entry<Integer, Integer>>() {
+            int remaining = map.size;
+
+            @Override public boolean hasNext() {
+              return remaining > 0;
+            }
+
+            @Override public Entry<Integer, Integer> next() {
+              if (!cursor.next()) {
+                throw new NoSuchElementException();
+              }
+              remaining--;
+              return new AsMapEntry(map, cursor.key(), cursor.value());
+            }
+
+            @Override public void remove() {
+              cursor.remove();
+            }
+          };
+        }
+      };
+    }
+  }
+
+  /**
+   * An entry of the {@link #asMap} view, which writes its value through to the map.
+   */
+  private static final class AsMapEntry implements Entry<Integer, Integer> {
+    final IntIntHashMap map;
+    final int key;
+    int value;
+
+    AsMapEntry(IntIntHashMap map, int key, int value) {
+      this.map = map;
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override public Integer getKey() {
+      return key;
+    }
+
+    @Override public Integer getValue() {
+      return value;
+    }
+
+    @Override public Integer setValue(Integer value) {
+      int v = checkNotNull(value);
+      Integer oldValue = this.value;
+      map.put(key, v); // not a structural modification, as the key is already mapped
+      this.value = v;
+      return oldValue;
+    }
+
+    @Override public boolean equals(@Nullable Object object) {
+      if (object instanceof Entry) {
+        Entry<?, ?> that = (Entry<?, ?>) object;
+        return getKey().equals(that.getKey()) && getValue().equals(that.getValue());
+      }
+      return false;
+    }
+
+    @Override public int hashCode() {
+      return key ^ value;
+    }
+
+    @Override public String toString() {
+      return key + "=" + value;
+    }
+  }
+
+  /**
+   * Returns whether {@code object} is an {@code IntIntHashMap} with the same entries. An {@code
+   * IntIntHashMap} is never equal to a {@link Map}; compare it with its {@link #asMap} view
+   * instead.
+   */
+  @Override public boolean equals(@Nullable Object object) {
+    if (object == this) {
+      return true;
+    }
+    if (!(object instanceof IntIntHashMap)) {
+      return false;
+    }
+    IntIntHashMap that = (IntIntHashMap) object;
+    if (size != that.size) {
+      return false;
+    }
+    for (Cursor cursor = cursor(); cursor.next(); ) {
+      int key = cursor.key();
+      if (!that.containsKey(key) || that.get(key, 0) != cursor.value()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a hash code for this map, equal to the hash code of its {@link #asMap} view.
+   */
+  @Override public int hashCode() {
+    int result = 0;
+    for (Cursor cursor = cursor(); cursor.next(); ) {
+      result += cursor.key() ^ cursor.value();
+    }
+    return result;
+  }
+
+  @Override public String toString() {
+    StringBuilder builder = new StringBuilder(size * 8).append('{');
+    boolean first = true;
+    for (Cursor cursor = cursor(); cursor.next(); ) {
+      if (!first) {
+        builder.append(", ");
+      }
+      first = false;
+      builder.append(cursor.key()).append('=').append(cursor.value());
+    }
+    return builder.append('}').toString();
+  }
+}
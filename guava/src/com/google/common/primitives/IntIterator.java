@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.primitives;
+
+import com.google.common.annotations.Beta;
+
+import java.util.NoSuchElementException;
+
+/**
+ * An iterator over {@code int} values, which doesn't box them.
+ *
+ * @since 12.0
+ */
+@Beta
+public interface IntIterator {
+  /**
+   * Returns whether the iteration has more values.
+   */
+  boolean hasNext();
+
+  /**
+   * Returns the next value in the iteration.
+   *
+   * @throws NoSuchElementException if the iteration has no more values
+   */
+  int next();
+
+  /**
+   * Removes the value last returned by {@link #next} from the underlying collection.
+   *
+   * @throws IllegalStateException if {@code next} wasn't called, or {@code remove} was already
+   *     called after the last call to {@code next}
+   */
+  void remove();
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.primitives;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndex;
+
+import com.google.common.annotations.Beta;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import javax.annotation.Nullable;
+
+/**
+ * A growable list of {@code long} values, backed by an array. Unlike a {@code
+ * List<Long>}, it stores its values unboxed, so it takes {@value Longs#BYTES} bytes per
+ * value once trimmed to size, and reading or adding a value doesn't allocate.
+ *
+ * <p>The list is not a {@link List}; use {@link #asList} for a {@code List<Long>} view of
+ * it. Iterate over the values by index, with {@link #size} and {@link #get}. This class is not
+ * thread-safe.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class LongArrayList {
+  private static final long[] EMPTY_ARRAY = new long[0];
+  private static final int DEFAULT_CAPACITY = 10;
+
+  private long[] array;
+  private int size;
+
+  private LongArrayList(long[] array, int size) {
+    this.array = array;
+    this.size = size;
+  }
+
+  /**
+   * Creates a new, empty list.
+   */
+  public static LongArrayList create() {
+    return new LongArrayList(EMPTY_ARRAY, 0);
+  }
+
+  /**
+   * Creates a new, empty list with room for {@code expectedSize} values before it has to grow.
+   *
+   * @throws IllegalArgumentException if {@code expectedSize} is negative
+   */
+  public static LongArrayList withExpectedSize(int expectedSize) {
+    checkArgument(expectedSize >= 0, "expectedSize cannot be negative: %s", expectedSize);
+    return new LongArrayList(new long[expectedSize], 0);
+  }
+
+  /**
+   * Creates a new list containing {@code values}, in order.
+   */
+  public static LongArrayList of(long... values) {
+    return new LongArrayList(values.clone(), values.length);
+  }
+
+  /**
+   * Returns the number of values in this list.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns whether this list contains no values.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the value at {@code index}.
+   *
+   * @throws IndexOutOfBoundsException if {@code index} is negative or not less than the size
+   */
+  public long get(int index) {
+    checkElementIndex(index, size);
+    return array[index];
+  }
+
+  /**
+   * Replaces the value at {@code index} with {@code value}, and returns the value it replaced.
+   *
+   * @throws IndexOutOfBoundsException if {@code index} is negative or not less than the size
+   */
+  public long set(int index, long value) {
+    checkElementIndex(index, size);
+    long oldValue = array[index];
+    array[index] = value;
+    return oldValue;
+  }
+
+  /**
+   * Appends {@code value} to the end of this list.
+   */
+  public void add(long value) {
+    if (size == array.length) {
+      grow(size + 1);
+    }
+    array[size++] = value;
+  }
+
+  /**
+   * Inserts {@code value} at {@code index}, shifting the values from {@code index} on to the
+   * right.
+   *
+   * @throws IndexOutOfBoundsException if {@code index} is negative or greater than the size
+   */
+  public void add(int index, long value) {
+    checkPositionIndex(index, size);
+    if (size == array.length) {
+      grow(size + 1);
+    }
+    System.arraycopy(array, index, array, index + 1, size - index);
+    array[index] = value;
+    size++;
+  }
+
+  /**
+   * Appends {@code values} to the end of this list, in order.
+   */
+  public void addAll(long... values) {
+    addAll(values, values.length);
+  }
+
+  /**
+   * Appends the values of {@code other} to the end of this list, in order.
+   */
+  public void addAll(LongArrayList other) {
+    addAll(other.array, other.size);
+  }
+
+  private void addAll(long[] values, int length) {
+    ensureCapacity(size + length);
+    System.arraycopy(values, 0, array, size, length);
+    size += length;
+  }
+
+  /**
+   * Removes the value at {@code index}, shifting the values after it to the left, and returns
+   * it.
+   *
+   * @throws IndexOutOfBoundsException if {@code index} is negative or not less than the size
+   */
+  public long removeAt(int index) {
+    checkElementIndex(index, size);
+    long value = array[index];
+    System.arraycopy(array, index + 1, array, index, size - index - 1);
+    size--;
+    return value;
+  }
+
+  /**
+   * Removes all of the values from this list. Its capacity is unchanged.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Returns whether this list contains {@code target}.
+   */
+  public boolean contains(long target) {
+    return indexOf(target) >= 0;
+  }
+
+  /**
+   * Returns the index of the first occurrence of {@code target} in this list, or -1 if there is
+   * none.
+   */
+  public int indexOf(long target) {
+    for (int i = 0; i < size; i++) {
+      if (array[i] == target) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the index of the last occurrence of {@code target} in this list, or -1 if there is
+   * none.
+   */
+  public int lastIndexOf(long target) {
+    for (int i = size - 1; i >= 0; i--) {
+      if (array[i] == target) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Sorts the values of this list in ascending numerical order.
+   */
+  public void sort() {
+    Arrays.sort(array, 0, size);
+  }
+
+  /**
+   * Returns a new array containing the values of this list, in order.
+   */
+  public long[] toArray() {
+    long[] result = new long[size];
+    System.arraycopy(array, 0, result, 0, size);
+    return result;
+  }
+
+  /**
+   * Makes sure that this list can hold {@code minCapacity} values without growing.
+   */
+  public void ensureCapacity(int minCapacity) {
+    if (minCapacity > array.length) {
+      grow(minCapacity);
+    }
+  }
+
+  /**
+   * Shrinks the backing array of this list to its size.
+   */
+  public void trimToSize() {
+    if (size < array.length) {
+      array = (size == 0) ? EMPTY_ARRAY : toArray();
+    }
+  }
+
+  private void grow(int minCapacity) {
+    if (minCapacity < 0) {
+      throw new OutOfMemoryError();
+    }
+    int newCapacity = Math.max(array.length + (array.length >> 1), DEFAULT_CAPACITY);
+    if (newCapacity < minCapacity || newCapacity < 0) {
+      newCapacity = minCapacity;
+    }
+    long[] newArray = new long[newCapacity];
+    System.arraycopy(array, 0, newArray, 0, size);
+    array = newArray;
+  }
+
+  /**
+   * Returns a view of this list as a {@code List<Long>}, which reads and writes through to
+   * this list. The view supports all of the optional {@code List} operations, but not null
+   * elements. Its values are boxed on each access.
+   */
+  public List<Long> asList() {
+    return new AsList(this);
+  }
+
+  private static final class AsList extends AbstractList<Long> implements RandomAccess {
+    final LongArrayList list;
+
+    AsList(LongArrayList list) {
+      this.list = list;
+    }
+
+    @Override public int size() {
+      return list.size;
+    }
+
+    @Override public Long get(int index) {
+      return list.get(index);
+    }
+
+    @Override public Long set(int index, Long element) {
+      return list.set(index, checkNotNull(element));
+    }
+
+    @Override public void add(int index, Long element) {
+      list.add(index, checkNotNull(element));
+      modCount++;
+    }
+
+    @Override public Long remove(int index) {
+      Long value = list.removeAt(index);
+      modCount++;
+      return value;
+    }
+
+    @Override public void clear() {
+      list.clear();
+      modCount++;
+    }
+
+    @Override public boolean contains(@Nullable Object target) {
+      // Overridden to prevent a ton of boxing
+      return (target instanceof Long) && list.contains((Long) target);
+    }
+
+    @Override public int indexOf(@Nullable Object target) {
+      // Overridden to prevent a ton of boxing
+      return (target instanceof Long) ? list.indexOf((Long) target) : -1;
+    }
+
+    @Override public int lastIndexOf(@Nullable Object target) {
+      // Overridden to prevent a ton of boxing
+      return (target instanceof Long) ? list.lastIndexOf((Long) target) : -1;
+    }
+  }
+
+  /**
+   * Returns whether {@code object} is a {@code LongArrayList} with the same values, in the
+   * same order. A {@code LongArrayList} is never equal to a {@link List}; compare it with its
+   * {@link #asList} view instead.
+   */
+  @Override public boolean equals(@Nullable Object object) {
+    if (object == this) {
+      return true;
+    }
+    if (!(object instanceof LongArrayList)) {
+      return false;
+    }
+    LongArrayList that = (LongArrayList) object;
+    if (size != that.size) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (array[i] != that.array[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a hash code for this list, equal to the hash code of its {@link #asList} view.
+   */
+  @Override public int hashCode() {
+    int result = 1;
+    for (int i = 0; i < size; i++) {
+      result = 31 * result + Longs.hashCode(array[i]);
+    }
+    return result;
+  }
+
+  @Override public String toString() {
+    if (size == 0) {
+      return "[]";
+    }
+    StringBuilder builder = new StringBuilder(size * 5);
+    builder.append('[').append(array[0]);
+    for (int i = 1; i < size; i++) {
+      builder.append(", ").append(array[i]);
+    }
+    return builder.append(']').toString();
+  }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.primitives;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.annotations.Beta;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * A hash set of {@code long} values, stored unboxed in an open-addressing table with linear
+ * probing. It takes between 4/3 and 8/3 times {@value Longs#BYTES} bytes per value, much less
+ * than a {@code HashSet<Long>}, and adding, removing or looking up a value doesn't
+ * allocate.
+ *
+ * <p>The set is not a {@link Set}; use {@link #asSet} for a {@code Set<Long>} view of it.
+ * Its values are iterated in no particular order. This class is not thread-safe.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class LongHashSet {
+  // zero marks the empty slots, so it is held out of the table
+  private long[] table;
+  private boolean containsZero;
+  private int size;
+  private int modCount;
+
+  private LongHashSet(int capacity) {
+    this.table = new long[capacity];
+  }
+
+  /**
+   * Creates a new, empty set.
+   */
+  public static LongHashSet create() {
+    return new LongHashSet(OpenHashing.MINIMUM_CAPACITY);
+  }
+
+  /**
+   * Creates a new, empty set with room for {@code expectedSize} values before it has to grow.
+   *
+   * @throws IllegalArgumentException if {@code expectedSize} is negative
+   */
+  public static LongHashSet withExpectedSize(int expectedSize) {
+    return new LongHashSet(OpenHashing.capacityFor(expectedSize));
+  }
+
+  /**
+   * Creates a new set containing {@code values}.
+   */
+  public static LongHashSet of(long... values) {
+    LongHashSet set = withExpectedSize(values.length);
+    set.addAll(values);
+    return set;
+  }
+
+  /**
+   * Returns the number of values in this set.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns whether this set contains no values.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns whether this set contains {@code value}.
+   */
+  public boolean contains(long value) {
+    if (value == 0) {
+      return containsZero;
+    }
+    long[] table = this.table;
+    int mask = table.length - 1;
+    for (int i = OpenHashing.mix(value) & mask; table[i] != 0; i = (i + 1) & mask) {
+      if (table[i] == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds {@code value} to this set, and returns whether it wasn't already there.
+   */
+  public boolean add(long value) {
+    if (value == 0) {
+      if (containsZero) {
+        return false;
+      }
+      containsZero = true;
+    } else {
+      int mask = table.length - 1;
+      int i = OpenHashing.mix(value) & mask;
+      for (; table[i] != 0; i = (i + 1) & mask) {
+        if (table[i] == value) {
+          return false;
+        }
+      }
+      table[i] = value;
+    }
+    modCount++;
+    if (++size > OpenHashing.maxSize(table.length)) {
+      rehash(OpenHashing.grow(table.length));
+    }
+    return true;
+  }
+
+  /**
+   * Adds each of {@code values} to this set.
+   */
+  public void addAll(long... values) {
+    for (long value : values) {
+      add(value);
+    }
+  }
+
+  /**
+   * Removes {@code value} from this set, and returns whether it was there.
+   */
+  public boolean remove(long value) {
+    if (value == 0) {
+      if (!containsZero) {
+        return false;
+      }
+      containsZero = false;
+    } else {
+      int mask = table.length - 1;
+      int i = OpenHashing.mix(value) & mask;
+      for (; table[i] != value; i = (i + 1) & mask) {
+        if (table[i] == 0) {
+          return false;
+        }
+      }
+      removeSlot(i);
+    }
+    modCount++;
+    size--;
+    return true;
+  }
+
+  /**
+   * Empties the slot {@code hole}, then shifts back the values after it which may move closer to
+   * their preferred slot, so that lookups don't stop too early.
+   */
+  private void removeSlot(int hole) {
+    int mask = table.length - 1;
+    for (int i = (hole + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+      if (OpenHashing.canShift(OpenHashing.mix(table[i]) & mask, hole, i, mask)) {
+        table[hole] = table[i];
+        hole = i;
+      }
+    }
+    table[hole] = 0;
+  }
+
+  /**
+   * Removes all of the values from this set. Its capacity is unchanged.
+   */
+  public void clear() {
+    if (size > 0) {
+      Arrays.fill(table, 0L);
+      containsZero = false;
+      size = 0;
+      modCount++;
+    }
+  }
+
+  private void rehash(int newCapacity) {
+    long[] oldTable = table;
+    long[] newTable = new long[newCapacity];
+    int mask = newCapacity - 1;
+    for (long value : oldTable) {
+      if (value != 0) {
+        int i = OpenHashing.mix(value) & mask;
+        while (newTable[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        newTable[i] = value;
+      }
+    }
+    table = newTable;
+  }
+
+  /**
+   * Returns a new array containing the values of this set, in no particular order.
+   */
+  public long[] toArray() {
+    long[] result = new long[size];
+    int n = 0;
+    if (containsZero) {
+      n++; // result[0] is already zero
+    }
+    for (long value : table) {
+      if (value != 0) {
+        result[n++] = value;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns an iterator over the values of this set, which doesn't box them. The iterator
+   * supports {@link LongIterator#remove}, and fails fast with a {@link
+   * ConcurrentModificationException} if the set is otherwise modified.
+   */
+  public LongIterator iterator() {
+    return new Itr();
+  }
+
+  /*
+   * The iterator visits the slots in order, starting after an empty slot, so that no cluster of
+   * values wraps around the end of the iteration. Removing a value then only shifts back values
+   * the iterator hasn't visited yet, and the iterator revisits the slot it removed from.
+   */
+  private final class Itr implements LongIterator {
+    final int start;
+    int offset; // the offset from start of the next slot to visit
+    int remaining = size;
+    int expectedModCount = modCount;
+    boolean zeroNext = containsZero;
+    boolean canRemove;
+    boolean lastWasZero;
+
+    Itr() {
+      int i = 0;
+      while (table[i] != 0) {
+        i++;
+      }
+      start = i + 1;
+    }
+
+    @Override public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    @Override public long next() {
+      checkForComodification();
+      if (remaining == 0) {
+        throw new NoSuchElementException();
+      }
+      remaining--;
+      canRemove = true;
+      if (zeroNext) {
+        zeroNext = false;
+        lastWasZero = true;
+        return 0;
+      }
+      lastWasZero = false;
+      int mask = table.length - 1;
+      while (true) {
+        long value = table[(start + offset++) & mask];
+        if (value != 0) {
+          return value;
+        }
+      }
+    }
+
+    @Override public void remove() {
+      checkForComodification();
+      checkState(canRemove, "no calls to next() since the last call to remove()");
+      canRemove = false;
+      if (lastWasZero) {
+        containsZero = false;
+      } else {
+        offset--;
+        removeSlot((start + offset) & (table.length - 1));
+      }
+      size--;
+      expectedModCount = ++modCount;
+    }
+
+    void checkForComodification() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+  }
+
+  /**
+   * Returns a view of this set as a {@code Set<Long>}, which reads and writes through to
+   * this set. The view supports all of the optional {@code Set} operations, but not null
+   * elements. Its values are boxed on each access.
+   */
+  public Set<Long> asSet() {
+    return new AsSet(this);
+  }
+
+  private static final class AsSet extends AbstractSet<Long> {
+    final LongHashSet set;
+
+    AsSet(LongHashSet set) {
+      this.set = set;
+    }
+
+    @Override public int size() {
+      return set.size;
+    }
+
+    @Override public boolean contains(@Nullable Object object) {
+      return (object instanceof Long) && set.contains((Long) object);
+    }
+
+    @Override public boolean add(Long value) {
+      return set.add(checkNotNull(value));
+    }
+
+    @Override public boolean remove(@Nullable Object object) {
+      return (object instanceof Long) && set.remove((Long) object);
+    }
+
+    @Override public void clear() {
+      set.clear();
+    }
+
+    @Override public Iterator<Long> iterator() {
+      final LongIterator iterator = set.iterator();
+      return new Iterator<Long>() {
+        @Override public boolean hasNext() {
+          return iterator.hasNext();
+        }
+
+        @Override public Long next() {
+          return iterator.next();
+        }
+
+        @Override public void remove() {
+          iterator.remove();
+        }
+      };
+    }
+  }
+
+  /**
+   * Returns whether {@code object} is a {@code LongHashSet} with the same values. A {@code
+   * LongHashSet} is never equal to a {@link Set}; compare it with its {@link #asSet} view
+   * instead.
+   */
+  @Override public boolean equals(@Nullable Object object) {
+    if (object == this) {
+      return true;
+    }
+    if (!(object instanceof LongHashSet)) {
+      return false;
+    }
+    LongHashSet that = (LongHashSet) object;
+    if (size != that.size || containsZero != that.containsZero) {
+      return false;
+    }
+    for (long value : table) {
+      if (value != 0 && !that.contains(value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a hash code for this set, equal to the hash code of its {@link #asSet} view.
+   */
+  @Override public int hashCode() {
+    int result = 0;
+    for (long value : table) {
+      result += Longs.hashCode(value); // zero hashes to zero
+    }
+    return result;
+  }
+
+  @Override public String toString() {
+    StringBuilder builder = new StringBuilder(size * 5).append('[');
+    boolean first = true;
+    for (LongIterator iterator = iterator(); iterator.hasNext(); ) {
+      if (!first) {
+        builder.append(", ");
+      }
+      first = false;
+      builder.append(iterator.next());
+    }
+    return builder.append(']').toString();
+  }
+}
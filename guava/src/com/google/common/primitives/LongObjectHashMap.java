@@ -0,0 +1,560 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.primitives;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.annotations.Beta;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * A hash map from {@code long} keys to non-null values, with its keys stored unboxed in an
+ * open-addressing table with linear probing. It takes between 16 and 32 bytes per entry (with
+ * compressed references), much less than a {@code HashMap<Long, V>}, and adding, removing or
+ * looking up an entry doesn't allocate.
+ *
+ * <p>The map is not a {@link Map}; use {@link #asMap} for a {@code Map<Long, V>} view of it.
+ * Iterate over its entries with a {@link #cursor}, which doesn't box the keys. Entries are
+ * iterated in no particular order. This class is not thread-safe.
+ *
+ * @since 12.0
+ */
+@Beta
+public final class LongObjectHashMap<V> {
+  // null marks the empty slots, so the entry with key zero may be held in the table
+  private long[] keys;
+  private Object[] values;
+  private int size;
+  private int modCount;
+
+  private LongObjectHashMap(int capacity) {
+    this.keys = new long[capacity];
+    this.values = new Object[capacity];
+  }
+
+  /**
+   * Creates a new, empty map.
+   */
+  public static <V> LongObjectHashMap<V> create() {
+    return new LongObjectHashMap<V>(OpenHashing.MINIMUM_CAPACITY);
+  }
+
+  /**
+   * Creates a new, empty map with room for {@code expectedSize} entries before it has to grow.
+   *
+   * @throws IllegalArgumentException if {@code expectedSize} is negative
+   */
+  public static <V> LongObjectHashMap<V> withExpectedSize(int expectedSize) {
+    return new LongObjectHashMap<V>(OpenHashing.capacityFor(expectedSize));
+  }
+
+  /**
+   * Returns the number of entries in this map.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns whether this map contains no entries.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the slot holding {@code key}, or -1 if it isn't in the table.
+   */
+  private int slotOf(long key) {
+    long[] keys = this.keys;
+    Object[] values = this.values;
+    int mask = keys.length - 1;
+    for (int i = OpenHashing.mix(key) & mask; values[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns whether this map contains an entry for {@code key}.
+   */
+  public boolean containsKey(long key) {
+    return slotOf(key) >= 0;
+  }
+
+  /**
+   * Returns the value for {@code key}, or null if this map has no entry for it.
+   */
+  @Nullable
+  public V get(long key) {
+    int i = slotOf(key);
+    return (i < 0) ? null : valueAt(i);
+  }
+
+  @SuppressWarnings("unchecked") // only values of type V are stored
+  private V valueAt(int slot) {
+    return (V) values[slot];
+  }
+
+  /**
+   * Associates {@code value} with {@code key}, and returns the value it replaced, or null if this
+   * map had no entry for {@code key}.
+   *
+   * @throws NullPointerException if {@code value} is null
+   */
+  @Nullable
+  public V put(long key, V value) {
+    checkNotNull(value);
+    int mask = keys.length - 1;
+    int i = OpenHashing.mix(key) & mask;
+    for (; values[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        V oldValue = valueAt(i);
+        values[i] = value;
+        return oldValue;
+      }
+    }
+    keys[i] = key;
+    values[i] = value;
+    modCount++;
+    if (++size > OpenHashing.maxSize(keys.length)) {
+      rehash(OpenHashing.grow(keys.length));
+    }
+    return null;
+  }
+
+  /**
+   * Removes the entry for {@code key} from this map, and returns its value, or null if there was
+   * no entry for {@code key}.
+   */
+  @Nullable
+  public V remove(long key) {
+    int i = slotOf(key);
+    if (i < 0) {
+      return null;
+    }
+    V oldValue = valueAt(i);
+    removeSlot(i);
+    modCount++;
+    size--;
+    return oldValue;
+  }
+
+  /**
+   * Empties the slot {@code hole}, then shifts back the entries after it which may move closer to
+   * their preferred slot, so that lookups don't stop too early.
+   */
+  private void removeSlot(int hole) {
+    int mask = keys.length - 1;
+    for (int i = (hole + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+      if (OpenHashing.canShift(OpenHashing.mix(keys[i]) & mask, hole, i, mask)) {
+        keys[hole] = keys[i];
+        values[hole] = values[i];
+        hole = i;
+      }
+    }
+    keys[hole] = 0;
+    values[hole] = null;
+  }
+
+  /**
+   * Removes all of the entries from this map. Its capacity is unchanged.
+   */
+  public void clear() {
+    if (size > 0) {
+      Arrays.fill(keys, 0);
+      Arrays.fill(values, null);
+      size = 0;
+      modCount++;
+    }
+  }
+
+  private void rehash(int newCapacity) {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    long[] newKeys = new long[newCapacity];
+    Object[] newValues = new Object[newCapacity];
+    int mask = newCapacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      Object value = oldValues[j];
+      if (value != null) {
+        long key = oldKeys[j];
+        int i = OpenHashing.mix(key) & mask;
+        while (newValues[i] != null) {
+          i = (i + 1) & mask;
+        }
+        newKeys[i] = key;
+        newValues[i] = value;
+      }
+    }
+    keys = newKeys;
+    values = newValues;
+  }
+
+  /**
+   * Returns a new cursor over the entries of this map, positioned before the first entry.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * A cursor over the entries of a {@link LongObjectHashMap}, which doesn't box their keys.
+   * Advance the cursor with {@link #next} before reading each entry:
+   *
+   * <pre>   {@code
+   *
+   *   LongObjectHashMap<String>.Cursor cursor = map.cursor();
+   *   while (cursor.next()) {
+   *     process(cursor.key(), cursor.value());
+   *   }}</pre>
+   *
+   * The cursor fails fast with a {@link ConcurrentModificationException} if the map is modified
+   * other than through the cursor.
+   */
+  /*
+   * The cursor visits the slots in order, starting after an empty slot, so that no cluster of
+   * entries wraps around the end of the iteration. Removing an entry then only shifts back
+   * entries the cursor hasn't visited yet, and the cursor revisits the slot it removed from.
+   */
+  public final class Cursor {
+    private final int start;
+    private int offset; // the offset from start of the next slot to visit
+    private int remaining = size;
+    private int expectedModCount = modCount;
+    private int slot = -1; // the slot of the current entry, or -1 if not positioned
+
+    Cursor() {
+      int i = 0;
+      while (values[i] != null) {
+        i++;
+      }
+      start = i + 1;
+    }
+
+    /**
+     * Advances this cursor to the next entry, and returns whether there was one.
+     */
+    public boolean next() {
+      checkForComodification();
+      if (remaining == 0) {
+        slot = -1;
+        return false;
+      }
+      remaining--;
+      int mask = keys.length - 1;
+      do {
+        slot = (start + offset++) & mask;
+      } while (values[slot] == null);
+      return true;
+    }
+
+    /**
+     * Returns the key of the current entry.
+     *
+     * @throws IllegalStateException if the cursor isn't positioned on an entry
+     */
+    public long key() {
+      checkPositioned();
+      return keys[slot];
+    }
+
+    /**
+     * Returns the value of the current entry.
+     *
+     * @throws IllegalStateException if the cursor isn't positioned on an entry
+     */
+    public V value() {
+      checkPositioned();
+      return valueAt(slot);
+    }
+
+    /**
+     * Replaces the value of the current entry with {@code value}, and returns the value it
+     * replaced.
+     *
+     * @throws IllegalStateException if the cursor isn't positioned on an entry
+     * @throws NullPointerException if {@code value} is null
+     */
+    public V setValue(V value) {
+      checkNotNull(value);
+      checkPositioned();
+      V oldValue = valueAt(slot);
+      values[slot] = value;
+      return oldValue;
+    }
+
+    /**
+     * Removes the current entry from the map. The cursor is then positioned before the next
+     * entry.
+     *
+     * @throws IllegalStateException if the cursor isn't positioned on an entry
+     */
+    public void remove() {
+      checkPositioned();
+      offset--;
+      removeSlot(slot);
+      slot = -1;
+      size--;
+      expectedModCount = ++modCount;
+    }
+
+    private void checkPositioned() {
+      checkForComodification();
+      checkState(slot >= 0, "cursor is not positioned on an entry");
+    }
+
+    private void checkForComodification() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+  }
+
+  /**
+   * Returns an iterator over the keys of this map, which doesn't box them. The iterator supports
+   * {@link LongIterator#remove}.
+   */
+  public LongIterator keyIterator() {
+    final Cursor cursor = cursor();
+    return new LongIterator() {
+      int remaining = size;
+
+      @Override public boolean hasNext() {
+        return remaining > 0;
+      }
+
+      @Override public long next() {
+        if (!cursor.next()) {
+          throw new NoSuchElementException();
+        }
+        remaining--;
+        return cursor.key();
+      }
+
+      @Override public void remove() {
+        cursor.remove();
+      }
+    };
+  }
+
+  /**
+   * Returns a view of this map as a {@code Map<Long, V>}, which reads and writes through to this
+   * map. The view supports all of the optional {@code Map} operations, but not null keys or
+   * values. Its keys are boxed on each access.
+   */
+  public Map<Long, V> asMap() {
+    return new AsMap<V>(this);
+  }
+
+  private static final class AsMap<V> extends AbstractMap<Long, V> {
+    final LongObjectHashMap<V> map;
+
+    AsMap(LongObjectHashMap<V> map) {
+      this.map = map;
+    }
+
+    @Override public int size() {
+      return map.size;
+    }
+
+    @Override public boolean containsKey(@Nullable Object key) {
+      return (key instanceof Long) && map.containsKey((Long) key);
+    }
+
+    @Override public V get(@Nullable Object key) {
+      return (key instanceof Long) ? map.get((Long) key) : null;
+    }
+
+    @Override public V put(Long key, V value) {
+      return map.put(checkNotNull(key), value);
+    }
+
+    @Override public V remove(@Nullable Object key) {
+      return (key instanceof Long) ? map.remove((Long) key) : null;
+    }
+
+    @Override public void clear() {
+      map.clear();
+    }
+
+    @Override public Set<Entry<Long, V>> entrySet() {
+      return new AbstractSet<Entry<Long, V>>() {
+        @Override public int size() {
+          return map.size;
+        }
+
+        @Override public boolean contains(@Nullable Object object) {
+          if (object instanceof Entry) {
+            Entry<?, ?> entry = (Entry<?, ?>) object;
+            Object value = entry.getValue();
+            return value != null && value.equals(get(entry.getKey()));
+          }
+          return false;
+        }
+
+        @Override public boolean remove(@Nullable Object object) {
+          if (contains(object)) {
+            map.remove((Long) ((Entry<?, ?>) object).getKey());
+            return true;
+          }
+          return false;
+        }
+
+        @Override public void clear() {
+          map.clear();
+        }
+
+        @Override public Iterator<Entry<Long, V>> iterator() {
+          final LongObjectHashMap<V>.Cursor cursor = map.cursor();
+          return new Iterator<Entry<Long, V>>() {
+            int remaining = map.size;
+
+            @Override public boolean hasNext() {
+              return remaining > 0;
+            }
+
+            @Override public Entry<Long, V> next() {
+              if (!cursor.next()) {
+                throw new NoSuchElementException();
+              }
+              remaining--;
+              return new AsMapEntry<V>(map, cursor.key(), cursor.value());
+            }
+
+            @Override public void remove() {
+              cursor.remove();
+            }
+          };
+        }
+      };
+    }
+  }
+
+  /**
+   * An entry of the {@link #asMap} view, which writes its value through to the map.
+   */
+  private static final class AsMapEntry<V> implements Entry<Long, V> {
+    final LongObjectHashMap<V> map;
+    final long key;
+    V value;
+
+    AsMapEntry(LongObjectHashMap<V> map, long key, V value) {
+      this.map = map;
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override public Long getKey() {
+      return key;
+    }
+
+    @Override public V getValue() {
+      return value;
+    }
+
+    @Override public V setValue(V value) {
+      checkNotNull(value);
+      V oldValue = this.value;
+      map.put(key, value); // not a structural modification, as the key is already mapped
+      this.value = value;
+      return oldValue;
+    }
+
+    @Override public boolean equals(@Nullable Object object) {
+      if (object instanceof Entry) {
+        Entry<?, ?> that = (Entry<?, ?>) object;
+        return getKey().equals(that.getKey()) && value.equals(that.getValue());
+      }
+      return false;
+    }
+
+    @Override public int hashCode() {
+      return Longs.hashCode(key) ^ value.hashCode();
+    }
+
+    @Override public String toString() {
+      return key + "=" + value;
+    }
+  }
+
+  /**
+   * Returns whether {@code object} is a {@code LongObjectHashMap} with the same entries. A {@code
+   * LongObjectHashMap} is never equal to a {@link Map}; compare it with its {@link #asMap} view
+   * instead.
+   */
+  @Override public boolean equals(@Nullable Object object) {
+    if (object == this) {
+      return true;
+    }
+    if (!(object instanceof LongObjectHashMap)) {
+      return false;
+    }
+    LongObjectHashMap<?> that = (LongObjectHashMap<?>) object;
+    if (size != that.size) {
+      return false;
+    }
+    for (int i = 0; i < keys.length; i++) {
+      Object value = values[i];
+      if (value != null && !value.equals(that.get(keys[i]))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a hash code for this map, equal to the hash code of its {@link #asMap} view.
+   */
+  @Override public int hashCode() {
+    int result = 0;
+    for (int i = 0; i < keys.length; i++) {
+      Object value = values[i];
+      if (value != null) {
+        result += Longs.hashCode(keys[i]) ^ value.hashCode();
+      }
+    }
+    return result;
+  }
+
+  @Override public String toString() {
+    StringBuilder builder = new StringBuilder(size * 16).append('{');
+    boolean first = true;
+    for (Cursor cursor = cursor(); cursor.next(); ) {
+      if (!first) {
+        builder.append(", ");
+      }
+      first = false;
+      builder.append(cursor.key()).append('=').append(cursor.value());
+    }
+    return builder.append('}').toString();
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2012 The Guava Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.common.primitives;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Hashing and sizing shared by the open-addressing primitive collections. Their tables use linear
+ * probing with backward-shift deletion, and keep the key that marks empty slots (zero) out of
+ * the table, so the table always has an empty slot.
+ */
+final class OpenHashing {
+  private OpenHashing() {}
+
+  static final int MINIMUM_CAPACITY = 4;
+  static final int MAXIMUM_CAPACITY = Ints.MAX_POWER_OF_TWO;
+
+  /** Returns the largest number of keys a table of {@code capacity} slots holds before growing. */
+  static int maxSize(int capacity) {
+    // a load factor of 3/4, leaving at least one empty slot
+    return Math.min(capacity - 1, capacity - capacity / 4);
+  }
+
+  /** Returns the table size needed to hold {@code expectedSize} keys without growing. */
+  static int capacityFor(int expectedSize) {
+    checkArgument(expectedSize >= 0, "expectedSize cannot be negative: %s", expectedSize);
+    int capacity = MINIMUM_CAPACITY;
+    while (maxSize(capacity) < expectedSize) {
+      checkArgument(capacity < MAXIMUM_CAPACITY, "expectedSize too large: %s", expectedSize);
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /** Returns the capacity of a full table of {@code capacity} slots after it grows. */
+  static int grow(int capacity) {
+    if (capacity == MAXIMUM_CAPACITY) {
+      throw new IllegalStateException("table is full");
+    }
+    return capacity << 1;
+  }
+
+  /**
+   * Spreads the bits of {@code key} with a multiplication by the golden ratio, so that keys which
+   * only differ in their high bits, or which are multiples of a power of two, land far apart.
+   */
+  static int mix(int key) {
+    int h = key * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  static int mix(long key) {
+    long h = key * 0x9e3779b97f4a7c15L;
+    return mix((int) (h ^ (h >>> 32)));
+  }
+
+  /**
+   * Returns whether the key in slot {@code slot}, whose preferred slot is {@code home}, may move
+   * to the empty slot {@code hole}, i.e. whether the hole lies cyclically within [home, slot).
+   */
+  static boolean canShift(int home, int hole, int slot, int mask) {
+    return ((slot - home) & mask) >= ((slot - hole) & mask);
+  }
+}
@@ -56,6 +56,16 @@
  *   <li>{@link com.google.common.primitives.UnsignedInteger}
  *   <li>{@link com.google.common.primitives.UnsignedLong}
  * </ul>
+ *
+ * <h3>Collections</h3>
+ * <ul>
+ *   <li>{@link com.google.common.primitives.IntArrayList}
+ *   <li>{@link com.google.common.primitives.LongArrayList}
+ *   <li>{@link com.google.common.primitives.IntHashSet}
+ *   <li>{@link com.google.common.primitives.LongHashSet}
+ *   <li>{@link com.google.common.primitives.IntIntHashMap}
+ *   <li>{@link com.google.common.primitives.LongObjectHashMap}
+ * </ul>
  */
 @ParametersAreNonnullByDefault
 package com.google.common.primitives;